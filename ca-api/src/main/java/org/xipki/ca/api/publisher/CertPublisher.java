@@ -18,6 +18,7 @@
 package org.xipki.ca.api.publisher;
 
 import java.security.cert.X509CRL;
+import java.util.List;
 import java.util.Map;
 
 import org.xipki.audit.AuditServiceRegister;
@@ -78,6 +79,25 @@ public abstract class CertPublisher {
    */
   public abstract boolean certificateAdded(CertificateInfo certInfo);
 
+  /**
+   * Publishes certificates. The default implementation publishes the certificates one by one,
+   * publishers which can handle a batch more efficiently should overwrite this method.
+   *
+   * @param certInfos
+   *          Certificates to be published. Must not be {@code null}.
+   * @return whether all certificates are published. If {@code false}, all certificates
+   *          will be published again.
+   * @since 4.0.1
+   */
+  public boolean certificatesAdded(List<CertificateInfo> certInfos) {
+    for (CertificateInfo certInfo : certInfos) {
+      if (!certificateAdded(certInfo)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Publishes the revocation of a certificate.
    *
@@ -105,6 +125,28 @@ public abstract class CertPublisher {
    */
   public abstract boolean certificateUnrevoked(X509Cert caCert, CertWithDbId cert);
 
+  /**
+   * Publishes the unrevocation of certificates. The default implementation publishes the
+   * unrevocations one by one, publishers which can handle a batch more efficiently should
+   * overwrite this method.
+   *
+   * @param caCert
+   *          CA certificate. Must not be {@code null}.
+   * @param certs
+   *          Target certificates. Must not be {@code null}.
+   * @return whether all unrevocations are published.
+   * @since 4.0.1
+   */
+  public boolean certificatesUnrevoked(X509Cert caCert, List<CertWithDbId> certs) {
+    boolean allSuccessful = true;
+    for (CertWithDbId cert : certs) {
+      if (!certificateUnrevoked(caCert, cert)) {
+        allSuccessful = false;
+      }
+    }
+    return allSuccessful;
+  }
+
   /**
    * Publishes the remove of a certificate.
    *
@@ -127,6 +169,17 @@ public abstract class CertPublisher {
    */
   public abstract boolean crlAdded(X509Cert caCert, X509CRL crl);
 
+  /**
+   * Whether this publisher publishes CRLs. If not, {@link #crlAdded(X509Cert, X509CRL)} will
+   * not be called, and the CRL does not need to be parsed.
+   *
+   * @return whether CRLs are published.
+   * @since 4.0.1
+   */
+  public boolean publishesCrl() {
+    return true;
+  }
+
   /**
    * Publishes the revocation of a CA.
    *
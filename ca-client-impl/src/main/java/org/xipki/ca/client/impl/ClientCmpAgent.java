@@ -588,7 +588,8 @@ abstract class ClientCmpAgent {
       }
 
       X509Certificate cert = sigResponder.getCert();
-      ContentVerifierProvider verifierProvider = securityFactory.getContentVerifierProvider(cert);
+      ContentVerifierProvider verifierProvider =
+          securityFactory.getCachedContentVerifierProvider(cert);
       if (verifierProvider == null) {
         LOG.warn("tid={}: not authorized responder '{}'", tid, header.getSender());
         return new ProtectionVerificationResult(cert, ProtectionResult.SENDER_NOT_AUTHORIZED);
@@ -43,7 +43,6 @@ import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.X509Util;
-import org.xipki.util.Base64;
 import org.xipki.util.ParamUtil;
 import org.xipki.util.StringUtil;
 
@@ -75,6 +74,8 @@ class RefDigestReader {
 
   private int caId;
 
+  private boolean binaryCert;
+
   private ExecutorService executor;
 
   private Retriever retriever;
@@ -140,7 +141,8 @@ class RefDigestReader {
             if (certhashAlgo == HashAlgo.SHA1) {
               hash = rs.getString("SHA1");
             } else {
-              hash = certhashAlgo.base64Hash(Base64.decodeFast(rs.getString("CERT")));
+              hash = certhashAlgo.base64Hash(
+                  DataSourceWrapper.getBytes(rs, "CERT", binaryCert));
             }
           }
 
@@ -212,6 +214,7 @@ class RefDigestReader {
       coreSql = StringUtil.concat("ID,SN,REV,RR,RT,RIT,HASH FROM CERT WHERE IID=",
           Integer.toString(caId), " AND ID>=?");
     } else if (dbControl == DbControl.XIPKI_CA_v4) {
+      this.binaryCert = datasource.isBinaryColumn(conn, "CERT", "CERT");
       coreSql = StringUtil.concat("ID,SN,REV,RR,RT,RIT,",
           (certhashAlgo == HashAlgo.SHA1 ? "SHA1" : "CERT"),
           " FROM CERT WHERE CA_ID=", Integer.toString(caId), " AND ID>=?");
@@ -38,7 +38,6 @@ import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.datasource.DatabaseType;
 import org.xipki.security.HashAlgo;
-import org.xipki.util.Base64;
 import org.xipki.util.ParamUtil;
 import org.xipki.util.ProcessLog;
 import org.xipki.util.StringUtil;
@@ -150,6 +149,8 @@ class TargetDigestRetriever {
 
   private final DataSourceWrapper datasource;
 
+  private final boolean binaryCert;
+
   private final int numPerSelect;
 
   private final String singleCertSql;
@@ -192,6 +193,9 @@ class TargetDigestRetriever {
       }
     }
 
+    this.binaryCert = (dbControl == DbControl.XIPKI_CA_v4)
+        && datasource.isBinaryColumn(null, "CERT", "CERT");
+
     String singleSql;
     StringBuilder arrayBuffer = new StringBuilder(200);
 
@@ -380,8 +384,7 @@ class TargetDigestRetriever {
       if (certhashAlgo == HashAlgo.SHA1) {
         return rs.getString("SHA1");
       } else {
-        String b64Cert = rs.getString("CERT");
-        byte[] encodedCert = Base64.decodeFast(b64Cert);
+        byte[] encodedCert = DataSourceWrapper.getBytes(rs, "CERT", binaryCert);
         return certhashAlgo.base64Hash(encodedCert);
       }
     }
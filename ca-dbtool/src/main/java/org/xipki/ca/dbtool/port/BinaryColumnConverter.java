@@ -0,0 +1,288 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.dbtool.port;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.dbtool.DbToolBase;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.Base64;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ParamUtil;
+import org.xipki.util.ProcessLog;
+import org.xipki.util.StringUtil;
+
+/**
+ * Converts a column which stores the Base64 encoded data to a binary column in place.
+ *
+ * <p>The conversion runs in two steps, so that the database can be used in the meantime:
+ * <ol>
+ *   <li>The binary column {@code <column>_BIN} is added, and filled in batches of rows
+ *     ordered by ID. Rows which have been converted are skipped, hence this step can be
+ *     interrupted and repeated while the CA (or the OCSP server) is running.</li>
+ *   <li>With {@code switchColumn}, the remaining rows are converted, the original column is
+ *     dropped and the binary column is renamed to it. The applications which use the database
+ *     must be stopped before, since they detect the format of the columns only at
+ *     startup.</li>
+ * </ol>
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class BinaryColumnConverter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BinaryColumnConverter.class);
+
+  private static final String SUFFIX_TMP_COLUMN = "_BIN";
+
+  private final DataSourceWrapper datasource;
+
+  private final int numRowsPerCommit;
+
+  private final AtomicBoolean stopMe;
+
+  public BinaryColumnConverter(DataSourceWrapper datasource, int numRowsPerCommit,
+      AtomicBoolean stopMe) {
+    this.datasource = ParamUtil.requireNonNull("datasource", datasource);
+    this.numRowsPerCommit = ParamUtil.requireMin("numRowsPerCommit", numRowsPerCommit, 1);
+    this.stopMe = ParamUtil.requireNonNull("stopMe", stopMe);
+  }
+
+  /**
+   * Converts the column.
+   * @param table
+   *          Table name. The table must have the column ID. Must not be blank.
+   * @param column
+   *          Column which stores the Base64 encoded data. Must not be blank.
+   * @param switchColumn
+   *          Whether the original column shall be replaced by the binary one.
+   * @param benchmark
+   *          Whether the reading of the Base64 and binary columns shall be compared.
+   * @throws Exception
+   *           If the column could not be converted.
+   */
+  public void convert(String table, String column, boolean switchColumn, boolean benchmark)
+      throws Exception {
+    ParamUtil.requireNonBlank("table", table);
+    ParamUtil.requireNonBlank("column", column);
+
+    final String tmpColumn = column + SUFFIX_TMP_COLUMN;
+    final String desc = table + "." + column;
+
+    Connection conn = datasource.getConnection();
+    try {
+      if (datasource.isBinaryColumn(conn, table, column)) {
+        System.out.println(desc + " is already binary");
+        return;
+      }
+
+      if (!datasource.tableHasColumn(conn, table, tmpColumn)) {
+        datasource.addBinaryColumn(conn, table, tmpColumn);
+        LOG.info("added column {}.{}", table, tmpColumn);
+      }
+
+      System.out.println("converting " + desc);
+      copyRows(conn, table, column, tmpColumn);
+
+      if (benchmark) {
+        System.out.println("reading the Base64 encoded column " + desc);
+        long base64Ms = readColumn(conn, table, column, false);
+        System.out.println("reading the binary column " + table + "." + tmpColumn);
+        long binaryMs = readColumn(conn, table, tmpColumn, true);
+        System.out.println(" read " + desc + " in " + base64Ms + " ms as Base64, in "
+            + binaryMs + " ms as binary");
+      }
+
+      if (switchColumn) {
+        // rows added since the first copy
+        copyRows(conn, table, column, tmpColumn);
+        datasource.dropColumn(conn, table, column);
+        datasource.renameBinaryColumn(conn, table, tmpColumn, column);
+        LOG.info("replaced the column {} by {}", desc, tmpColumn);
+        System.out.println(" replaced the Base64 encoded column " + desc);
+      }
+    } finally {
+      datasource.returnConnection(conn);
+    }
+  } // method convert
+
+  private void copyRows(Connection conn, String table, String column, String tmpColumn)
+      throws Exception {
+    final String condition = tmpColumn + " IS NULL";
+    long total = count(conn, table, condition);
+    if (total < 1) {
+      total = 1; // to avoid exception
+    }
+
+    final String selectSql = datasource.buildSelectFirstSql(numRowsPerCommit, "ID ASC",
+        StringUtil.concat("ID,", column, " FROM ", table, " WHERE ID>? AND ", condition));
+    final String updateSql = StringUtil.concat("UPDATE ", table, " SET ", tmpColumn,
+        "=? WHERE ID=?");
+
+    ProcessLog processLog = new ProcessLog(total);
+    processLog.printHeader();
+
+    long base64Size = 0;
+    long binarySize = 0;
+
+    boolean autoCommit = conn.getAutoCommit();
+    conn.setAutoCommit(false);
+
+    PreparedStatement selectPs = null;
+    PreparedStatement updatePs = null;
+    ResultSet rs = null;
+    String sql = null;
+    try {
+      selectPs = datasource.prepareStatement(conn, selectSql);
+      updatePs = datasource.prepareStatement(conn, updateSql);
+
+      long cursor = Long.MIN_VALUE;
+      while (true) {
+        if (stopMe.get()) {
+          throw new InterruptedException("interrupted by the user");
+        }
+
+        sql = selectSql;
+        selectPs.setLong(1, cursor);
+        rs = selectPs.executeQuery();
+        int num = 0;
+        while (rs.next()) {
+          long id = rs.getLong("ID");
+          String b64 = rs.getString(column);
+          byte[] bytes = Base64.decodeFast(b64);
+          base64Size += b64.length();
+          binarySize += bytes.length;
+
+          updatePs.setBytes(1, bytes);
+          updatePs.setLong(2, id);
+          updatePs.addBatch();
+          cursor = id;
+          num++;
+        }
+        rs.close();
+        rs = null;
+
+        if (num == 0) {
+          break;
+        }
+
+        sql = updateSql;
+        updatePs.executeBatch();
+        conn.commit();
+
+        processLog.addNumProcessed(num);
+        processLog.printStatus();
+      }
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LogUtil.error(LOG, ex2, "could not rollback");
+      }
+      throw datasource.translate(sql, ex);
+    } finally {
+      DbToolBase.releaseResources(datasource, selectPs, rs);
+      DbToolBase.releaseResources(datasource, updatePs, null);
+      conn.setAutoCommit(autoCommit);
+    }
+
+    processLog.printTrailer();
+    String saving = (base64Size == 0) ? "0"
+        : Long.toString((base64Size - binarySize) * 100 / base64Size);
+    System.out.println(" converted " + processLog.numProcessed() + " rows of " + table + "."
+        + column + ": " + base64Size + " Base64 characters to " + binarySize + " bytes ("
+        + saving + "% less)");
+  } // method copyRows
+
+  /**
+   * Reads and decodes all values of the column.
+   * @return the elapsed time in milliseconds.
+   */
+  private long readColumn(Connection conn, String table, String column, boolean binary)
+      throws Exception {
+    final String sql = datasource.buildSelectFirstSql(numRowsPerCommit, "ID ASC",
+        StringUtil.concat("ID,", column, " FROM ", table, " WHERE ID>?"));
+
+    ProcessLog processLog = new ProcessLog(Math.max(1, count(conn, table, null)));
+    processLog.printHeader();
+
+    PreparedStatement ps = null;
+    ResultSet rs = null;
+    try {
+      ps = datasource.prepareStatement(conn, sql);
+      long cursor = Long.MIN_VALUE;
+      while (true) {
+        if (stopMe.get()) {
+          throw new InterruptedException("interrupted by the user");
+        }
+
+        ps.setLong(1, cursor);
+        rs = ps.executeQuery();
+        int num = 0;
+        while (rs.next()) {
+          cursor = rs.getLong("ID");
+          DataSourceWrapper.getBytes(rs, column, binary);
+          num++;
+        }
+        rs.close();
+        rs = null;
+
+        if (num == 0) {
+          break;
+        }
+
+        processLog.addNumProcessed(num);
+        processLog.printStatus();
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      DbToolBase.releaseResources(datasource, ps, rs);
+    }
+
+    processLog.printTrailer();
+    return processLog.endTimeMs() - processLog.startTimeMs();
+  } // method readColumn
+
+  private long count(Connection conn, String table, String condition)
+      throws DataAccessException {
+    final String sql = StringUtil.concat("SELECT COUNT(*) FROM ", table,
+        (condition == null) ? "" : " WHERE " + condition);
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = conn.createStatement();
+      rs = stmt.executeQuery(sql);
+      return rs.next() ? rs.getLong(1) : 0;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      DbToolBase.releaseResources(datasource, stmt, rs);
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.dbtool.port;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.password.PasswordResolver;
+import org.xipki.password.PasswordResolverException;
+import org.xipki.util.IoUtil;
+import org.xipki.util.ParamUtil;
+import org.xipki.util.StringUtil;
+
+/**
+ * Converts the Base64 encoded columns of a database to binary columns, see
+ * {@link BinaryColumnConverter}.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class BinaryConvertWorker extends DbPortWorker {
+
+  /**
+   * Columns of the CA database: CERT.CERT, CRL.CRL and REQUEST.DATA.
+   */
+  public static final String[][] CA_COLUMNS = {{"CERT", "CERT"}, {"CRL", "CRL"},
+      {"REQUEST", "DATA"}};
+
+  /**
+   * Columns of the OCSP database: ISSUER.CERT.
+   */
+  public static final String[][] OCSP_COLUMNS = {{"ISSUER", "CERT"}};
+
+  private static final Logger LOG = LoggerFactory.getLogger(BinaryConvertWorker.class);
+
+  private final DataSourceWrapper datasource;
+
+  private final String[][] columns;
+
+  private final int numRowsPerCommit;
+
+  private final boolean switchColumns;
+
+  private final boolean benchmark;
+
+  public BinaryConvertWorker(DataSourceFactory datasourceFactory,
+      PasswordResolver passwordResolver, String dbConfFile, String[][] columns,
+      int numRowsPerCommit, boolean switchColumns, boolean benchmark)
+      throws PasswordResolverException, IOException {
+    ParamUtil.requireNonNull("datasourceFactory", datasourceFactory);
+    ParamUtil.requireNonBlank("dbConfFile", dbConfFile);
+    this.columns = ParamUtil.requireNonNull("columns", columns);
+
+    Properties props = DbPorter.getDbConfProperties(
+        Files.newInputStream(Paths.get(IoUtil.expandFilepath(dbConfFile))));
+    this.datasource = datasourceFactory.createDataSource("ds-" + dbConfFile, props,
+        passwordResolver);
+    this.numRowsPerCommit = numRowsPerCommit;
+    this.switchColumns = switchColumns;
+    this.benchmark = benchmark;
+  }
+
+  @Override
+  protected void run0() throws Exception {
+    long start = System.currentTimeMillis();
+    try {
+      BinaryColumnConverter converter = new BinaryColumnConverter(datasource,
+          numRowsPerCommit, stopMe);
+      for (String[] column : columns) {
+        converter.convert(column[0], column[1], switchColumns, benchmark);
+      }
+    } finally {
+      try {
+        datasource.close();
+      } catch (Throwable th) {
+        LOG.error("datasource.close()", th);
+      }
+      long end = System.currentTimeMillis();
+      System.out.println("Finished in " + StringUtil.formatTime((end - start) / 1000, false));
+    }
+  } // method run0
+
+}
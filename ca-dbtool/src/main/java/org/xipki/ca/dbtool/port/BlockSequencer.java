@@ -0,0 +1,71 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.dbtool.port;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Passes the results of blocks which are processed in parallel to
+ * {@link #processInOrder(Object)} in the order of the blocks. A block is only passed after all
+ * previous blocks, so that the process log records only the entries whose predecessors have
+ * been processed as well.
+ *
+ * @param <T> type of the result of a block.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public abstract class BlockSequencer<T> {
+
+  private final Map<Long, T> pendingResults = new HashMap<>();
+
+  private long nextIndex;
+
+  /**
+   * Marks the block as processed.
+   * @param index
+   *          Index of the block. The blocks are numbered consecutively starting with 0.
+   * @param result
+   *          Result of the block. Must not be {@code null}.
+   * @throws Exception
+   *           If {@link #processInOrder(Object)} failed. The failed block remains pending and
+   *           is passed again by the next call of this method.
+   */
+  public synchronized void complete(long index, T result) throws Exception {
+    pendingResults.put(index, result);
+
+    T next;
+    while ((next = pendingResults.get(nextIndex)) != null) {
+      processInOrder(next);
+      // only after the block has been processed successfully
+      pendingResults.remove(nextIndex);
+      nextIndex++;
+    }
+  }
+
+  /**
+   * Processes the result of the next block. Called by at most one thread at a time.
+   * @param result
+   *          Result of the block.
+   * @throws Exception
+   *           If the result could not be processed.
+   */
+  protected abstract void processInOrder(T result) throws Exception;
+
+}
@@ -25,12 +25,17 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.security.cert.CRLException;
-import java.security.cert.X509CRL;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -42,9 +47,11 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.validation.Schema;
 
+import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x509.CertificateList;
 import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.dbtool.jaxb.ca.CertstoreType;
@@ -53,6 +60,7 @@ import org.xipki.ca.dbtool.jaxb.ca.CertstoreType.PublishQueue;
 import org.xipki.ca.dbtool.jaxb.ca.DeltaCrlCacheEntryType;
 import org.xipki.ca.dbtool.jaxb.ca.ObjectFactory;
 import org.xipki.ca.dbtool.jaxb.ca.ToPublishType;
+import org.xipki.ca.dbtool.port.BlockSequencer;
 import org.xipki.ca.dbtool.port.DbPorter;
 import org.xipki.ca.dbtool.xmlio.DbiXmlWriter;
 import org.xipki.ca.dbtool.xmlio.ca.CertType;
@@ -66,8 +74,6 @@ import org.xipki.ca.dbtool.xmlio.ca.RequestsWriter;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.security.HashAlgo;
-import org.xipki.security.util.X509Util;
-import org.xipki.util.Base64;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.ParamUtil;
@@ -83,6 +89,23 @@ import org.xipki.util.XmlUtil;
 
 class CaCertstoreDbExporter extends DbPorter {
 
+  private static final class ExportedBlock {
+
+    // name of the ZIP file, null if the block contains no entry to be exported.
+    private final String filename;
+
+    private final int numEntries;
+
+    private final long toId;
+
+    ExportedBlock(String filename, int numEntries, long toId) {
+      this.filename = filename;
+      this.numEntries = numEntries;
+      this.toId = toId;
+    }
+
+  } // class ExportedBlock
+
   private static final Logger LOG = LoggerFactory.getLogger(CaCertstoreDbExporter.class);
 
   private final Marshaller marshaller;
@@ -95,14 +118,26 @@ class CaCertstoreDbExporter extends DbPorter {
 
   private final boolean resume;
 
+  private final int numThreads;
+
+  private final boolean binaryCert;
+
+  private final boolean binaryCrl;
+
+  private final boolean binaryRequest;
+
   CaCertstoreDbExporter(DataSourceWrapper datasource, String baseDir, int numCertsInBundle,
-      int numCertsPerSelect, boolean resume, AtomicBoolean stopMe)
+      int numCertsPerSelect, int numThreads, boolean resume, AtomicBoolean stopMe)
           throws DataAccessException, JAXBException {
     super(datasource, baseDir, stopMe);
 
     this.numCertsInBundle = ParamUtil.requireMin("numCertsInBundle", numCertsInBundle, 1);
     this.numCertsPerSelect = ParamUtil.requireMin("numCertsPerSelect", numCertsPerSelect, 1);
+    this.numThreads = ParamUtil.requireMin("numThreads", numThreads, 1);
     this.resume = resume;
+    this.binaryCert = datasource.isBinaryColumn(null, "CERT", "CERT");
+    this.binaryCrl = datasource.isBinaryColumn(null, "CRL", "CRL");
+    this.binaryRequest = datasource.isBinaryColumn(null, "REQUEST", "DATA");
 
     Schema schema = DbPorter.retrieveSchema("/xsd/dbi-ca.xsd");
     JAXBContext jaxbContext = JAXBContext.newInstance(ObjectFactory.class);
@@ -224,40 +259,40 @@ class CaCertstoreDbExporter extends DbPorter {
     }
   }
 
-  private void exportEntries(CaDbEntryType type, CertstoreType certstore, File processLogFile,
-      OutputStream filenameListOs, Long idProcessedInLastProcess) throws Exception {
+  private void exportEntries(final CaDbEntryType type, final CertstoreType certstore,
+      final File processLogFile, final OutputStream filenameListOs,
+      Long idProcessedInLastProcess) throws Exception {
     // CHECKSTYLE:SKIP
     int numEntriesPerSelect = Math.max(1, Math.round(type.getSqlBatchFactor() * numCertsPerSelect));
     int numEntriesPerZip = Math.max(1, Math.round(type.getSqlBatchFactor() * numCertsInBundle));
-    File entriesDir = new File(baseDir, type.getDirName());
     String tableName = type.getTableName();
 
-    int numProcessedBefore;
+    final int numProcessedBefore;
     String coreSql;
 
     switch (type) {
       case CERT:
         numProcessedBefore = certstore.getCountCerts();
         coreSql = "ID,SN,CA_ID,PID,RID,RTYPE,TID,UID,EE,LUPDATE,REV,RR,RT,RIT,FP_RS,"
-            + "REQ_SUBJECT,CERT FROM CERT WHERE ID>=?";
+            + "REQ_SUBJECT,CERT FROM CERT WHERE ID>=? AND ID<=?";
         break;
       case CRL:
         numProcessedBefore = certstore.getCountCrls();
-        coreSql = "ID,CA_ID,CRL FROM CRL WHERE ID>=?";
+        coreSql = "ID,CA_ID,CRL FROM CRL WHERE ID>=? AND ID<=?";
         break;
       case REQUEST:
         numProcessedBefore = certstore.getCountRequests();
-        coreSql = "ID,LUPDATE,DATA FROM REQUEST WHERE ID>=?";
+        coreSql = "ID,LUPDATE,DATA FROM REQUEST WHERE ID>=? AND ID<=?";
         break;
       case REQCERT:
         numProcessedBefore = certstore.getCountReqCerts();
-        coreSql = "ID,RID,CID FROM REQCERT WHERE ID>=?";
+        coreSql = "ID,RID,CID FROM REQCERT WHERE ID>=? AND ID<=?";
         break;
       default:
         throw new IllegalStateException("unknown CaDbEntryType " + type);
     }
 
-    Long minId = (idProcessedInLastProcess != null) ? idProcessedInLastProcess + 1
+    long minId = (idProcessedInLastProcess != null) ? idProcessedInLastProcess + 1
         : min(tableName, "ID");
 
     String tablesText = "table " + type.getTableName();
@@ -269,38 +304,125 @@ class CaCertstoreDbExporter extends DbPorter {
       total = 1; // to avoid exception
     }
 
-    String sql = datasource.buildSelectFirstSql(numEntriesPerSelect, "ID ASC", coreSql);
+    final String selectSql = datasource.buildSelectFirstSql(numEntriesPerSelect, "ID ASC",
+        coreSql);
+    // each block of IDs is exported to one ZIP file
+    final String blockSql = datasource.buildSelectFirstSql(numEntriesPerZip, "ID ASC",
+        "ID FROM " + tableName + " WHERE ID>=?");
 
-    DbiXmlWriter entriesInCurrentFile = createWriter(type);
-    PreparedStatement ps = prepareStatement(sql.toString());
+    final ProcessLog processLog = new ProcessLog(total);
+    processLog.printHeader();
 
-    int numEntriesInCurrentFile = 0;
+    final BlockSequencer<ExportedBlock> sequencer = new BlockSequencer<ExportedBlock>() {
+      @Override
+      protected void processInOrder(ExportedBlock block) throws Exception {
+        processLog.addNumProcessed(block.numEntries);
+        if (block.filename != null) {
+          writeLine(filenameListOs, block.filename);
+          setCount(type, certstore, numProcessedBefore + (int) processLog.numProcessed());
+        }
+        echoToFile(type + ":" + block.toId, processLogFile);
+        processLog.printStatus();
+      }
+    };
+
+    final AtomicReference<Exception> error = new AtomicReference<>();
+    // limits the number of blocks in process
+    final Semaphore permits = new Semaphore(2 * numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+    PreparedStatement ps = prepareStatement(blockSql);
+    ResultSet rs = null;
+    try {
+      long fromId = minId;
+      long index = 0;
+      while (error.get() == null) {
+        if (stopMe.get()) {
+          throw new InterruptedException("interrupted by the user");
+        }
+
+        ps.setLong(1, fromId);
+        rs = ps.executeQuery();
+        long toId = -1;
+        while (rs.next()) {
+          toId = Math.max(toId, rs.getLong("ID"));
+        }
+        rs.close();
+        rs = null;
+
+        // no entries anymore
+        if (toId == -1) {
+          break;
+        }
+
+        permits.acquire();
+        final long blockIndex = index++;
+        final long blockFromId = fromId;
+        final long blockToId = toId;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (error.get() == null) {
+                sequencer.complete(blockIndex,
+                    exportBlock(type, blockFromId, blockToId, selectSql, maxId));
+              }
+            } catch (Exception ex) {
+              error.compareAndSet(null, ex);
+            } finally {
+              permits.release();
+            }
+          }
+        });
+
+        fromId = toId + 1;
+      }
+    } catch (SQLException ex) {
+      throw translate(blockSql, ex);
+    } finally {
+      releaseResources(ps, rs);
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } // end try
+
+    if (error.get() != null) {
+      throw error.get();
+    }
+
+    processLog.printTrailer();
+    // all successful, delete the processLogFile
+    processLogFile.delete();
+    System.out.println(" exported " + processLog.numProcessed() + " entries from " + tablesText);
+  } // method exportEntries
 
-    int sum = 0;
+  private ExportedBlock exportBlock(CaDbEntryType type, long fromId, long toId, String sql,
+      long maxId) throws Exception {
     File currentEntriesZipFile = new File(baseDir,
-        "tmp-" + type.getDirName() + "-" + System.currentTimeMillis() + ".zip");
+        "tmp-" + type.getDirName() + "-" + fromId + ".zip");
     ZipOutputStream currentEntriesZip = getZipOutputStream(currentEntriesZipFile);
+    DbiXmlWriter entriesInCurrentFile = createWriter(type);
 
+    int numEntriesInCurrentFile = 0;
     long minIdOfCurrentFile = -1;
     long maxIdOfCurrentFile = -1;
+    boolean successful = false;
 
-    ProcessLog processLog = new ProcessLog(total);
-    processLog.printHeader();
-
+    // each block uses its own connection
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    ResultSet rs = null;
     try {
-      Long id = null;
-      boolean interrupted = false;
-      long lastMaxId = minId - 1;
+      ps = datasource.prepareStatement(conn, sql);
+      long lastMaxId = fromId - 1;
 
-      while (true) {
+      while (lastMaxId < toId) {
         if (stopMe.get()) {
-          interrupted = true;
-          break;
+          throw new InterruptedException("interrupted by the user");
         }
 
         ps.setLong(1, lastMaxId + 1);
-
-        ResultSet rs = ps.executeQuery();
+        ps.setLong(2, toId);
+        rs = ps.executeQuery();
 
         // no entries anymore
         if (!rs.next()) {
@@ -308,211 +430,184 @@ class CaCertstoreDbExporter extends DbPorter {
         }
 
         do {
-          id = rs.getLong("ID");
+          long id = rs.getLong("ID");
           if (lastMaxId < id) {
             lastMaxId = id;
           }
 
-          if (minIdOfCurrentFile == -1) {
-            minIdOfCurrentFile = id;
-          } else if (minIdOfCurrentFile > id) {
+          if (!exportEntry(type, rs, id, currentEntriesZip, entriesInCurrentFile)) {
+            continue;
+          }
+
+          if (minIdOfCurrentFile == -1 || minIdOfCurrentFile > id) {
             minIdOfCurrentFile = id;
           }
 
-          if (maxIdOfCurrentFile == -1) {
-            maxIdOfCurrentFile = id;
-          } else if (maxIdOfCurrentFile < id) {
+          if (maxIdOfCurrentFile == -1 || maxIdOfCurrentFile < id) {
             maxIdOfCurrentFile = id;
           }
 
-          if (CaDbEntryType.CERT == type) {
-            byte[] certBytes = Base64.decodeFast(rs.getString("CERT"));
-
-            String sha1 = HashAlgo.SHA1.hexHash(certBytes);
-            String certFileName = sha1 + ".der";
-            ZipEntry certZipEntry = new ZipEntry(certFileName);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(certBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
-
-            CertType cert = new CertType();
-            cert.setId(id);
-            cert.setCaId(rs.getInt("CA_ID"));
-            cert.setEe(rs.getBoolean("EE"));
-            cert.setFile(certFileName);
-
-            long fpReqSubject = rs.getLong("FP_RS");
-            if (fpReqSubject != 0) {
-              cert.setFpRs(fpReqSubject);
-              cert.setRs(rs.getString("REQ_SUBJECT"));
-            }
-
-            cert.setPid(rs.getInt("PID"));
-            cert.setReqType(rs.getInt("RTYPE"));
-            cert.setRid(rs.getInt("RID"));
-            cert.setSn(rs.getString("SN"));
-
-            String str = rs.getString("TID");
-            if (StringUtil.isNotBlank(str)) {
-              cert.setTid(str);
-            }
+          numEntriesInCurrentFile++;
+        } while (rs.next());
 
-            int userId = rs.getInt("UID");
-            if (userId != 0) {
-              cert.setUid(userId);
-            }
-            cert.setUpdate(rs.getLong("LUPDATE"));
+        rs.close();
+        rs = null;
+      }
 
-            boolean revoked = rs.getBoolean("REV");
-            cert.setRev(revoked);
+      String currentEntriesFilename = null;
+      if (numEntriesInCurrentFile > 0) {
+        finalizeZip(currentEntriesZip, "overview.xml", entriesInCurrentFile);
 
-            if (revoked) {
-              cert.setRr(rs.getInt("RR"));
-              cert.setRt(rs.getLong("RT"));
-              long revInvTime = rs.getLong("RIT");
-              if (revInvTime != 0) {
-                cert.setRit(revInvTime);
-              }
-            }
+        currentEntriesFilename = buildFilename(type.getDirName() + "_", ".zip",
+            minIdOfCurrentFile, maxIdOfCurrentFile, maxId);
+        currentEntriesZipFile.renameTo(
+            new File(new File(baseDir, type.getDirName()), currentEntriesFilename));
+      } else {
+        currentEntriesZip.close();
+        currentEntriesZipFile.delete();
+      }
 
-            ((CertsWriter) entriesInCurrentFile).add(cert);
-          } else if (CaDbEntryType.CRL == type) {
-            System.out.println(rs.getString("CRL"));
-            byte[] crlBytes = Base64.decodeFast(rs.getString("CRL"));
+      successful = true;
+      return new ExportedBlock(currentEntriesFilename, numEntriesInCurrentFile, toId);
+    } catch (SQLException ex) {
+      throw translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs, false);
+      datasource.returnConnection(conn);
+      if (!successful) {
+        IoUtil.closeStream(currentEntriesZip);
+      }
+    }
+  } // method exportBlock
+
+  /**
+   * Writes the entry in the current row to the ZIP file and the overview.
+   * @return whether the entry is exported.
+   */
+  private boolean exportEntry(CaDbEntryType type, ResultSet rs, long id,
+      ZipOutputStream currentEntriesZip, DbiXmlWriter entriesInCurrentFile) throws Exception {
+    if (CaDbEntryType.CERT == type) {
+      byte[] certBytes = DataSourceWrapper.getBytes(rs, "CERT", binaryCert);
+
+      String sha1 = HashAlgo.SHA1.hexHash(certBytes);
+      String certFileName = sha1 + ".der";
+      ZipEntry certZipEntry = new ZipEntry(certFileName);
+      currentEntriesZip.putNextEntry(certZipEntry);
+      try {
+        currentEntriesZip.write(certBytes);
+      } finally {
+        currentEntriesZip.closeEntry();
+      }
 
-            X509CRL x509Crl = null;
-            try {
-              x509Crl = X509Util.parseCrl(crlBytes);
-            } catch (CRLException ex) {
-              LogUtil.error(LOG, ex, "could not parse CRL with id " + id);
-              throw ex;
-            } catch (Exception ex) {
-              LogUtil.error(LOG, ex, "could not parse CRL with id " + id);
-              throw new CRLException(ex.getMessage(), ex);
-            }
+      CertType cert = new CertType();
+      cert.setId(id);
+      cert.setCaId(rs.getInt("CA_ID"));
+      cert.setEe(rs.getBoolean("EE"));
+      cert.setFile(certFileName);
 
-            byte[] octetString = x509Crl.getExtensionValue(Extension.cRLNumber.getId());
-            if (octetString == null) {
-              LOG.warn("CRL without CRL number, ignore it");
-              continue;
-            }
-            String sha1 = HashAlgo.SHA1.hexHash(crlBytes);
+      long fpReqSubject = rs.getLong("FP_RS");
+      if (fpReqSubject != 0) {
+        cert.setFpRs(fpReqSubject);
+        cert.setRs(rs.getString("REQ_SUBJECT"));
+      }
 
-            final String crlFilename = sha1 + ".crl";
-            ZipEntry certZipEntry = new ZipEntry(crlFilename);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(crlBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
+      cert.setPid(rs.getInt("PID"));
+      cert.setReqType(rs.getInt("RTYPE"));
+      cert.setRid(rs.getInt("RID"));
+      cert.setSn(rs.getString("SN"));
 
-            CrlType crl = new CrlType();
-            crl.setId(id);
+      String str = rs.getString("TID");
+      if (StringUtil.isNotBlank(str)) {
+        cert.setTid(str);
+      }
 
-            crl.setCaId(rs.getInt("CA_ID"));
+      int userId = rs.getInt("UID");
+      if (userId != 0) {
+        cert.setUid(userId);
+      }
+      cert.setUpdate(rs.getLong("LUPDATE"));
 
-            byte[] extnValue = DEROctetString.getInstance(octetString).getOctets();
-            BigInteger crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-            crl.setCrlNo(crlNumber.toString());
-            crl.setFile(crlFilename);
+      boolean revoked = rs.getBoolean("REV");
+      cert.setRev(revoked);
 
-            ((CrlsWriter) entriesInCurrentFile).add(crl);
-          } else if (CaDbEntryType.REQUEST == type) {
-            byte[] dataBytes = Base64.decodeFast(rs.getString("DATA"));
-            String sha1 = HashAlgo.SHA1.hexHash(dataBytes);
-            final String dataFilename = sha1 + ".req";
-            ZipEntry certZipEntry = new ZipEntry(dataFilename);
-            currentEntriesZip.putNextEntry(certZipEntry);
-            try {
-              currentEntriesZip.write(dataBytes);
-            } finally {
-              currentEntriesZip.closeEntry();
-            }
+      if (revoked) {
+        cert.setRr(rs.getInt("RR"));
+        cert.setRt(rs.getLong("RT"));
+        long revInvTime = rs.getLong("RIT");
+        if (revInvTime != 0) {
+          cert.setRit(revInvTime);
+        }
+      }
 
-            RequestType entry = new RequestType();
-            entry.setId(id);
-            entry.setUpdate(rs.getLong("LUPDATE"));
-            entry.setFile(dataFilename);
-            ((RequestsWriter) entriesInCurrentFile).add(entry);
-          } else if (CaDbEntryType.REQCERT == type) {
-            RequestCertType entry = new RequestCertType();
-            entry.setId(id);
-            entry.setCid(rs.getLong("CID"));
-            entry.setRid(rs.getLong("RID"));
-            ((RequestCertsWriter) entriesInCurrentFile).add(entry);
-          } else {
-            throw new IllegalStateException("unknown CaDbEntryType " + type);
-          }
+      ((CertsWriter) entriesInCurrentFile).add(cert);
+    } else if (CaDbEntryType.CRL == type) {
+      byte[] crlBytes = DataSourceWrapper.getBytes(rs, "CRL", binaryCrl);
 
-          numEntriesInCurrentFile++;
-          sum++;
-
-          if (numEntriesInCurrentFile == numEntriesPerZip) {
-            String currentEntriesFilename = buildFilename(type.getDirName() + "_", ".zip",
-                minIdOfCurrentFile, maxIdOfCurrentFile, maxId);
-            finalizeZip(currentEntriesZip, "overview.xml", entriesInCurrentFile);
-            currentEntriesZipFile.renameTo(new File(entriesDir, currentEntriesFilename));
-
-            writeLine(filenameListOs, currentEntriesFilename);
-            setCount(type, certstore, numProcessedBefore + sum);
-            echoToFile(tableName + ":" + Long.toString(id), processLogFile);
-
-            processLog.addNumProcessed(numEntriesInCurrentFile);
-            processLog.printStatus();
-
-            // reset
-            entriesInCurrentFile = createWriter(type);
-            numEntriesInCurrentFile = 0;
-            minIdOfCurrentFile = -1;
-            maxIdOfCurrentFile = -1;
-            currentEntriesZipFile = new File(baseDir, "tmp-" + type.getDirName() + "-"
-                + System.currentTimeMillis() + ".zip");
-            currentEntriesZip = getZipOutputStream(currentEntriesZipFile);
-          }
-        } while (rs.next());
+      // the CertificateFactory is not used here, since it is not thread-safe
+      Extensions extensions;
+      try {
+        extensions = CertificateList.getInstance(crlBytes).getTBSCertList().getExtensions();
+      } catch (RuntimeException ex) {
+        LogUtil.error(LOG, ex, "could not parse CRL with id " + id);
+        throw new CRLException(ex.getMessage(), ex);
+      }
 
-        rs.close();
-      } // end for
+      ASN1Encodable crlNumberValue = (extensions == null) ? null
+          : extensions.getExtensionParsedValue(Extension.cRLNumber);
+      if (crlNumberValue == null) {
+        LOG.warn("CRL without CRL number, ignore it");
+        return false;
+      }
+      String sha1 = HashAlgo.SHA1.hexHash(crlBytes);
 
-      if (interrupted) {
-        currentEntriesZip.close();
-        throw new InterruptedException("interrupted by the user");
+      final String crlFilename = sha1 + ".crl";
+      ZipEntry certZipEntry = new ZipEntry(crlFilename);
+      currentEntriesZip.putNextEntry(certZipEntry);
+      try {
+        currentEntriesZip.write(crlBytes);
+      } finally {
+        currentEntriesZip.closeEntry();
       }
 
-      if (numEntriesInCurrentFile > 0) {
-        finalizeZip(currentEntriesZip, "overview.xml", entriesInCurrentFile);
+      CrlType crl = new CrlType();
+      crl.setId(id);
 
-        String currentEntriesFilename = buildFilename(type.getDirName() + "_", ".zip",
-            minIdOfCurrentFile, maxIdOfCurrentFile, maxId);
-        currentEntriesZipFile.renameTo(new File(entriesDir, currentEntriesFilename));
+      crl.setCaId(rs.getInt("CA_ID"));
 
-        writeLine(filenameListOs, currentEntriesFilename);
-        setCount(type, certstore, numProcessedBefore + sum);
-        if (id != null) {
-          echoToFile(Long.toString(id), processLogFile);
-        }
+      BigInteger crlNumber = ASN1Integer.getInstance(crlNumberValue).getPositiveValue();
+      crl.setCrlNo(crlNumber.toString());
+      crl.setFile(crlFilename);
 
-        processLog.addNumProcessed(numEntriesInCurrentFile);
-      } else {
-        currentEntriesZip.close();
-        currentEntriesZipFile.delete();
+      ((CrlsWriter) entriesInCurrentFile).add(crl);
+    } else if (CaDbEntryType.REQUEST == type) {
+      byte[] dataBytes = DataSourceWrapper.getBytes(rs, "DATA", binaryRequest);
+      String sha1 = HashAlgo.SHA1.hexHash(dataBytes);
+      final String dataFilename = sha1 + ".req";
+      ZipEntry certZipEntry = new ZipEntry(dataFilename);
+      currentEntriesZip.putNextEntry(certZipEntry);
+      try {
+        currentEntriesZip.write(dataBytes);
+      } finally {
+        currentEntriesZip.closeEntry();
       }
 
-    } catch (SQLException ex) {
-      throw translate(null, ex);
-    } finally {
-      releaseResources(ps, null);
-    } // end try
+      RequestType entry = new RequestType();
+      entry.setId(id);
+      entry.setUpdate(rs.getLong("LUPDATE"));
+      entry.setFile(dataFilename);
+      ((RequestsWriter) entriesInCurrentFile).add(entry);
+    } else if (CaDbEntryType.REQCERT == type) {
+      RequestCertType entry = new RequestCertType();
+      entry.setId(id);
+      entry.setCid(rs.getLong("CID"));
+      entry.setRid(rs.getLong("RID"));
+      ((RequestCertsWriter) entriesInCurrentFile).add(entry);
+    } else {
+      throw new IllegalStateException("unknown CaDbEntryType " + type);
+    }
 
-    processLog.printTrailer();
-    // all successful, delete the processLogFile
-    processLogFile.delete();
-    System.out.println(" exported " + sum + " entries from " + tablesText);
-  } // method exportEntries
+    return true;
+  } // method exportEntry
 
   private void exportPublishQueue(CertstoreType certstore) throws DataAccessException {
     System.out.println("exporting table PUBLISHQUEUE");
@@ -22,12 +22,19 @@ import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -39,10 +46,11 @@ import javax.xml.stream.XMLStreamException;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.x509.BasicConstraints;
 import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.asn1.x509.CertificateList;
 import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
 import org.bouncycastle.asn1.x509.TBSCertificate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +60,7 @@ import org.xipki.ca.dbtool.jaxb.ca.CertstoreType.PublishQueue;
 import org.xipki.ca.dbtool.jaxb.ca.DeltaCrlCacheEntryType;
 import org.xipki.ca.dbtool.jaxb.ca.ObjectFactory;
 import org.xipki.ca.dbtool.jaxb.ca.ToPublishType;
+import org.xipki.ca.dbtool.port.BlockSequencer;
 import org.xipki.ca.dbtool.port.DbPortFileNameIterator;
 import org.xipki.ca.dbtool.port.DbPorter;
 import org.xipki.ca.dbtool.xmlio.DbiXmlReader;
@@ -70,7 +79,6 @@ import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.security.FpIdCalculator;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.X509Util;
-import org.xipki.util.Base64;
 import org.xipki.util.IoUtil;
 import org.xipki.util.ParamUtil;
 import org.xipki.util.ProcessLog;
@@ -85,6 +93,221 @@ import org.xipki.util.XmlUtil;
 
 class CaCertstoreDbImporter extends DbPorter {
 
+  private abstract static class ImportEntry {
+
+    protected final long id;
+
+    ImportEntry(long id) {
+      this.id = id;
+    }
+
+    abstract void setParams(PreparedStatement stmt) throws SQLException;
+
+  } // class ImportEntry
+
+  private class CertEntry extends ImportEntry {
+
+    private final CertType cert;
+
+    private final byte[] encodedCert;
+
+    private final String serial;
+
+    private final String subjectText;
+
+    private final long fpSubject;
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    private final long fpKey;
+
+    private final boolean ee;
+
+    private final String b64Sha1FpCert;
+
+    CertEntry(CertType cert, byte[] encodedCert, TBSCertificate tbsCert) {
+      super(cert.getId());
+      this.cert = cert;
+      this.encodedCert = encodedCert;
+      this.serial = tbsCert.getSerialNumber().getPositiveValue().toString(16);
+      this.subjectText = X509Util.cutX500Name(tbsCert.getSubject(), maxX500nameLen);
+      this.fpSubject = X509Util.fpCanonicalizedName(tbsCert.getSubject());
+      this.notBefore = tbsCert.getStartDate().getDate().getTime() / 1000;
+      this.notAfter = tbsCert.getEndDate().getDate().getTime() / 1000;
+
+      byte[] encodedKey = tbsCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
+      this.fpKey = FpIdCalculator.hash(encodedKey);
+
+      boolean tmpEe = true;
+      Extensions extensions = tbsCert.getExtensions();
+      Extension extension = (extensions == null) ? null
+          : extensions.getExtension(Extension.basicConstraints);
+      if (extension != null) {
+        ASN1Encodable asn1 = extension.getParsedValue();
+        tmpEe = !BasicConstraints.getInstance(asn1).isCA();
+      }
+      this.ee = tmpEe;
+
+      this.b64Sha1FpCert = HashAlgo.SHA1.base64Hash(encodedCert);
+    }
+
+    @Override
+    void setParams(PreparedStatement stmt) throws SQLException {
+      int idx = 1;
+
+      stmt.setLong(idx++, id);
+      stmt.setLong(idx++, cert.getUpdate());
+      stmt.setString(idx++, serial);
+
+      stmt.setString(idx++, subjectText);
+      stmt.setLong(idx++, fpSubject);
+
+      if (cert.getFpRs() != null) {
+        stmt.setLong(idx++, cert.getFpRs());
+      } else {
+        stmt.setNull(idx++, Types.BIGINT);
+      }
+
+      stmt.setLong(idx++, notBefore);
+      stmt.setLong(idx++, notAfter);
+      setBoolean(stmt, idx++, cert.getRev());
+      setInt(stmt, idx++, cert.getRr());
+      setLong(stmt, idx++, cert.getRt());
+      setLong(stmt, idx++, cert.getRit());
+      setInt(stmt, idx++, cert.getPid());
+      setInt(stmt, idx++, cert.getCaId());
+
+      setInt(stmt, idx++, cert.getRid());
+      setInt(stmt, idx++, cert.getUid());
+      stmt.setLong(idx++, fpKey);
+      stmt.setInt(idx++, ee ? 1 : 0);
+      stmt.setInt(idx++, cert.getReqType());
+      stmt.setString(idx++, cert.getTid());
+      stmt.setString(idx++, b64Sha1FpCert);
+      stmt.setString(idx++, cert.getRs());
+      DataSourceWrapper.setBytes(stmt, idx++, encodedCert, binaryCert);
+    }
+
+  } // class CertEntry
+
+  private class CrlEntry extends ImportEntry {
+
+    private final CrlType crl;
+
+    private final byte[] encodedCrl;
+
+    private final long crlNumber;
+
+    private final Long baseCrlNumber;
+
+    private final long thisUpdate;
+
+    private final Long nextUpdate;
+
+    CrlEntry(CrlType crl, byte[] encodedCrl, CertificateList certList) {
+      super(crl.getId());
+      this.crl = crl;
+      this.encodedCrl = encodedCrl;
+
+      Extensions extensions = certList.getTBSCertList().getExtensions();
+      // CHECKSTYLE:SKIP
+      BigInteger crlNumber = ASN1Integer.getInstance(
+          extensions.getExtensionParsedValue(Extension.cRLNumber)).getPositiveValue();
+      this.crlNumber = crlNumber.longValue();
+
+      ASN1Encodable baseCrlNumber =
+          extensions.getExtensionParsedValue(Extension.deltaCRLIndicator);
+      this.baseCrlNumber = (baseCrlNumber == null) ? null
+          : ASN1Integer.getInstance(baseCrlNumber).getPositiveValue().longValue();
+
+      this.thisUpdate = certList.getThisUpdate().getDate().getTime() / 1000;
+      this.nextUpdate = (certList.getNextUpdate() == null) ? null
+          : certList.getNextUpdate().getDate().getTime() / 1000;
+    }
+
+    @Override
+    void setParams(PreparedStatement stmt) throws SQLException {
+      int idx = 1;
+      stmt.setLong(idx++, id);
+      stmt.setInt(idx++, crl.getCaId());
+      stmt.setLong(idx++, crlNumber);
+      stmt.setLong(idx++, thisUpdate);
+      if (nextUpdate != null) {
+        stmt.setLong(idx++, nextUpdate);
+      } else {
+        stmt.setNull(idx++, Types.INTEGER);
+      }
+
+      if (baseCrlNumber == null) {
+        setBoolean(stmt, idx++, false);
+        stmt.setNull(idx++, Types.BIGINT);
+      } else {
+        setBoolean(stmt, idx++, true);
+        stmt.setLong(idx++, baseCrlNumber);
+      }
+
+      DataSourceWrapper.setBytes(stmt, idx++, encodedCrl, binaryCrl);
+    }
+
+  } // class CrlEntry
+
+  private class RequestEntry extends ImportEntry {
+
+    private final RequestType request;
+
+    private final byte[] encodedRequest;
+
+    RequestEntry(RequestType request, byte[] encodedRequest) {
+      super(request.getId());
+      this.request = request;
+      this.encodedRequest = encodedRequest;
+    }
+
+    @Override
+    void setParams(PreparedStatement stmt) throws SQLException {
+      int idx = 1;
+      stmt.setLong(idx++, id);
+      stmt.setLong(idx++, request.getUpdate());
+      DataSourceWrapper.setBytes(stmt, idx++, encodedRequest, binaryRequest);
+    }
+
+  } // class RequestEntry
+
+  private static class RequestCertEntry extends ImportEntry {
+
+    private final RequestCertType reqCert;
+
+    RequestCertEntry(RequestCertType reqCert) {
+      super(reqCert.getId());
+      this.reqCert = reqCert;
+    }
+
+    @Override
+    void setParams(PreparedStatement stmt) throws SQLException {
+      int idx = 1;
+      stmt.setLong(idx++, id);
+      stmt.setLong(idx++, reqCert.getRid());
+      stmt.setLong(idx++, reqCert.getCid());
+    }
+
+  } // class RequestCertEntry
+
+  private static final class ImportedBlock {
+
+    private final int numEntries;
+
+    // ID of the last imported entry, -1 if no entry is imported.
+    private final long lastId;
+
+    ImportedBlock(int numEntries, long lastId) {
+      this.numEntries = numEntries;
+      this.lastId = lastId;
+    }
+
+  } // class ImportedBlock
+
   private static final Logger LOG = LoggerFactory.getLogger(CaCertstoreDbImporter.class);
 
   private static final String SQL_ADD_CERT =
@@ -107,12 +330,24 @@ class CaCertstoreDbImporter extends DbPorter {
 
   private final int numCertsPerCommit;
 
+  private final int numThreads;
+
+  private final boolean binaryCert;
+
+  private final boolean binaryCrl;
+
+  private final boolean binaryRequest;
+
   CaCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, int numCertsPerCommit,
-      boolean resume, AtomicBoolean stopMe) throws Exception {
+      int numThreads, boolean resume, AtomicBoolean stopMe) throws Exception {
     super(datasource, srcDir, stopMe);
 
     this.numCertsPerCommit = ParamUtil.requireMin("numCertsPerCommit", numCertsPerCommit, 1);
+    this.numThreads = ParamUtil.requireMin("numThreads", numThreads, 1);
     this.resume = resume;
+    this.binaryCert = datasource.isBinaryColumn(null, "CERT", "CERT");
+    this.binaryCrl = datasource.isBinaryColumn(null, "CRL", "CRL");
+    this.binaryRequest = datasource.isBinaryColumn(null, "REQUEST", "DATA");
 
     File processLogFile = new File(baseDir, DbPorter.IMPORT_PROCESS_LOG_FILENAME);
     if (resume) {
@@ -284,8 +519,9 @@ class CaCertstoreDbImporter extends DbPorter {
     System.out.println(" imported table DELTACRL_CACHE");
   } // method importDeltaCRLCache
 
-  private Exception importEntries(CaDbEntryType type, CertstoreType certstore,
-      File processLogFile, Integer numProcessedInLastProcess, Long idProcessedInLastProcess) {
+  private Exception importEntries(final CaDbEntryType type, CertstoreType certstore,
+      final File processLogFile, Integer numProcessedInLastProcess,
+      Long idProcessedInLastProcess) {
     String tablesText = "table " + type.getTableName();
 
     try {
@@ -299,7 +535,7 @@ class CaCertstoreDbImporter extends DbPorter {
       deleteFromTableWithLargerId(type.getTableName(), "ID", minId - 1, LOG);
 
       final long total;
-      String sql;
+      final String sql;
 
       switch (type) {
         case CERT:
@@ -328,17 +564,46 @@ class CaCertstoreDbImporter extends DbPorter {
       System.out.println("importing entries to " + tablesText + " from ID " + minId);
       processLog.printHeader();
 
+      final int numProcessedBefore0 = numProcessedBefore;
+      final BlockSequencer<ImportedBlock> sequencer = new BlockSequencer<ImportedBlock>() {
+
+        private long numImported;
+
+        @Override
+        protected void processInOrder(ImportedBlock block) throws Exception {
+          if (block.numEntries == 0) {
+            return;
+          }
+
+          numImported += block.numEntries;
+          echoToFile(type + ":" + (numProcessedBefore0 + numImported) + ":" + block.lastId,
+              processLogFile);
+          processLog.printStatus();
+        }
+
+      };
+
+      final AtomicReference<Exception> error = new AtomicReference<>();
+      // limits the number of files in process, and therefore the memory
+      final Semaphore permits = new Semaphore(2 * numThreads);
+      // certificates are parsed and hashed by one pool, and written by the other one
+      ExecutorService parsers = Executors.newFixedThreadPool(
+          Math.min(numThreads, Runtime.getRuntime().availableProcessors()));
+      final ExecutorService writers = Executors.newFixedThreadPool(numThreads);
+
       DbPortFileNameIterator entriesFileIterator = null;
-      PreparedStatement stmt = null;
 
       try {
         entriesFileIterator = new DbPortFileNameIterator(
             baseDir + File.separator + type.getDirName() + ".mf");
 
-        stmt = prepareStatement(sql);
+        long index = 0;
+        while (entriesFileIterator.hasNext() && error.get() == null) {
+          if (stopMe.get()) {
+            throw new InterruptedException("interrupted by the user");
+          }
 
-        while (entriesFileIterator.hasNext()) {
-          String entriesFile = baseDir + File.separator + type.getDirName()
+          final String entriesFile = baseDir + File.separator + type.getDirName()
               + File.separator + entriesFileIterator.next();
 
           // extract the toId from the filename
@@ -358,22 +623,59 @@ class CaCertstoreDbImporter extends DbPorter {
             LOG.warn("invalid file name '{}', but will still be processed", entriesFile);
           }
 
-          try {
-            long lastId = importEntries(type, entriesFile, minId, processLogFile,
-                processLog, numProcessedBefore, stmt, sql);
-            minId = lastId + 1;
-          } catch (Exception ex) {
-            System.err.println("\ncould not import entries from file "
-                + entriesFile + ".\nplease continue with the option '--resume'");
-            LOG.error("Exception", ex);
-            return ex;
-          }
-        } // end for
+          permits.acquire();
+          final long blockIndex = index++;
+          final long blockMinId = minId;
+          parsers.execute(new Runnable() {
+            @Override
+            public void run() {
+              boolean handedOver = false;
+              try {
+                if (error.get() != null) {
+                  return;
+                }
+
+                final List<ImportEntry> entries = parseEntries(type, entriesFile, blockMinId);
+                writers.execute(new Runnable() {
+                  @Override
+                  public void run() {
+                    try {
+                      if (error.get() == null) {
+                        sequencer.complete(blockIndex,
+                            writeEntries(type, sql, entries, processLog));
+                      }
+                    } catch (Exception ex) {
+                      importFailed(error, entriesFile, ex);
+                    } finally {
+                      permits.release();
+                    }
+                  }
+                });
+                handedOver = true;
+              } catch (Exception ex) {
+                importFailed(error, entriesFile, ex);
+              } finally {
+                if (!handedOver) {
+                  permits.release();
+                }
+              }
+            }
+          });
+        } // end while
       } finally {
-        releaseResources(stmt, null);
         if (entriesFileIterator != null) {
           entriesFileIterator.close();
         }
+
+        // the parsers pass the entries to the writers
+        parsers.shutdown();
+        parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        writers.shutdown();
+        writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+
+      if (error.get() != null) {
+        throw error.get();
       }
 
       processLog.printTrailer();
@@ -390,55 +692,39 @@ class CaCertstoreDbImporter extends DbPorter {
     }
   }
 
-  private long importEntries(CaDbEntryType type, String entriesZipFile, long minId,
-      File processLogFile, ProcessLog processLog, int numProcessedInLastProcess,
-      PreparedStatement stmt, String sql) throws Exception {
-    final int numEntriesPerCommit = Math.max(1,
-        Math.round(type.getSqlBatchFactor() * numCertsPerCommit));
-
-    ZipFile zipFile = new ZipFile(new File(entriesZipFile));
-    ZipEntry entriesXmlEntry = zipFile.getEntry("overview.xml");
-
-    DbiXmlReader entries;
-    try {
-      entries = createReader(type, zipFile.getInputStream(entriesXmlEntry));
-    } catch (Exception ex) {
-      try {
-        zipFile.close();
-      } catch (Exception e2) {
-        LOG.error("could not close ZIP file {}: {}", entriesZipFile, e2.getMessage());
-        LOG.debug("could not close ZIP file " + entriesZipFile, e2);
-      }
-      throw ex;
+  private static void importFailed(AtomicReference<Exception> error, String entriesFile,
+      Exception ex) {
+    if (error.compareAndSet(null, ex)) {
+      System.err.println("\ncould not import entries from file " + entriesFile);
     }
+  }
 
-    disableAutoCommit();
-
+  /**
+   * Reads and parses the entries with ID not less than {@code minId} in the ZIP file.
+   */
+  private List<ImportEntry> parseEntries(CaDbEntryType type, String entriesZipFile, long minId)
+      throws Exception {
+    ZipFile zipFile = new ZipFile(new File(entriesZipFile));
     try {
-      int numEntriesInBatch = 0;
-      long lastSuccessfulEntryId = 0;
+      ZipEntry entriesXmlEntry = zipFile.getEntry("overview.xml");
+      DbiXmlReader entries = createReader(type, zipFile.getInputStream(entriesXmlEntry));
 
+      List<ImportEntry> ret = new ArrayList<>();
       while (entries.hasNext()) {
         if (stopMe.get()) {
           throw new InterruptedException("interrupted by the user");
         }
 
         IdentifidDbObjectType entry = (IdentifidDbObjectType) entries.next();
-        long id = entry.getId();
-        if (id < minId) {
+        if (entry.getId() < minId) {
           continue;
         }
 
-        numEntriesInBatch++;
-
         if (CaDbEntryType.CERT == type) {
           CertType cert = (CertType) entry;
-
           String filename = cert.getFile();
           // rawcert
-          ZipEntry certZipEnty = zipFile.getEntry(filename);
-          // rawcert
-          byte[] encodedCert = IoUtil.read(zipFile.getInputStream(certZipEnty));
+          byte[] encodedCert = IoUtil.read(zipFile.getInputStream(zipFile.getEntry(filename)));
 
           TBSCertificate tbsCert;
           try {
@@ -450,203 +736,109 @@ class CaCertstoreDbImporter extends DbPorter {
             throw new CertificateException(ex.getMessage(), ex);
           }
 
-          byte[] encodedKey = tbsCert.getSubjectPublicKeyInfo().getPublicKeyData().getBytes();
-
-          String b64Sha1FpCert = HashAlgo.SHA1.base64Hash(encodedCert);
-
-          // cert
-          String subjectText = X509Util.cutX500Name(tbsCert.getSubject(), maxX500nameLen);
-
-          try {
-            int idx = 1;
-
-            stmt.setLong(idx++, id);
-            stmt.setLong(idx++, cert.getUpdate());
-            stmt.setString(idx++, tbsCert.getSerialNumber().getPositiveValue().toString(16));
-
-            stmt.setString(idx++, subjectText);
-            long fpSubject = X509Util.fpCanonicalizedName(tbsCert.getSubject());
-            stmt.setLong(idx++, fpSubject);
-
-            if (cert.getFpRs() != null) {
-              stmt.setLong(idx++, cert.getFpRs());
-            } else {
-              stmt.setNull(idx++, Types.BIGINT);
-            }
-
-            stmt.setLong(idx++, tbsCert.getStartDate().getDate().getTime() / 1000);
-            stmt.setLong(idx++, tbsCert.getEndDate().getDate().getTime() / 1000);
-            setBoolean(stmt, idx++, cert.getRev());
-            setInt(stmt, idx++, cert.getRr());
-            setLong(stmt, idx++, cert.getRt());
-            setLong(stmt, idx++, cert.getRit());
-            setInt(stmt, idx++, cert.getPid());
-            setInt(stmt, idx++, cert.getCaId());
-
-            setInt(stmt, idx++, cert.getRid());
-            setInt(stmt, idx++, cert.getUid());
-            stmt.setLong(idx++, FpIdCalculator.hash(encodedKey));
-            Extension extension = tbsCert.getExtensions().getExtension(Extension.basicConstraints);
-            boolean ee = true;
-            if (extension != null) {
-              ASN1Encodable asn1 = extension.getParsedValue();
-              ee = !BasicConstraints.getInstance(asn1).isCA();
-            }
-
-            stmt.setInt(idx++, ee ? 1 : 0);
-            stmt.setInt(idx++, cert.getReqType());
-            String tidS = null;
-            if (cert.getTid() != null) {
-              tidS = cert.getTid();
-            }
-            stmt.setString(idx++, tidS);
-            stmt.setString(idx++, b64Sha1FpCert);
-            stmt.setString(idx++, cert.getRs());
-            stmt.setString(idx++, Base64.encodeToString(encodedCert));
-            stmt.addBatch();
-          } catch (SQLException ex) {
-            throw translate(sql, ex);
-          }
+          ret.add(new CertEntry(cert, encodedCert, tbsCert));
         } else if (CaDbEntryType.CRL == type) {
           CrlType crl = (CrlType) entry;
-
           String filename = crl.getFile();
+          byte[] encodedCrl = IoUtil.read(zipFile.getInputStream(zipFile.getEntry(filename)));
 
-          // CRL
-          ZipEntry zipEnty = zipFile.getEntry(filename);
-
-          // rawcert
-          byte[] encodedCrl = IoUtil.read(zipFile.getInputStream(zipEnty));
-
-          X509CRL x509crl = null;
+          // the CertificateFactory is not used here, since it is not thread-safe
+          CertificateList certList;
           try {
-            x509crl = X509Util.parseCrl(encodedCrl);
-          } catch (Exception ex) {
+            certList = CertificateList.getInstance(encodedCrl);
+          } catch (RuntimeException ex) {
             LOG.error("could not parse CRL in file {}", filename);
             LOG.debug("could not parse CRL in file " + filename, ex);
-            if (ex instanceof CRLException) {
-              throw (CRLException) ex;
-            } else {
-              throw new CRLException(ex.getMessage(), ex);
-            }
+            throw new CRLException(ex.getMessage(), ex);
           }
 
-          try {
-            byte[] octetString = x509crl.getExtensionValue(Extension.cRLNumber.getId());
-            if (octetString == null) {
-              LOG.warn("CRL without CRL number, ignore it");
-              continue;
-            }
-            byte[] extnValue = DEROctetString.getInstance(octetString).getOctets();
-            // CHECKSTYLE:SKIP
-            BigInteger crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-
-            BigInteger baseCrlNumber = null;
-            octetString = x509crl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-            if (octetString != null) {
-              extnValue = DEROctetString.getInstance(octetString).getOctets();
-              baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-            }
-
-            int idx = 1;
-            stmt.setLong(idx++, crl.getId());
-            stmt.setInt(idx++, crl.getCaId());
-            stmt.setLong(idx++, crlNumber.longValue());
-            stmt.setLong(idx++, x509crl.getThisUpdate().getTime() / 1000);
-            if (x509crl.getNextUpdate() != null) {
-              stmt.setLong(idx++, x509crl.getNextUpdate().getTime() / 1000);
-            } else {
-              stmt.setNull(idx++, Types.INTEGER);
-            }
-
-            if (baseCrlNumber == null) {
-              setBoolean(stmt, idx++, false);
-              stmt.setNull(idx++, Types.BIGINT);
-            } else {
-              setBoolean(stmt, idx++, true);
-              stmt.setLong(idx++, baseCrlNumber.longValue());
-            }
-
-            String str = Base64.encodeToString(encodedCrl);
-            stmt.setString(idx++, str);
-
-            stmt.addBatch();
-          } catch (SQLException ex) {
-            System.err.println("could not import CRL with ID=" + crl.getId()
-                + ", message: " + ex.getMessage());
-            throw ex;
+          Extensions extensions = certList.getTBSCertList().getExtensions();
+          if (extensions == null || extensions.getExtension(Extension.cRLNumber) == null) {
+            LOG.warn("CRL without CRL number, ignore it");
+            continue;
           }
+
+          ret.add(new CrlEntry(crl, encodedCrl, certList));
         } else if (CaDbEntryType.REQUEST == type) {
           RequestType request = (RequestType) entry;
-
           String filename = request.getFile();
-
-          ZipEntry zipEnty = zipFile.getEntry(filename);
-          byte[] encodedRequest = IoUtil.read(zipFile.getInputStream(zipEnty));
-
-          try {
-            int idx = 1;
-            stmt.setLong(idx++, request.getId());
-            stmt.setLong(idx++, request.getUpdate());
-            stmt.setString(idx++, Base64.encodeToString(encodedRequest));
-            stmt.addBatch();
-          } catch (SQLException ex) {
-            System.err.println("could not import REQUEST with ID=" + request.getId()
-                + ", message: " + ex.getMessage());
-            throw ex;
-          }
+          byte[] encodedRequest =
+              IoUtil.read(zipFile.getInputStream(zipFile.getEntry(filename)));
+          ret.add(new RequestEntry(request, encodedRequest));
         } else if (CaDbEntryType.REQCERT == type) {
-          RequestCertType reqCert = (RequestCertType) entry;
-
-          try {
-            int idx = 1;
-            stmt.setLong(idx++, reqCert.getId());
-            stmt.setLong(idx++, reqCert.getRid());
-            stmt.setLong(idx++, reqCert.getCid());
-            stmt.addBatch();
-          } catch (SQLException ex) {
-            System.err.println("could not import REQUEST with ID=" + reqCert.getId()
-                + ", message: " + ex.getMessage());
-            throw ex;
-          }
+          ret.add(new RequestCertEntry((RequestCertType) entry));
         } else {
           throw new IllegalStateException("Unknown CaDbEntryType " + type);
         }
+      } // end while
 
-        boolean isLastBlock = !entries.hasNext();
-        if (numEntriesInBatch > 0
-            && (numEntriesInBatch % numEntriesPerCommit == 0 || isLastBlock)) {
-          try {
-            stmt.executeBatch();
-            commit("(commit import to CA)");
-          } catch (Throwable th) {
-            rollback();
-            deleteFromTableWithLargerId(type.getTableName(), "ID", id, LOG);
-            if (th instanceof SQLException) {
-              throw translate(sql, (SQLException) th);
-            } else if (th instanceof Exception) {
-              throw (Exception) th;
-            } else {
-              throw new Exception(th);
-            }
-          }
+      return ret;
+    } finally {
+      zipFile.close();
+    }
+  } // method parseEntries
+
+  /**
+   * Writes the entries with its own database connection.
+   */
+  private ImportedBlock writeEntries(CaDbEntryType type, String sql, List<ImportEntry> entries,
+      ProcessLog processLog) throws Exception {
+    final int numEntriesPerCommit = Math.max(1,
+        Math.round(type.getSqlBatchFactor() * numCertsPerCommit));
+
+    Connection conn = datasource.getConnection();
+    PreparedStatement stmt = null;
+    Boolean autoCommit = null;
+    long lastId = -1;
+
+    try {
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+      stmt = datasource.prepareStatement(conn, sql);
+
+      int numEntriesInBatch = 0;
+      int numEntries = entries.size();
+      int idx = 0;
+      for (ImportEntry entry : entries) {
+        if (stopMe.get()) {
+          throw new InterruptedException("interrupted by the user");
+        }
+
+        entry.setParams(stmt);
+        stmt.addBatch();
+        numEntriesInBatch++;
+        idx++;
+
+        if (numEntriesInBatch == numEntriesPerCommit || idx == numEntries) {
+          stmt.executeBatch();
+          conn.commit();
 
-          lastSuccessfulEntryId = id;
           processLog.addNumProcessed(numEntriesInBatch);
           numEntriesInBatch = 0;
-          echoToFile(type + ":" + (numProcessedInLastProcess + processLog.numProcessed()) + ":"
-              + lastSuccessfulEntryId, processLogFile);
-          processLog.printStatus();
+          lastId = entry.id;
         }
+      }
 
-      } // end while
-
-      return lastSuccessfulEntryId;
+      return new ImportedBlock(numEntries, lastId);
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LOG.warn("could not rollback: {}", ex2.getMessage());
+      }
+      throw translate(sql, ex);
     } finally {
-      recoverAutoCommit();
-      zipFile.close();
+      datasource.releaseResources(stmt, null, false);
+      if (autoCommit != null) {
+        try {
+          conn.setAutoCommit(autoCommit);
+        } catch (SQLException ex) {
+          LOG.warn("could not recover AutoCommit: {}", ex.getMessage());
+        }
+      }
+      datasource.returnConnection(conn);
     }
-  } // method importEntries
+  } // method writeEntries
 
   private static DbiXmlReader createReader(CaDbEntryType type, InputStream is)
       throws XMLStreamException, InvalidDataObjectException {
@@ -670,6 +862,7 @@ class CaCertstoreDbImporter extends DbPorter {
     datasource.dropIndex(null, "CERT", "IDX_CA_FPK");
     datasource.dropIndex(null, "CERT", "IDX_CA_FPS");
     datasource.dropIndex(null, "CERT", "IDX_CA_FPRS");
+    datasource.dropIndex(null, "CERT", "IDX_CA_LUPDATE");
 
     datasource.dropForeignKeyConstraint(null, "FK_CERT_CA1", "CERT");
     datasource.dropForeignKeyConstraint(null, "FK_CERT_USER1", "CERT");
@@ -715,6 +908,7 @@ class CaCertstoreDbImporter extends DbPorter {
     datasource.createIndex(null, "IDX_CA_FPK", "CERT", "CA_ID", "FP_K");
     datasource.createIndex(null, "IDX_CA_FPS", "CERT", "CA_ID", "FP_S");
     datasource.createIndex(null, "IDX_CA_FPRS", "CERT", "CA_ID", "FP_RS");
+    datasource.createIndex(null, "IDX_CA_LUPDATE", "CERT", "CA_ID", "LUPDATE");
 
     long duration = (System.currentTimeMillis() - start) / 1000;
     System.out.println(" recovered indexes in " + StringUtil.formatTime(duration, false));
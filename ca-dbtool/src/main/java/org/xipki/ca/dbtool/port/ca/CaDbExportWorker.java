@@ -55,9 +55,11 @@ public class CaDbExportWorker extends DbPortWorker {
 
   private final int numCertsPerSelect;
 
+  private final int numThreads;
+
   public CaDbExportWorker(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
       String dbConfFile, String destFolder, boolean resume, int numCertsInBundle,
-      int numCertsPerSelect) throws PasswordResolverException, IOException {
+      int numCertsPerSelect, int numThreads) throws PasswordResolverException, IOException {
     ParamUtil.requireNonBlank("dbConfFile", dbConfFile);
     ParamUtil.requireNonBlank("destFolder", destFolder);
     ParamUtil.requireNonNull("datasourceFactory", datasourceFactory);
@@ -70,6 +72,7 @@ public class CaDbExportWorker extends DbPortWorker {
     this.resume = resume;
     this.numCertsInBundle = numCertsInBundle;
     this.numCertsPerSelect = numCertsPerSelect;
+    this.numThreads = numThreads;
     checkDestFolder();
   }
 
@@ -113,7 +116,7 @@ public class CaDbExportWorker extends DbPortWorker {
 
       // CertStore
       CaCertstoreDbExporter certStoreExporter = new CaCertstoreDbExporter(datasource, destFolder,
-          numCertsInBundle, numCertsPerSelect, resume, stopMe);
+          numCertsInBundle, numCertsPerSelect, numThreads, resume, stopMe);
       certStoreExporter.export();
       certStoreExporter.shutdown();
     } finally {
@@ -53,9 +53,11 @@ public class CaDbImportWorker extends DbPortWorker {
 
   private final int batchEntriesPerCommit;
 
+  private final int numThreads;
+
   public CaDbImportWorker(DataSourceFactory datasourceFactory, PasswordResolver passwordResolver,
-      String dbConfFile, boolean resume, String srcFolder, int batchEntriesPerCommit)
-      throws PasswordResolverException, IOException {
+      String dbConfFile, boolean resume, String srcFolder, int batchEntriesPerCommit,
+      int numThreads) throws PasswordResolverException, IOException {
     ParamUtil.requireNonNull("datasourceFactory", datasourceFactory);
 
     Properties props = DbPorter.getDbConfProperties(
@@ -65,6 +67,7 @@ public class CaDbImportWorker extends DbPortWorker {
     this.resume = resume;
     this.srcFolder = IoUtil.expandFilepath(srcFolder);
     this.batchEntriesPerCommit = batchEntriesPerCommit;
+    this.numThreads = numThreads;
   }
 
   @Override
@@ -92,7 +95,7 @@ public class CaDbImportWorker extends DbPortWorker {
 
       // CertStore
       CaCertstoreDbImporter certStoreImporter = new CaCertstoreDbImporter(datasource,
-          srcFolder, batchEntriesPerCommit, resume, stopMe);
+          srcFolder, batchEntriesPerCommit, numThreads, resume, stopMe);
       certStoreImporter.importToDb();
       certStoreImporter.shutdown();
     } finally {
@@ -45,9 +45,13 @@ abstract class AbstractOcspCertstoreDbImporter extends DbPorter {
 
   protected static final String SQL_DEL_CERT = "DELETE FROM CERT WHERE ID>?";
 
+  // whether the column ISSUER.CERT stores the raw bytes instead of the Base64 encoded text
+  protected final boolean binaryIssuerCert;
+
   AbstractOcspCertstoreDbImporter(DataSourceWrapper datasource, String srcDir, AtomicBoolean stopMe)
       throws Exception {
     super(datasource, srcDir, stopMe);
+    this.binaryIssuerCert = datasource.isBinaryColumn(null, "ISSUER", "CERT");
   }
 
   protected String sha1(byte[] data) {
@@ -72,6 +76,7 @@ abstract class AbstractOcspCertstoreDbImporter extends DbPorter {
 
     datasource.dropForeignKeyConstraint(null, "FK_CERT_ISSUER1", "CERT");
     datasource.dropUniqueConstrain(null, "CONST_ISSUER_SN", "CERT");
+    datasource.dropIndex(null, "CERT", "IDX_CERT_LUPDATE");
 
     datasource.dropPrimaryKey(null, "PK_CERT", "CERT");
 
@@ -88,6 +93,7 @@ abstract class AbstractOcspCertstoreDbImporter extends DbPorter {
     datasource.addForeignKeyConstraint(null, "FK_CERT_ISSUER1", "CERT", "IID", "ISSUER", "ID",
         "CASCADE", "NO ACTION");
     datasource.addUniqueConstrain(null, "CONST_ISSUER_SN", "CERT", "IID", "SN");
+    datasource.createIndex(null, "IDX_CERT_LUPDATE", "CERT", "IID", "LUPDATE");
 
     long duration = (System.currentTimeMillis() - start) / 1000;
     System.out.println(" recovered indexes in " + StringUtil.formatTime(duration, false));
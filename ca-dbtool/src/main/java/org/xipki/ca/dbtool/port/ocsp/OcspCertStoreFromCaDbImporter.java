@@ -55,7 +55,6 @@ import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.X509Util;
-import org.xipki.util.Base64;
 import org.xipki.util.ConfPairs;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
@@ -279,7 +278,7 @@ class OcspCertStoreFromCaDbImporter extends AbstractOcspCertstoreDbImporter {
       ps.setLong(idx++, cert.getTBSCertificate().getEndDate().getDate().getTime() / 1000);
       ps.setString(idx++, HashAlgo.SHA1.base64Hash(encodedCert));
       ps.setString(idx++, ca.getRevInfo());
-      ps.setString(idx++, Base64.encodeToString(encodedCert));
+      DataSourceWrapper.setBytes(ps, idx++, encodedCert, binaryIssuerCert);
 
       ps.execute();
     } catch (SQLException ex) {
@@ -51,6 +51,7 @@ import org.xipki.ca.dbtool.xmlio.ocsp.OcspCertType;
 import org.xipki.ca.dbtool.xmlio.ocsp.OcspCertsWriter;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.Base64;
 import org.xipki.util.IoUtil;
 import org.xipki.util.ParamUtil;
 import org.xipki.util.ProcessLog;
@@ -74,6 +75,9 @@ class OcspCertstoreDbExporter extends DbPorter {
 
   private final int numCertsInBundle;
 
+  // whether the column ISSUER.CERT stores the raw bytes instead of the Base64 encoded text
+  private final boolean binaryIssuerCert;
+
   private final int numCertsPerSelect;
 
   private final boolean resume;
@@ -84,6 +88,7 @@ class OcspCertstoreDbExporter extends DbPorter {
 
     this.numCertsInBundle = ParamUtil.requireMin("numCertsInBundle", numCertsInBundle, 1);
     this.numCertsPerSelect = ParamUtil.requireMin("numCertsPerSelect", numCertsPerSelect, 1);
+    this.binaryIssuerCert = datasource.isBinaryColumn(null, "ISSUER", "CERT");
 
     JAXBContext jaxbContext = JAXBContext.newInstance(ObjectFactory.class);
     marshaller = jaxbContext.createMarshaller();
@@ -177,7 +182,9 @@ class OcspCertstoreDbExporter extends DbPorter {
         issuer.setId(id);
 
         String certFileName = "issuer-conf/cert-issuer-" + id;
-        IoUtil.save(new File(baseDir, certFileName), rs.getString("CERT").getBytes("UTF-8"));
+        String b64Cert = binaryIssuerCert ? Base64.encodeToString(rs.getBytes("CERT"))
+            : rs.getString("CERT");
+        IoUtil.save(new File(baseDir, certFileName), b64Cert.getBytes("UTF-8"));
         issuer.setCertFile(certFileName);
         issuer.setRevInfo(rs.getString("REV_INFO"));
 
@@ -178,7 +178,7 @@ class OcspCertstoreDbImporter extends AbstractOcspCertstoreDbImporter {
       ps.setLong(idx++, cert.getTBSCertificate().getEndDate().getDate().getTime() / 1000);
       ps.setString(idx++, sha1(encodedCert));
       ps.setString(idx++, issuer.getRevInfo());
-      ps.setString(idx++, b64Cert);
+      DataSourceWrapper.setBytes(ps, idx++, encodedCert, binaryIssuerCert);
 
       ps.execute();
     } catch (SQLException ex) {
@@ -96,6 +96,12 @@ import org.xipki.util.TripleState;
  * # Default is false
  * invalidity.date=&lt;'required'|'optional'|'forbidden'&gt;
  *
+ * # Whether the CA keeps a snapshot of the revoked certificates in a file (see
+ * # ca.revocationSnapshotDir in ca.properties), so that only the changes since the previous
+ * # CRL are read from the database.
+ * # Default is false
+ * revocation.snapshot=&lt;'true'|'false'&gt;
+ *
  * </pre>
  * @author Lijun Liao
  * @since 2.0.0
@@ -201,6 +207,8 @@ public class CrlControl {
 
   public static final String KEY_INVALIDITY_DATE = "invalidity.date";
 
+  public static final String KEY_REVOCATION_SNAPSHOT = "revocation.snapshot";
+
   private UpdateMode updateMode = UpdateMode.INTERVAL;
 
   private boolean xipkiCertsetIncluded;
@@ -229,6 +237,8 @@ public class CrlControl {
 
   private TripleState invalidityDateMode = TripleState.OPTIONAL;
 
+  private boolean revocationSnapshot;
+
   private final Set<String> extensionOids;
 
   public CrlControl(String conf) throws InvalidConfException {
@@ -272,6 +282,7 @@ public class CrlControl {
     this.onlyContainsCaCerts = getBoolean(props, KEY_ONLY_CONTAINS_CACERTS, false);
     this.onlyContainsUserCerts = getBoolean(props, KEY_ONLY_CONTAINS_USERCERTS, false);
     this.excludeReason = getBoolean(props, KEY_EXCLUDE_REASON, false);
+    this.revocationSnapshot = getBoolean(props, KEY_REVOCATION_SNAPSHOT, false);
 
     if (this.updateMode != UpdateMode.ONDEMAND) {
       this.fullCrlIntervals = getInteger(props, KEY_FULLCRL_INTERVALS, 1);
@@ -317,6 +328,7 @@ public class CrlControl {
     pairs.putPair(KEY_ONLY_CONTAINS_USERCERTS, Boolean.toString(onlyContainsUserCerts));
     pairs.putPair(KEY_EXCLUDE_REASON, Boolean.toString(excludeReason));
     pairs.putPair(KEY_INVALIDITY_DATE, invalidityDateMode.name());
+    pairs.putPair(KEY_REVOCATION_SNAPSHOT, Boolean.toString(revocationSnapshot));
     if (updateMode != UpdateMode.ONDEMAND) {
       pairs.putPair(KEY_FULLCRL_INTERVALS, Integer.toString(fullCrlIntervals));
       pairs.putPair(KEY_FULLCRL_EXTENDED_NEXTUPDATE, Boolean.toString(extendedNextUpdate));
@@ -374,6 +386,7 @@ public class CrlControl {
         "\n  only CA certificates: ", onlyContainsCaCerts,
         "\n  exclude reason: ", excludeReason,
         "\n  invalidity date mode: ", invalidityDateMode,
+        "\n  revocation snapshot: ", revocationSnapshot,
         "\n  interval: ", intervalStr,
         "\n  XiPKI CertSet: ", xipkiCertSetStr,
         (verbose ? "\n  encoded: " : ""), (verbose ? getConf() : ""));
@@ -439,6 +452,10 @@ public class CrlControl {
     return invalidityDateMode;
   }
 
+  public boolean isRevocationSnapshot() {
+    return revocationSnapshot;
+  }
+
   public final void validate() throws InvalidConfException {
     if (onlyContainsCaCerts && onlyContainsUserCerts) {
       throw new InvalidConfException(
@@ -487,7 +504,8 @@ public class CrlControl {
         || fullCrlIntervals != obj2.fullCrlIntervals
         || includeExpiredCerts != obj2.includeExpiredCerts
         || onlyContainsCaCerts != obj2.onlyContainsCaCerts
-        || onlyContainsUserCerts != obj2.onlyContainsUserCerts) {
+        || onlyContainsUserCerts != obj2.onlyContainsUserCerts
+        || revocationSnapshot != obj2.revocationSnapshot) {
       return false;
     }
 
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.net.SocketException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -44,6 +45,8 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
@@ -267,6 +270,8 @@ public class CaManagerImpl implements CaManager, ResponderManager {
 
   private static final String EVENT_LOCK = "LOCK";
 
+  private static final long PUBLISH_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
   private static final String EVENT_CACHAGNE = "CA_CHANGE";
 
   private final String lockInstanceId;
@@ -281,6 +286,9 @@ public class CaManagerImpl implements CaManager, ResponderManager {
 
   private boolean masterMode;
 
+  // directory of the snapshots of the revoked certificates
+  private Path revocationSnapshotDir = Paths.get("xipki/ca-snapshot");
+
   private Map<String, DataSourceWrapper> datasources;
 
   private final Map<String, CaInfo> caInfos = new ConcurrentHashMap<>();
@@ -313,6 +321,12 @@ public class CaManagerImpl implements CaManager, ResponderManager {
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+  // executes the issuance of certificates of requests with more than one certificate template
+  private ExecutorService issuanceExecutor;
+
+  // delivers the certificates to the asynchronous publishers
+  private ExecutorService publishExecutor;
+
   private final Map<String, CmpResponderImpl> cmpResponders = new ConcurrentHashMap<>();
 
   private final Map<String, ScepResponderImpl> scepResponders = new ConcurrentHashMap<>();
@@ -405,6 +419,10 @@ public class CaManagerImpl implements CaManager, ResponderManager {
     return masterMode;
   }
 
+  Path getRevocationSnapshotDir() {
+    return revocationSnapshotDir;
+  }
+
   @Override
   public Set<String> getSupportedSignerTypes() {
     return securityFactory.getSupportedSignerTypes();
@@ -451,6 +469,12 @@ public class CaManagerImpl implements CaManager, ResponderManager {
     }
     LOG.info("ca.mode: {}", caModeStr);
 
+    String snapshotDirStr = caConfProperties.getProperty("ca.revocationSnapshotDir");
+    if (StringUtil.isNotBlank(snapshotDirStr)) {
+      revocationSnapshotDir = Paths.get(IoUtil.expandFilepath(snapshotDirStr.trim()));
+    }
+    LOG.info("ca.revocationSnapshotDir: {}", revocationSnapshotDir);
+
     int shardId;
     String shardIdStr = caConfProperties.getProperty("ca.shardId");
     if (StringUtil.isBlank(shardIdStr)) {
@@ -592,8 +616,25 @@ public class CaManagerImpl implements CaManager, ResponderManager {
     casInitialized = false;
 
     shutdownScheduledThreadPoolExecutor();
+    // the certificates in the in-memory publish queues are written to the PUBLISHQUEUE
+    shutdownCas();
   } // method reset
 
+  private void shutdownCas() {
+    for (String caName : x509cas.keySet()) {
+      X509Ca ca = x509cas.remove(caName);
+      if (ca == null) {
+        continue;
+      }
+
+      try {
+        ca.shutdown();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, concat("could not call ca.shutdown() for CA ", caName));
+      }
+    }
+  } // method shutdownCas
+
   @Override
   public void restartCaSystem() throws CaMgmtException {
     reset();
@@ -658,6 +699,10 @@ public class CaManagerImpl implements CaManager, ResponderManager {
 
       scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(10);
       scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
+      issuanceExecutor = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors());
+      publishExecutor = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors());
 
       List<String> startedCaNames = new LinkedList<>();
       List<String> failedCaNames = new LinkedList<>();
@@ -812,14 +857,7 @@ public class CaManagerImpl implements CaManager, ResponderManager {
       persistentScheduledThreadPoolExecutor = null;
     }
 
-    for (String caName : x509cas.keySet()) {
-      X509Ca ca = x509cas.get(caName);
-      try {
-        ca.shutdown();
-      } catch (Throwable th) {
-        LogUtil.error(LOG, th, concat("could not call ca.shutdown() for CA ", caName));
-      }
-    }
+    shutdownCas();
 
     if (caLockedByMe) {
       try {
@@ -856,6 +894,14 @@ public class CaManagerImpl implements CaManager, ResponderManager {
     return scheduledThreadPoolExecutor;
   }
 
+  public ExecutorService getIssuanceExecutor() {
+    return issuanceExecutor;
+  }
+
+  public ExecutorService getPublishExecutor() {
+    return publishExecutor;
+  }
+
   @Override
   public Set<String> getCertprofileNames() {
     return certprofileDbEntries.keySet();
@@ -2050,6 +2096,32 @@ public class CaManagerImpl implements CaManager, ResponderManager {
   } // method clearPublishQueue
 
   private void shutdownScheduledThreadPoolExecutor() {
+    if (issuanceExecutor != null) {
+      // the running issuances are completed
+      issuanceExecutor.shutdown();
+      issuanceExecutor = null;
+    }
+
+    if (publishExecutor != null) {
+      // the queued deliveries are completed, the certificates of the deliveries which do not
+      // complete in time are written to the PUBLISHQUEUE by X509Ca.shutdown()
+      publishExecutor.shutdown();
+      boolean terminated = false;
+      try {
+        terminated = publishExecutor.awaitTermination(PUBLISH_SHUTDOWN_TIMEOUT_SECONDS,
+            TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        LOG.error("interrupted: {}", ex.getMessage());
+      }
+
+      if (!terminated) {
+        LOG.warn("deliveries to the publishers not completed within {} seconds, cancel them",
+            PUBLISH_SHUTDOWN_TIMEOUT_SECONDS);
+        publishExecutor.shutdownNow();
+      }
+      publishExecutor = null;
+    }
+
     if (scheduledThreadPoolExecutor == null) {
       return;
     }
@@ -0,0 +1,267 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.CertificateInfo;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.ca.server.impl.store.CertStore;
+import org.xipki.security.CertRevocationInfo;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ParamUtil;
+
+/**
+ * In-memory queue of the certificates to be published to an asynchronous publisher. The
+ * certificates are delivered in batches by at most one task at a time. Only if the publisher
+ * fails, the queue is full or the CA is shutdown, the certificates are written to the table
+ * PUBLISHQUEUE, which will be processed later by {@link X509Ca#publishCertsInQueue()}.
+ *
+ * <p>The revocation status of the certificates is read again directly before the delivery,
+ * since the certificates may have been revoked in the meantime. The revocation itself is
+ * published via the table PUBLISHQUEUE, its processing holds the {@link #getDeliveryLock()}
+ * so that the publisher receives the status changes in order.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+class CertPublishQueue {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CertPublishQueue.class);
+
+  private static final int CAPACITY = 10000;
+
+  private static final int BATCH_SIZE = 100;
+
+  private class Deliverer implements Runnable {
+
+    @Override
+    public void run() {
+      List<CertificateInfo> batch = new ArrayList<>(BATCH_SIZE);
+      while (true) {
+        if (Thread.currentThread().isInterrupted()) {
+          // cancelled by the shutdown, the remaining certificates will be flushed
+          delivering.set(false);
+          return;
+        }
+
+        queue.drainTo(batch, BATCH_SIZE);
+        if (batch.isEmpty()) {
+          delivering.set(false);
+          // certificates added after the drainTo and before the reset of the flag
+          if (queue.isEmpty() || !delivering.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+
+        deliver(batch);
+        batch.clear();
+      }
+    }
+
+  } // class Deliverer
+
+  private final NameId ca;
+
+  private final IdentifiedCertPublisher publisher;
+
+  private final CertStore certstore;
+
+  private final CaManagerImpl caManager;
+
+  private final BlockingQueue<CertificateInfo> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+  private final AtomicBoolean delivering = new AtomicBoolean(false);
+
+  private final Deliverer deliverer = new Deliverer();
+
+  private final ReentrantLock deliveryLock = new ReentrantLock();
+
+  CertPublishQueue(NameId ca, IdentifiedCertPublisher publisher, CertStore certstore,
+      CaManagerImpl caManager) {
+    this.ca = ParamUtil.requireNonNull("ca", ca);
+    this.publisher = ParamUtil.requireNonNull("publisher", publisher);
+    this.certstore = ParamUtil.requireNonNull("certstore", certstore);
+    this.caManager = ParamUtil.requireNonNull("caManager", caManager);
+  }
+
+  IdentifiedCertPublisher getPublisher() {
+    return publisher;
+  }
+
+  /**
+   * Returns the lock held while the current status of certificates is read from the database
+   * and delivered to the publisher.
+   * @return the delivery lock.
+   */
+  Lock getDeliveryLock() {
+    return deliveryLock;
+  }
+
+  /**
+   * Adds the certificate to the queue.
+   * @param certInfo
+   *          Certificate to be published. Must not be {@code null}.
+   * @return whether the certificate is queued, either in memory or in the database.
+   */
+  boolean add(CertificateInfo certInfo) {
+    if (!queue.offer(certInfo)) {
+      // backpressure: the publisher could not keep pace with the issuance
+      LOG.debug("in-memory queue of publisher {} is full", publisher.getIdent().getName());
+      List<CertificateInfo> certInfos = new ArrayList<>(1);
+      certInfos.add(certInfo);
+      return persist(certInfos);
+    }
+
+    if (delivering.compareAndSet(false, true)) {
+      ExecutorService executor = caManager.getPublishExecutor();
+      try {
+        if (executor == null) {
+          throw new RejectedExecutionException("publish executor is not available");
+        }
+        executor.execute(deliverer);
+      } catch (RejectedExecutionException ex) {
+        delivering.set(false);
+        LOG.warn("could not schedule the delivery to publisher {}: {}",
+            publisher.getIdent().getName(), ex.getMessage());
+        flush();
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Writes all certificates in the queue to the table PUBLISHQUEUE.
+   */
+  void flush() {
+    List<CertificateInfo> certInfos = new ArrayList<>(queue.size());
+    queue.drainTo(certInfos);
+    if (!certInfos.isEmpty()) {
+      persist(certInfos);
+    }
+  }
+
+  private void deliver(List<CertificateInfo> certInfos) {
+    deliveryLock.lock();
+    try {
+      List<CertificateInfo> currentCertInfos;
+      try {
+        currentCertInfos = refreshRevocationInfos(certInfos);
+      } catch (OperationException | RuntimeException ex) {
+        LogUtil.warn(LOG, ex, "could not read the revocation status of "
+            + certInfos.size() + " certificates");
+        persist(certInfos);
+        return;
+      }
+
+      if (currentCertInfos.isEmpty()) {
+        return;
+      }
+
+      boolean successful;
+      try {
+        successful = publisher.certificatesAdded(currentCertInfos);
+      } catch (RuntimeException ex) {
+        successful = false;
+        LogUtil.warn(LOG, ex, "could not publish certificates to the publisher "
+            + publisher.getIdent());
+      }
+
+      if (!successful) {
+        persist(currentCertInfos);
+      }
+    } finally {
+      deliveryLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the certificates with the current revocation status. Certificates removed in the
+   * meantime are not contained.
+   */
+  private List<CertificateInfo> refreshRevocationInfos(List<CertificateInfo> certInfos)
+      throws OperationException {
+    List<Long> certIds = new ArrayList<>(certInfos.size());
+    for (CertificateInfo certInfo : certInfos) {
+      certIds.add(certInfo.getCert().getCertId());
+    }
+
+    Map<Long, CertRevocationInfo> revInfos = certstore.getRevocationInfos(certIds);
+    List<CertificateInfo> ret = new ArrayList<>(certInfos.size());
+    for (CertificateInfo certInfo : certInfos) {
+      Long certId = certInfo.getCert().getCertId();
+      if (!revInfos.containsKey(certId)) {
+        continue;
+      }
+
+      CertRevocationInfo revInfo = revInfos.get(certId);
+      if (revInfo == null && certInfo.getRevocationInfo() == null) {
+        ret.add(certInfo);
+      } else {
+        // the same object is delivered to other publishers, hence not modified
+        ret.add(copy(certInfo, revInfo));
+      }
+    }
+    return ret;
+  }
+
+  private static CertificateInfo copy(CertificateInfo certInfo, CertRevocationInfo revInfo) {
+    CertificateInfo ret = new CertificateInfo(certInfo.getCert(), certInfo.getPrivateKey(),
+        certInfo.getIssuer(), certInfo.getIssuerCert(), certInfo.getSubjectPublicKey(),
+        certInfo.getProfile(), certInfo.getRequestor());
+    ret.setUser(certInfo.getUser());
+    ret.setReqType(certInfo.getReqType());
+    ret.setTransactionId(certInfo.getTransactionId());
+    ret.setRequestedSubject(certInfo.getRequestedSubject());
+    ret.setWarningMessage(certInfo.getWarningMessage());
+    ret.setRevocationInfo(revInfo);
+    return ret;
+  }
+
+  private boolean persist(List<CertificateInfo> certInfos) {
+    List<Long> certIds = new ArrayList<>(certInfos.size());
+    for (CertificateInfo certInfo : certInfos) {
+      certIds.add(certInfo.getCert().getCertId());
+    }
+
+    try {
+      certstore.addToPublishQueue(publisher.getIdent(), certIds, ca);
+      return true;
+    } catch (OperationException | RuntimeException ex) {
+      LogUtil.error(LOG, ex, "could not add " + certIds.size()
+          + " entries to PublishQueue for publisher " + publisher.getIdent().getName());
+      return false;
+    }
+  }
+
+}
@@ -19,7 +19,9 @@ package org.xipki.ca.server.impl;
 
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -29,46 +31,53 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.CertWithDbId;
 import org.xipki.ca.api.CertificateInfo;
 import org.xipki.ca.api.NameId;
 import org.xipki.ca.api.OperationException;
 import org.xipki.ca.server.impl.store.CertStore;
+import org.xipki.ca.server.impl.store.RepublishCheckpoint;
+import org.xipki.security.HashAlgo;
 import org.xipki.security.X509Cert;
 import org.xipki.util.LogUtil;
 import org.xipki.util.ParamUtil;
 import org.xipki.util.ProcessLog;
 
 /**
- * TODO.
+ * Republishes the certificates of a CA.
+ *
+ * <p>The producer reads only the IDs of the certificates and splits them into ranges of
+ * {@link #PAGE_SIZE} certificates. The consumers retrieve the certificates of a range with one
+ * query and publish them in one batch. The progress is saved periodically as a checkpoint in
+ * the table REPUBLISH_CHECKPOINT: all certificates with ID less than the checkpoint have been
+ * published. An interrupted republishing with the same publishers resumes from the
+ * checkpoint.
+ *
+ * <p>Since the CA is still active while republishing, the certificates which are changed in
+ * the meantime must be published again. {@link #catchUpChangedCerts()} republishes them in
+ * passes while the CA is still active, till only few changes remain. These are republished by
+ * {@link #republishChangedCerts()} while the CA is inactive.
+ *
  * @author Lijun Liao
  * @since 2.1.0
  */
 
 class CertRepublisher {
 
-  private static interface QueueEntry {
+  private static class IdRange {
 
-    public static final EndOfQueue END_OF_QUEUE = new EndOfQueue();
+    private static final IdRange END_OF_QUEUE = new IdRange(0, 0, 0);
 
-    public static class EndOfQueue implements QueueEntry {
-
-      private EndOfQueue() {
-      }
-
-    }
-
-  }
+    private final long startId;
 
-  private class SerialWithIdQueueEntry implements QueueEntry {
+    private final long endId;
 
-    private final SerialWithId serialWithId;
+    private final int numCerts;
 
-    public SerialWithIdQueueEntry(SerialWithId serialWithId) {
-      this.serialWithId = ParamUtil.requireNonNull("serialWithId", serialWithId);
-    }
-
-    public SerialWithId serialWithId() {
-      return serialWithId;
+    private IdRange(long startId, long endId, int numCerts) {
+      this.startId = startId;
+      this.endId = endId;
+      this.numCerts = numCerts;
     }
 
   }
@@ -82,25 +91,28 @@ class CertRepublisher {
 
     @Override
     public void run() {
-      final int numEntries = 100;
-      long startId = 1;
+      long startId = checkpointId();
 
       try {
         List<SerialWithId> serials;
         do {
-          serials = certstore.getSerialNumbers(ca, startId, numEntries, onlyRevokedCerts);
-          long maxId = 1;
+          serials = certstore.getSerialNumbers(ca, startId, PAGE_SIZE, onlyRevokedCerts);
+          if (serials.isEmpty()) {
+            break;
+          }
+
+          long minId = Long.MAX_VALUE;
+          long maxId = 0;
           for (SerialWithId sid : serials) {
-            if (sid.getId() > maxId) {
-              maxId = sid.getId();
-            }
-            queue.put(new SerialWithIdQueueEntry(sid));
+            minId = Math.min(minId, sid.getId());
+            maxId = Math.max(maxId, sid.getId());
           }
 
+          IdRange range = new IdRange(minId, maxId, serials.size());
+          addPendingRange(range);
+          queue.put(range);
           startId = maxId + 1;
-        } while (serials.size() >= numEntries && !failed && !stopMe.get());
-
-        queue.put(QueueEntry.END_OF_QUEUE);
+        } while (serials.size() >= PAGE_SIZE && !failed && !stopMe.get());
       } catch (OperationException ex) {
         LogUtil.error(LOG, ex, "error in RepublishProducer");
         failed = true;
@@ -109,13 +121,11 @@ class CertRepublisher {
         failed = true;
       }
 
-      if (!queue.contains(QueueEntry.END_OF_QUEUE)) {
-        try {
-          queue.put(QueueEntry.END_OF_QUEUE);
-        } catch (InterruptedException ex) {
-          LogUtil.error(LOG, ex, "error in RepublishProducer");
-          failed = true;
-        }
+      try {
+        queue.put(IdRange.END_OF_QUEUE);
+      } catch (InterruptedException ex) {
+        LogUtil.error(LOG, ex, "error in RepublishProducer");
+        failed = true;
       }
     }
   }
@@ -129,56 +139,45 @@ class CertRepublisher {
 
     @Override
     public void run() {
-      while (!failed) {
-        QueueEntry entry;
+      while (!failed && !stopMe.get()) {
+        IdRange range;
         try {
-          entry = queue.take();
+          range = queue.take();
         } catch (InterruptedException ex) {
           LogUtil.error(LOG, ex, "could not take from queue");
           failed = true;
           break;
         }
 
-        if (entry instanceof QueueEntry.EndOfQueue) {
+        if (range == IdRange.END_OF_QUEUE) {
           // re-add it to queue so that other consumers know it
           try {
-            queue.put(entry);
+            queue.put(range);
           } catch (InterruptedException ex) {
             LogUtil.warn(LOG, ex, "could not re-add EndOfQueue to queue");
           }
           break;
         }
 
-        SerialWithId sid = ((SerialWithIdQueueEntry) entry).serialWithId();
-
-        CertificateInfo certInfo;
-
+        List<CertificateInfo> certInfos;
         try {
-          certInfo = certstore.getCertForId(ca, caCert, sid.getId(), caIdNameMap);
+          certInfos = certstore.getCertsInIdRange(ca, caCert, range.startId, range.endId,
+              onlyRevokedCerts, caIdNameMap);
         } catch (OperationException | CertificateException ex) {
           LogUtil.error(LOG, ex);
           failed = true;
           break;
         }
 
-        boolean allSucc = true;
-        for (IdentifiedCertPublisher publisher : publishers) {
-          if (!certInfo.isRevoked() && !publisher.publishsGoodCert()) {
-            continue;
-          }
-
-          boolean successful = publisher.certificateAdded(certInfo);
-          if (!successful) {
-            LOG.error("republish certificate serial={} to publisher {} failed",
-                LogUtil.formatCsn(sid.getSerial()), publisher.getIdent());
-            allSucc = false;
-          }
-        }
-
-        if (!allSucc) {
+        if (!publish(certInfos, false)) {
+          LOG.error("republish certificates with ID from {} to {} failed", range.startId,
+              range.endId);
+          failed = true;
           break;
         }
-        processLog.addNumProcessed(1);
+
+        finishRange(range);
+        processLog.addNumProcessed(range.numCerts);
       }
     }
 
@@ -186,6 +185,14 @@ class CertRepublisher {
 
   private static final Logger LOG = LoggerFactory.getLogger(CertRepublisher.class);
 
+  private static final int PAGE_SIZE = 1000;
+
+  private static final int CHANGED_CERTS_PAGE_SIZE = 100;
+
+  private static final long CHECKPOINT_INTERVAL_MS = 10000;
+
+  private static final int MAX_CATCH_UP_PASSES = 5;
+
   private final NameId ca;
 
   private final X509Cert caCert;
@@ -200,14 +207,30 @@ class CertRepublisher {
 
   private final int numThreads;
 
-  private final BlockingQueue<QueueEntry> queue = new ArrayBlockingQueue<>(1000);
+  // fingerprint of the publishers and onlyRevokedCerts
+  private final String checkpointParams;
+
+  private final BlockingQueue<IdRange> queue = new ArrayBlockingQueue<>(100);
 
   private final AtomicBoolean stopMe = new AtomicBoolean(false);
 
+  // start IDs of the ranges which are not published yet
+  private final TreeSet<Long> pendingStartIds = new TreeSet<>();
+
+  // ID from which the producer continues
+  private long nextStartId;
+
+  // seconds since January 1, 1970, 00:00:00 GMT
+  private long startTime;
+
+  // certificates changed since this time (in seconds) are not republished yet
+  private long changedSince;
+
   private ProcessLog processLog;
 
   CertRepublisher(NameId ca, X509Cert caCert, CaIdNameMap caIdNameMap, CertStore certstore,
-      List<IdentifiedCertPublisher> publishers, boolean onlyRevokedCerts, int numThreads) {
+      List<IdentifiedCertPublisher> publishers,
+      boolean onlyRevokedCerts, int numThreads) {
     this.ca = ParamUtil.requireNonNull("ca", ca);
     this.caCert = ParamUtil.requireNonNull("caCert", caCert);
     this.caIdNameMap = ParamUtil.requireNonNull("caIdNameMap", caIdNameMap);
@@ -215,8 +238,26 @@ class CertRepublisher {
     this.publishers = ParamUtil.requireNonEmpty("publishers", publishers);
     this.onlyRevokedCerts = onlyRevokedCerts;
     this.numThreads = ParamUtil.requireMin("numThreads", numThreads, 1);
+
+    List<Integer> publisherIds = new ArrayList<>(publishers.size());
+    for (IdentifiedCertPublisher publisher : publishers) {
+      publisherIds.add(publisher.getIdent().getId());
+    }
+    Collections.sort(publisherIds);
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(onlyRevokedCerts);
+    for (Integer id : publisherIds) {
+      sb.append(",").append(id);
+    }
+    this.checkpointParams = HashAlgo.SHA1.base64Hash(sb.toString().getBytes());
   }
 
+  /**
+   * Republishes all certificates, starting from the checkpoint of the previous interrupted
+   * republishing if present.
+   * @return whether all certificates are republished.
+   */
   boolean republish() {
     try {
       return republish0();
@@ -228,7 +269,114 @@ class CertRepublisher {
     }
   }
 
+  /**
+   * Republishes the certificates which have been added or whose revocation status has been
+   * changed since the start of the republishing, while the CA is still active. Each pass
+   * republishes the certificates changed since the start of the previous pass, till at most
+   * one page of changes remains or the maximal number of passes is reached. Should be called
+   * after {@link #republish()}.
+   * @return whether all certificates are republished.
+   */
+  boolean catchUpChangedCerts() {
+    for (int i = 0; i < MAX_CATCH_UP_PASSES; i++) {
+      long passStartTime = System.currentTimeMillis() / 1000;
+      int num = republishCertsUpdatedSince(changedSince);
+      if (num == -1) {
+        return false;
+      }
+
+      changedSince = passStartTime;
+      LOG.info("republished {} certificates changed during the republishing (pass {})", num,
+          i + 1);
+      if (num <= CHANGED_CERTS_PAGE_SIZE) {
+        break;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Republishes the certificates which have been changed since the last pass of
+   * {@link #catchUpChangedCerts()}, or since the start of the republishing, and removes the
+   * checkpoint. Should be called after {@link #republish()} while the CA is inactive.
+   * @return whether all certificates are republished.
+   */
+  boolean republishChangedCerts() {
+    int num = republishCertsUpdatedSince(changedSince);
+    if (num == -1) {
+      return false;
+    }
+
+    LOG.info("republished {} certificates changed during the republishing", num);
+
+    try {
+      certstore.removeRepublishCheckpoint(ca);
+    } catch (OperationException ex) {
+      LogUtil.warn(LOG, ex, "could not remove the republish checkpoint of CA " + ca.getName());
+    }
+    return true;
+  }
+
+  /**
+   * Republishes the certificates which have been added or whose revocation status has been
+   * changed since the given time.
+   * @return number of republished certificates, or -1 if failed.
+   */
+  private int republishCertsUpdatedSince(long since) {
+    long startId = 1;
+    int num = 0;
+    try {
+      List<Long> certIds;
+      do {
+        // one second before, since the LUPDATE is measured in seconds
+        certIds = certstore.getIdsOfCertsUpdatedSince(ca, since - 1, startId,
+            CHANGED_CERTS_PAGE_SIZE);
+        if (certIds.isEmpty()) {
+          break;
+        }
+
+        List<CertificateInfo> certInfos = certstore.getCertsForIds(ca, caCert, certIds,
+            caIdNameMap);
+        if (!publish(certInfos, true)) {
+          LOG.error("republish certificates changed during the republishing failed");
+          return -1;
+        }
+
+        num += certInfos.size();
+        startId = certIds.get(certIds.size() - 1) + 1;
+      } while (certIds.size() >= CHANGED_CERTS_PAGE_SIZE);
+    } catch (OperationException | CertificateException ex) {
+      LogUtil.error(LOG, ex, "could not republish the changed certificates");
+      return -1;
+    }
+
+    return num;
+  } // method republishCertsUpdatedSince
+
   private boolean republish0() {
+    RepublishCheckpoint checkpoint;
+    try {
+      checkpoint = certstore.getRepublishCheckpoint(ca);
+    } catch (OperationException ex) {
+      LogUtil.error(LOG, ex, "could not get the republish checkpoint of CA " + ca.getName());
+      return false;
+    }
+
+    if (checkpoint != null && checkpointParams.equals(checkpoint.getParams())) {
+      nextStartId = checkpoint.getNextId();
+      startTime = checkpoint.getStartTime();
+      LOG.info("resume republishing certificates of CA {} from ID {}", ca.getName(),
+          nextStartId);
+    } else {
+      nextStartId = 1;
+      startTime = System.currentTimeMillis() / 1000;
+    }
+    changedSince = startTime;
+
+    if (!saveCheckpoint()) {
+      return false;
+    }
+
     long total;
     try {
       total = certstore.getCountOfCerts(ca, onlyRevokedCerts);
@@ -241,7 +389,6 @@ class CertRepublisher {
 
     ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
     List<CertRepublishConsumer> consumers = new ArrayList<>(numThreads);
-    AtomicBoolean stopMe = new AtomicBoolean(false);
     for (int i = 0; i < numThreads; i++) {
       CertRepublishConsumer consumer = new CertRepublishConsumer();
       consumers.add(consumer);
@@ -256,61 +403,154 @@ class CertRepublisher {
 
     executor.shutdown();
     boolean successful = true;
+    long lastCheckpointTime = System.currentTimeMillis();
 
     while (true) {
       processLog.printStatus();
 
       if (successful) {
-        if (producer.failed) {
-          successful = false;
-        }
-
-        if (successful) {
-          for (CertRepublishConsumer consumer : consumers) {
-            if (consumer.failed) {
-              successful = false;
-              break;
-            }
-          }
-        }
-
+        successful = !isFailed(producer, consumers);
         if (!successful) {
-          stopMe.set(true);
+          stop();
           LOG.warn("failed");
         }
       }
 
+      if (System.currentTimeMillis() - lastCheckpointTime > CHECKPOINT_INTERVAL_MS) {
+        saveCheckpoint();
+        lastCheckpointTime = System.currentTimeMillis();
+      }
+
       try {
         boolean terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
         if (terminated) {
           break;
         }
       } catch (InterruptedException ex) {
-        stopMe.set(true);
+        stop();
         LogUtil.warn(LOG, ex, "interrupted: " + ex.getMessage());
       }
     }
 
     if (successful) {
-      if (producer.failed) {
-        successful = false;
+      // stopMe is also set if interrupted
+      successful = !stopMe.get() && !isFailed(producer, consumers);
+      if (!successful) {
+        LOG.warn("failed");
       }
+    }
 
-      if (successful) {
-        for (CertRepublishConsumer consumer : consumers) {
-          if (consumer.failed) {
-            successful = false;
-            break;
+    saveCheckpoint();
+    return successful;
+  } // method republish0
+
+  private boolean publish(List<CertificateInfo> certInfos, boolean unrevokeGoodCerts) {
+    if (certInfos.isEmpty()) {
+      return true;
+    }
+
+    List<CertificateInfo> revokedCertInfos = null;
+    boolean allSucc = true;
+    for (IdentifiedCertPublisher publisher : publishers) {
+      List<CertificateInfo> toPublish = certInfos;
+      if (!publisher.publishsGoodCert()) {
+        if (revokedCertInfos == null) {
+          revokedCertInfos = new ArrayList<>(certInfos.size());
+          for (CertificateInfo certInfo : certInfos) {
+            if (certInfo.isRevoked()) {
+              revokedCertInfos.add(certInfo);
+            }
+          }
+        }
+        toPublish = revokedCertInfos;
+
+        if (unrevokeGoodCerts) {
+          // the revocation may have been republished before the certificates were unrevoked
+          List<CertWithDbId> goodCerts = new ArrayList<>(certInfos.size());
+          for (CertificateInfo certInfo : certInfos) {
+            if (!certInfo.isRevoked()) {
+              goodCerts.add(certInfo.getCert());
+            }
+          }
+
+          if (!goodCerts.isEmpty() && !publisher.certificatesUnrevoked(caCert, goodCerts)) {
+            LOG.error("republish the unrevocation of {} certificates to publisher {} failed",
+                goodCerts.size(), publisher.getIdent());
+            allSucc = false;
           }
         }
       }
 
+      if (toPublish.isEmpty()) {
+        continue;
+      }
+
+      boolean successful;
+      try {
+        successful = publisher.certificatesAdded(toPublish);
+      } catch (RuntimeException ex) {
+        successful = false;
+        LogUtil.warn(LOG, ex, "could not publish certificates to the publisher "
+            + publisher.getIdent());
+      }
+
       if (!successful) {
-        LOG.warn("failed");
+        LOG.error("republish {} certificates to publisher {} failed", toPublish.size(),
+            publisher.getIdent());
+        allSucc = false;
       }
     }
 
-    return successful;
+    return allSucc;
+  } // method publish
+
+  private void stop() {
+    stopMe.set(true);
+    // release the producer and consumers waiting for the queue, the ranges in the queue
+    // remain pending.
+    queue.clear();
+    queue.offer(IdRange.END_OF_QUEUE);
+  }
+
+  private boolean saveCheckpoint() {
+    try {
+      certstore.saveRepublishCheckpoint(ca,
+          new RepublishCheckpoint(checkpointParams, checkpointId(), startTime));
+      return true;
+    } catch (OperationException ex) {
+      LogUtil.error(LOG, ex, "could not save the republish checkpoint of CA " + ca.getName());
+      return false;
+    }
+  }
+
+  private synchronized void addPendingRange(IdRange range) {
+    pendingStartIds.add(range.startId);
+    nextStartId = range.endId + 1;
+  }
+
+  private synchronized void finishRange(IdRange range) {
+    pendingStartIds.remove(range.startId);
+  }
+
+  /**
+   * Returns the ID from which the republishing can be resumed.
+   */
+  private synchronized long checkpointId() {
+    return pendingStartIds.isEmpty() ? nextStartId : pendingStartIds.first();
+  }
+
+  private static boolean isFailed(CertRepublishProducer producer,
+      List<CertRepublishConsumer> consumers) {
+    if (producer.failed) {
+      return true;
+    }
+
+    for (CertRepublishConsumer consumer : consumers) {
+      if (consumer.failed) {
+        return true;
+      }
+    }
+    return false;
   }
 
 }
@@ -37,6 +37,8 @@ public class CertRevInfoWithSerial extends CertRevocationInfo
 
   private final BigInteger serial;
 
+  private Date notAfter;
+
   public CertRevInfoWithSerial(long id, BigInteger serial, CrlReason reason,
       Date revocationTime, Date invalidityTime) {
     super(reason, revocationTime, invalidityTime);
@@ -59,6 +61,18 @@ public class CertRevInfoWithSerial extends CertRevocationInfo
     return id;
   }
 
+  /**
+   * Returns the notAfter of the certificate.
+   * @return the notAfter, or {@code null} if unknown.
+   */
+  public Date getNotAfter() {
+    return notAfter;
+  }
+
+  public void setNotAfter(Date notAfter) {
+    this.notAfter = notAfter;
+  }
+
   @Override
   public int compareTo(CertRevInfoWithSerial other) {
     return serial.compareTo(other.serial);
@@ -0,0 +1,245 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.StringTokenizer;
+
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.cms.SignedData;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cms.CMSAbsentContent;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.ParamUtil;
+
+/**
+ * Encoded CRL with the information required by the HTTP caching. The instance is immutable
+ * and can be shared by concurrent threads.
+ *
+ * <p>Only the DER encoding is kept in memory. thisUpdate and nextUpdate are read from the
+ * header of the TBSCertList, the revoked certificates are not parsed.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class EncodedCrl {
+
+  private final byte[] encoded;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final String etag;
+
+  /**
+   * Bounded reader of the DER elements before the revokedCertificates.
+   */
+  private static class HeaderReader {
+
+    private final byte[] encoded;
+
+    private int offset;
+
+    private int length;
+
+    HeaderReader(byte[] encoded) {
+      this.encoded = encoded;
+    }
+
+    int tag() {
+      if (offset >= encoded.length) {
+        return -1;
+      }
+      return encoded[offset] & 0xFF;
+    }
+
+    /**
+     * Reads the header of the element at the current offset, and moves the offset to its
+     * content.
+     */
+    void readHeader(int expectedTag) {
+      if (tag() != expectedTag) {
+        throw new IllegalArgumentException("invalid CRL: unexpected tag " + tag());
+      }
+
+      if (offset + 2 > encoded.length) {
+        throw new IllegalArgumentException("invalid CRL: truncated");
+      }
+
+      int lenByte = encoded[offset + 1] & 0xFF;
+      offset += 2;
+      if (lenByte < 0x80) {
+        length = lenByte;
+      } else {
+        int numLenBytes = lenByte & 0x7F;
+        if (numLenBytes == 0 || numLenBytes > 4 || offset + numLenBytes > encoded.length) {
+          throw new IllegalArgumentException("invalid CRL: invalid length");
+        }
+
+        long len = 0;
+        for (int i = 0; i < numLenBytes; i++) {
+          len = (len << 8) | (encoded[offset++] & 0xFF);
+        }
+        if (len > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("invalid CRL: invalid length");
+        }
+        length = (int) len;
+      }
+
+      if (offset + length > encoded.length) {
+        throw new IllegalArgumentException("invalid CRL: truncated");
+      }
+    }
+
+    /**
+     * Skips the element at the current offset.
+     */
+    void skip() {
+      readHeader(tag());
+      offset += length;
+    }
+
+    Date readTime() {
+      int start = offset;
+      skip();
+      byte[] encodedTime = new byte[offset - start];
+      System.arraycopy(encoded, start, encodedTime, 0, encodedTime.length);
+      try {
+        return Time.getInstance(ASN1Primitive.fromByteArray(encodedTime)).getDate();
+      } catch (IOException ex) {
+        throw new IllegalArgumentException("invalid CRL: " + ex.getMessage(), ex);
+      }
+    }
+
+  } // class HeaderReader
+
+  /**
+   * Constructor.
+   * @param encoded
+   *          DER encoded CRL. Must not be {@code null}.
+   * @throws IllegalArgumentException
+   *           If the header of the CRL could not be parsed.
+   */
+  public EncodedCrl(byte[] encoded) {
+    this.encoded = ParamUtil.requireNonNull("encoded", encoded);
+
+    // CertificateList ::= SEQUENCE { tbsCertList TBSCertList, ... }
+    // TBSCertList ::= SEQUENCE { version INTEGER OPTIONAL, signature AlgorithmIdentifier,
+    //     issuer Name, thisUpdate Time, nextUpdate Time OPTIONAL, ... }
+    HeaderReader reader = new HeaderReader(encoded);
+    reader.readHeader(BERTags.SEQUENCE | BERTags.CONSTRUCTED);
+    reader.readHeader(BERTags.SEQUENCE | BERTags.CONSTRUCTED);
+    if (reader.tag() == BERTags.INTEGER) {
+      reader.skip();
+    }
+    reader.skip(); // signature
+    reader.skip(); // issuer
+    this.thisUpdate = reader.readTime();
+    int tag = reader.tag();
+    this.nextUpdate = (tag == BERTags.UTC_TIME || tag == BERTags.GENERALIZED_TIME)
+        ? reader.readTime() : null;
+    this.etag = "\"" + HashAlgo.SHA1.hexHash(encoded) + "\"";
+  }
+
+  /**
+   * Returns the DER encoded CRL. The returned array must not be modified.
+   * @return the DER encoded CRL.
+   */
+  public byte[] getEncoded() {
+    return encoded;
+  }
+
+  public Date getThisUpdate() {
+    return thisUpdate;
+  }
+
+  public Date getNextUpdate() {
+    return nextUpdate;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * Builds the degenerate PKCS#7 SignedData which contains only this CRL, as used by SCEP.
+   * The CRL is parsed for each call, the result is not cached.
+   * @return the SignedData.
+   * @throws CMSException
+   *           If the SignedData could not be built.
+   */
+  public SignedData getSignedData() throws CMSException {
+    X509CRLHolder crlHolder;
+    try {
+      crlHolder = new X509CRLHolder(encoded);
+    } catch (IOException ex) {
+      throw new CMSException("could not parse CRL: " + ex.getMessage(), ex);
+    }
+
+    CMSSignedDataGenerator cmsSignedDataGen = new CMSSignedDataGenerator();
+    cmsSignedDataGen.addCRL(crlHolder);
+    return SignedData.getInstance(
+        cmsSignedDataGen.generate(new CMSAbsentContent()).toASN1Structure().getContent());
+  }
+
+  /**
+   * Whether the CRL cached by the HTTP client is still up to date, according to the
+   * conditional headers If-None-Match and If-Modified-Since (RFC 7232).
+   * @param ifNoneMatch
+   *          Value of the HTTP header If-None-Match. Could be {@code null}.
+   * @param ifModifiedSince
+   *          Value of the HTTP header If-Modified-Since. Could be {@code null}.
+   * @return whether the CRL has not been modified.
+   */
+  public boolean isNotModified(String ifNoneMatch, Date ifModifiedSince) {
+    if (ifNoneMatch != null) {
+      // If-Modified-Since must be ignored if If-None-Match is present
+      StringTokenizer st = new StringTokenizer(ifNoneMatch, ", \t");
+      while (st.hasMoreTokens()) {
+        String token = st.nextToken();
+        if ("*".equals(token)) {
+          return true;
+        }
+
+        if (token.startsWith("W/")) {
+          token = token.substring(2);
+        }
+
+        if (etag.equalsIgnoreCase(token)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    if (ifModifiedSince == null) {
+      return false;
+    }
+
+    // HTTP dates have the precision of seconds
+    return thisUpdate.getTime() / 1000 <= ifModifiedSince.getTime() / 1000;
+  }
+
+}
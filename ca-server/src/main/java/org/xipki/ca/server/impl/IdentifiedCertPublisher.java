@@ -18,6 +18,7 @@
 package org.xipki.ca.server.impl;
 
 import java.security.cert.X509CRL;
+import java.util.List;
 import java.util.Map;
 
 import org.xipki.audit.AuditServiceRegister;
@@ -63,6 +64,10 @@ class IdentifiedCertPublisher {
     return certPublisher.certificateAdded(certInfo);
   }
 
+  public boolean certificatesAdded(List<CertificateInfo> certInfos) {
+    return certPublisher.certificatesAdded(certInfos);
+  }
+
   public boolean certificateRevoked(X509Cert caCert, CertWithDbId cert,
       String certprofile, CertRevocationInfo revInfo) {
     return certPublisher.certificateRevoked(caCert, cert, certprofile, revInfo);
@@ -72,6 +77,10 @@ class IdentifiedCertPublisher {
     return certPublisher.crlAdded(caCert, crl);
   }
 
+  public boolean publishesCrl() {
+    return certPublisher.publishesCrl();
+  }
+
   public PublisherEntry getDbEntry() {
     return entry;
   }
@@ -100,6 +109,10 @@ class IdentifiedCertPublisher {
     return certPublisher.certificateUnrevoked(caCert, cert);
   }
 
+  public boolean certificatesUnrevoked(X509Cert caCert, List<CertWithDbId> certs) {
+    return certPublisher.certificatesUnrevoked(caCert, certs);
+  }
+
   public boolean certificateRemoved(X509Cert caCert, CertWithDbId cert) {
     return certPublisher.certificateRemoved(caCert, cert);
   }
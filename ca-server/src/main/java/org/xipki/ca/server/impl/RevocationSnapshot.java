@@ -0,0 +1,790 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xipki.ca.server.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.ca.api.OperationException.ErrorCode;
+import org.xipki.ca.server.impl.store.CertStore;
+import org.xipki.util.ParamUtil;
+
+/**
+ * Snapshot of the revoked certificates of a CA, sorted by the serial number.
+ *
+ * <p>The snapshot is stored in a file as a sorted sequence of compact records, and is read
+ * sequentially by {@link #iterator(Date)}. Only the changes of one update are kept in
+ * memory. The snapshot is built by one scan of the table CERT, sorted in bounded chunks.
+ * Afterwards only the certificates listed in the table DELTACRL_CACHE since the last update
+ * are read from the database and merged into a new file. The snapshot must be updated before
+ * the entries of DELTACRL_CACHE are removed, and only the entries up to
+ * {@link #getAppliedDeltaCrlCacheId()} may be removed.
+ *
+ * <p>The IDs of DELTACRL_CACHE are generated before the entries are inserted, hence the entries
+ * may be committed out of the order of their IDs. The entries of the last 10 seconds before the
+ * newest one are therefore applied again in the next update.
+ *
+ * <p>The file also contains the applied ID of DELTACRL_CACHE and the number of the latest CRL
+ * generated with the snapshot. After a restart, the file is used if this CRL is still the
+ * latest one of the CA, otherwise another instance may have removed entries of DELTACRL_CACHE
+ * and the snapshot is built again by a full scan.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class RevocationSnapshot {
+
+  /**
+   * Iterator of the revoked certificates in the snapshot file. It must be closed, the snapshot
+   * cannot be updated while an iterator is open.
+   */
+  public class RevokedCertIterator implements Iterator<CertRevInfoWithSerial>, Closeable {
+
+    private final RecordReader reader;
+
+    private final long notExpiredAt;
+
+    private CertRevInfoWithSerial next;
+
+    private boolean closed;
+
+    private RevokedCertIterator(Date notExpiredAt) throws IOException {
+      this.notExpiredAt = notExpiredAt.getTime();
+      lock.readLock().lock();
+      try {
+        this.reader = Files.exists(file) ? new RecordReader(file, HEADER_SIZE) : null;
+        next = readNext();
+      } catch (IOException | RuntimeException ex) {
+        close();
+        throw ex;
+      }
+    }
+
+    private CertRevInfoWithSerial readNext() throws IOException {
+      if (reader == null) {
+        return null;
+      }
+
+      while (reader.next()) {
+        CertRevInfoWithSerial revInfo = reader.current;
+        if (revInfo.getNotAfter().getTime() > notExpiredAt) {
+          return revInfo;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public CertRevInfoWithSerial next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+
+      CertRevInfoWithSerial ret = next;
+      try {
+        next = readNext();
+      } catch (IOException ex) {
+        throw new IllegalStateException("could not read revocation snapshot: " + ex.getMessage(),
+            ex);
+      }
+      return ret;
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      try {
+        if (reader != null) {
+          reader.close();
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+  } // class RevokedCertIterator
+
+  /**
+   * Reads the records of a sorted file.
+   */
+  private static class RecordReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private CertRevInfoWithSerial current;
+
+    RecordReader(Path file, long offset) throws IOException {
+      this.in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+      try {
+        skipFully(in, offset);
+      } catch (IOException ex) {
+        in.close();
+        throw ex;
+      }
+    }
+
+    boolean next() throws IOException {
+      current = readRecord(in);
+      return current != null;
+    }
+
+    @Override
+    public void close() {
+      try {
+        in.close();
+      } catch (IOException ex) {
+        LOG.warn("could not close stream: {}", ex.getMessage());
+      }
+    }
+
+  } // class RecordReader
+
+  /**
+   * Header of the snapshot file.
+   */
+  private static class Header {
+
+    private long crlNumber;
+
+    private long deltaCrlCacheId;
+
+    private long count;
+
+    private long minNotAfter;
+
+  } // class Header
+
+  private static final Logger LOG = LoggerFactory.getLogger(RevocationSnapshot.class);
+
+  private static final int NUM_ENTRIES = 1000;
+
+  private static final int MAX_RECORDS_IN_MEMORY = 100000;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final long OVERLAP_MS = 10000;
+
+  private static final long OVERLAP_IDS = UniqueIdGenerator.getIdInterval(OVERLAP_MS);
+
+  private static final int MAGIC = 0x58525653; // XRVS
+
+  private static final int VERSION = 1;
+
+  // magic (4), version (1), valid (1), CA ID (4), flags (1), crlNumber (8),
+  // deltaCrlCacheId (8), count (8), minNotAfter (8)
+  private static final int HEADER_SIZE = 43;
+
+  private static final int OFFSET_VALID = 5;
+
+  private static final int OFFSET_CRLNUMBER = 11;
+
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  private static final Comparator<CertRevInfoWithSerial> SERIAL_ORDER =
+      new Comparator<CertRevInfoWithSerial>() {
+        @Override
+        public int compare(CertRevInfoWithSerial o1, CertRevInfoWithSerial o2) {
+          return o1.getSerial().compareTo(o2.getSerial());
+        }
+      };
+
+  private final NameId ca;
+
+  private final CertStore certstore;
+
+  private final boolean onlyCaCerts;
+
+  private final boolean onlyUserCerts;
+
+  private final Path file;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // serials of the certificates removed from the table CERT since the last update
+  private final Set<BigInteger> removedSerials = new HashSet<>();
+
+  private boolean initialized;
+
+  private Header header;
+
+  // all entries of DELTACRL_CACHE up to this ID have been applied
+  private volatile long deltaCrlCacheId;
+
+  public RevocationSnapshot(NameId ca, CertStore certstore, boolean onlyCaCerts,
+      boolean onlyUserCerts, Path file) {
+    this.ca = ParamUtil.requireNonNull("ca", ca);
+    this.certstore = ParamUtil.requireNonNull("certstore", certstore);
+    this.onlyCaCerts = onlyCaCerts;
+    this.onlyUserCerts = onlyUserCerts;
+    this.file = ParamUtil.requireNonNull("file", file);
+  }
+
+  /**
+   * Applies the changes recorded in the table DELTACRL_CACHE since the last update and
+   * removes the expired certificates. The first call uses the snapshot file if it is still
+   * up to date, otherwise all revoked certificates are loaded.
+   * @param notExpiredAt
+   *          Certificates which are expired at this time are removed.
+   */
+  public void update(Date notExpiredAt) throws OperationException {
+    ParamUtil.requireNonNull("notExpiredAt", notExpiredAt);
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      if (!initialized) {
+        initialized = readPersistedHeader();
+      }
+
+      if (initialized) {
+        applyChanges(notExpiredAt);
+      } else {
+        load(notExpiredAt);
+      }
+    } catch (IOException ex) {
+      // the file has not been replaced, the previous snapshot is still valid
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "could not update revocation snapshot: " + ex.getMessage());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the revoked certificates sorted by the serial number.
+   * @param notExpiredAt
+   *          Only certificates which are not expired at this time are returned.
+   * @return the iterator of the revoked certificates, must be closed.
+   */
+  public RevokedCertIterator iterator(Date notExpiredAt) throws IOException {
+    ParamUtil.requireNonNull("notExpiredAt", notExpiredAt);
+    return new RevokedCertIterator(notExpiredAt);
+  }
+
+  /**
+   * Records that a CRL has been generated with the current snapshot.
+   * @param crlNumber
+   *          Number of the CRL stored in the database.
+   */
+  public void crlGenerated(long crlNumber) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      if (header == null || !Files.exists(file)) {
+        return;
+      }
+
+      header.crlNumber = crlNumber;
+      RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+      try {
+        raf.seek(OFFSET_CRLNUMBER);
+        raf.writeLong(crlNumber);
+      } finally {
+        raf.close();
+      }
+    } catch (IOException ex) {
+      LOG.warn("could not update the header of revocation snapshot {}: {}", file,
+          ex.getMessage());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the ID up to which the entries of DELTACRL_CACHE have been applied and will not
+   * be read again.
+   * @return the ID of the last applied entry.
+   */
+  public long getAppliedDeltaCrlCacheId() {
+    return deltaCrlCacheId;
+  }
+
+  /**
+   * Removes a certificate which has been removed from the table CERT. The change is applied
+   * in the next update, until then the snapshot file will not be used after a restart.
+   * @param serial
+   *          Serial number of the certificate.
+   */
+  public void remove(BigInteger serial) {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      removedSerials.add(serial);
+      if (Files.exists(file)) {
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+        try {
+          raf.seek(OFFSET_VALID);
+          raf.writeByte(0);
+        } finally {
+          raf.close();
+        }
+      }
+    } catch (IOException ex) {
+      LOG.warn("could not invalidate revocation snapshot {}: {}", file, ex.getMessage());
+      invalidate();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  void invalidate() {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      initialized = false;
+      header = null;
+      Files.deleteIfExists(file);
+    } catch (IOException ex) {
+      LOG.warn("could not delete revocation snapshot {}: {}", file, ex.getMessage());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private boolean readPersistedHeader() throws OperationException {
+    if (!Files.exists(file)) {
+      return false;
+    }
+
+    Header hdr;
+    try {
+      hdr = readHeader();
+    } catch (IOException ex) {
+      LOG.warn("could not read revocation snapshot {}: {}", file, ex.getMessage());
+      return false;
+    }
+
+    if (hdr == null) {
+      LOG.info("revocation snapshot {} is not valid for CA {}", file, ca.getName());
+      return false;
+    }
+
+    long maxCrlNumber = certstore.getMaxCrlNumber(ca);
+    if (hdr.crlNumber != maxCrlNumber) {
+      LOG.info("revocation snapshot {} is outdated: CRL number {}, latest CRL number {}",
+          file, hdr.crlNumber, maxCrlNumber);
+      return false;
+    }
+
+    header = hdr;
+    deltaCrlCacheId = hdr.deltaCrlCacheId;
+    LOG.info("use revocation snapshot {} of CA {}: {} certificates", file, ca.getName(),
+        hdr.count);
+    return true;
+  }
+
+  private void load(Date notExpiredAt) throws OperationException, IOException {
+    long start = System.currentTimeMillis();
+    // changes after this ID, and the ones committed out of order within the overlap, will be
+    // applied in the next update, possibly twice.
+    long maxCacheId = certstore.getMaxIdOfDeltaCrlCache(ca);
+    long crlNumber = certstore.getMaxCrlNumber(ca);
+
+    Files.createDirectories(file.getParent());
+    List<Path> chunkFiles = new LinkedList<>();
+    try {
+      // the certificates are read in the order of their IDs, and sorted in chunks
+      List<CertRevInfoWithSerial> chunk = new ArrayList<>();
+      long startId = 1;
+      List<CertRevInfoWithSerial> revInfos;
+      do {
+        revInfos = certstore.getRevokedCerts(ca, notExpiredAt, startId, NUM_ENTRIES,
+            onlyCaCerts, onlyUserCerts);
+
+        long maxId = 1;
+        for (CertRevInfoWithSerial revInfo : revInfos) {
+          if (revInfo.getId() > maxId) {
+            maxId = revInfo.getId();
+          }
+          chunk.add(revInfo);
+        }
+
+        if (chunk.size() >= MAX_RECORDS_IN_MEMORY) {
+          chunkFiles.add(writeChunk(chunk));
+          chunk.clear();
+        }
+        startId = maxId + 1;
+      } while (revInfos.size() >= NUM_ENTRIES);
+
+      if (!chunk.isEmpty()) {
+        chunkFiles.add(writeChunk(chunk));
+      }
+
+      Header hdr = new Header();
+      hdr.crlNumber = crlNumber;
+      hdr.deltaCrlCacheId = Math.max(0, maxCacheId - OVERLAP_IDS);
+
+      Path tmpFile = newTempFile();
+      try {
+        DataOutputStream out = newOutputStream(tmpFile, true);
+        try {
+          mergeChunks(chunkFiles, out, hdr);
+        } finally {
+          out.close();
+        }
+        writeHeader(tmpFile, hdr, true);
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmpFile);
+      }
+
+      header = hdr;
+      deltaCrlCacheId = hdr.deltaCrlCacheId;
+      removedSerials.clear();
+      initialized = true;
+      LOG.info("loaded revocation snapshot of CA {}: {} certificates in {} ms", ca.getName(),
+          hdr.count, System.currentTimeMillis() - start);
+    } finally {
+      for (Path chunkFile : chunkFiles) {
+        deleteFile(chunkFile);
+      }
+    }
+  } // method load
+
+  private void applyChanges(Date notExpiredAt) throws OperationException, IOException {
+    // a certificate may have been changed more than once
+    Set<BigInteger> serials = new LinkedHashSet<>();
+    long maxCacheId = deltaCrlCacheId;
+
+    List<SerialWithId> changes;
+    do {
+      changes = certstore.getSerialsInDeltaCrlCache(ca, maxCacheId + 1, NUM_ENTRIES);
+      for (SerialWithId change : changes) {
+        serials.add(change.getSerial());
+        if (change.getId() > maxCacheId) {
+          maxCacheId = change.getId();
+        }
+      }
+    } while (changes.size() >= NUM_ENTRIES);
+
+    // null value: the certificate is not (or no longer) revoked
+    TreeMap<BigInteger, CertRevInfoWithSerial> changedCerts = new TreeMap<>();
+    for (BigInteger serial : removedSerials) {
+      changedCerts.put(serial, null);
+    }
+
+    for (BigInteger serial : serials) {
+      CertRevInfoWithSerial revInfo = certstore.getRevokedCert(ca, serial, onlyCaCerts,
+          onlyUserCerts);
+      changedCerts.put(serial, revInfo);
+    }
+
+    Header hdr = new Header();
+    hdr.crlNumber = header.crlNumber;
+    // entries within the overlap may still be followed by ones with lower IDs
+    hdr.deltaCrlCacheId = Math.max(deltaCrlCacheId, maxCacheId - OVERLAP_IDS);
+
+    if (changedCerts.isEmpty() && header.minNotAfter > notExpiredAt.getTime()) {
+      // nothing to merge
+      hdr.count = header.count;
+      hdr.minNotAfter = header.minNotAfter;
+      writeHeader(file, hdr, true);
+    } else {
+      Path tmpFile = newTempFile();
+      try {
+        DataOutputStream out = newOutputStream(tmpFile, true);
+        try {
+          merge(changedCerts, notExpiredAt.getTime(), out, hdr);
+        } finally {
+          out.close();
+        }
+        writeHeader(tmpFile, hdr, true);
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmpFile);
+      }
+    }
+
+    header = hdr;
+    deltaCrlCacheId = hdr.deltaCrlCacheId;
+    removedSerials.clear();
+    LOG.debug("applied {} changes to the revocation snapshot of CA {}", changedCerts.size(),
+        ca.getName());
+  } // method applyChanges
+
+  /**
+   * Merges the snapshot file with the changed certificates.
+   */
+  private void merge(TreeMap<BigInteger, CertRevInfoWithSerial> changedCerts,
+      long notExpiredAt, DataOutputStream out, Header hdr) throws IOException {
+    Iterator<Map.Entry<BigInteger, CertRevInfoWithSerial>> changeIt =
+        changedCerts.entrySet().iterator();
+    Map.Entry<BigInteger, CertRevInfoWithSerial> change = changeIt.hasNext()
+        ? changeIt.next() : null;
+
+    RecordReader reader = Files.exists(file) ? new RecordReader(file, HEADER_SIZE) : null;
+    try {
+      CertRevInfoWithSerial current = (reader != null && reader.next()) ? reader.current : null;
+
+      while (current != null || change != null) {
+        int cmp = (current == null) ? 1
+            : (change == null) ? -1 : current.getSerial().compareTo(change.getKey());
+
+        if (cmp < 0) {
+          writeIfNotExpired(out, current, notExpiredAt, hdr);
+          current = reader.next() ? reader.current : null;
+        } else {
+          if (change.getValue() != null) {
+            writeIfNotExpired(out, change.getValue(), notExpiredAt, hdr);
+          }
+
+          if (cmp == 0) {
+            current = reader.next() ? reader.current : null;
+          }
+          change = changeIt.hasNext() ? changeIt.next() : null;
+        }
+      }
+    } finally {
+      if (reader != null) {
+        reader.close();
+      }
+    }
+  } // method merge
+
+  private void mergeChunks(List<Path> chunkFiles, DataOutputStream out, Header hdr)
+      throws IOException {
+    List<RecordReader> readers = new ArrayList<>(chunkFiles.size());
+    try {
+      PriorityQueue<RecordReader> queue = new PriorityQueue<>(Math.max(1, chunkFiles.size()),
+          new Comparator<RecordReader>() {
+            @Override
+            public int compare(RecordReader r1, RecordReader r2) {
+              return SERIAL_ORDER.compare(r1.current, r2.current);
+            }
+          });
+
+      for (Path chunkFile : chunkFiles) {
+        RecordReader reader = new RecordReader(chunkFile, 0);
+        readers.add(reader);
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+
+      while (!queue.isEmpty()) {
+        RecordReader reader = queue.poll();
+        writeIfNotExpired(out, reader.current, NO_TIME, hdr);
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+    } finally {
+      for (RecordReader reader : readers) {
+        reader.close();
+      }
+    }
+  } // method mergeChunks
+
+  private Path writeChunk(List<CertRevInfoWithSerial> chunk) throws IOException {
+    Collections.sort(chunk, SERIAL_ORDER);
+    Path chunkFile = newTempFile();
+    DataOutputStream out = newOutputStream(chunkFile, false);
+    try {
+      for (CertRevInfoWithSerial revInfo : chunk) {
+        writeRecord(out, revInfo);
+      }
+    } finally {
+      out.close();
+    }
+    return chunkFile;
+  }
+
+  private Header readHeader() throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file), HEADER_SIZE));
+    try {
+      if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+        return null;
+      }
+
+      boolean valid = in.readBoolean();
+      int caId = in.readInt();
+      int flags = in.readUnsignedByte();
+      if (!valid || caId != ca.getId() || flags != flags()) {
+        return null;
+      }
+
+      Header hdr = new Header();
+      hdr.crlNumber = in.readLong();
+      hdr.deltaCrlCacheId = in.readLong();
+      hdr.count = in.readLong();
+      hdr.minNotAfter = in.readLong();
+      return hdr;
+    } catch (EOFException ex) {
+      return null;
+    } finally {
+      in.close();
+    }
+  }
+
+  private void writeHeader(Path target, Header hdr, boolean valid) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw");
+    try {
+      raf.seek(0);
+      raf.writeInt(MAGIC);
+      raf.writeByte(VERSION);
+      raf.writeBoolean(valid);
+      raf.writeInt(ca.getId());
+      raf.writeByte(flags());
+      raf.writeLong(hdr.crlNumber);
+      raf.writeLong(hdr.deltaCrlCacheId);
+      raf.writeLong(hdr.count);
+      raf.writeLong(hdr.minNotAfter);
+      raf.getFD().sync();
+    } finally {
+      raf.close();
+    }
+  }
+
+  private int flags() {
+    return (onlyCaCerts ? 1 : 0) | (onlyUserCerts ? 2 : 0);
+  }
+
+  private Path newTempFile() throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+  }
+
+  /**
+   * Opens a stream to write the records.
+   * @param withHeader
+   *          Whether the space for the header is reserved.
+   */
+  private static DataOutputStream newOutputStream(Path target, boolean withHeader)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE));
+    if (withHeader) {
+      try {
+        out.write(new byte[HEADER_SIZE]);
+      } catch (IOException ex) {
+        out.close();
+        throw ex;
+      }
+    }
+    return out;
+  }
+
+  private static void writeIfNotExpired(DataOutputStream out, CertRevInfoWithSerial revInfo,
+      long notExpiredAt, Header hdr) throws IOException {
+    long notAfter = revInfo.getNotAfter().getTime();
+    if (notAfter <= notExpiredAt) {
+      return;
+    }
+
+    writeRecord(out, revInfo);
+    if (hdr.count == 0 || notAfter < hdr.minNotAfter) {
+      hdr.minNotAfter = notAfter;
+    }
+    hdr.count++;
+  }
+
+  private static void writeRecord(DataOutputStream out, CertRevInfoWithSerial revInfo)
+      throws IOException {
+    byte[] serial = revInfo.getSerial().toByteArray();
+    out.writeByte(serial.length);
+    out.write(serial);
+    out.writeLong(revInfo.getId());
+    out.writeByte(revInfo.getReason().getCode());
+    out.writeLong(revInfo.getRevocationTime().getTime());
+    Date invalidityTime = revInfo.getInvalidityTime();
+    out.writeLong((invalidityTime == null) ? NO_TIME : invalidityTime.getTime());
+    out.writeLong(revInfo.getNotAfter().getTime());
+  }
+
+  private static CertRevInfoWithSerial readRecord(DataInputStream in) throws IOException {
+    int serialLen = in.read();
+    if (serialLen == -1) {
+      return null;
+    }
+
+    byte[] serial = new byte[serialLen];
+    in.readFully(serial);
+    long id = in.readLong();
+    int reason = in.readUnsignedByte();
+    long revocationTime = in.readLong();
+    long invalidityTime = in.readLong();
+    long notAfter = in.readLong();
+
+    CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial), reason,
+        new Date(revocationTime), (invalidityTime == NO_TIME) ? null : new Date(invalidityTime));
+    revInfo.setNotAfter(new Date(notAfter));
+    return revInfo;
+  }
+
+  private static void skipFully(DataInputStream in, long num) throws IOException {
+    long skipped = 0;
+    while (skipped < num) {
+      long n = in.skip(num - skipped);
+      if (n <= 0) {
+        throw new EOFException("unexpected end of stream");
+      }
+      skipped += n;
+    }
+  }
+
+  private static void deleteFile(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException ex) {
+      LOG.warn("could not delete temporary file {}: {}", path, ex.getMessage());
+    }
+  }
+
+}
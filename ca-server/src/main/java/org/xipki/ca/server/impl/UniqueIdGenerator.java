@@ -67,6 +67,16 @@ public class UniqueIdGenerator {
     this.accumulatorFunction = new OffsetIncrement();
   }
 
+  /**
+   * Returns the difference of the IDs generated with the given time interval in between.
+   * @param millis
+   *          Time interval in milliseconds.
+   * @return the difference of the IDs.
+   */
+  public static long getIdInterval(long millis) {
+    return millis << 17;
+  }
+
   public long nextId() {
     long now = System.currentTimeMillis();
     long ret = now - epoch;
@@ -52,28 +52,32 @@ import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 
-import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DERPrintableString;
 import org.bouncycastle.asn1.DERSequence;
-import org.bouncycastle.asn1.DERSet;
-import org.bouncycastle.asn1.DERTaggedObject;
 import org.bouncycastle.asn1.pkcs.CertificationRequest;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
@@ -83,23 +87,16 @@ import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
 import org.bouncycastle.asn1.x509.CRLDistPoint;
-import org.bouncycastle.asn1.x509.CRLReason;
 import org.bouncycastle.asn1.x509.Certificate;
 import org.bouncycastle.asn1.x509.CertificateList;
 import org.bouncycastle.asn1.x509.DistributionPointName;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.Extensions;
-import org.bouncycastle.asn1.x509.GeneralName;
-import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
 import org.bouncycastle.asn1.x509.ReasonFlags;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
-import org.bouncycastle.asn1.x509.Time;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
-import org.bouncycastle.cert.CertIOException;
-import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.crypto.RuntimeCryptoException;
 import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPublicKey;
@@ -129,6 +126,8 @@ import org.xipki.ca.server.api.CaAuditConstants;
 import org.xipki.ca.server.impl.cmp.CmpRequestorInfo;
 import org.xipki.ca.server.impl.store.CertStore;
 import org.xipki.ca.server.impl.util.CaUtil;
+import org.xipki.ca.server.impl.util.CrlFile;
+import org.xipki.ca.server.impl.util.CrlStreamBuilder;
 import org.xipki.ca.server.mgmt.api.CaHasRequestorEntry;
 import org.xipki.ca.server.mgmt.api.CaHasUserEntry;
 import org.xipki.ca.server.mgmt.api.CaMgmtException;
@@ -380,11 +379,7 @@ public class X509Ca {
         return;
       }
 
-      try {
-        certstore.clearDeltaCrlCache(caIdent, maxIdOfDeltaCrlCache);
-      } catch (Throwable th) {
-        LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + caIdent);
-      }
+      clearDeltaCrlCache(maxIdOfDeltaCrlCache);
     } // method run0
 
   } // class CrlGenerationService
@@ -433,6 +428,11 @@ public class X509Ca {
 
   private static final long MAX_CERT_TIME_MS = 253402300799982L; //9999-12-31-23-59-59
 
+  private static final int MAX_CRL_ENTRIES_IN_MEMORY = 100000;
+
+  // interval of the CRL generation service in the master mode
+  private static final int CRL_GENERATION_INTERVAL_SECONDS = 60;
+
   private static final Logger LOG = LoggerFactory.getLogger(X509Ca.class);
 
   private final CaInfo caInfo;
@@ -446,10 +446,23 @@ public class X509Ca {
 
   private final CertStore certstore;
 
+  // null if the CA does not keep the snapshot of revoked certificates
+  private final RevocationSnapshot revocationSnapshot;
+
+  // in-memory queues of the asynchronous publishers, indexed by the publisher name
+  private final ConcurrentHashMap<String, CertPublishQueue> publishQueues =
+      new ConcurrentHashMap<>();
+
   private final CaIdNameMap caIdNameMap;
 
   private final boolean masterMode;
 
+  // the latest CRL, null if not loaded yet
+  private volatile EncodedCrl currentCrl;
+
+  // slave mode: last time (in ms) the currentCrl has been checked against the database
+  private volatile long currentCrlCheckTime;
+
   private final CaManagerImpl caManager;
 
   private SecureRandom random = new SecureRandom();
@@ -478,6 +491,13 @@ public class X509Ca {
     this.caCert = caInfo.getCert();
     this.certstore = ParamUtil.requireNonNull("certstore", certstore);
 
+    CrlControl crlControl = caInfo.getCrlControl();
+    this.revocationSnapshot = (crlControl != null && crlControl.isRevocationSnapshot())
+        ? new RevocationSnapshot(caIdent, certstore, crlControl.isOnlyContainsCaCerts(),
+            crlControl.isOnlyContainsUserCerts(),
+            caManager.getRevocationSnapshotDir().resolve(caIdent.getName() + ".snapshot"))
+        : null;
+
     SubjectPublicKeyInfo caSpki = this.caCert.getCertHolder().getSubjectPublicKeyInfo();
     ASN1ObjectIdentifier caSpkiAlgId = caSpki.getAlgorithm().getAlgorithm();
     if (caSpkiAlgId.equals(PKCSObjectIdentifiers.rsaEncryption)) {
@@ -538,7 +558,8 @@ public class X509Ca {
     ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     // CRL generation services
     this.crlGenerationService = executor.scheduleAtFixedRate(
-        new CrlGenerationService(), 60 + random.nextInt(60), 60, TimeUnit.SECONDS);
+        new CrlGenerationService(), 60 + random.nextInt(60), CRL_GENERATION_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
 
     final int minutesOfDay = 24 * 60;
     this.expiredCertsRemover = executor.scheduleAtFixedRate(
@@ -625,68 +646,122 @@ public class X509Ca {
     return getCrl(null);
   }
 
-  public X509CRL getCrl(BigInteger crlNumber) throws OperationException {
-    LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
-    boolean successful = false;
-
-    try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
+  /**
+   * Returns the latest CRL. The CRL is cached in memory and refreshed when a new CRL is
+   * generated. In the slave mode, the cached CRL is checked against the database at most once
+   * per interval of the CRL generation in the master mode.
+   * @return the latest CRL, or {@code null} if no CRL is available.
+   * @throws OperationException
+   *           If the CRL could not be retrieved.
+   */
+  public EncodedCrl getEncodedCurrentCrl() throws OperationException {
+    EncodedCrl crl = currentCrl;
+    if (crl != null) {
+      if (masterMode) {
+        // only the master generates CRLs
+        return crl;
       }
 
-      try {
-        X509CRL crl = X509Util.parseCrl(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          String timeStr = new Time(crl.getThisUpdate()).getTime();
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(), timeStr);
-        }
+      long now = System.currentTimeMillis();
+      if (now - currentCrlCheckTime < CRL_GENERATION_INTERVAL_SECONDS * MS_PER_SECOND) {
         return crl;
-      } catch (CRLException | CertificateException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
       }
-    } finally {
-      if (!successful) {
-        LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
+
+      Long thisUpdate = certstore.getThisUpdateOfCurrentCrl(caIdent);
+      currentCrlCheckTime = now;
+      if (thisUpdate != null && thisUpdate.longValue() == crl.getThisUpdate().getTime() / 1000) {
+        return crl;
       }
     }
-  } // method getCrl
 
-  public CertificateList getBcCurrentCrl() throws OperationException {
-    return getBcCrl(null);
+    byte[] encodedCrl = certstore.getEncodedCrl(caIdent, null);
+    if (encodedCrl == null) {
+      return null;
+    }
+
+    try {
+      crl = new EncodedCrl(encodedCrl);
+    } catch (RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+    currentCrlCheckTime = System.currentTimeMillis();
+    setCurrentCrl(crl);
+    return crl;
+  } // method getEncodedCurrentCrl
+
+  // a CRL loaded concurrently from the database must not replace a newer one
+  private synchronized void setCurrentCrl(EncodedCrl crl) {
+    EncodedCrl current = currentCrl;
+    if (current == null || !crl.getThisUpdate().before(current.getThisUpdate())) {
+      currentCrl = crl;
+    }
   }
 
-  public CertificateList getBcCrl(BigInteger crlNumber) throws OperationException {
+  /**
+   * Returns the DER encoded CRL. The current CRL is returned from the cache without parsing it.
+   * @param crlNumber
+   *          CRL number. {@code null} for the current CRL.
+   * @return the encoded CRL, or {@code null} if no such CRL is available.
+   * @throws OperationException
+   *           If the CRL could not be retrieved.
+   */
+  public byte[] getEncodedCrl(BigInteger crlNumber) throws OperationException {
     LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
     boolean successful = false;
 
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
+      byte[] encodedCrl;
+      if (crlNumber == null) {
+        EncodedCrl crl = getEncodedCurrentCrl();
+        encodedCrl = (crl == null) ? null : crl.getEncoded();
+      } else {
+        encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
       }
 
-      try {
-        CertificateList crl = CertificateList.getInstance(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(),
-              crl.getThisUpdate().getTime());
-        }
-        return crl;
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
+      successful = encodedCrl != null;
+      if (successful) {
+        LOG.info("SUCCESSFUL getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
       }
+      return encodedCrl;
     } finally {
       if (!successful) {
         LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
       }
     }
+  } // method getEncodedCrl
+
+  public X509CRL getCrl(BigInteger crlNumber) throws OperationException {
+    byte[] encodedCrl = getEncodedCrl(crlNumber);
+    if (encodedCrl == null) {
+      return null;
+    }
+
+    try {
+      return X509Util.parseCrl(encodedCrl);
+    } catch (CRLException | CertificateException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    } catch (RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
   } // method getCrl
 
+  public CertificateList getBcCurrentCrl() throws OperationException {
+    return getBcCrl(null);
+  }
+
+  public CertificateList getBcCrl(BigInteger crlNumber) throws OperationException {
+    byte[] encodedCrl = getEncodedCrl(crlNumber);
+    if (encodedCrl == null) {
+      return null;
+    }
+
+    try {
+      return CertificateList.getInstance(encodedCrl);
+    } catch (RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+  } // method getBcCrl
+
   private void cleanupCrlsWithoutException(String msgId) throws OperationException {
     try {
       cleanupCrls(msgId);
@@ -717,7 +792,7 @@ public class X509Ca {
     }
   } // method cleanupCrls
 
-  public X509CRL generateCrlOnDemand(String msgId) throws OperationException {
+  public byte[] generateEncodedCrlOnDemand(String msgId) throws OperationException {
     if (caInfo.getCrlControl() == null) {
       throw new OperationException(NOT_PERMITTED, "CA could not generate CRL");
     }
@@ -735,36 +810,62 @@ public class X509Ca {
       }
 
       long maxIdOfDeltaCrlCache = certstore.getMaxIdOfDeltaCrlCache(caIdent);
-      X509CRL crl = generateCrl(false, thisUpdate, nextUpdate, msgId);
-      if (crl == null) {
-        return null;
-      }
+      BigInteger crlNumber = generateCrl(false, thisUpdate, nextUpdate, msgId);
+      clearDeltaCrlCache(maxIdOfDeltaCrlCache);
 
-      try {
-        certstore.clearDeltaCrlCache(caIdent, maxIdOfDeltaCrlCache);
-      } catch (Throwable th) {
-        LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + caIdent);
+      byte[] crl = getEncodedCrl(crlNumber);
+      if (crl == null) {
+        throw new OperationException(SYSTEM_FAILURE, "could not load the generated CRL");
       }
       return crl;
     } finally {
       crlGenInProcess.set(false);
     }
+  } // method generateEncodedCrlOnDemand
+
+  public X509CRL generateCrlOnDemand(String msgId) throws OperationException {
+    byte[] encodedCrl = generateEncodedCrlOnDemand(msgId);
+    try {
+      return X509Util.parseCrl(encodedCrl);
+    } catch (CRLException | CertificateException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    } catch (RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
   } // method generateCrlOnDemand
 
-  private X509CRL generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate, String msgId)
-      throws OperationException {
+  private void clearDeltaCrlCache(long maxIdOfDeltaCrlCache) {
+    long maxId = maxIdOfDeltaCrlCache;
+    if (revocationSnapshot != null) {
+      // the entries which may have been committed out of order are read again by the snapshot
+      maxId = Math.min(maxId, revocationSnapshot.getAppliedDeltaCrlCacheId());
+    }
+
+    try {
+      certstore.clearDeltaCrlCache(caIdent, maxId);
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + caIdent);
+    }
+  }
+
+  private BigInteger generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
+      String msgId) throws OperationException {
     boolean successful = false;
     AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_crl, msgId);
     try {
-      X509CRL crl = generateCrl0(deltaCrl, thisUpdate, nextUpdate, event, msgId);
+      BigInteger crlNumber = generateCrl0(deltaCrl, thisUpdate, nextUpdate, event, msgId);
       successful = true;
-      return crl;
+      return crlNumber;
     } finally {
       finish(event, successful);
     }
   }
 
-  private X509CRL generateCrl0(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
+  /**
+   * Generates, stores and publishes a CRL.
+   * @return the number of the generated CRL.
+   */
+  private BigInteger generateCrl0(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
       AuditEvent event, String msgId) throws OperationException {
     CrlControl control = caInfo.getCrlControl();
     if (control == null) {
@@ -795,12 +896,7 @@ public class X509Ca {
       boolean indirectCrl = (crlSigner != null);
       X500Name crlIssuer = indirectCrl ? crlSigner.getSubjectAsX500Name() : pci.getX500Subject();
 
-      X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(crlIssuer, thisUpdate);
-      if (nextUpdate != null) {
-        crlBuilder.setNextUpdate(nextUpdate);
-      }
-
-      final int numEntries = 100;
+      final int numEntries = 1000;
 
       Date notExpireAt;
       if (control.isIncludeExpiredCerts()) {
@@ -810,182 +906,148 @@ public class X509Ca {
         notExpireAt = new Date(thisUpdate.getTime() - 600L * MS_PER_SECOND);
       }
 
-      long startId = 1;
-
-      // we have to cache the serial entries to sort them
-      List<CertRevInfoWithSerial> allRevInfos = new LinkedList<>();
-
-      List<CertRevInfoWithSerial> revInfos;
+      // the CRL entries are sorted and encoded by the builder, only a bounded number of
+      // them is kept in memory
+      CrlStreamBuilder crlBuilder = new CrlStreamBuilder(crlIssuer, thisUpdate, nextUpdate,
+          MAX_CRL_ENTRIES_IN_MEMORY);
+      try {
+        if (indirectCrl) {
+          crlBuilder.setCertificateIssuer(pci.getX500Subject());
+        }
 
-      do {
-        if (deltaCrl) {
-          revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-        } else {
-          revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+        CrlControl crlControl = caInfo.getCrlControl();
+        if (revocationSnapshot != null) {
+          // must be updated before the DELTACRL_CACHE is cleared
+          revocationSnapshot.update(notExpireAt);
         }
-        allRevInfos.addAll(revInfos);
 
-        long maxId = 1;
-        for (CertRevInfoWithSerial revInfo : revInfos) {
-          if (revInfo.getId() > maxId) {
-            maxId = revInfo.getId();
+        if (!deltaCrl && revocationSnapshot != null) {
+          // the snapshot file is read sequentially, it cannot be updated meanwhile
+          RevocationSnapshot.RevokedCertIterator revInfos =
+              revocationSnapshot.iterator(notExpireAt);
+          try {
+            while (revInfos.hasNext()) {
+              addCrlEntry(crlBuilder, crlControl, revInfos.next());
+            }
+          } finally {
+            revInfos.close();
           }
-        } // end for
-        startId = maxId + 1;
-      } while (revInfos.size() >= numEntries); // end do
-
-      if (revInfos != null) { // free the memory
-        revInfos.clear();
-      }
-
-      // sort the list by SerialNumber ASC
-      Collections.sort(allRevInfos);
-
-      boolean isFirstCrlEntry = true;
-      CrlControl crlControl = caInfo.getCrlControl();
+        } else {
+          long startId = 1;
+          List<CertRevInfoWithSerial> revInfos;
+          // the status of a certificate may be changed more than once since the last CRL
+          Set<BigInteger> deltaSerials = deltaCrl ? new HashSet<BigInteger>() : null;
+
+          do {
+            if (deltaCrl) {
+              revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
+                  control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+            } else {
+              revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
+                  control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+            }
 
-      for (CertRevInfoWithSerial revInfo : allRevInfos) {
-        CrlReason reason = revInfo.getReason();
-        if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
-          reason = CrlReason.UNSPECIFIED;
+            long maxId = 1;
+            for (CertRevInfoWithSerial revInfo : revInfos) {
+              if (revInfo.getId() > maxId) {
+                maxId = revInfo.getId();
+              }
+
+              if (deltaSerials != null && !deltaSerials.add(revInfo.getSerial())) {
+                continue;
+              }
+              addCrlEntry(crlBuilder, crlControl, revInfo);
+            } // end for
+            startId = maxId + 1;
+          } while (revInfos.size() >= numEntries); // end do
         }
 
-        Date revocationTime = revInfo.getRevocationTime();
-        Date invalidityTime = revInfo.getInvalidityTime();
+        BigInteger crlNumber = caInfo.nextCrlNumber();
+        event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
 
-        switch (crlControl.getInvalidityDateMode()) {
-          case FORBIDDEN:
-            invalidityTime = null;
-            break;
-          case OPTIONAL:
-            break;
-          case REQUIRED:
-            if (invalidityTime == null) {
-              invalidityTime = revocationTime;
-            }
-            break;
-          default:
-            throw new IllegalStateException(
-                "unknown TripleState " + crlControl.getInvalidityDateMode());
+        boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
+        boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
+        if (onlyUserCerts && onlyCaCerts) {
+          throw new IllegalStateException(
+              "should not reach here, onlyUserCerts and onlyCACerts are both true");
         }
 
-        BigInteger serial = revInfo.getSerial();
-        LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
-
-        if (!indirectCrl || !isFirstCrlEntry) {
-          if (invalidityTime != null) {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode(),
-                invalidityTime);
-          } else {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode());
+        try {
+          // AuthorityKeyIdentifier
+          byte[] akiValues = indirectCrl
+              ? X509Util.extractSki(crlSigner.getSigner().getCertificate())
+              : pci.getSubjectKeyIdentifer();
+          AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
+          crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+
+          // add extension CRL Number
+          crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+
+          // IssuingDistributionPoint
+          if (onlyUserCerts || onlyCaCerts || indirectCrl) {
+            IssuingDistributionPoint idp = new IssuingDistributionPoint(
+                (DistributionPointName) null, // distributionPoint,
+                onlyUserCerts, // onlyContainsUserCerts,
+                onlyCaCerts, // onlyContainsCACerts,
+                (ReasonFlags) null, // onlySomeReasons,
+                indirectCrl, // indirectCRL,
+                false); // onlyContainsAttributeCerts
+
+            crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
           }
-          continue;
-        }
 
-        List<Extension> extensions = new ArrayList<>(3);
-        if (reason != CrlReason.UNSPECIFIED) {
-          Extension ext = createReasonExtension(reason.getCode());
-          extensions.add(ext);
-        }
-        if (invalidityTime != null) {
-          Extension ext = createInvalidityDateExtension(invalidityTime);
-          extensions.add(ext);
+          // freshestCRL
+          List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
+          if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNonEmpty(deltaCrlUris)) {
+            CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris,
+                pci.getX500Subject(), crlIssuer);
+            crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
+          }
+        } catch (IOException | CertificateEncodingException ex) {
+          LogUtil.error(LOG, ex, "crlBuilder.addExtension");
+          throw new OperationException(INVALID_EXTENSION, ex);
         }
 
-        Extension ext = createCertificateIssuerExtension(pci.getX500Subject());
-        extensions.add(ext);
+        addXipkiCertset(crlBuilder, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
 
-        crlBuilder.addCRLEntry(serial, revocationTime,
-            new Extensions(extensions.toArray(new Extension[0])));
-        isFirstCrlEntry = false;
-      }
+        ConcurrentContentSigner concurrentSigner = (crlSigner == null)
+            ? caInfo.getSigner(null) : crlSigner.getSigner();
 
-      allRevInfos.clear(); // free the memory
-
-      BigInteger crlNumber = caInfo.nextCrlNumber();
-      event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
-
-      boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
-      boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
-      if (onlyUserCerts && onlyCaCerts) {
-        throw new IllegalStateException(
-            "should not reach here, onlyUserCerts and onlyCACerts are both true");
-      }
-
-      try {
-        // AuthorityKeyIdentifier
-        byte[] akiValues = indirectCrl
-            ? X509Util.extractSki(crlSigner.getSigner().getCertificate())
-            : pci.getSubjectKeyIdentifer();
-        AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
-        crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
-
-        // add extension CRL Number
-        crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
-
-        // IssuingDistributionPoint
-        if (onlyUserCerts || onlyCaCerts || indirectCrl) {
-          IssuingDistributionPoint idp = new IssuingDistributionPoint(
-              (DistributionPointName) null, // distributionPoint,
-              onlyUserCerts, // onlyContainsUserCerts,
-              onlyCaCerts, // onlyContainsCACerts,
-              (ReasonFlags) null, // onlySomeReasons,
-              indirectCrl, // indirectCRL,
-              false); // onlyContainsAttributeCerts
-
-          crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
+        ConcurrentBagEntrySigner signer0;
+        try {
+          signer0 = concurrentSigner.borrowSigner();
+        } catch (NoIdleSignerException ex) {
+          throw new OperationException(SYSTEM_FAILURE,
+              "NoIdleSignerException: " + ex.getMessage());
         }
 
-        // freshestCRL
-        List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
-        if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNonEmpty(deltaCrlUris)) {
-          CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris, pci.getX500Subject(),
-              crlIssuer);
-          crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
+        // the signed CRL stays in a temporary file, it is parsed only if required
+        CrlFile crl;
+        try {
+          crl = crlBuilder.build(signer0.value());
+        } finally {
+          concurrentSigner.requiteSigner(signer0);
         }
-      } catch (CertIOException | CertificateEncodingException ex) {
-        LogUtil.error(LOG, ex, "crlBuilder.addExtension");
-        throw new OperationException(INVALID_EXTENSION, ex);
-      }
-
-      addXipkiCertset(crlBuilder, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
-
-      ConcurrentContentSigner concurrentSigner = (crlSigner == null)
-          ? caInfo.getSigner(null) : crlSigner.getSigner();
-
-      ConcurrentBagEntrySigner signer0;
-      try {
-        signer0 = concurrentSigner.borrowSigner();
-      } catch (NoIdleSignerException ex) {
-        throw new OperationException(SYSTEM_FAILURE, "NoIdleSignerException: " + ex.getMessage());
-      }
-
-      X509CRLHolder crlHolder;
-      try {
-        crlHolder = crlBuilder.build(signer0.value());
-      } finally {
-        concurrentSigner.requiteSigner(signer0);
-      }
 
-      try {
-        X509CRL crl = X509Util.toX509Crl(crlHolder.toASN1Structure());
         caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
         caManager.commitNextCrlNo(caIdent, caInfo.getCaEntry().getNextCrlNumber());
-        publishCrl(crl);
+        if (publishCrl(crl) && revocationSnapshot != null) {
+          revocationSnapshot.crlGenerated(crlNumber.longValue());
+        }
 
         successful = true;
-        LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}", caIdent.getName(),
-            crlNumber, crl.getThisUpdate());
+        LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}, entries={}",
+            caIdent.getName(), crlNumber, crl.getThisUpdate(), crlBuilder.getNumEntries());
 
         if (!deltaCrl) {
           // clean up the CRL
           cleanupCrlsWithoutException(msgId);
         }
-        return crl;
-      } catch (CRLException | CertificateException ex) {
-        throw new OperationException(CRL_FAILURE, ex);
+        return crlNumber;
+      } catch (IOException ex) {
+        throw new OperationException(CRL_FAILURE, "IOException: " + ex.getMessage());
+      } finally {
+        crlBuilder.close();
       }
     } finally {
       if (!successful) {
@@ -994,6 +1056,37 @@ public class X509Ca {
     }
   } // method generateCrl
 
+  private void addCrlEntry(CrlStreamBuilder crlBuilder, CrlControl crlControl,
+      CertRevInfoWithSerial revInfo) throws IOException {
+    CrlReason reason = revInfo.getReason();
+    if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
+      reason = CrlReason.UNSPECIFIED;
+    }
+
+    Date revocationTime = revInfo.getRevocationTime();
+    Date invalidityTime = revInfo.getInvalidityTime();
+
+    switch (crlControl.getInvalidityDateMode()) {
+      case FORBIDDEN:
+        invalidityTime = null;
+        break;
+      case OPTIONAL:
+        break;
+      case REQUIRED:
+        if (invalidityTime == null) {
+          invalidityTime = revocationTime;
+        }
+        break;
+      default:
+        throw new IllegalStateException(
+            "unknown TripleState " + crlControl.getInvalidityDateMode());
+    }
+
+    BigInteger serial = revInfo.getSerial();
+    LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
+    crlBuilder.addCrlEntry(serial, revocationTime, reason.getCode(), invalidityTime);
+  } // method addCrlEntry
+
   /**
    * Add XiPKI extension CrlCertSet.
    *
@@ -1006,13 +1099,14 @@ public class X509Ca {
    *         }
    * </pre>
    */
-  private void addXipkiCertset(X509v2CRLBuilder crlBuilder, boolean deltaCrl, CrlControl control,
+  private void addXipkiCertset(CrlStreamBuilder crlBuilder, boolean deltaCrl, CrlControl control,
       Date notExpireAt, boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
     if (deltaCrl || !control.isXipkiCertsetIncluded()) {
       return;
     }
 
-    ASN1EncodableVector vector = new ASN1EncodableVector();
+    // the elements are sorted and encoded by the builder like the CRL entries
+    crlBuilder.includeCrlCertSet();
     final int numEntries = 100;
     long startId = 1;
 
@@ -1027,9 +1121,7 @@ public class X509Ca {
           maxId = sid.getId();
         }
 
-        ASN1EncodableVector vec = new ASN1EncodableVector();
-        vec.add(new ASN1Integer(sid.getSerial()));
-
+        byte[] encodedCert = null;
         if (control.isXipkiCertsetCertIncluded()) {
           CertificateInfo certInfo;
           try {
@@ -1038,23 +1130,19 @@ public class X509Ca {
             throw new OperationException(SYSTEM_FAILURE,
                 "CertificateException: " + ex.getMessage());
           }
-
-          Certificate cert = Certificate.getInstance(certInfo.getCert().getEncodedCert());
-          vec.add(new DERTaggedObject(true, 0, cert));
+          encodedCert = certInfo.getCert().getEncodedCert();
         }
 
-        vector.add(new DERSequence(vec));
+        try {
+          crlBuilder.addCrlCert(sid.getSerial(), encodedCert);
+        } catch (IOException ex) {
+          throw new OperationException(INVALID_EXTENSION, "IOException: " + ex.getMessage());
+        }
       } // end for
 
       startId = maxId + 1;
     } while (serials.size() >= numEntries);
     // end do
-
-    try {
-      crlBuilder.addExtension(ObjectIdentifiers.id_xipki_ext_crlCertset, false, new DERSet(vector));
-    } catch (CertIOException ex) {
-      throw new OperationException(INVALID_EXTENSION, "CertIOException: " + ex.getMessage());
-    }
   }
 
   public CertificateInfo regenerateCert(CertTemplateData certTemplate,
@@ -1091,20 +1179,25 @@ public class X509Ca {
     }
 
     for (IdentifiedCertPublisher publisher : publishers()) {
-      if (!publisher.isAsyn()) {
-        boolean successful;
-        try {
-          successful = publisher.certificateAdded(certInfo);
-        } catch (RuntimeException ex) {
-          successful = false;
-          LogUtil.warn(LOG, ex, "could not publish certificate to the publisher "
-              + publisher.getIdent());
-        }
-
-        if (successful) {
+      if (publisher.isAsyn()) {
+        if (getPublishQueue(publisher).add(certInfo)) {
           continue;
         }
-      } // end if
+        return 2;
+      }
+
+      boolean successful;
+      try {
+        successful = publisher.certificateAdded(certInfo);
+      } catch (RuntimeException ex) {
+        successful = false;
+        LogUtil.warn(LOG, ex, "could not publish certificate to the publisher "
+            + publisher.getIdent());
+      }
+
+      if (successful) {
+        continue;
+      }
 
       Long certId = certInfo.getCert().getCertId();
       try {
@@ -1118,6 +1211,27 @@ public class X509Ca {
     return 0;
   } // method publishCertificate0
 
+  private CertPublishQueue getPublishQueue(IdentifiedCertPublisher publisher) {
+    String name = publisher.getIdent().getName();
+    CertPublishQueue queue = publishQueues.get(name);
+    if (queue != null && queue.getPublisher() == publisher) {
+      return queue;
+    }
+
+    // the publisher has been added or changed
+    CertPublishQueue newQueue = new CertPublishQueue(caIdent, publisher, certstore, caManager);
+    if (queue == null) {
+      queue = publishQueues.putIfAbsent(name, newQueue);
+      return (queue == null) ? newQueue : queue;
+    }
+
+    if (publishQueues.replace(name, queue, newQueue)) {
+      queue.flush();
+      return newQueue;
+    }
+    return publishQueues.get(name);
+  } // method getPublishQueue
+
   public boolean republishCerts(List<String> publisherNames, int numThreads) {
     List<IdentifiedCertPublisher> publishers;
     if (publisherNames == null) {
@@ -1146,10 +1260,6 @@ public class X509Ca {
       return true;
     }
 
-    CaStatus status = caInfo.getStatus();
-
-    caInfo.setStatus(CaStatus.INACTIVE);
-
     boolean onlyRevokedCerts = true;
     for (IdentifiedCertPublisher publisher : publishers) {
       if (publisher.publishsGoodCert()) {
@@ -1167,30 +1277,38 @@ public class X509Ca {
       }
     } // end for
 
-    try {
+    for (IdentifiedCertPublisher publisher : publishers) {
+      boolean successful = publisher.caAdded(caCert);
+      if (!successful) {
+        LOG.error("republish CA certificate {} to publisher {} failed", caIdent.getName(),
+            publisher.getIdent().getName());
+        return false;
+      }
+    }
+
+    if (caInfo.getRevocationInfo() != null) {
       for (IdentifiedCertPublisher publisher : publishers) {
-        boolean successful = publisher.caAdded(caCert);
+        boolean successful = publisher.caRevoked(caCert, caInfo.getRevocationInfo());
         if (!successful) {
-          LOG.error("republish CA certificate {} to publisher {} failed", caIdent.getName(),
+          LOG.error("republishing CA revocation to publisher {} failed",
               publisher.getIdent().getName());
           return false;
         }
       }
+    } // end if
 
-      if (caInfo.getRevocationInfo() != null) {
-        for (IdentifiedCertPublisher publisher : publishers) {
-          boolean successful = publisher.caRevoked(caCert, caInfo.getRevocationInfo());
-          if (!successful) {
-            LOG.error("republishing CA revocation to publisher {} failed",
-                publisher.getIdent().getName());
-            return false;
-          }
-        }
-      } // end if
+    CertRepublisher republisher = new CertRepublisher(caIdent, caCert, caIdNameMap, certstore,
+        publishers, onlyRevokedCerts, numThreads);
+    // the CA remains active while republishing all certificates and most of the certificates
+    // changed in the meantime
+    if (!republisher.republish() || !republisher.catchUpChangedCerts()) {
+      return false;
+    }
 
-      CertRepublisher republisher = new CertRepublisher(caIdent, caCert,
-          caIdNameMap, certstore, publishers, onlyRevokedCerts, numThreads);
-      return republisher.republish();
+    CaStatus status = caInfo.getStatus();
+    caInfo.setStatus(CaStatus.INACTIVE);
+    try {
+      return republisher.republishChangedCerts();
     } finally {
       caInfo.setStatus(status);
     }
@@ -1233,51 +1351,68 @@ public class X509Ca {
 
   private boolean publishCertsInQueue(IdentifiedCertPublisher publisher) {
     ParamUtil.requireNonNull("publisher", publisher);
-    final int numEntries = 500;
+    final int numEntries = 100;
 
-    while (true) {
-      List<Long> certIds;
-      try {
-        certIds = certstore.getPublishQueueEntries(caIdent, publisher.getIdent(), numEntries);
-      } catch (OperationException ex) {
-        LogUtil.error(LOG, ex);
-        return false;
-      }
+    // the status read here must not be overtaken by an older one delivered from the
+    // in-memory queue.
+    Lock deliveryLock = publisher.isAsyn() ? getPublishQueue(publisher).getDeliveryLock() : null;
 
-      if (CollectionUtil.isEmpty(certIds)) {
-        break;
+    while (true) {
+      if (deliveryLock != null) {
+        deliveryLock.lock();
       }
 
-      for (Long certId : certIds) {
-        CertificateInfo certInfo;
-
+      try {
+        List<Long> certIds;
+        List<CertificateInfo> certInfos;
         try {
-          certInfo = certstore.getCertForId(caIdent, caCert, certId, caIdNameMap);
+          certIds = certstore.getPublishQueueEntries(caIdent, publisher.getIdent(), numEntries);
+          if (CollectionUtil.isEmpty(certIds)) {
+            break;
+          }
+
+          // certificates removed in the meantime are not contained
+          certInfos = certstore.getCertsForIds(caIdent, caCert, certIds, caIdNameMap);
         } catch (OperationException | CertificateException ex) {
           LogUtil.error(LOG, ex);
           return false;
         }
 
-        boolean successful = publisher.certificateAdded(certInfo);
-        if (!successful) {
-          LOG.error("republishing certificate id={} failed", certId);
-          return false;
+        if (!certInfos.isEmpty()) {
+          boolean successful;
+          try {
+            successful = publisher.certificatesAdded(certInfos);
+          } catch (RuntimeException ex) {
+            successful = false;
+            LogUtil.warn(LOG, ex, "could not publish certificates to the publisher "
+                + publisher.getIdent());
+          }
+
+          if (!successful) {
+            LOG.error("republishing {} certificates (first id={}) failed", certInfos.size(),
+                certIds.get(0));
+            return false;
+          }
         }
 
         try {
-          certstore.removeFromPublishQueue(publisher.getIdent(), certId);
+          certstore.removeFromPublishQueue(publisher.getIdent(), certIds);
         } catch (OperationException ex) {
-          LogUtil.warn(LOG, ex, "could not remove republished cert id=" + certId
-              + " and publisher=" + publisher.getIdent().getName());
-          continue;
+          LogUtil.warn(LOG, ex, "could not remove " + certIds.size()
+              + " republished certificates of publisher=" + publisher.getIdent().getName());
+          return false;
         }
-      } // end for
+      } finally {
+        if (deliveryLock != null) {
+          deliveryLock.unlock();
+        }
+      }
     } // end while
 
     return true;
   } // method publishCertsInQueue
 
-  private boolean publishCrl(X509CRL crl) {
+  private boolean publishCrl(CrlFile crl) {
     try {
       certstore.addCrl(caIdent, crl);
     } catch (Exception ex) {
@@ -1287,9 +1422,37 @@ public class X509Ca {
       return false;
     }
 
+    try {
+      setCurrentCrl(new EncodedCrl(crl.getEncoded()));
+    } catch (IOException | RuntimeException ex) {
+      // will be loaded from the database
+      currentCrl = null;
+      LogUtil.warn(LOG, ex, "could not cache CRL of CA " + caIdent.getName());
+    }
+
+    List<IdentifiedCertPublisher> crlPublishers = new LinkedList<>();
     for (IdentifiedCertPublisher publisher : publishers()) {
+      if (publisher.publishesCrl()) {
+        crlPublishers.add(publisher);
+      }
+    }
+
+    if (crlPublishers.isEmpty()) {
+      return true;
+    }
+
+    // the CRL is only parsed if a publisher requires it
+    X509CRL x509Crl;
+    try {
+      x509Crl = crl.toX509Crl();
+    } catch (IOException | CRLException | CertificateException ex) {
+      LogUtil.error(LOG, ex, "could not parse CRL of CA " + caIdent.getName());
+      return true;
+    }
+
+    for (IdentifiedCertPublisher publisher : crlPublishers) {
       try {
-        publisher.crlAdded(caCert, crl);
+        publisher.crlAdded(caCert, x509Crl);
       } catch (RuntimeException ex) {
         LogUtil.error(LOG, ex, "could not publish CRL to the publisher " + publisher.getIdent());
       }
@@ -1414,6 +1577,9 @@ public class X509Ca {
     }
 
     certstore.removeCert(caIdent, serialNumber);
+    if (revocationSnapshot != null) {
+      revocationSnapshot.remove(serialNumber);
+    }
     return certToRemove;
   } // method removeCertificate0
 
@@ -1588,6 +1754,11 @@ public class X509Ca {
       return false;
     }
 
+    if (control.isRevocationSnapshot()) {
+      // the snapshot is updated with the changes in the DELTACRL_CACHE
+      return true;
+    }
+
     if (control.getUpdateMode() == UpdateMode.ONDEMAND) {
       return false;
     }
@@ -1701,40 +1872,26 @@ public class X509Ca {
       }
     }
 
-    List<CertificateInfo> certInfos = new ArrayList<>(n);
-    OperationExceptionWithIndex exception = null;
+    // the certificates can be generated in parallel, at most as many as signers are available
+    int parallelism = n;
+    for (GrantedCertTemplate gct : gcts) {
+      parallelism = Math.min(parallelism, gct.signer.getParallelism());
+    }
 
-    for (int i = 0; i < n; i++) {
-      if (exception != null) {
-        break;
-      }
-      GrantedCertTemplate gct = gcts.get(i);
-      final NameId certprofilIdent = gct.certprofile.getIdent();
-      final String subjectText = gct.grantedSubjectText;
-      LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'",
-          caIdent.getName(), certprofilIdent.getName(), subjectText);
+    CertificateInfo[] certInfos = new CertificateInfo[n];
+    OperationExceptionWithIndex exception = null;
 
-      boolean successful = false;
-      try {
-        CertificateInfo certInfo = generateCert(gct, requestor, reqType, transactionId, msgId);
-        successful = true;
-        certInfos.add(certInfo);
-
-        if (LOG.isInfoEnabled()) {
-          String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
-          CertWithDbId cert = certInfo.getCert();
-          LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
-              prefix, caIdent.getName(), certprofilIdent.getName(), cert.getSubject(),
-              LogUtil.formatCsn(cert.getCert().getSerialNumber()));
-        }
-      } catch (OperationException ex) {
-        exception = new OperationExceptionWithIndex(i, ex);
-      } catch (Throwable th) {
-        exception = new OperationExceptionWithIndex(i, new OperationException(SYSTEM_FAILURE, th));
-      } finally {
-        if (!successful) {
-          LOG.warn("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
-              caIdent.getName(), certprofilIdent.getName(), subjectText);
+    ExecutorService executor = caManager.getIssuanceExecutor();
+    if (parallelism > 1 && executor != null) {
+      exception = generateCertsInParallel(gcts, certInfos, parallelism, executor, requestor,
+          reqType, transactionId, msgId);
+    } else {
+      for (int i = 0; i < n; i++) {
+        try {
+          certInfos[i] = generateCert(i, gcts.get(i), requestor, reqType, transactionId, msgId);
+        } catch (OperationExceptionWithIndex ex) {
+          exception = ex;
+          break;
         }
       }
     }
@@ -1744,6 +1901,10 @@ public class X509Ca {
           + " certificates", exception.getIndex());
       // delete generated certificates
       for (CertificateInfo m : certInfos) {
+        if (m == null) {
+          continue;
+        }
+
         BigInteger serial = m.getCert().getCert().getSerialNumber();
         try {
           removeCert(serial, msgId);
@@ -1756,7 +1917,108 @@ public class X509Ca {
       throw exception;
     }
 
-    return certInfos;
+    return Arrays.asList(certInfos);
+  } // method generateCerts
+
+  /**
+   * Generates the certificates with {@code parallelism} workers, the calling thread is one of
+   * them. No more certificate is generated after the first failure. This method returns after
+   * all workers have finished.
+   *
+   * @return the first exception, or {@code null} if all certificates have been generated.
+   */
+  private OperationExceptionWithIndex generateCertsInParallel(
+      final List<GrantedCertTemplate> gcts, final CertificateInfo[] certInfos, int parallelism,
+      ExecutorService executor, final RequestorInfo requestor, final RequestType reqType,
+      final byte[] transactionId, final String msgId) {
+    final AtomicInteger nextIndex = new AtomicInteger(0);
+    final AtomicReference<OperationExceptionWithIndex> exception = new AtomicReference<>();
+
+    Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        while (exception.get() == null) {
+          int index = nextIndex.getAndIncrement();
+          if (index >= gcts.size()) {
+            break;
+          }
+
+          try {
+            certInfos[index] = generateCert(index, gcts.get(index), requestor, reqType,
+                transactionId, msgId);
+          } catch (OperationExceptionWithIndex ex) {
+            exception.compareAndSet(null, ex);
+          }
+        }
+      }
+    };
+
+    List<Future<?>> futures = new ArrayList<>(parallelism - 1);
+    for (int i = 1; i < parallelism; i++) {
+      try {
+        futures.add(executor.submit(worker));
+      } catch (RejectedExecutionException ex) {
+        // executor is shutting down, the remaining templates are processed by this thread
+        break;
+      }
+    }
+
+    worker.run();
+
+    // wait for all workers, the generated certificates must be known for the rollback
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          LogUtil.error(LOG, ex.getCause(), "error while generating certificates");
+          break;
+        }
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    return exception.get();
+  } // method generateCertsInParallel
+
+  private CertificateInfo generateCert(int index, GrantedCertTemplate gct,
+      RequestorInfo requestor, RequestType reqType, byte[] transactionId, String msgId)
+      throws OperationExceptionWithIndex {
+    final NameId certprofilIdent = gct.certprofile.getIdent();
+    final String subjectText = gct.grantedSubjectText;
+    LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'",
+        caIdent.getName(), certprofilIdent.getName(), subjectText);
+
+    boolean successful = false;
+    try {
+      CertificateInfo certInfo = generateCert(gct, requestor, reqType, transactionId, msgId);
+      successful = true;
+
+      if (LOG.isInfoEnabled()) {
+        String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
+        CertWithDbId cert = certInfo.getCert();
+        LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
+            prefix, caIdent.getName(), certprofilIdent.getName(), cert.getSubject(),
+            LogUtil.formatCsn(cert.getCert().getSerialNumber()));
+      }
+      return certInfo;
+    } catch (OperationException ex) {
+      throw new OperationExceptionWithIndex(index, ex);
+    } catch (Throwable th) {
+      throw new OperationExceptionWithIndex(index, new OperationException(SYSTEM_FAILURE, th));
+    } finally {
+      if (!successful) {
+        LOG.warn("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
+            caIdent.getName(), certprofilIdent.getName(), subjectText);
+      }
+    }
   }
 
   public CertificateInfo generateCert(CertTemplateData certTemplate,
@@ -2641,7 +2903,12 @@ public class X509Ca {
     return caInfo.getCaEntry().getHexSha1OfCert();
   }
 
-  void shutdown() {
+  public void shutdown() {
+    // the certificates not delivered yet will be published from the PUBLISHQUEUE
+    for (CertPublishQueue queue : publishQueues.values()) {
+      queue.flush();
+    }
+
     if (crlGenerationService != null) {
       crlGenerationService.cancel(false);
       crlGenerationService = null;
@@ -2663,33 +2930,6 @@ public class X509Ca {
     }
   }
 
-  private static Extension createReasonExtension(int reasonCode) {
-    CRLReason crlReason = CRLReason.lookup(reasonCode);
-    try {
-      return new Extension(Extension.reasonCode, false, crlReason.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
-  private static Extension createInvalidityDateExtension(Date invalidityDate) {
-    try {
-      ASN1GeneralizedTime asnTime = new ASN1GeneralizedTime(invalidityDate);
-      return new Extension(Extension.invalidityDate, false, asnTime.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
-  private static Extension createCertificateIssuerExtension(X500Name certificateIssuer) {
-    try {
-      GeneralNames generalNames = new GeneralNames(new GeneralName(certificateIssuer));
-      return new Extension(Extension.certificateIssuer, true, generalNames.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
   // remove the RDNs with empty content
   private static X500Name removeEmptyRdns(X500Name name) {
     RDN[] rdns = name.getRDNs();
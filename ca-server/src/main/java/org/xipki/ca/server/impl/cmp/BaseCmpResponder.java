@@ -17,6 +17,8 @@
 
 package org.xipki.ca.server.impl.cmp;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.InvalidKeyException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
@@ -24,9 +26,12 @@ import java.text.ParseException;
 import java.util.Date;
 import java.util.Map;
 
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.asn1.cmp.ErrorMsgContent;
 import org.bouncycastle.asn1.cmp.PBMParameter;
 import org.bouncycastle.asn1.cmp.PKIBody;
@@ -43,10 +48,11 @@ import org.bouncycastle.asn1.x509.GeneralName;
 import org.bouncycastle.cert.cmp.CMPException;
 import org.bouncycastle.cert.cmp.GeneralPKIMessage;
 import org.bouncycastle.cert.cmp.ProtectedPKIMessage;
-import org.bouncycastle.cert.crmf.PKMACBuilder;
-import org.bouncycastle.cert.crmf.jcajce.JcePKMACValuesCalculator;
+import org.bouncycastle.cert.crmf.CRMFException;
 import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.MacCalculator;
 import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -84,6 +90,8 @@ abstract class BaseCmpResponder implements CmpResponder {
 
   private final SecureRandom random = new SecureRandom();
 
+  private final PbmKeyCache pbmKeyCache = new PbmKeyCache(1000);
+
   protected BaseCmpResponder(SecurityFactory securityFactory) {
     this.securityFactory = ParamUtil.requireNonNull("securityFactory", securityFactory);
   }
@@ -370,7 +378,6 @@ abstract class BaseCmpResponder implements CmpResponder {
       ASN1OctetString asn1 = header.getSenderKID();
       // CHECKSTYLE:SKIP
       byte[] senderKID = (asn1 == null) ? null : asn1.getOctets();
-      PKMACBuilder pkMacBuilder = new PKMACBuilder(new JcePKMACValuesCalculator());
 
       CmpRequestorInfo requestor = getMacRequestor(sender, senderKID);
 
@@ -380,7 +387,14 @@ abstract class BaseCmpResponder implements CmpResponder {
         return new ProtectionVerificationResult(null, ProtectionResult.SENDER_NOT_AUTHORIZED);
       }
 
-      boolean macValid = protectedMsg.verify(pkMacBuilder, requestor.getPassword());
+      MacCalculator macCalculator;
+      try {
+        macCalculator = pbmKeyCache.getMacCalculator(requestor, parameter);
+      } catch (CRMFException ex) {
+        throw new CMPException(ex.getMessage(), ex);
+      }
+
+      boolean macValid = verifyMac(pkiMessage.toASN1Structure(), macCalculator);
       return new ProtectionVerificationResult(requestor,
           macValid ? ProtectionResult.MAC_VALID : ProtectionResult.MAC_INVALID);
     } else {
@@ -397,7 +411,7 @@ abstract class BaseCmpResponder implements CmpResponder {
         return new ProtectionVerificationResult(null, ProtectionResult.SENDER_NOT_AUTHORIZED);
       }
 
-      ContentVerifierProvider verifierProvider = securityFactory.getContentVerifierProvider(
+      ContentVerifierProvider verifierProvider = securityFactory.getCachedContentVerifierProvider(
           requestor.getCert().getCert());
       if (verifierProvider == null) {
         LOG.warn("tid={}: not authorized requestor '{}'", tid, sender);
@@ -411,6 +425,25 @@ abstract class BaseCmpResponder implements CmpResponder {
     }
   } // method verifyProtection
 
+  // same as ProtectedPKIMessage.verify(PKMACBuilder, char[]), but with the given MAC calculator
+  private static boolean verifyMac(PKIMessage pkiMessage, MacCalculator macCalculator)
+      throws CMPException {
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(pkiMessage.getHeader());
+    vec.add(pkiMessage.getBody());
+
+    try {
+      OutputStream out = macCalculator.getOutputStream();
+      out.write(new DERSequence(vec).getEncoded(ASN1Encoding.DER));
+      out.close();
+    } catch (IOException ex) {
+      throw new CMPException("could not calculate MAC: " + ex.getMessage(), ex);
+    }
+
+    return Arrays.constantTimeAreEqual(macCalculator.getMac(),
+        pkiMessage.getProtection().getBytes());
+  } // method verifyMac
+
   private PKIMessage addProtection(PKIMessage pkiMessage, AuditEvent event,
       CmpRequestorInfo requestor) {
     CmpControl control = getCmpControl();
@@ -419,10 +452,11 @@ abstract class BaseCmpResponder implements CmpResponder {
         return CmpUtil.addProtection(pkiMessage, getSigner(), getSender(),
             control.isSendResponderCert());
       } else {
-        PBMParameter parameter = new PBMParameter(randomSalt(), control.getResponsePbmOwf(),
-            control.getResponsePbmIterationCount(), control.getResponsePbmMac());
-        return CmpUtil.addProtection(pkiMessage, requestor.getPassword(), parameter,
-            getSender(), requestor.getKeyId());
+        MacCalculator macCalculator = pbmKeyCache.getResponseMacCalculator(requestor,
+            control.getResponsePbmOwf(), control.getResponsePbmIterationCount(),
+            control.getResponsePbmMac());
+        return CmpUtil.addProtection(pkiMessage, macCalculator, getSender(),
+            requestor.getKeyId());
       }
     } catch (Exception ex) {
       LogUtil.error(LOG, ex, "could not add protection to the PKI message");
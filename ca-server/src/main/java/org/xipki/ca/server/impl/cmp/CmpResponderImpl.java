@@ -23,7 +23,6 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPublicKey;
@@ -284,8 +283,8 @@ public class CmpResponderImpl extends BaseCmpResponder {
     this.caName = caName;
 
     PendingPoolCleaner pendingPoolCleaner = new PendingPoolCleaner();
-    caManager.getScheduledThreadPoolExecutor().scheduleAtFixedRate(pendingPoolCleaner, 10, 10,
-        TimeUnit.MINUTES);
+    caManager.getScheduledThreadPoolExecutor().scheduleAtFixedRate(pendingPoolCleaner,
+        PendingCertificatePool.TICK_MS, PendingCertificatePool.TICK_MS, TimeUnit.MILLISECONDS);
   }
 
   public X509Ca getCa() {
@@ -1916,13 +1915,13 @@ public class CmpResponderImpl extends BaseCmpResponder {
           case XiSecurityConstants.CMP_ACTION_GEN_CRL:
             event.addEventType(CaAuditConstants.TYPE_CMP_genm_gen_crl);
             checkPermission(requestor, PermissionConstants.GEN_CRL);
-            X509CRL tmpCrl = ca.generateCrlOnDemand(msgId);
+            byte[] tmpCrl = ca.generateEncodedCrlOnDemand(msgId);
             if (tmpCrl == null) {
               String statusMessage = "CRL generation is not activated";
               return buildErrorMsgPkiBody(PKIStatus.rejection,
                   PKIFailureInfo.systemFailure, statusMessage);
             } else {
-              respValue = CertificateList.getInstance(tmpCrl.getEncoded());
+              respValue = CertificateList.getInstance(tmpCrl);
             }
             break;
           case XiSecurityConstants.CMP_ACTION_GET_CRL_WITH_SN:
@@ -1991,9 +1990,6 @@ public class CmpResponderImpl extends BaseCmpResponder {
       } // end switch code
 
       return buildErrorMsgPkiBody(PKIStatus.rejection, failureInfo, errorMessage);
-    } catch (CRLException ex) {
-      return buildErrorMsgPkiBody(PKIStatus.rejection, PKIFailureInfo.systemFailure,
-          "CRLException: " + ex.getMessage());
     }
   } // method cmpGeneralMsg
 
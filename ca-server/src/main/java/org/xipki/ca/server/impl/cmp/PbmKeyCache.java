@@ -0,0 +1,203 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.cmp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+
+import org.bouncycastle.asn1.cmp.CMPObjectIdentifiers;
+import org.bouncycastle.asn1.cmp.PBMParameter;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.crmf.CRMFException;
+import org.bouncycastle.cert.crmf.PKMACValuesCalculator;
+import org.bouncycastle.cert.crmf.jcajce.JcePKMACValuesCalculator;
+import org.bouncycastle.operator.GenericKey;
+import org.bouncycastle.operator.MacCalculator;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+import org.xipki.util.LruCache;
+import org.xipki.util.ParamUtil;
+
+/**
+ * Cache of the keys derived from the passwords of the PBM requestors as specified in
+ * RFC 4211, section 4.4. The derivation applies the OWF at least 1000 times.
+ *
+ * <p>A key of a request is cached with the salt, OWF, MAC and iteration count, so that it is
+ * reused only if the requestor reuses the salt. For the responses, one random salt per
+ * requestor is used as long as the key is cached. A key becomes invalid as soon as the
+ * password of the requestor is changed.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+class PbmKeyCache {
+
+  private static class PbmKey {
+
+    // the key is valid only for this instance of the password
+    private final char[] password;
+
+    private final PBMParameter parameter;
+
+    private final byte[] key;
+
+    PbmKey(char[] password, PBMParameter parameter, byte[] key) {
+      this.password = password;
+      this.parameter = parameter;
+      this.key = key;
+    }
+
+  }
+
+  private static class PbmMacCalculator implements MacCalculator {
+
+    private final PBMParameter parameter;
+
+    private final byte[] key;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    PbmMacCalculator(PBMParameter parameter, byte[] key) {
+      this.parameter = parameter;
+      this.key = key;
+    }
+
+    @Override
+    public AlgorithmIdentifier getAlgorithmIdentifier() {
+      return new AlgorithmIdentifier(CMPObjectIdentifiers.passwordBasedMac, parameter);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public byte[] getMac() {
+      try {
+        return newValuesCalculator(parameter).calculateMac(key, out.toByteArray());
+      } catch (CRMFException ex) {
+        throw new RuntimeOperatorException("could not calculate MAC: " + ex.getMessage(), ex);
+      }
+    }
+
+    @Override
+    public GenericKey getKey() {
+      return new GenericKey(getAlgorithmIdentifier(), key);
+    }
+
+  }
+
+  private static final int SALT_LEN = 64;
+
+  private final LruCache<String, PbmKey> keys;
+
+  private final SecureRandom random = new SecureRandom();
+
+  PbmKeyCache(int maxSize) {
+    this.keys = new LruCache<>(ParamUtil.requireMin("maxSize", maxSize, 1));
+  }
+
+  /**
+   * Returns the MAC calculator for the given parameter.
+   * @param requestor
+   *          Requestor with password. Must not be {@code null}.
+   * @param parameter
+   *          Parameter of the password-based MAC. Must not be {@code null}.
+   * @return the MAC calculator, it must not be used concurrently.
+   */
+  MacCalculator getMacCalculator(CmpRequestorInfo requestor, PBMParameter parameter)
+      throws CRMFException {
+    char[] password = requestor.getPassword();
+    String cacheKey = cacheKey("req", requestor, parameter.getOwf(), parameter.getMac(),
+        parameter.getIterationCount().getValue().intValue())
+        + "," + Hex.toHexString(parameter.getSalt().getOctets());
+
+    PbmKey pbmKey = keys.get(cacheKey);
+    if (pbmKey == null || pbmKey.password != password) {
+      pbmKey = new PbmKey(password, parameter, deriveKey(password, parameter));
+      keys.put(cacheKey, pbmKey);
+    }
+
+    return new PbmMacCalculator(parameter, pbmKey.key);
+  }
+
+  /**
+   * Returns the MAC calculator to protect the responses.
+   * @param requestor
+   *          Requestor with password. Must not be {@code null}.
+   * @param owf
+   *          One-way function. Must not be {@code null}.
+   * @param iterationCount
+   *          Iteration count.
+   * @param mac
+   *          MAC algorithm. Must not be {@code null}.
+   * @return the MAC calculator, it must not be used concurrently.
+   */
+  MacCalculator getResponseMacCalculator(CmpRequestorInfo requestor, AlgorithmIdentifier owf,
+      int iterationCount, AlgorithmIdentifier mac) throws CRMFException {
+    char[] password = requestor.getPassword();
+    String cacheKey = cacheKey("resp", requestor, owf, mac, iterationCount);
+
+    PbmKey pbmKey = keys.get(cacheKey);
+    if (pbmKey == null || pbmKey.password != password) {
+      byte[] salt = new byte[SALT_LEN];
+      random.nextBytes(salt);
+      PBMParameter parameter = new PBMParameter(salt, owf, iterationCount, mac);
+      pbmKey = new PbmKey(password, parameter, deriveKey(password, parameter));
+      keys.put(cacheKey, pbmKey);
+    }
+
+    return new PbmMacCalculator(pbmKey.parameter, pbmKey.key);
+  }
+
+  private static String cacheKey(String prefix, CmpRequestorInfo requestor,
+      AlgorithmIdentifier owf, AlgorithmIdentifier mac, int iterationCount) {
+    return prefix + "," + requestor.getIdent().getName() + "," + owf.getAlgorithm().getId()
+        + "," + mac.getAlgorithm().getId() + "," + iterationCount;
+  }
+
+  // same as org.bouncycastle.cert.crmf.PKMACBuilder
+  private static byte[] deriveKey(char[] password, PBMParameter parameter)
+      throws CRMFException {
+    byte[] pw = Strings.toUTF8ByteArray(password);
+    byte[] salt = parameter.getSalt().getOctets();
+    byte[] key = new byte[pw.length + salt.length];
+    System.arraycopy(pw, 0, key, 0, pw.length);
+    System.arraycopy(salt, 0, key, pw.length, salt.length);
+
+    PKMACValuesCalculator calculator = newValuesCalculator(parameter);
+    int iterationCount = parameter.getIterationCount().getValue().intValue();
+    do {
+      key = calculator.calculateDigest(key);
+    } while (--iterationCount > 0);
+
+    return key;
+  }
+
+  private static PKMACValuesCalculator newValuesCalculator(PBMParameter parameter)
+      throws CRMFException {
+    PKMACValuesCalculator calculator = new JcePKMACValuesCalculator();
+    calculator.setup(parameter.getOwf(), parameter.getMac());
+    return calculator;
+  }
+
+}
@@ -18,28 +18,42 @@
 package org.xipki.ca.server.impl.cmp;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.xipki.ca.api.CertificateInfo;
 import org.xipki.security.HashAlgo;
-import org.xipki.util.CollectionUtil;
 import org.xipki.util.Hex;
 import org.xipki.util.ParamUtil;
 
 /**
- * TODO.
+ * Pool of the certificates waiting for the confirmation.
+ *
+ * <p>The pending certificates are grouped by the transaction, and only the threads working on
+ * the same transaction share a lock. The expiry is tracked by a hashed timing wheel, each call
+ * of {@link #removeConfirmTimeoutedCertificates()} only visits the slots of the elapsed ticks.
+ * Confirmed certificates are removed from the wheel lazily.
+ *
+ * <p>A transaction may contain several certificates with the same certReqId, e.g. if the
+ * request has been retried. Each of them is revoked if it is not confirmed in time.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
-class PendingCertificatePool {
+public class PendingCertificatePool {
 
   private static class MyEntry {
 
+    private final String hexTid;
+
     private final BigInteger certReqId;
 
     private final long waitForConfirmTill;
@@ -48,38 +62,49 @@ class PendingCertificatePool {
 
     private final byte[] certHash;
 
-    MyEntry(BigInteger certReqId, long waitForConfirmTill, CertificateInfo certInfo) {
+    MyEntry(String hexTid, BigInteger certReqId, long waitForConfirmTill,
+        CertificateInfo certInfo) {
+      this.hexTid = hexTid;
       this.certReqId = ParamUtil.requireNonNull("certReqId", certReqId);
       this.certInfo = ParamUtil.requireNonNull("certInfo", certInfo);
       this.waitForConfirmTill = waitForConfirmTill;
       this.certHash = HashAlgo.SHA1.hash(certInfo.getCert().getEncodedCert());
     }
 
-    @Override
-    public int hashCode() {
-      return certReqId.hashCode() + 961 * (int) waitForConfirmTill + 31 * certInfo.hashCode();
-    }
+  } // class MyEntry
 
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) {
-        return true;
-      } else if (!(obj instanceof MyEntry)) {
-        return false;
-      }
+  private static class MyTransaction {
 
-      MyEntry another = (MyEntry) obj;
-      return certReqId.equals(another.certReqId) && certInfo.equals(another.certInfo);
-    }
+    // the transactions contain only a few certificates
+    private final List<MyEntry> entries = new LinkedList<>();
 
-  } // class MyEntry
+    // true if the transaction has been removed from the pool
+    private boolean removed;
+
+  } // class MyTransaction
+
+  /**
+   * Duration of one tick of the timing wheel in milliseconds.
+   */
+  public static final long TICK_MS = 1000;
+
+  private static final int WHEEL_SIZE = 512;
 
-  private final Map<String, Set<MyEntry>> map = new HashMap<>();
+  private final ConcurrentHashMap<String, MyTransaction> map = new ConcurrentHashMap<>();
 
-  PendingCertificatePool() {
+  private final List<Queue<MyEntry>> wheel = new ArrayList<>(WHEEL_SIZE);
+
+  // last tick whose slot has been visited
+  private volatile long lastTick;
+
+  public PendingCertificatePool() {
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel.add(new ConcurrentLinkedQueue<MyEntry>());
+    }
+    lastTick = System.currentTimeMillis() / TICK_MS - 1;
   }
 
-  void addCertificate(byte[] transactionId, BigInteger certReqId, CertificateInfo certInfo,
+  public void addCertificate(byte[] transactionId, BigInteger certReqId, CertificateInfo certInfo,
       long waitForConfirmTill) {
     ParamUtil.requireNonNull("transactionId", transactionId);
     ParamUtil.requireNonNull("certInfo", certInfo);
@@ -88,45 +113,58 @@ class PendingCertificatePool {
     }
 
     String hexTid = Hex.encode(transactionId);
-    MyEntry myEntry = new MyEntry(certReqId, waitForConfirmTill, certInfo);
-    synchronized (map) {
-      Set<MyEntry> entries = map.get(hexTid);
-      if (entries == null) {
-        entries = new HashSet<>();
-        map.put(hexTid, entries);
+    MyEntry myEntry = new MyEntry(hexTid, certReqId, waitForConfirmTill, certInfo);
+
+    while (true) {
+      MyTransaction tx = map.get(hexTid);
+      if (tx == null) {
+        tx = new MyTransaction();
+        MyTransaction existingTx = map.putIfAbsent(hexTid, tx);
+        if (existingTx != null) {
+          tx = existingTx;
+        }
+      }
+
+      synchronized (tx) {
+        // the transaction has been removed concurrently, try again with a new one
+        if (!tx.removed) {
+          tx.entries.add(myEntry);
+          break;
+        }
       }
-      entries.add(myEntry);
     }
+
+    // an entry added to an already visited slot expires one round later
+    long tick = Math.max(waitForConfirmTill / TICK_MS, lastTick + 1);
+    wheel.get((int) (tick % WHEEL_SIZE)).add(myEntry);
   }
 
-  CertificateInfo removeCertificate(byte[] transactionId, BigInteger certReqId, byte[] certHash) {
+  public CertificateInfo removeCertificate(byte[] transactionId, BigInteger certReqId,
+      byte[] certHash) {
     ParamUtil.requireNonNull("transactionId", transactionId);
     ParamUtil.requireNonNull("certReqId", certReqId);
     ParamUtil.requireNonNull("certHash", certHash);
 
     String hexTid = Hex.encode(transactionId);
-    MyEntry retEntry = null;
+    MyTransaction tx = map.get(hexTid);
+    if (tx == null) {
+      return null;
+    }
 
-    synchronized (map) {
-      Set<MyEntry> entries = map.get(hexTid);
-      if (entries == null) {
-        return null;
-      }
+    MyEntry retEntry = null;
+    synchronized (tx) {
+      for (MyEntry entry : tx.entries) {
+        if (!certReqId.equals(entry.certReqId)) {
+          continue;
+        }
 
-      for (MyEntry entry : entries) {
-        if (certReqId.equals(entry.certReqId)) {
+        if (Arrays.equals(certHash, entry.certHash)) {
           retEntry = entry;
+          removeEntry(hexTid, tx, entry);
           break;
-        }
-      }
-
-      if (retEntry != null) {
-        if (Arrays.equals(certHash, retEntry.certHash)) {
-          entries.remove(retEntry);
-
-          if (CollectionUtil.isEmpty(entries)) {
-            map.remove(hexTid);
-          }
+        } else if (retEntry == null) {
+          // returned but not removed, if no certificate with the given hash exists
+          retEntry = entry;
         }
       }
     }
@@ -134,46 +172,89 @@ class PendingCertificatePool {
     return (retEntry == null) ? null : retEntry.certInfo;
   }
 
-  Set<CertificateInfo> removeCertificates(byte[] transactionId) {
+  public Set<CertificateInfo> removeCertificates(byte[] transactionId) {
     ParamUtil.requireNonNull("transactionId", transactionId);
 
     String hexId = Hex.encode(transactionId);
-    Set<MyEntry> entries;
-    synchronized  (map) {
-      entries = map.remove(hexId);
-    }
-
-    if (entries == null) {
+    MyTransaction tx = map.remove(hexId);
+    if (tx == null) {
       return null;
     }
 
     Set<CertificateInfo> ret = new HashSet<>();
-    for (MyEntry myEntry :entries) {
-      ret.add(myEntry.certInfo);
+    synchronized (tx) {
+      tx.removed = true;
+      for (MyEntry myEntry : tx.entries) {
+        ret.add(myEntry.certInfo);
+      }
+      tx.entries.clear();
     }
     return ret;
   }
 
-  Set<CertificateInfo> removeConfirmTimeoutedCertificates() {
-    synchronized (map) {
-      if (CollectionUtil.isEmpty(map)) {
-        return null;
-      }
+  /**
+   * Removes the certificates which have not been confirmed in time. This method must not be
+   * called concurrently.
+   * @return the removed certificates, may be {@code null}.
+   */
+  public Set<CertificateInfo> removeConfirmTimeoutedCertificates() {
+    long now = System.currentTimeMillis();
+    long nowTick = now / TICK_MS;
+    long fromTick = lastTick + 1;
+    if (nowTick - fromTick > WHEEL_SIZE) {
+      // visit each slot only once
+      fromTick = nowTick - WHEEL_SIZE;
+    }
 
-      long now = System.currentTimeMillis();
+    Set<CertificateInfo> ret = null;
+    List<MyEntry> notDueEntries = new LinkedList<>();
+
+    // the current tick is not elapsed yet
+    for (long tick = fromTick; tick < nowTick; tick++) {
+      Queue<MyEntry> slot = wheel.get((int) (tick % WHEEL_SIZE));
+      MyEntry entry;
+      while ((entry = slot.poll()) != null) {
+        if (entry.waitForConfirmTill >= now) {
+          // due in a later round
+          notDueEntries.add(entry);
+          continue;
+        }
 
-      Set<CertificateInfo> ret = new HashSet<>();
+        MyTransaction tx = map.get(entry.hexTid);
+        if (tx == null) {
+          continue;
+        }
 
-      for (String tid : map.keySet()) {
-        Set<MyEntry> entries = map.get(tid);
-        for (MyEntry entry : entries) {
-          if (entry.waitForConfirmTill < now) {
-            ret.add(entry.certInfo);
+        synchronized (tx) {
+          // the entry may have been confirmed
+          if (!removeEntry(entry.hexTid, tx, entry)) {
+            continue;
           }
         }
+
+        if (ret == null) {
+          ret = new HashSet<>();
+        }
+        ret.add(entry.certInfo);
       }
-      return ret;
+
+      slot.addAll(notDueEntries);
+      notDueEntries.clear();
+    }
+
+    lastTick = nowTick - 1;
+    return ret;
+  }
+
+  // must be called with the lock of tx
+  private boolean removeEntry(String hexTid, MyTransaction tx, MyEntry entry) {
+    // MyEntry does not overwrite equals(), hence compared by identity
+    boolean removed = tx.entries.remove(entry);
+    if (tx.entries.isEmpty()) {
+      tx.removed = true;
+      map.remove(hexTid, tx);
     }
+    return removed;
   }
 
 }
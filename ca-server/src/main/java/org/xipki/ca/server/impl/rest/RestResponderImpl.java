@@ -19,7 +19,6 @@ package org.xipki.ca.server.impl.rest;
 
 import java.io.EOFException;
 import java.math.BigInteger;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.HashMap;
@@ -49,6 +48,7 @@ import org.xipki.ca.server.api.RestResponder;
 import org.xipki.ca.server.api.RestResponse;
 import org.xipki.ca.server.impl.CaManagerImpl;
 import org.xipki.ca.server.impl.CertTemplateData;
+import org.xipki.ca.server.impl.EncodedCrl;
 import org.xipki.ca.server.impl.X509Ca;
 import org.xipki.ca.server.impl.cmp.CmpResponderImpl;
 import org.xipki.ca.server.impl.util.CaUtil;
@@ -73,6 +73,8 @@ public class RestResponderImpl implements RestResponder {
 
   private static final int OK = 200;
 
+  private static final int NOT_MODIFIED = 304;
+
   private static final int BAD_REQUEST = 400;
 
   private static final int UNAUTHORIZED = 401;
@@ -212,6 +214,7 @@ public class RestResponderImpl implements RestResponder {
 
       String respCt = null;
       byte[] respBytes = null;
+      Map<String, String> headers = new HashMap<>();
 
       if (RestAPIConstants.CMD_cacert.equalsIgnoreCase(command)) {
         respCt = RestAPIConstants.CT_pkix_cert;
@@ -358,16 +361,36 @@ public class RestResponderImpl implements RestResponder {
           }
         }
 
-        X509CRL crl = ca.getCrl(crlNumber);
-        if (crl == null) {
-          String message = "could not get CRL";
-          LOG.warn(message);
-          throw new HttpRespAuditException(INTERNAL_SERVER_ERROR, null, message,
-              AuditLevel.INFO, AuditStatus.FAILED);
-        }
+        if (crlNumber == null) {
+          // the current CRL is served from the cache of the CA without parsing it
+          EncodedCrl crl = ca.getEncodedCurrentCrl();
+          if (crl == null) {
+            String message = "could not get CRL";
+            LOG.warn(message);
+            throw new HttpRespAuditException(INTERNAL_SERVER_ERROR, null, message,
+                AuditLevel.INFO, AuditStatus.FAILED);
+          }
 
-        respCt = RestAPIConstants.CT_pkix_crl;
-        respBytes = crl.getEncoded();
+          addCacheHeaders(headers, crl);
+          if (crl.isNotModified(httpRetriever.getHeader("If-None-Match"),
+              DateUtil.parseHttpDate(httpRetriever.getHeader("If-Modified-Since")))) {
+            return new RestResponse(NOT_MODIFIED, null, headers, null);
+          }
+
+          respCt = RestAPIConstants.CT_pkix_crl;
+          respBytes = crl.getEncoded();
+        } else {
+          byte[] crl = ca.getEncodedCrl(crlNumber);
+          if (crl == null) {
+            String message = "could not get CRL";
+            LOG.warn(message);
+            throw new HttpRespAuditException(INTERNAL_SERVER_ERROR, null, message,
+                AuditLevel.INFO, AuditStatus.FAILED);
+          }
+
+          respCt = RestAPIConstants.CT_pkix_crl;
+          respBytes = crl;
+        }
       } else if (RestAPIConstants.CMD_new_crl.equalsIgnoreCase(command)) {
         try {
           requestor.assertPermitted(PermissionConstants.GEN_CRL);
@@ -375,7 +398,7 @@ public class RestResponderImpl implements RestResponder {
           throw new OperationException(ErrorCode.NOT_PERMITTED, ex.getMessage());
         }
 
-        X509CRL crl = ca.generateCrlOnDemand(msgId);
+        byte[] crl = ca.generateEncodedCrlOnDemand(msgId);
         if (crl == null) {
           String message = "could not generate CRL";
           LOG.warn(message);
@@ -384,14 +407,13 @@ public class RestResponderImpl implements RestResponder {
         }
 
         respCt = RestAPIConstants.CT_pkix_crl;
-        respBytes = crl.getEncoded();
+        respBytes = crl;
       } else {
         String message = "invalid command '" + command + "'";
         LOG.error(message);
         throw new HttpRespAuditException(NOT_FOUND, message, AuditLevel.INFO, AuditStatus.FAILED);
       }
 
-      Map<String, String> headers = new HashMap<>();
       headers.put(RestAPIConstants.HEADER_PKISTATUS, RestAPIConstants.PKISTATUS_accepted);
       return new RestResponse(OK, respCt, headers, respBytes);
     } catch (OperationException ex) {
@@ -503,6 +525,22 @@ public class RestResponderImpl implements RestResponder {
     }
   } // method service
 
+  private static void addCacheHeaders(Map<String, String> headers, EncodedCrl crl) {
+    Date now = new Date();
+    headers.put("Date", DateUtil.toHttpDate(now));
+    headers.put("Last-Modified", DateUtil.toHttpDate(crl.getThisUpdate()));
+    headers.put("ETag", crl.getEtag());
+
+    Date nextUpdate = crl.getNextUpdate();
+    if (nextUpdate != null) {
+      headers.put("Expires", DateUtil.toHttpDate(nextUpdate));
+      long maxAge = Math.max(0, (nextUpdate.getTime() - now.getTime()) / 1000);
+      headers.put("Cache-Control", "max-age=" + maxAge + ",no-transform,must-revalidate");
+    } else {
+      headers.put("Cache-Control", "no-cache");
+    }
+  } // method addCacheHeaders
+
   private static BigInteger toBigInt(String str) {
     String tmpStr = str.trim();
     if (tmpStr.startsWith("0x") || tmpStr.startsWith("0X")) {
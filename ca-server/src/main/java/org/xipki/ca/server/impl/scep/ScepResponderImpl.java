@@ -40,9 +40,7 @@ import org.bouncycastle.asn1.cms.SignedData;
 import org.bouncycastle.asn1.pkcs.CertificationRequest;
 import org.bouncycastle.asn1.pkcs.CertificationRequestInfo;
 import org.bouncycastle.asn1.x500.X500Name;
-import org.bouncycastle.asn1.x509.CertificateList;
 import org.bouncycastle.asn1.x509.Extensions;
-import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cms.CMSAbsentContent;
 import org.bouncycastle.cms.CMSAlgorithm;
@@ -64,6 +62,7 @@ import org.xipki.ca.server.api.ScepResponder;
 import org.xipki.ca.server.impl.ByUserRequestorInfo;
 import org.xipki.ca.server.impl.CaManagerImpl;
 import org.xipki.ca.server.impl.CertTemplateData;
+import org.xipki.ca.server.impl.EncodedCrl;
 import org.xipki.ca.server.impl.KnowCertResult;
 import org.xipki.ca.server.impl.SignerEntryWrapper;
 import org.xipki.ca.server.impl.X509Ca;
@@ -605,21 +604,17 @@ public class ScepResponderImpl implements ScepResponder {
       throw FailInfoException.BAD_REQUEST;
     }
 
-    CertificateList crl = ca.getBcCurrentCrl();
+    EncodedCrl crl = ca.getEncodedCurrentCrl();
     if (crl == null) {
       throw FailInfoException.BAD_REQUEST;
     }
-    CMSSignedDataGenerator cmsSignedDataGen = new CMSSignedDataGenerator();
-    cmsSignedDataGen.addCRL(new X509CRLHolder(crl));
 
-    CMSSignedData signedData;
     try {
-      signedData = cmsSignedDataGen.generate(new CMSAbsentContent());
+      return crl.getSignedData();
     } catch (CMSException ex) {
       LogUtil.error(LOG, ex, "could not generate CMSSignedData");
       throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex);
     }
-    return SignedData.getInstance(signedData.toASN1Structure().getContent());
   } // method getCrl
 
   private ContentInfo encodeResponse(PkiMessage response, DecodedPkiMessage request)
@@ -25,10 +25,9 @@ import static org.xipki.ca.api.OperationException.ErrorCode.NOT_PERMITTED;
 import static org.xipki.ca.api.OperationException.ErrorCode.SYSTEM_FAILURE;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
-import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -39,18 +38,21 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERPrintableString;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Certificate;
-import org.bouncycastle.asn1.x509.Extension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.CertWithDbId;
@@ -66,6 +68,7 @@ import org.xipki.ca.server.impl.KnowCertResult;
 import org.xipki.ca.server.impl.SerialWithId;
 import org.xipki.ca.server.impl.UniqueIdGenerator;
 import org.xipki.ca.server.impl.util.CaUtil;
+import org.xipki.ca.server.impl.util.CrlFile;
 import org.xipki.ca.server.impl.util.PasswordHash;
 import org.xipki.ca.server.mgmt.api.CaHasUserEntry;
 import org.xipki.ca.server.mgmt.api.CertListInfo;
@@ -94,8 +97,63 @@ import org.xipki.util.StringUtil;
 
 public class CertStore {
 
+  /**
+   * A certificate waiting to be inserted into the table CERT.
+   */
+  private static final class PendingCert {
+
+    private final Thread thread = Thread.currentThread();
+
+    private volatile boolean done;
+
+    private volatile Exception error;
+
+    private long id;
+
+    private long lastUpdate;
+
+    private String serial;
+
+    private String subject;
+
+    private long fpSubject;
+
+    private Long fpReqSubject;
+
+    private long notBefore;
+
+    private long notAfter;
+
+    private int profileId;
+
+    private int caId;
+
+    private Integer requestorId;
+
+    private Integer userId;
+
+    private long fpPublicKey;
+
+    private boolean ee;
+
+    private int reqType;
+
+    private String transactionId;
+
+    private String sha1;
+
+    private String reqSubject;
+
+    private byte[] cert;
+
+  } // class PendingCert
+
   private static final Logger LOG = LoggerFactory.getLogger(CertStore.class);
 
+  private static final int ADD_CERT_BATCH_SIZE = 100;
+
+  private static final long ADD_CERT_MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
   private static final String SQL_ADD_CERT =
       "INSERT INTO CERT (ID,LUPDATE,SN,SUBJECT,FP_S,FP_RS,NBEFORE,NAFTER,REV,PID,"
       + "CA_ID,RID,UID,FP_K,EE,RTYPE,TID,SHA1,REQ_SUBJECT,CERT)"
@@ -107,6 +165,12 @@ public class CertStore {
   private static final String SQL_REVOKE_SUSPENDED_CERT =
       "UPDATE CERT SET LUPDATE=?,RR=? WHERE ID=?";
 
+  private static final String SQL_CERTS_IN_ID_RANGE =
+      "SELECT ID,PID,RID,REV,RR,RT,RIT,CERT FROM CERT WHERE CA_ID=? AND ID>=? AND ID<=?";
+
+  private static final String SQL_REVOKED_CERTS_IN_ID_RANGE =
+      SQL_CERTS_IN_ID_RANGE + " AND REV=1";
+
   private static final String SQL_INSERT_PUBLISHQUEUE =
       "INSERT INTO PUBLISHQUEUE (PID,CA_ID,CID) VALUES (?,?,?)";
 
@@ -141,6 +205,18 @@ public class CertStore {
 
   private static final String SQL_ADD_REQCERT = "INSERT INTO REQCERT (ID,RID,CID) VALUES(?,?,?)";
 
+  private static final String SQL_REPUBLISH_CHECKPOINT =
+      "SELECT PARAMS,NEXT_ID,START_TIME FROM REPUBLISH_CHECKPOINT WHERE CA_ID=?";
+
+  private static final String SQL_UPDATE_REPUBLISH_CHECKPOINT =
+      "UPDATE REPUBLISH_CHECKPOINT SET PARAMS=?,NEXT_ID=?,START_TIME=? WHERE CA_ID=?";
+
+  private static final String SQL_ADD_REPUBLISH_CHECKPOINT =
+      "INSERT INTO REPUBLISH_CHECKPOINT (PARAMS,NEXT_ID,START_TIME,CA_ID) VALUES (?,?,?,?)";
+
+  private static final String SQL_REMOVE_REPUBLISH_CHECKPOINT =
+      "DELETE FROM REPUBLISH_CHECKPOINT WHERE CA_ID=?";
+
   private final String sqlCaHasCrl;
 
   private final String sqlCertForId;
@@ -159,7 +235,7 @@ public class CertStore {
 
   private final String sqlKnowsCertForSerial;
 
-  private final String sqlRevForId;
+  private final String sqlRevForSerial;
 
   private final String sqlCertStatusForSubjectFp;
 
@@ -179,6 +255,12 @@ public class CertStore {
 
   private final LruCache<Integer, String> cacheSqlCidFromPublishQueue = new LruCache<>(5);
 
+  private final LruCache<Integer, String> cacheSqlCertsForIds = new LruCache<>(5);
+
+  private final LruCache<Integer, String> cacheSqlRevInfosForIds = new LruCache<>(5);
+
+  private final LruCache<Integer, String> cacheSqlIdsOfCertsUpdatedSince = new LruCache<>(5);
+
   private final LruCache<Integer, String> cacheSqlExpiredSerials = new LruCache<>(5);
 
   private final LruCache<Integer, String> cacheSqlSuspendedSerials = new LruCache<>(5);
@@ -200,8 +282,23 @@ public class CertStore {
 
   private final int maxX500nameLen;
 
+  // whether the columns CERT.CERT, CRL.CRL and REQUEST.DATA store the raw bytes instead of the
+  // Base64 encoded text.
+  private final boolean binaryCert;
+
+  private final boolean binaryCrl;
+
+  private final boolean binaryRequest;
+
+  // whether the table REPUBLISH_CHECKPOINT is available
+  private final boolean republishCheckpointSupported;
+
   private final UniqueIdGenerator idGenerator;
 
+  private final ConcurrentLinkedQueue<PendingCert> pendingCerts = new ConcurrentLinkedQueue<>();
+
+  private final ReentrantLock addCertLock = new ReentrantLock();
+
   public CertStore(DataSourceWrapper datasource, UniqueIdGenerator idGenerator)
       throws DataAccessException {
     this.datasource = ParamUtil.requireNonNull("datasource", datasource);
@@ -210,6 +307,14 @@ public class CertStore {
     DbSchemaInfo dbSchemaInfo = new DbSchemaInfo(datasource);
     this.dbSchemaVersion = Integer.parseInt(dbSchemaInfo.variableValue("VERSION"));
     this.maxX500nameLen = Integer.parseInt(dbSchemaInfo.variableValue("X500NAME_MAXLEN"));
+    this.binaryCert = datasource.isBinaryColumn(null, "CERT", "CERT");
+    this.binaryCrl = datasource.isBinaryColumn(null, "CRL", "CRL");
+    this.binaryRequest = datasource.isBinaryColumn(null, "REQUEST", "DATA");
+    this.republishCheckpointSupported = datasource.tableExists(null, "REPUBLISH_CHECKPOINT");
+    if (!republishCheckpointSupported) {
+      LOG.warn("table REPUBLISH_CHECKPOINT is not available, an interrupted republishing "
+          + "cannot be resumed and restarts from the beginning");
+    }
 
     this.sqlCaHasCrl = buildSelectFirstSql("ID FROM CRL WHERE CA_ID=?");
     this.sqlCertForId = buildSelectFirstSql("PID,RID,REV,RR,RT,RIT,CERT FROM CERT WHERE ID=?");
@@ -224,7 +329,8 @@ public class CertStore {
     this.sqlCaHasUser = buildSelectFirstSql(
         "PERMISSION,PROFILES FROM CA_HAS_USER WHERE CA_ID=? AND USER_ID=?");
     this.sqlKnowsCertForSerial = buildSelectFirstSql("UID FROM CERT WHERE SN=? AND CA_ID=?");
-    this.sqlRevForId = buildSelectFirstSql("SN,EE,REV,RR,RT,RIT FROM CERT WHERE ID=?");
+    this.sqlRevForSerial = buildSelectFirstSql(
+        "ID,EE,REV,RR,RT,RIT,LUPDATE,NAFTER FROM CERT WHERE CA_ID=? AND SN=?");
     this.sqlCertStatusForSubjectFp = buildSelectFirstSql("REV FROM CERT WHERE FP_S=? AND CA_ID=?");
     this.sqlCertforSubjectIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_S=?");
     this.sqlCertForKeyIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_K=?");
@@ -243,85 +349,253 @@ public class CertStore {
     return datasource.buildSelectFirstSql(1, coreSql);
   }
 
+  /**
+   * Adds the certificate to the database.
+   *
+   * <p>Certificates added concurrently by several threads are inserted in one JDBC batch and
+   * transaction (group commit): the first thread which gets the lock inserts the waiting
+   * certificates, the other threads wait till their certificates are committed. This method
+   * returns only after the certificate has been committed, or the insertion failed.
+   *
+   * @param certInfo
+   *          Certificate to be added. Must not be {@code null}.
+   * @return whether the certificate has been added.
+   */
   public boolean addCert(CertificateInfo certInfo) {
     ParamUtil.requireNonNull("certInfo", certInfo);
+    Exception error;
+    PendingCert pending = null;
     try {
-      addCert(certInfo.getIssuer(), certInfo.getCert(), certInfo.getSubjectPublicKey(),
-          certInfo.getProfile(), certInfo.getRequestor(), certInfo.getUser(), certInfo.getReqType(),
-          certInfo.getTransactionId(), certInfo.getRequestedSubject());
+      pending = newPendingCert(certInfo.getIssuer(), certInfo.getCert(),
+          certInfo.getSubjectPublicKey(), certInfo.getProfile(), certInfo.getRequestor(),
+          certInfo.getUser(), certInfo.getReqType(), certInfo.getTransactionId(),
+          certInfo.getRequestedSubject());
+      error = addCertInGroup(pending);
     } catch (Exception ex) {
+      error = ex;
+    }
+
+    if (error != null) {
       LOG.error("could not save certificate {}: {}. Message: {}",
           new Object[]{certInfo.getCert().getSubject(),
-              Base64.encodeToString(certInfo.getCert().getEncodedCert(), true), ex.getMessage()});
-      LOG.debug("error", ex);
+              Base64.encodeToString(certInfo.getCert().getEncodedCert(), true),
+              error.getMessage()});
+      LOG.debug("error", error);
       return false;
     }
 
+    certInfo.getCert().setCertId(pending.id);
     return true;
   }
 
-  private void addCert(NameId ca, CertWithDbId certificate, byte[] encodedSubjectPublicKey,
-      NameId certprofile, NameId requestor, Integer userId, RequestType reqType,
-      byte[] transactionId, X500Name reqSubject) throws DataAccessException, OperationException {
+  private PendingCert newPendingCert(NameId ca, CertWithDbId certificate,
+      byte[] encodedSubjectPublicKey, NameId certprofile, NameId requestor, Integer userId,
+      RequestType reqType, byte[] transactionId, X500Name reqSubject) {
     ParamUtil.requireNonNull("ca", ca);
     ParamUtil.requireNonNull("certificate", certificate);
     ParamUtil.requireNonNull("certprofile", certprofile);
     ParamUtil.requireNonNull("requestor", requestor);
 
-    long certId = idGenerator.nextId();
+    PendingCert pending = new PendingCert();
+    pending.id = idGenerator.nextId();
+    pending.lastUpdate = System.currentTimeMillis() / 1000; // currentTimeSeconds
 
-    long fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
-    String subjectText = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
-    long fpSubject = X509Util.fpCanonicalizedName(certificate.getSubjectAsX500Name());
+    X509Certificate cert = certificate.getCert();
+    pending.serial = cert.getSerialNumber().toString(16);
+    pending.fpPublicKey = FpIdCalculator.hash(encodedSubjectPublicKey);
+    pending.subject = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
+    pending.fpSubject = X509Util.fpCanonicalizedName(certificate.getSubjectAsX500Name());
 
-    String reqSubjectText = null;
-    Long fpReqSubject = null;
     if (reqSubject != null) {
-      fpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
-      if (fpSubject == fpReqSubject) {
-        fpReqSubject = null;
-      } else {
-        reqSubjectText = X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject), maxX500nameLen);
+      Long fpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
+      if (pending.fpSubject != fpReqSubject) {
+        pending.fpReqSubject = fpReqSubject;
+        pending.reqSubject = X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject),
+            maxX500nameLen);
       }
     }
 
-    String b64FpCert = base64Fp(certificate.getEncodedCert());
-    String b64Cert = Base64.encodeToString(certificate.getEncodedCert());
-    String tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+    pending.notBefore = cert.getNotBefore().getTime() / 1000; // notBeforeSeconds
+    pending.notAfter = cert.getNotAfter().getTime() / 1000; // notAfterSeconds
+    pending.profileId = certprofile.getId();
+    pending.caId = ca.getId();
+    pending.requestorId = requestor.getId();
+    pending.userId = userId;
+    pending.ee = cert.getBasicConstraints() == -1;
+    pending.reqType = reqType.getCode();
+    pending.transactionId = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+    pending.sha1 = base64Fp(certificate.getEncodedCert());
+    pending.cert = certificate.getEncodedCert();
+    return pending;
+  } // method newPendingCert
 
+  /**
+   * Adds the certificate in the group commit.
+   * @return {@code null} if the certificate has been added, otherwise the cause.
+   */
+  private Exception addCertInGroup(PendingCert pending) {
+    pendingCerts.add(pending);
+
+    // the certificate may be inserted by another thread at any time, hence this thread waits
+    // uninterruptibly, and restores the interrupt status at the end.
+    boolean interrupted = false;
+    try {
+      while (!pending.done) {
+        if (!addCertLock.tryLock()) {
+          // will be unparked if the certificate has been added or this thread shall insert the
+          // waiting certificates.
+          LockSupport.parkNanos(this, ADD_CERT_MAX_WAIT_NANOS);
+          // parkNanos returns immediately as long as the interrupt status is set
+          if (Thread.interrupted()) {
+            interrupted = true;
+          }
+          continue;
+        }
+
+        try {
+          while (!pending.done) {
+            List<PendingCert> batch = new ArrayList<>(Math.min(ADD_CERT_BATCH_SIZE,
+                pendingCerts.size()));
+            PendingCert next;
+            while (batch.size() < ADD_CERT_BATCH_SIZE && (next = pendingCerts.poll()) != null) {
+              batch.add(next);
+            }
+
+            if (batch.isEmpty()) {
+              // should not happen, the own certificate is either waiting or done
+              break;
+            }
+
+            try {
+              addPendingCerts(batch);
+            } catch (RuntimeException ex) {
+              // the certificates of this batch have been marked as failed, the own
+              // certificate may be contained in one of the next batches.
+              LogUtil.error(LOG, ex, "could not add " + batch.size() + " certificates");
+            }
+          }
+        } finally {
+          addCertLock.unlock();
+
+          if (!pending.done) {
+            // e.g. after an Error, the own certificate must not be inserted later
+            pendingCerts.remove(pending);
+            if (pending.error == null) {
+              pending.error = new OperationException(SYSTEM_FAILURE,
+                  "certificate has not been added");
+            }
+            pending.done = true;
+          }
+
+          // the thread of the next waiting certificate inserts the next batch
+          PendingCert next = pendingCerts.peek();
+          if (next != null) {
+            LockSupport.unpark(next.thread);
+          }
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    return pending.error;
+  } // method addCertInGroup
+
+  private void addPendingCerts(List<PendingCert> batch) {
+    try {
+      boolean added = false;
+      if (batch.size() > 1) {
+        try {
+          addCertsInBatch(batch);
+          added = true;
+          LOG.debug("added {} certificates in one transaction", batch.size());
+        } catch (DataAccessException ex) {
+          // e.g. a duplicated serial number, add the certificates one by one so that only
+          // the invalid one is rejected.
+          LOG.warn("could not add {} certificates in one transaction, add them one by one: {}",
+              batch.size(), ex.getMessage());
+        }
+      }
+
+      for (PendingCert pending : batch) {
+        if (!added) {
+          try {
+            addCert(pending);
+          } catch (Exception ex) {
+            pending.error = ex;
+          }
+        }
+
+        markDone(pending);
+      }
+    } finally {
+      // e.g. after a RuntimeException, no thread of this batch may wait forever
+      for (PendingCert pending : batch) {
+        if (!pending.done) {
+          if (pending.error == null) {
+            pending.error = new OperationException(SYSTEM_FAILURE,
+                "certificate has not been added");
+          }
+          markDone(pending);
+        }
+      }
+    }
+  } // method addPendingCerts
+
+  private static void markDone(PendingCert pending) {
+    pending.done = true;
+    if (pending.thread != Thread.currentThread()) {
+      LockSupport.unpark(pending.thread);
+    }
+  }
+
+  private void addCertsInBatch(List<PendingCert> batch) throws DataAccessException {
     final String sql = SQL_ADD_CERT;
-    PreparedStatement ps = borrowPreparedStatement(sql);
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    Boolean autoCommit = null;
+    boolean committed = false;
 
     try {
-      // cert
-      X509Certificate cert = certificate.getCert();
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, cert.getSerialNumber().toString(16));
-      ps.setString(idx++, subjectText);
-      ps.setLong(idx++, fpSubject);
-      setLong(ps, idx++, fpReqSubject);
-      ps.setLong(idx++, cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
-      ps.setLong(idx++, cert.getNotAfter().getTime() / 1000); // notAfterSeconds
-      setBoolean(ps, idx++, false);
-      ps.setInt(idx++, certprofile.getId());
-      ps.setInt(idx++, ca.getId());
-      setInt(ps, idx++, requestor.getId());
-      setInt(ps, idx++, userId);
-      ps.setLong(idx++, fpPk);
-      boolean isEeCert = cert.getBasicConstraints() == -1;
-      ps.setInt(idx++, isEeCert ? 1 : 0);
-      ps.setInt(idx++, reqType.getCode());
-      ps.setString(idx++, tid);
-
-      ps.setString(idx++, b64FpCert);
-      ps.setString(idx++, reqSubjectText);
-      ps.setString(idx++, b64Cert);
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
 
-      ps.executeUpdate();
+      ps = datasource.prepareStatement(conn, sql);
+      for (PendingCert pending : batch) {
+        setAddCertParams(ps, pending);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      conn.commit();
+      committed = true;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      try {
+        if (!committed) {
+          conn.rollback();
+        }
+        if (autoCommit != null) {
+          conn.setAutoCommit(autoCommit);
+        }
+      } catch (SQLException ex) {
+        LogUtil.error(LOG, datasource.translate(null, ex), "could not end the transaction");
+      }
 
-      certificate.setCertId(certId);
+      datasource.releaseResources(ps, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method addCertsInBatch
+
+  private void addCert(PendingCert pending) throws DataAccessException, OperationException {
+    final String sql = SQL_ADD_CERT;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+
+    try {
+      setAddCertParams(ps, pending);
+      ps.executeUpdate();
     } catch (SQLException ex) {
       throw datasource.translate(null, ex);
     } finally {
@@ -329,6 +603,31 @@ public class CertStore {
     }
   } // method addCert
 
+  private void setAddCertParams(PreparedStatement ps, PendingCert pending)
+      throws SQLException {
+    int idx = 1;
+    ps.setLong(idx++, pending.id);
+    ps.setLong(idx++, pending.lastUpdate);
+    ps.setString(idx++, pending.serial);
+    ps.setString(idx++, pending.subject);
+    ps.setLong(idx++, pending.fpSubject);
+    setLong(ps, idx++, pending.fpReqSubject);
+    ps.setLong(idx++, pending.notBefore);
+    ps.setLong(idx++, pending.notAfter);
+    setBoolean(ps, idx++, false);
+    ps.setInt(idx++, pending.profileId);
+    ps.setInt(idx++, pending.caId);
+    setInt(ps, idx++, pending.requestorId);
+    setInt(ps, idx++, pending.userId);
+    ps.setLong(idx++, pending.fpPublicKey);
+    ps.setInt(idx++, pending.ee ? 1 : 0);
+    ps.setInt(idx++, pending.reqType);
+    ps.setString(idx++, pending.transactionId);
+    ps.setString(idx++, pending.sha1);
+    ps.setString(idx++, pending.reqSubject);
+    DataSourceWrapper.setBytes(ps, idx++, pending.cert, binaryCert);
+  }
+
   public void addToPublishQueue(NameId publisher, long certId, NameId ca)
       throws OperationException {
     ParamUtil.requireNonNull("ca", ca);
@@ -347,19 +646,71 @@ public class CertStore {
     }
   }
 
-  public void removeFromPublishQueue(NameId publisher, long certId) throws OperationException {
+  /**
+   * Adds the certificates to the PUBLISHQUEUE in one batch.
+   * @param publisher
+   *          Publisher. Must not be {@code null}.
+   * @param certIds
+   *          IDs of the certificates. Must not be {@code null}.
+   * @param ca
+   *          CA. Must not be {@code null}.
+   */
+  public void addToPublishQueue(NameId publisher, List<Long> certIds, NameId ca)
+      throws OperationException {
+    ParamUtil.requireNonNull("publisher", publisher);
+    ParamUtil.requireNonNull("certIds", certIds);
+    ParamUtil.requireNonNull("ca", ca);
+    if (certIds.isEmpty()) {
+      return;
+    }
+
+    final String sql = SQL_INSERT_PUBLISHQUEUE;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      for (Long certId : certIds) {
+        ps.setInt(1, publisher.getId());
+        ps.setInt(2, ca.getId());
+        ps.setLong(3, certId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, null);
+    }
+  } // method addToPublishQueue
+
+  /**
+   * Removes the certificates from the PUBLISHQUEUE in one batch.
+   * @param publisher
+   *          Publisher. Must not be {@code null}.
+   * @param certIds
+   *          IDs of the certificates. Must not be {@code null}.
+   */
+  public void removeFromPublishQueue(NameId publisher, List<Long> certIds)
+      throws OperationException {
+    ParamUtil.requireNonNull("publisher", publisher);
+    ParamUtil.requireNonNull("certIds", certIds);
+    if (certIds.isEmpty()) {
+      return;
+    }
+
     final String sql = SQL_REMOVE_PUBLISHQUEUE;
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
-      ps.setInt(1, publisher.getId());
-      ps.setLong(2, certId);
-      ps.executeUpdate();
+      for (Long certId : certIds) {
+        ps.setInt(1, publisher.getId());
+        ps.setLong(2, certId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
       releaseDbResources(ps, null);
     }
-  }
+  } // method removeFromPublishQueue
 
   public long getMaxIdOfDeltaCrlCache(NameId ca) throws OperationException {
     ParamUtil.requireNonNull("ca", ca);
@@ -488,23 +839,12 @@ public class CertStore {
     }
   }
 
-  public void addCrl(NameId ca, X509CRL crl) throws OperationException, CRLException {
+  public void addCrl(NameId ca, CrlFile crl) throws OperationException, IOException {
     ParamUtil.requireNonNull("ca", ca);
     ParamUtil.requireNonNull("crl", crl);
 
-    byte[] encodedExtnValue = crl.getExtensionValue(Extension.cRLNumber.getId());
-    Long crlNumber = null;
-    if (encodedExtnValue != null) {
-      byte[] extnValue = DEROctetString.getInstance(encodedExtnValue).getOctets();
-      crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-    }
-
-    encodedExtnValue = crl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-    Long baseCrlNumber = null;
-    if (encodedExtnValue != null) {
-      byte[] extnValue = DEROctetString.getInstance(encodedExtnValue).getOctets();
-      baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-    }
+    BigInteger crlNumber = crl.getCrlNumber();
+    BigInteger baseCrlNumber = crl.getBaseCrlNumber();
 
     final String sql = SQL_ADD_CRL;
     long currentMaxCrlId;
@@ -515,9 +855,9 @@ public class CertStore {
     }
     long crlId = currentMaxCrlId + 1;
 
-    String b64Crl = Base64.encodeToString(crl.getEncoded());
-
     PreparedStatement ps = null;
+    // the CRL is streamed into the database
+    InputStream crlStream = crl.newInputStream();
 
     try {
       ps = borrowPreparedStatement(sql);
@@ -525,19 +865,20 @@ public class CertStore {
       int idx = 1;
       ps.setLong(idx++, crlId);
       ps.setInt(idx++, ca.getId());
-      setLong(ps, idx++, crlNumber);
+      setLong(ps, idx++, (crlNumber == null) ? null : crlNumber.longValue());
       Date date = crl.getThisUpdate();
       ps.setLong(idx++, date.getTime() / 1000);
       setDateSeconds(ps, idx++, crl.getNextUpdate());
       setBoolean(ps, idx++, (baseCrlNumber != null));
-      setLong(ps, idx++, baseCrlNumber);
-      ps.setString(idx++, b64Crl);
+      setLong(ps, idx++, (baseCrlNumber == null) ? null : baseCrlNumber.longValue());
+      DataSourceWrapper.setStream(ps, idx++, crlStream, crl.getLength(), binaryCrl);
 
       ps.executeUpdate();
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
       releaseDbResources(ps, null);
+      crlStream.close();
     }
   } // method addCrl
 
@@ -945,7 +1286,7 @@ public class CertStore {
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
 
-    String b64Crl = null;
+    byte[] encodedCrl = null;
     try {
       int idx = 1;
       ps.setInt(idx++, ca.getId());
@@ -958,7 +1299,7 @@ public class CertStore {
       while (rs.next()) {
         long thisUpdate = rs.getLong("THISUPDATE");
         if (thisUpdate >= currentThisUpdate) {
-          b64Crl = rs.getString("CRL");
+          encodedCrl = DataSourceWrapper.getBytes(rs, "CRL", binaryCrl);
           currentThisUpdate = thisUpdate;
         }
       }
@@ -968,7 +1309,7 @@ public class CertStore {
       releaseDbResources(ps, rs);
     }
 
-    return (b64Crl == null) ? null : Base64.decodeFast(b64Crl);
+    return encodedCrl;
   } // method getEncodedCrl
 
   public int cleanupCrls(NameId ca, int numCrls) throws OperationException {
@@ -1028,14 +1369,6 @@ public class CertStore {
 
     final String sql = sqlCertForId;
 
-    String b64Cert;
-    int certprofileId;
-    int requestorId;
-    boolean revoked;
-    int revReason = 0;
-    long revTime = 0;
-    long revInvTime = 0;
-
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
@@ -1044,14 +1377,87 @@ public class CertStore {
       if (!rs.next()) {
         return null;
       }
-      b64Cert = rs.getString("CERT");
-      certprofileId = rs.getInt("PID");
-      requestorId = rs.getInt("RID");
-      revoked = rs.getBoolean("REV");
-      if (revoked) {
-        revReason = rs.getInt("RR");
-        revTime = rs.getLong("RT");
-        revInvTime = rs.getLong("RIT");
+      return buildCertInfo(rs, certId, ca, caCert, idNameMap);
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method getCertForId
+
+  /**
+   * Retrieves the certificates with one query.
+   * @param ca
+   *          CA. Must not be {@code null}.
+   * @param caCert
+   *          Certificate of the CA. Must not be {@code null}.
+   * @param certIds
+   *          IDs of the certificates. Must not be {@code null}.
+   * @param idNameMap
+   *          ID-Name map. Must not be {@code null}.
+   * @return the found certificates, unknown IDs are ignored.
+   */
+  public List<CertificateInfo> getCertsForIds(NameId ca, X509Cert caCert, List<Long> certIds,
+      CaIdNameMap idNameMap) throws OperationException, CertificateException {
+    ParamUtil.requireNonNull("ca", ca);
+    ParamUtil.requireNonNull("caCert", caCert);
+    ParamUtil.requireNonNull("certIds", certIds);
+    ParamUtil.requireNonNull("idNameMap", idNameMap);
+
+    final int n = certIds.size();
+    List<CertificateInfo> ret = new ArrayList<>(n);
+    if (n == 0) {
+      return ret;
+    }
+
+    final String sql = getSqlCertsForIds(n);
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      for (int i = 0; i < n; i++) {
+        ps.setLong(i + 1, certIds.get(i));
+      }
+      rs = ps.executeQuery();
+      while (rs.next()) {
+        ret.add(buildCertInfo(rs, rs.getLong("ID"), ca, caCert, idNameMap));
+      }
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+
+    return ret;
+  } // method getCertsForIds
+
+  /**
+   * Retrieves the current revocation information of the certificates with one query.
+   * @param certIds
+   *          IDs of the certificates. Must not be {@code null}.
+   * @return map of the certificate ID to the revocation information, {@code null} for
+   *     certificates which are not revoked. Certificates removed in the meantime are not
+   *     contained.
+   */
+  public Map<Long, CertRevocationInfo> getRevocationInfos(List<Long> certIds)
+      throws OperationException {
+    ParamUtil.requireNonNull("certIds", certIds);
+
+    final int n = certIds.size();
+    Map<Long, CertRevocationInfo> ret = new HashMap<>(n * 4 / 3 + 1);
+    if (n == 0) {
+      return ret;
+    }
+
+    final String sql = getSqlRevInfosForIds(n);
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      for (int i = 0; i < n; i++) {
+        ps.setLong(i + 1, certIds.get(i));
+      }
+      rs = ps.executeQuery();
+      while (rs.next()) {
+        ret.put(rs.getLong("ID"), buildRevocationInfo(rs));
       }
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
@@ -1059,23 +1465,212 @@ public class CertStore {
       releaseDbResources(ps, rs);
     }
 
-    byte[] encodedCert = Base64.decodeFast(b64Cert);
+    return ret;
+  } // method getRevocationInfos
+
+  /**
+   * Retrieves the certificates whose ID is within the given range with one query.
+   * @param ca
+   *          CA. Must not be {@code null}.
+   * @param caCert
+   *          Certificate of the CA. Must not be {@code null}.
+   * @param startId
+   *          Minimal ID (inclusive).
+   * @param endId
+   *          Maximal ID (inclusive).
+   * @param onlyRevoked
+   *          Whether only revoked certificates are returned.
+   * @param idNameMap
+   *          ID-Name map. Must not be {@code null}.
+   * @return the certificates.
+   */
+  public List<CertificateInfo> getCertsInIdRange(NameId ca, X509Cert caCert, long startId,
+      long endId, boolean onlyRevoked, CaIdNameMap idNameMap)
+      throws OperationException, CertificateException {
+    ParamUtil.requireNonNull("ca", ca);
+    ParamUtil.requireNonNull("caCert", caCert);
+    ParamUtil.requireNonNull("idNameMap", idNameMap);
+
+    final String sql = onlyRevoked ? SQL_REVOKED_CERTS_IN_ID_RANGE : SQL_CERTS_IN_ID_RANGE;
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      ps.setInt(1, ca.getId());
+      ps.setLong(2, startId);
+      ps.setLong(3, endId);
+      rs = ps.executeQuery();
+
+      List<CertificateInfo> ret = new ArrayList<>();
+      while (rs.next()) {
+        ret.add(buildCertInfo(rs, rs.getLong("ID"), ca, caCert, idNameMap));
+      }
+      return ret;
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method getCertsInIdRange
+
+  /**
+   * Returns the IDs of certificates which have been added or whose revocation status has
+   * been changed since the given time.
+   * @param ca
+   *          CA. Must not be {@code null}.
+   * @param updatedSince
+   *          Seconds since January 1, 1970, 00:00:00 GMT.
+   * @param startId
+   *          Minimal ID of the certificates.
+   * @param numEntries
+   *          Maximal number of IDs to be returned.
+   * @return the IDs ordered ascending.
+   */
+  public List<Long> getIdsOfCertsUpdatedSince(NameId ca, long updatedSince, long startId,
+      int numEntries) throws OperationException {
+    ParamUtil.requireNonNull("ca", ca);
+    ParamUtil.requireMin("numEntries", numEntries, 1);
+
+    final String sql = getSqlIdsOfCertsUpdatedSince(numEntries);
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      ps.setLong(1, startId - 1);
+      ps.setInt(2, ca.getId());
+      ps.setLong(3, updatedSince);
+      rs = ps.executeQuery();
+
+      List<Long> ret = new ArrayList<>(numEntries);
+      while (rs.next() && ret.size() < numEntries) {
+        ret.add(rs.getLong("ID"));
+      }
+      return ret;
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method getIdsOfCertsUpdatedSince
+
+  public boolean isRepublishCheckpointSupported() {
+    return republishCheckpointSupported;
+  }
+
+  /**
+   * Returns the checkpoint of the interrupted republishing of the given CA.
+   * @param ca CA. Must not be {@code null}.
+   * @return the checkpoint, or {@code null} if none exists or the table REPUBLISH_CHECKPOINT
+   *         is not available.
+   * @throws OperationException if the checkpoint could not be read.
+   */
+  public RepublishCheckpoint getRepublishCheckpoint(NameId ca) throws OperationException {
+    ParamUtil.requireNonNull("ca", ca);
+    if (!republishCheckpointSupported) {
+      return null;
+    }
+
+    final String sql = SQL_REPUBLISH_CHECKPOINT;
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      ps.setInt(1, ca.getId());
+      rs = ps.executeQuery();
+      if (!rs.next()) {
+        return null;
+      }
+      return new RepublishCheckpoint(rs.getString("PARAMS"), rs.getLong("NEXT_ID"),
+          rs.getLong("START_TIME"));
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method getRepublishCheckpoint
+
+  public void saveRepublishCheckpoint(NameId ca, RepublishCheckpoint checkpoint)
+      throws OperationException {
+    ParamUtil.requireNonNull("ca", ca);
+    ParamUtil.requireNonNull("checkpoint", checkpoint);
+    if (!republishCheckpointSupported) {
+      return;
+    }
+
+    // only one republishing of a CA runs at a time, hence no concurrent insert
+    String sql = SQL_UPDATE_REPUBLISH_CHECKPOINT;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      setRepublishCheckpoint(ps, ca, checkpoint);
+      if (ps.executeUpdate() > 0) {
+        return;
+      }
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, null);
+    }
+
+    sql = SQL_ADD_REPUBLISH_CHECKPOINT;
+    ps = borrowPreparedStatement(sql);
+    try {
+      setRepublishCheckpoint(ps, ca, checkpoint);
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, null);
+    }
+  } // method saveRepublishCheckpoint
+
+  private static void setRepublishCheckpoint(PreparedStatement ps, NameId ca,
+      RepublishCheckpoint checkpoint) throws SQLException {
+    int idx = 1;
+    ps.setString(idx++, checkpoint.getParams());
+    ps.setLong(idx++, checkpoint.getNextId());
+    ps.setLong(idx++, checkpoint.getStartTime());
+    ps.setInt(idx++, ca.getId());
+  }
+
+  public void removeRepublishCheckpoint(NameId ca) throws OperationException {
+    ParamUtil.requireNonNull("ca", ca);
+    if (!republishCheckpointSupported) {
+      return;
+    }
+
+    final String sql = SQL_REMOVE_REPUBLISH_CHECKPOINT;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      ps.setInt(1, ca.getId());
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, null);
+    }
+  } // method removeRepublishCheckpoint
+
+  private CertificateInfo buildCertInfo(ResultSet rs, long certId, NameId ca,
+      X509Cert caCert, CaIdNameMap idNameMap) throws SQLException, CertificateException {
+    byte[] encodedCert = DataSourceWrapper.getBytes(rs, "CERT", binaryCert);
     X509Certificate cert = X509Util.parseCert(encodedCert);
     CertWithDbId certWithMeta = new CertWithDbId(cert, encodedCert);
     certWithMeta.setCertId(certId);
     CertificateInfo certInfo = new CertificateInfo(certWithMeta, null, ca, caCert,
-        cert.getPublicKey().getEncoded(), idNameMap.getCertprofile(certprofileId),
-        idNameMap.getRequestor(requestorId));
-    if (!revoked) {
-      return certInfo;
+        cert.getPublicKey().getEncoded(), idNameMap.getCertprofile(rs.getInt("PID")),
+        idNameMap.getRequestor(rs.getInt("RID")));
+    certInfo.setRevocationInfo(buildRevocationInfo(rs));
+    return certInfo;
+  } // method buildCertInfo
+
+  private static CertRevocationInfo buildRevocationInfo(ResultSet rs) throws SQLException {
+    if (!rs.getBoolean("REV")) {
+      return null;
     }
+
+    long revTime = rs.getLong("RT");
+    long revInvTime = rs.getLong("RIT");
     Date invalidityTime = (revInvTime == 0 || revInvTime == revTime) ? null
         : new Date(revInvTime * 1000);
-    CertRevocationInfo revInfo = new CertRevocationInfo(revReason,
-        new Date(revTime * 1000), invalidityTime);
-    certInfo.setRevocationInfo(revInfo);
-    return certInfo;
-  } // method getCertForId
+    return new CertRevocationInfo(rs.getInt("RR"), new Date(revTime * 1000), invalidityTime);
+  } // method buildRevocationInfo
 
   public CertWithRevocationInfo getCertWithRevocationInfo(int caId, BigInteger serial,
       CaIdNameMap idNameMap) throws OperationException {
@@ -1085,7 +1680,7 @@ public class CertStore {
     final String sql = sqlCertWithRevInfo;
 
     long certId;
-    String b64Cert;
+    byte[] certBytes;
     boolean revoked;
     int revReason = 0;
     long revTime = 0;
@@ -1104,7 +1699,7 @@ public class CertStore {
         return null;
       }
       certId = rs.getLong("ID");
-      b64Cert = rs.getString("CERT");
+      certBytes = DataSourceWrapper.getBytes(rs, "CERT", binaryCert);
       certprofileId = rs.getInt("PID");
 
       revoked = rs.getBoolean("REV");
@@ -1119,7 +1714,6 @@ public class CertStore {
       releaseDbResources(ps, null);
     }
 
-    byte[] certBytes = Base64.decodeFast(b64Cert);
     X509Certificate cert;
     try {
       cert = X509Util.parseCert(certBytes);
@@ -1153,7 +1747,7 @@ public class CertStore {
 
     final String sql = sqlCertInfo;
 
-    String b64Cert;
+    byte[] encodedCert;
     boolean revoked;
     int revReason = 0;
     long revTime = 0;
@@ -1172,7 +1766,7 @@ public class CertStore {
       if (!rs.next()) {
         return null;
       }
-      b64Cert = rs.getString("CERT");
+      encodedCert = DataSourceWrapper.getBytes(rs, "CERT", binaryCert);
       certprofileId = rs.getInt("PID");
       requestorId = rs.getInt("RID");
       revoked = rs.getBoolean("REV");
@@ -1188,7 +1782,6 @@ public class CertStore {
     }
 
     try {
-      byte[] encodedCert = Base64.decodeFast(b64Cert);
       X509Certificate cert = X509Util.parseCert(encodedCert);
 
       CertWithDbId certWithMeta = new CertWithDbId(cert, encodedCert);
@@ -1265,8 +1858,7 @@ public class CertStore {
       rs = ps.executeQuery();
 
       while (rs.next()) {
-        String b64Cert = rs.getString("CERT");
-        byte[] encodedCert = Base64.decodeFast(b64Cert);
+        byte[] encodedCert = DataSourceWrapper.getBytes(rs, "CERT", binaryCert);
 
         X509Certificate cert;
         try {
@@ -1312,14 +1904,14 @@ public class CertStore {
       return null;
     }
 
-    String b64Req = null;
+    byte[] encodedReq = null;
     sql = sqlReqForId;
     ps = borrowPreparedStatement(sql);
     try {
       ps.setLong(1, reqId);
       rs = ps.executeQuery();
       if (rs.next()) {
-        b64Req = rs.getString("DATA");
+        encodedReq = DataSourceWrapper.getBytes(rs, "DATA", binaryRequest);
       }
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
@@ -1327,7 +1919,7 @@ public class CertStore {
       releaseDbResources(ps, rs);
     }
 
-    return (b64Req == null) ? null : Base64.decodeFast(b64Req);
+    return encodedReq;
   }
 
   public List<CertListInfo> listCerts(NameId ca, X500Name subjectPattern, Date validFrom,
@@ -1579,6 +2171,7 @@ public class CertStore {
         CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(rs.getLong("ID"),
             new BigInteger(rs.getString("SN"), 16), rs.getInt("RR"), // revReason
             new Date(1000 * rs.getLong("RT")), invalidityTime);
+        revInfo.setNotAfter(new Date(1000 * rs.getLong("NAFTER")));
         ret.add(revInfo);
       }
 
@@ -1592,75 +2185,118 @@ public class CertStore {
 
   public List<CertRevInfoWithSerial> getCertsForDeltaCrl(NameId ca, long startId, int numEntries,
       boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
+    List<SerialWithId> changes = getSerialsInDeltaCrlCache(ca, startId, numEntries);
+
+    List<CertRevInfoWithSerial> ret = new ArrayList<>(changes.size());
+    for (SerialWithId change : changes) {
+      CertRevInfoWithSerial revInfo = getRevInfo(ca, change.getId(), change.getSerial(),
+          onlyCaCerts, onlyUserCerts, true);
+      if (revInfo != null) {
+        ret.add(revInfo);
+      }
+    }
+
+    return ret;
+  } // method getCertificatesForDeltaCrl
+
+  /**
+   * Returns the entries of the table DELTACRL_CACHE, namely the serial numbers of the
+   * certificates whose revocation status has been changed.
+   * @param ca
+   *          CA. Must not be {@code null}.
+   * @param startId
+   *          Minimal ID of the entries.
+   * @param numEntries
+   *          Maximal number of entries to be returned.
+   * @return the entries ordered by the ID.
+   */
+  public List<SerialWithId> getSerialsInDeltaCrlCache(NameId ca, long startId, int numEntries)
+      throws OperationException {
     ParamUtil.requireNonNull("ca", ca);
     ParamUtil.requireMin("numEntries", numEntries, 1);
 
-    String sql = getSqlDeltaCrlCacheIds(numEntries);
-    List<Long> ids = new LinkedList<>();
+    final String sql = getSqlDeltaCrlCacheIds(numEntries);
     ResultSet rs = null;
-
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
       ps.setLong(1, startId - 1);
       ps.setInt(2, ca.getId());
       rs = ps.executeQuery();
+
+      List<SerialWithId> ret = new ArrayList<>(numEntries);
       while (rs.next()) {
-        long id = rs.getLong("ID");
-        ids.add(id);
+        ret.add(new SerialWithId(rs.getLong("ID"), new BigInteger(rs.getString("SN"), 16)));
       }
+      return ret;
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
       releaseDbResources(ps, rs);
     }
+  } // method getSerialsInDeltaCrlCache
 
-    sql = sqlRevForId;
-    ps = borrowPreparedStatement(sql);
-
-    List<CertRevInfoWithSerial> ret = new ArrayList<>();
-    for (Long id : ids) {
-      try {
-        ps.setLong(1, id);
-        rs = ps.executeQuery();
+  /**
+   * Returns the revocation information of the revoked certificate.
+   * @return the revocation information, or {@code null} if the certificate does not exist,
+   *     is not revoked, or is not of the given type.
+   */
+  public CertRevInfoWithSerial getRevokedCert(NameId ca, BigInteger serial,
+      boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
+    ParamUtil.requireNonNull("ca", ca);
+    ParamUtil.requireNonNull("serial", serial);
+    return getRevInfo(ca, null, serial, onlyCaCerts, onlyUserCerts, false);
+  }
 
-        if (!rs.next()) {
-          continue;
-        }
+  /**
+   * Returns the revocation information of the certificate.
+   * @param id
+   *          ID of the returned revocation information. {@code null} to use the ID of the
+   *          certificate.
+   * @param withUnrevoked
+   *          Whether not-revoked certificates are returned with the reason removeFromCRL.
+   */
+  private CertRevInfoWithSerial getRevInfo(NameId ca, Long id, BigInteger serial,
+      boolean onlyCaCerts, boolean onlyUserCerts, boolean withUnrevoked)
+      throws OperationException {
+    final String sql = sqlRevForSerial;
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      ps.setInt(1, ca.getId());
+      ps.setString(2, serial.toString(16));
+      rs = ps.executeQuery();
 
-        int ee = rs.getInt("EE");
-        if (onlyCaCerts) {
-          if (ee != 0) {
-            continue;
-          }
-        } else if (onlyUserCerts) {
-          if (ee != 1) {
-            continue;
-          }
-        }
+      if (!rs.next()) {
+        return null;
+      }
 
-        CertRevInfoWithSerial revInfo;
+      int ee = rs.getInt("EE");
+      if ((onlyCaCerts && ee != 0) || (onlyUserCerts && ee != 1)) {
+        return null;
+      }
 
-        String serial = rs.getString("SN");
-        boolean revoked = rs.getBoolean("REVOEKD");
-        if (revoked) {
-          long revInvTime = rs.getLong("RIT");
-          Date invalidityTime = (revInvTime == 0) ? null : new Date(1000 * revInvTime);
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16), rs.getInt("RR"),
-              new Date(1000 * rs.getLong("RT")), invalidityTime);
-        } else {
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16),
-              CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * rs.getLong("LUPDATE")), null);
-        }
-        ret.add(revInfo);
-      } catch (SQLException ex) {
-        throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-      } finally {
-        releaseDbResources(null, rs);
+      long revInfoId = (id == null) ? rs.getLong("ID") : id;
+      CertRevInfoWithSerial revInfo;
+      if (rs.getBoolean("REV")) {
+        long revInvTime = rs.getLong("RIT");
+        Date invalidityTime = (revInvTime == 0) ? null : new Date(1000 * revInvTime);
+        revInfo = new CertRevInfoWithSerial(revInfoId, serial, rs.getInt("RR"),
+            new Date(1000 * rs.getLong("RT")), invalidityTime);
+      } else if (withUnrevoked) {
+        revInfo = new CertRevInfoWithSerial(revInfoId, serial,
+            CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * rs.getLong("LUPDATE")), null);
+      } else {
+        return null;
       }
-    } // end for
 
-    return ret;
-  } // method getCertificatesForDeltaCrl
+      revInfo.setNotAfter(new Date(1000 * rs.getLong("NAFTER")));
+      return revInfo;
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method getRevInfo
 
   public CertStatus getCertStatusForSubject(NameId ca, X500Name subject) throws OperationException {
     long subjectFp = X509Util.fpCanonicalizedName(subject);
@@ -1833,13 +2469,12 @@ public class CertStore {
 
     long id = idGenerator.nextId();
     long currentTimeSeconds = System.currentTimeMillis() / 1000;
-    String b64Request = Base64.encodeToString(request);
     final String sql = SQL_ADD_REQUEST;
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
       ps.setLong(1, id);
       ps.setLong(2, currentTimeSeconds);
-      ps.setString(3, b64Request);
+      DataSourceWrapper.setBytes(ps, 3, request, binaryRequest);
       ps.executeUpdate();
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
@@ -1876,6 +2511,46 @@ public class CertStore {
     return sql;
   }
 
+  private String getSqlCertsForIds(int numCerts) {
+    String sql = cacheSqlCertsForIds.get(numCerts);
+    if (sql == null) {
+      StringBuilder sb = new StringBuilder(80 + 2 * numCerts);
+      sb.append("SELECT ID,PID,RID,REV,RR,RT,RIT,CERT FROM CERT WHERE ID IN (?");
+      for (int i = 1; i < numCerts; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      sql = sb.toString();
+      cacheSqlCertsForIds.put(numCerts, sql);
+    }
+    return sql;
+  }
+
+  private String getSqlRevInfosForIds(int numCerts) {
+    String sql = cacheSqlRevInfosForIds.get(numCerts);
+    if (sql == null) {
+      StringBuilder sb = new StringBuilder(80 + 2 * numCerts);
+      sb.append("SELECT ID,REV,RR,RT,RIT FROM CERT WHERE ID IN (?");
+      for (int i = 1; i < numCerts; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      sql = sb.toString();
+      cacheSqlRevInfosForIds.put(numCerts, sql);
+    }
+    return sql;
+  }
+
+  private String getSqlIdsOfCertsUpdatedSince(int numEntries) {
+    String sql = cacheSqlIdsOfCertsUpdatedSince.get(numEntries);
+    if (sql == null) {
+      sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
+          "ID FROM CERT WHERE ID>? AND CA_ID=? AND LUPDATE>=?");
+      cacheSqlIdsOfCertsUpdatedSince.put(numEntries, sql);
+    }
+    return sql;
+  }
+
   private String getSqlExpiredSerials(int numEntries) {
     String sql = cacheSqlExpiredSerials.get(numEntries);
     if (sql == null) {
@@ -1899,7 +2574,7 @@ public class CertStore {
     String sql = cacheSqlDeltaCrlCacheIds.get(numEntries);
     if (sql == null) {
       sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
-          "ID FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?");
+          "ID,SN FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?");
       cacheSqlDeltaCrlCacheIds.put(numEntries, sql);
     }
     return sql;
@@ -1910,7 +2585,7 @@ public class CertStore {
     String sql = cache.get(numEntries);
     if (sql == null) {
       String coreSql =
-          "ID,SN,RR,RT,RIT FROM CERT WHERE ID>? AND CA_ID=? AND REV=1 AND NAFTER>?";
+          "ID,SN,RR,RT,RIT,NAFTER FROM CERT WHERE ID>? AND CA_ID=? AND REV=1 AND NAFTER>?";
       if (withEe) {
         coreSql += " AND EE=?";
       }
@@ -1926,7 +2601,7 @@ public class CertStore {
     if (sql == null) {
       String coreSql = "ID,SN FROM CERT WHERE ID>? AND CA_ID=?";
       if (onlyRevoked) {
-        coreSql += "AND REV=1";
+        coreSql += " AND REV=1";
       }
       sql = datasource.buildSelectFirstSql(numEntries, "ID ASC", coreSql);
       cache.put(numEntries, sql);
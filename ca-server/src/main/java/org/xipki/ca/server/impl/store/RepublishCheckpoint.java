@@ -0,0 +1,65 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.store;
+
+import org.xipki.util.ParamUtil;
+
+/**
+ * Checkpoint of the interrupted republishing of a CA, stored in the table
+ * REPUBLISH_CHECKPOINT.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class RepublishCheckpoint {
+
+  private final String params;
+
+  private final long nextId;
+
+  private final long startTime;
+
+  /**
+   * Constructor.
+   * @param params
+   *          Fingerprint of the republishing parameters. Must not be blank.
+   * @param nextId
+   *          All certificates with smaller ID have been republished.
+   * @param startTime
+   *          Start of the republishing, seconds since January 1, 1970, 00:00:00 GMT.
+   */
+  public RepublishCheckpoint(String params, long nextId, long startTime) {
+    this.params = ParamUtil.requireNonBlank("params", params);
+    this.nextId = nextId;
+    this.startTime = startTime;
+  }
+
+  public String getParams() {
+    return params;
+  }
+
+  public long getNextId() {
+    return nextId;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+}
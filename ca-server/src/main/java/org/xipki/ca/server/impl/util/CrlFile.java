@@ -0,0 +1,169 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xipki.ca.server.impl.util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.util.Date;
+
+import org.xipki.security.util.X509Util;
+
+/**
+ * Signed CRL written by {@link CrlStreamBuilder} to a temporary file. The CRL is only read
+ * on demand, it is valid until the builder is closed.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CrlFile {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path file;
+
+  private final long offset;
+
+  private final long length;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final BigInteger crlNumber;
+
+  private final BigInteger baseCrlNumber;
+
+  CrlFile(Path file, long offset, long length, Date thisUpdate, Date nextUpdate,
+      BigInteger crlNumber, BigInteger baseCrlNumber) {
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+    this.thisUpdate = thisUpdate;
+    this.nextUpdate = nextUpdate;
+    this.crlNumber = crlNumber;
+    this.baseCrlNumber = baseCrlNumber;
+  }
+
+  /**
+   * Returns the length of the DER encoded CRL.
+   * @return the length in bytes.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  public Date getThisUpdate() {
+    return thisUpdate;
+  }
+
+  public Date getNextUpdate() {
+    return nextUpdate;
+  }
+
+  /**
+   * Returns the value of the extension CRLNumber.
+   * @return the CRL number, or {@code null} if absent.
+   */
+  public BigInteger getCrlNumber() {
+    return crlNumber;
+  }
+
+  /**
+   * Returns the value of the extension DeltaCRLIndicator.
+   * @return the number of the base CRL, or {@code null} if this CRL is not a delta CRL.
+   */
+  public BigInteger getBaseCrlNumber() {
+    return baseCrlNumber;
+  }
+
+  /**
+   * Opens a stream to read the DER encoded CRL. The stream must be closed by the caller.
+   * @return the stream.
+   * @throws IOException
+   *           If the file could not be read.
+   */
+  public InputStream newInputStream() throws IOException {
+    InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+    try {
+      long skipped = 0;
+      while (skipped < offset) {
+        long n = in.skip(offset - skipped);
+        if (n <= 0) {
+          throw new EOFException("unexpected end of file " + file);
+        }
+        skipped += n;
+      }
+    } catch (IOException ex) {
+      in.close();
+      throw ex;
+    }
+    return in;
+  }
+
+  /**
+   * Reads the whole DER encoded CRL into the memory.
+   * @return the DER encoded CRL.
+   * @throws IOException
+   *           If the file could not be read.
+   */
+  public byte[] getEncoded() throws IOException {
+    byte[] encoded = new byte[(int) length];
+    InputStream in = newInputStream();
+    try {
+      int read = 0;
+      while (read < encoded.length) {
+        int n = in.read(encoded, read, encoded.length - read);
+        if (n == -1) {
+          throw new EOFException("unexpected end of file " + file);
+        }
+        read += n;
+      }
+    } finally {
+      in.close();
+    }
+    return encoded;
+  }
+
+  /**
+   * Parses the CRL. Should only be called if an {@link X509CRL} is really required.
+   * @return the parsed CRL.
+   * @throws IOException
+   *           If the file could not be read.
+   * @throws CRLException
+   *           If the CRL could not be parsed.
+   * @throws CertificateException
+   *           If no CertificateFactory is available.
+   */
+  public X509CRL toX509Crl() throws IOException, CRLException, CertificateException {
+    InputStream in = newInputStream();
+    try {
+      return X509Util.parseCrl(in);
+    } finally {
+      in.close();
+    }
+  }
+
+}
@@ -0,0 +1,734 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xipki.ca.server.impl.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.util.io.TeeOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.ObjectIdentifiers;
+import org.xipki.security.XiContentSigner;
+import org.xipki.util.ParamUtil;
+
+/**
+ * Builder of X.509 CRLs whose memory usage does not depend on the number of revoked
+ * certificates.
+ *
+ * <p>Each revoked certificate is DER-encoded as soon as it is added. The encoded entries are
+ * kept in memory in chunks of at most {@code maxEntriesInMemory} entries, a full chunk is
+ * sorted by the serial number and written to a temporary file. The elements of the optional
+ * XiPKI extension CrlCertSet are handled in the same way, they are sorted by their encodings
+ * as required by DER for a SET OF. In {@link #build}, the chunks are merged and the
+ * TBSCertList is written to the signer and to a temporary file at the same time.
+ *
+ * <p>The signed CRL is returned as {@link CrlFile}, it is not parsed by the builder. The
+ * temporary files, including the one of the returned CRL, are deleted by {@link #close()}.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CrlStreamBuilder implements Closeable {
+
+  private static final class Entry {
+
+    private final BigInteger serial;
+
+    private final byte[] encoded;
+
+    Entry(BigInteger serial, byte[] encoded) {
+      this.serial = serial;
+      this.encoded = encoded;
+    }
+
+  } // class Entry
+
+  /**
+   * Reads the sorted entries of one chunk, either from a temporary file or from the memory.
+   */
+  private static final class ChunkReader {
+
+    private final InputStream in;
+
+    private final Iterator<Entry> iterator;
+
+    private Entry current;
+
+    ChunkReader(InputStream in) {
+      this.in = in;
+      this.iterator = null;
+    }
+
+    ChunkReader(Iterator<Entry> iterator) {
+      this.in = null;
+      this.iterator = iterator;
+    }
+
+    boolean next() throws IOException {
+      if (iterator != null) {
+        current = iterator.hasNext() ? iterator.next() : null;
+      } else {
+        current = readEntry(in);
+      }
+      return current != null;
+    }
+
+  } // class ChunkReader
+
+  /**
+   * Entries sorted by a comparator. Only a bounded number of entries is kept in memory, the
+   * other ones are written to sorted chunk files.
+   */
+  private final class SortedEntries {
+
+    private final Comparator<Entry> comparator;
+
+    private final List<Path> chunkFiles = new LinkedList<>();
+
+    private List<Entry> entries = new ArrayList<>();
+
+    private long bytesInMemory;
+
+    private long num;
+
+    // sum of the length of all encoded entries
+    private long length;
+
+    SortedEntries(Comparator<Entry> comparator) {
+      this.comparator = comparator;
+    }
+
+    void add(Entry entry) throws IOException {
+      entries.add(entry);
+      num++;
+      length += entry.encoded.length;
+      bytesInMemory += entry.encoded.length;
+
+      if (entries.size() >= maxEntriesInMemory || bytesInMemory >= MAX_BYTES_IN_MEMORY) {
+        writeChunk();
+      }
+    }
+
+    void clear() {
+      entries = new ArrayList<>();
+      bytesInMemory = 0;
+      chunkFiles.clear();
+    }
+
+    private void writeChunk() throws IOException {
+      Collections.sort(entries, comparator);
+      Path file = newTempFile();
+      OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+      try {
+        for (Entry entry : entries) {
+          out.write(entry.encoded);
+        }
+      } finally {
+        out.close();
+      }
+      chunkFiles.add(file);
+      entries = new ArrayList<>();
+      bytesInMemory = 0;
+    }
+
+    /**
+     * Writes the merged entries.
+     * @param out
+     *          Output stream. Must not be {@code null}.
+     * @param firstEntry
+     *          If not {@code null}, it is written instead of the first entry.
+     */
+    void writeTo(OutputStream out, byte[] firstEntry) throws IOException {
+      Collections.sort(entries, comparator);
+
+      List<InputStream> streams = new ArrayList<>(chunkFiles.size());
+      try {
+        PriorityQueue<ChunkReader> readers = new PriorityQueue<>(chunkFiles.size() + 1,
+            new Comparator<ChunkReader>() {
+              @Override
+              public int compare(ChunkReader r1, ChunkReader r2) {
+                return comparator.compare(r1.current, r2.current);
+              }
+            });
+
+        for (Path file : chunkFiles) {
+          InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+          streams.add(in);
+          ChunkReader reader = new ChunkReader(in);
+          if (reader.next()) {
+            readers.add(reader);
+          }
+        }
+
+        ChunkReader memoryReader = new ChunkReader(entries.iterator());
+        if (memoryReader.next()) {
+          readers.add(memoryReader);
+        }
+
+        boolean first = true;
+        while (!readers.isEmpty()) {
+          ChunkReader reader = readers.poll();
+          out.write((first && firstEntry != null) ? firstEntry : reader.current.encoded);
+          first = false;
+
+          if (reader.next()) {
+            readers.add(reader);
+          }
+        }
+      } finally {
+        for (InputStream in : streams) {
+          try {
+            in.close();
+          } catch (IOException ex) {
+            LOG.warn("could not close stream: {}", ex.getMessage());
+          }
+        }
+      }
+    } // method writeTo
+
+  } // class SortedEntries
+
+  private static final Logger LOG = LoggerFactory.getLogger(CrlStreamBuilder.class);
+
+  private static final Comparator<Entry> SERIAL_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      return e1.serial.compareTo(e2.serial);
+    }
+  };
+
+  // order of the elements of a DER SET OF: encodings compared as unsigned octet strings
+  private static final Comparator<Entry> ENCODING_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      byte[] a = e1.encoded;
+      byte[] b = e2.encoded;
+      int len = Math.min(a.length, b.length);
+      for (int i = 0; i < len; i++) {
+        if (a[i] != b[i]) {
+          return (a[i] & 0xFF) - (b[i] & 0xFF);
+        }
+      }
+      return a.length - b.length;
+    }
+  };
+
+  private static final int TAG_OCTET_STRING = 0x04;
+
+  private static final int TAG_SEQUENCE = 0x30;
+
+  private static final int TAG_SET = 0x31;
+
+  private static final int TAG_CONTEXT_0 = 0xA0;
+
+  /**
+   * Space reserved for the header of the CertificateList: tag (1) and length (at most 5).
+   */
+  private static final int HEADER_SPACE = 6;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // maximal size of the encoded entries kept in memory, per type of entries
+  private static final long MAX_BYTES_IN_MEMORY = 32L * 1024 * 1024;
+
+  private final X500Name issuer;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final int maxEntriesInMemory;
+
+  private final ExtensionsGenerator extensions = new ExtensionsGenerator();
+
+  private final List<Path> tempFiles = new LinkedList<>();
+
+  private final SortedEntries revokedCerts = new SortedEntries(SERIAL_ORDER);
+
+  // null if the extension CrlCertSet is not included
+  private SortedEntries crlCerts;
+
+  private X500Name certificateIssuer;
+
+  private BigInteger crlNumber;
+
+  private BigInteger baseCrlNumber;
+
+  // the entry with the smallest serial number, it is the first entry of the CRL
+  private BigInteger firstSerial;
+
+  private Date firstRevocationTime;
+
+  private int firstReason;
+
+  private Date firstInvalidityTime;
+
+  private int firstEncodedLength;
+
+  /**
+   * Constructor.
+   * @param issuer
+   *          Issuer of the CRL. Must not be {@code null}.
+   * @param thisUpdate
+   *          thisUpdate of the CRL. Must not be {@code null}.
+   * @param nextUpdate
+   *          nextUpdate of the CRL. Could be {@code null}.
+   * @param maxEntriesInMemory
+   *          Maximal number of CRL entries kept in memory.
+   */
+  public CrlStreamBuilder(X500Name issuer, Date thisUpdate, Date nextUpdate,
+      int maxEntriesInMemory) {
+    this.issuer = ParamUtil.requireNonNull("issuer", issuer);
+    this.thisUpdate = ParamUtil.requireNonNull("thisUpdate", thisUpdate);
+    this.nextUpdate = nextUpdate;
+    this.maxEntriesInMemory = ParamUtil.requireMin("maxEntriesInMemory", maxEntriesInMemory, 1);
+  }
+
+  /**
+   * Sets the certificate issuer of an indirect CRL. The extension certificateIssuer will be
+   * added to the first CRL entry.
+   * @param certificateIssuer
+   *          Issuer of the revoked certificates. Could be {@code null}.
+   */
+  public void setCertificateIssuer(X500Name certificateIssuer) {
+    this.certificateIssuer = certificateIssuer;
+  }
+
+  /**
+   * Adds a revoked certificate.
+   * @param serial
+   *          Serial number of the certificate. Must not be {@code null}.
+   * @param revocationTime
+   *          Revocation time. Must not be {@code null}.
+   * @param reason
+   *          Code of the revocation reason, 0 (unspecified) will not be included.
+   * @param invalidityTime
+   *          Invalidity time. Could be {@code null}.
+   */
+  public void addCrlEntry(BigInteger serial, Date revocationTime, int reason,
+      Date invalidityTime) throws IOException {
+    ParamUtil.requireNonNull("serial", serial);
+    ParamUtil.requireNonNull("revocationTime", revocationTime);
+
+    byte[] encoded = encodeEntry(serial, revocationTime, reason, invalidityTime, null);
+    revokedCerts.add(new Entry(serial, encoded));
+
+    if (firstSerial == null || serial.compareTo(firstSerial) < 0) {
+      firstSerial = serial;
+      firstRevocationTime = revocationTime;
+      firstReason = reason;
+      firstInvalidityTime = invalidityTime;
+      firstEncodedLength = encoded.length;
+    }
+  }
+
+  public long getNumEntries() {
+    return revokedCerts.num;
+  }
+
+  /**
+   * Adds an extension. The values of the extensions CRLNumber and DeltaCRLIndicator are also
+   * returned by {@link CrlFile}.
+   * @param oid
+   *          OID of the extension. Must not be {@code null}.
+   * @param critical
+   *          Whether the extension is critical.
+   * @param value
+   *          Value of the extension. Must not be {@code null}.
+   */
+  public void addExtension(ASN1ObjectIdentifier oid, boolean critical, ASN1Encodable value)
+      throws IOException {
+    extensions.addExtension(oid, critical, value);
+    if (Extension.cRLNumber.equals(oid)) {
+      crlNumber = ASN1Integer.getInstance(value).getPositiveValue();
+    } else if (Extension.deltaCRLIndicator.equals(oid)) {
+      baseCrlNumber = ASN1Integer.getInstance(value).getPositiveValue();
+    }
+  }
+
+  /**
+   * Includes the XiPKI extension CrlCertSet, it will be the last extension of the CRL.
+   * Its elements are added by {@link #addCrlCert(BigInteger, byte[])}.
+   */
+  public void includeCrlCertSet() {
+    if (crlCerts == null) {
+      crlCerts = new SortedEntries(ENCODING_ORDER);
+    }
+  }
+
+  /**
+   * Adds an element of the XiPKI extension CrlCertSet.
+   * <pre>
+   * Xipki-CrlCert ::= SEQUENCE {
+   *         serial          INTEGER
+   *         cert        [0] EXPLICIT    Certificate OPTIONAL
+   *         }
+   * </pre>
+   * @param serial
+   *          Serial number of the certificate. Must not be {@code null}.
+   * @param encodedCert
+   *          DER encoded certificate. Could be {@code null}.
+   */
+  public void addCrlCert(BigInteger serial, byte[] encodedCert) throws IOException {
+    ParamUtil.requireNonNull("serial", serial);
+    if (crlCerts == null) {
+      throw new IllegalStateException("CrlCertSet is not included");
+    }
+
+    byte[] encodedSerial = new ASN1Integer(serial).getEncoded(ASN1Encoding.DER);
+    byte[] certHeader = null;
+    long bodyLength = encodedSerial.length;
+    if (encodedCert != null) {
+      certHeader = encodeHeader(TAG_CONTEXT_0, encodedCert.length);
+      bodyLength += certHeader.length + encodedCert.length;
+    }
+
+    byte[] header = encodeHeader(TAG_SEQUENCE, bodyLength);
+    byte[] encoded = new byte[header.length + (int) bodyLength];
+    int offset = copy(header, encoded, 0);
+    offset = copy(encodedSerial, encoded, offset);
+    if (encodedCert != null) {
+      offset = copy(certHeader, encoded, offset);
+      copy(encodedCert, encoded, offset);
+    }
+    crlCerts.add(new Entry(serial, encoded));
+  }
+
+  /**
+   * Builds and signs the CRL.
+   * @param signer
+   *          Signer. Must not be {@code null}.
+   * @return the signed CRL, valid until this builder is closed.
+   */
+  public CrlFile build(XiContentSigner signer) throws IOException {
+    ParamUtil.requireNonNull("signer", signer);
+
+    long numEntries = revokedCerts.num;
+    byte[] firstEntry = null;
+    long revokedCertsLength = revokedCerts.length;
+    if (certificateIssuer != null && numEntries > 0) {
+      firstEntry = encodeEntry(firstSerial, firstRevocationTime, firstReason,
+          firstInvalidityTime, certificateIssuer);
+      revokedCertsLength += firstEntry.length - firstEncodedLength;
+    }
+
+    byte[] version = new ASN1Integer(1).getEncoded(ASN1Encoding.DER); // v2
+    byte[] sigAlgId = signer.getEncodedAlgorithmIdentifier();
+    byte[] encodedIssuer = issuer.getEncoded(ASN1Encoding.DER);
+    byte[] encodedThisUpdate = new Time(thisUpdate).getEncoded(ASN1Encoding.DER);
+    byte[] encodedNextUpdate = (nextUpdate == null) ? null
+        : new Time(nextUpdate).getEncoded(ASN1Encoding.DER);
+    // revokedCertificates is absent if there is no entry
+    byte[] revokedCertsHeader = (numEntries == 0) ? null
+        : encodeHeader(TAG_SEQUENCE, revokedCertsLength);
+
+    // crlExtensions [0] EXPLICIT Extensions, the CrlCertSet is streamed as last extension
+    byte[] extensionsHeader = null;
+    byte[] extensionsBody = null;
+    byte[] crlCertSetHeader = null;
+    long extensionsLength = 0;
+    if (!extensions.isEmpty() || crlCerts != null) {
+      extensionsBody = extensions.isEmpty() ? new byte[0]
+          : encodeExtensions(extensions.generate());
+      long bodyLength = extensionsBody.length;
+      if (crlCerts != null) {
+        crlCertSetHeader = encodeCrlCertSetHeader(crlCerts.length);
+        bodyLength += crlCertSetHeader.length + crlCerts.length;
+      }
+
+      byte[] seqHeader = encodeHeader(TAG_SEQUENCE, bodyLength);
+      byte[] taggedHeader = encodeHeader(TAG_CONTEXT_0, seqHeader.length + bodyLength);
+      extensionsHeader = new byte[taggedHeader.length + seqHeader.length];
+      copy(seqHeader, extensionsHeader, copy(taggedHeader, extensionsHeader, 0));
+      extensionsLength = extensionsHeader.length + bodyLength;
+    }
+
+    long tbsBodyLength = version.length + sigAlgId.length + encodedIssuer.length
+        + encodedThisUpdate.length + length(encodedNextUpdate) + extensionsLength;
+    if (revokedCertsHeader != null) {
+      tbsBodyLength += revokedCertsHeader.length + revokedCertsLength;
+    }
+    byte[] tbsHeader = encodeHeader(TAG_SEQUENCE, tbsBodyLength);
+
+    Path crlFile = newTempFile();
+    OutputStream fileOut = Files.newOutputStream(crlFile);
+    OutputStream out;
+    try {
+      fileOut.write(new byte[HEADER_SPACE]);
+      out = new BufferedOutputStream(new TeeOutputStream(fileOut, signer.getOutputStream()),
+          BUFFER_SIZE);
+    } catch (IOException | RuntimeException ex) {
+      fileOut.close();
+      throw ex;
+    }
+
+    try {
+      out.write(tbsHeader);
+      out.write(version);
+      out.write(sigAlgId);
+      out.write(encodedIssuer);
+      out.write(encodedThisUpdate);
+      if (encodedNextUpdate != null) {
+        out.write(encodedNextUpdate);
+      }
+
+      if (revokedCertsHeader != null) {
+        out.write(revokedCertsHeader);
+        revokedCerts.writeTo(out, firstEntry);
+      }
+
+      if (extensionsHeader != null) {
+        out.write(extensionsHeader);
+        out.write(extensionsBody);
+        if (crlCertSetHeader != null) {
+          out.write(crlCertSetHeader);
+          crlCerts.writeTo(out, null);
+        }
+      }
+    } finally {
+      out.close();
+    }
+
+    byte[] signature = new DERBitString(signer.getSignature()).getEncoded(ASN1Encoding.DER);
+    long crlBodyLength = tbsHeader.length + tbsBodyLength + sigAlgId.length + signature.length;
+    byte[] crlHeader = encodeHeader(TAG_SEQUENCE, crlBodyLength);
+
+    RandomAccessFile raf = new RandomAccessFile(crlFile.toFile(), "rw");
+    try {
+      raf.seek(raf.length());
+      raf.write(sigAlgId);
+      raf.write(signature);
+      raf.seek(HEADER_SPACE - crlHeader.length);
+      raf.write(crlHeader);
+    } finally {
+      raf.close();
+    }
+
+    return new CrlFile(crlFile, HEADER_SPACE - crlHeader.length, crlHeader.length + crlBodyLength,
+        thisUpdate, nextUpdate, crlNumber, baseCrlNumber);
+  } // method build
+
+  @Override
+  public void close() {
+    revokedCerts.clear();
+    if (crlCerts != null) {
+      crlCerts.clear();
+    }
+
+    for (Path file : tempFiles) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException ex) {
+        LOG.warn("could not delete temporary file {}: {}", file, ex.getMessage());
+      }
+    }
+    tempFiles.clear();
+  }
+
+  private Path newTempFile() throws IOException {
+    Path file = Files.createTempFile("xipki-crl-", ".tmp");
+    tempFiles.add(file);
+    return file;
+  }
+
+  /**
+   * Encodes the extension CrlCertSet without the content of the SET.
+   */
+  private static byte[] encodeCrlCertSetHeader(long setBodyLength) throws IOException {
+    byte[] oid = ObjectIdentifiers.id_xipki_ext_crlCertset.getEncoded(ASN1Encoding.DER);
+    byte[] setHeader = encodeHeader(TAG_SET, setBodyLength);
+    byte[] octetsHeader = encodeHeader(TAG_OCTET_STRING, setHeader.length + setBodyLength);
+    // critical is FALSE and therefore absent
+    byte[] extnHeader = encodeHeader(TAG_SEQUENCE,
+        oid.length + octetsHeader.length + setHeader.length + setBodyLength);
+
+    byte[] header = new byte[extnHeader.length + oid.length + octetsHeader.length
+        + setHeader.length];
+    int offset = copy(extnHeader, header, 0);
+    offset = copy(oid, header, offset);
+    offset = copy(octetsHeader, header, offset);
+    copy(setHeader, header, offset);
+    return header;
+  }
+
+  /**
+   * Encodes the extensions without the header of the SEQUENCE.
+   */
+  private static byte[] encodeExtensions(Extensions extns) throws IOException {
+    List<byte[]> encodedExtns = new ArrayList<>();
+    int len = 0;
+    for (ASN1ObjectIdentifier oid : extns.getExtensionOIDs()) {
+      byte[] encoded = extns.getExtension(oid).getEncoded(ASN1Encoding.DER);
+      encodedExtns.add(encoded);
+      len += encoded.length;
+    }
+
+    byte[] ret = new byte[len];
+    int offset = 0;
+    for (byte[] encoded : encodedExtns) {
+      offset = copy(encoded, ret, offset);
+    }
+    return ret;
+  }
+
+  private static byte[] encodeEntry(BigInteger serial, Date revocationTime, int reason,
+      Date invalidityTime, X500Name certificateIssuer) throws IOException {
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(new ASN1Integer(serial));
+    vec.add(new Time(revocationTime));
+
+    List<Extension> extns = new ArrayList<>(3);
+    if (reason != 0) {
+      extns.add(new Extension(Extension.reasonCode, false,
+          CRLReason.lookup(reason).getEncoded()));
+    }
+
+    if (invalidityTime != null) {
+      extns.add(new Extension(Extension.invalidityDate, false,
+          new ASN1GeneralizedTime(invalidityTime).getEncoded()));
+    }
+
+    if (certificateIssuer != null) {
+      extns.add(new Extension(Extension.certificateIssuer, true,
+          new GeneralNames(new GeneralName(certificateIssuer)).getEncoded()));
+    }
+
+    if (!extns.isEmpty()) {
+      vec.add(new Extensions(extns.toArray(new Extension[0])));
+    }
+    return new DERSequence(vec).getEncoded(ASN1Encoding.DER);
+  }
+
+  /**
+   * Reads one entry written by {@link SortedEntries#writeChunk()}. The entry is a SEQUENCE
+   * whose first element is the serial number.
+   * @return the entry, or {@code null} if the end of the stream is reached.
+   */
+  private static Entry readEntry(InputStream in) throws IOException {
+    int tag = in.read();
+    if (tag == -1) {
+      return null;
+    }
+
+    int lenByte = readByte(in);
+    int numLenBytes = (lenByte < 0x80) ? 0 : lenByte & 0x7F;
+    int bodyLen = (numLenBytes == 0) ? lenByte : 0;
+    byte[] lenBytes = new byte[numLenBytes];
+    for (int i = 0; i < numLenBytes; i++) {
+      lenBytes[i] = (byte) readByte(in);
+      bodyLen = (bodyLen << 8) | (lenBytes[i] & 0xFF);
+    }
+
+    int headerLen = 2 + numLenBytes;
+    byte[] encoded = new byte[headerLen + bodyLen];
+    encoded[0] = (byte) tag;
+    encoded[1] = (byte) lenByte;
+    System.arraycopy(lenBytes, 0, encoded, 2, numLenBytes);
+    readFully(in, encoded, headerLen, bodyLen);
+
+    // the serial number is at most 21 bytes long
+    int serialLen = encoded[headerLen + 1];
+    byte[] serialBytes = new byte[serialLen];
+    System.arraycopy(encoded, headerLen + 2, serialBytes, 0, serialLen);
+    return new Entry(new BigInteger(serialBytes), encoded);
+  }
+
+  private static byte[] encodeHeader(int tag, long bodyLength) throws IOException {
+    if (bodyLength > Integer.MAX_VALUE - 64) {
+      throw new IOException("CRL too large");
+    }
+
+    int len = (int) bodyLength;
+    if (len < 0x80) {
+      return new byte[]{(byte) tag, (byte) len};
+    }
+
+    int numLenBytes = (len > 0xFFFFFF) ? 4 : (len > 0xFFFF) ? 3 : (len > 0xFF) ? 2 : 1;
+    byte[] header = new byte[2 + numLenBytes];
+    header[0] = (byte) tag;
+    header[1] = (byte) (0x80 | numLenBytes);
+    for (int i = 0; i < numLenBytes; i++) {
+      header[2 + i] = (byte) (len >>> (8 * (numLenBytes - 1 - i)));
+    }
+    return header;
+  }
+
+  private static int copy(byte[] src, byte[] dest, int offset) {
+    System.arraycopy(src, 0, dest, offset, src.length);
+    return offset + src.length;
+  }
+
+  private static int length(byte[] bytes) {
+    return (bytes == null) ? 0 : bytes.length;
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int value = in.read();
+    if (value == -1) {
+      throw new EOFException("unexpected end of stream");
+    }
+    return value;
+  }
+
+  private static void readFully(InputStream in, byte[] buffer, int offset, int len)
+      throws IOException {
+    int read = 0;
+    while (read < len) {
+      int n = in.read(buffer, offset + read, len - read);
+      if (n == -1) {
+        throw new EOFException("unexpected end of stream");
+      }
+      read += n;
+    }
+  }
+
+}
@@ -0,0 +1,190 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.audit.internal.AuditServiceRegisterImpl;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.ca.server.impl.CaInfo;
+import org.xipki.ca.server.impl.CaManagerImpl;
+import org.xipki.ca.server.impl.UniqueIdGenerator;
+import org.xipki.ca.server.impl.X509Ca;
+import org.xipki.ca.server.impl.store.CertStore;
+import org.xipki.ca.server.mgmt.api.CaEntry;
+import org.xipki.ca.server.mgmt.api.CaMgmtException;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CaManagerImplTest {
+
+  private static class TestX509Ca extends X509Ca {
+
+    private boolean shutdown;
+
+    TestX509Ca(CaManagerImpl caManager, CaInfo caInfo, CertStore certstore)
+        throws OperationException {
+      super(caManager, caInfo, certstore);
+    }
+
+    @Override
+    public void shutdown() {
+      shutdown = true;
+      super.shutdown();
+    }
+
+  } // class TestX509Ca
+
+  private static final NameId CA = new NameId(1, "ca1");
+
+  private boolean caLockFileExists;
+
+  private DataSourceWrapper datasource;
+
+  private CertStore certstore;
+
+  @Before
+  public void init() throws Exception {
+    caLockFileExists = new File("calock").exists();
+
+    Properties props = new Properties();
+    props.setProperty("jdbcUrl", "jdbc:h2:mem:camanager;DB_CLOSE_DELAY=-1");
+    props.setProperty("username", "sa");
+    props.setProperty("password", "");
+    datasource = new DataSourceFactory().createDataSource("ca", props, null);
+
+    execute("CREATE TABLE DBSCHEMA (NAME VARCHAR(45) NOT NULL PRIMARY KEY,"
+        + " VALUE2 VARCHAR(100) NOT NULL)");
+    execute("INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES('VERSION','4')");
+    execute("INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES('X500NAME_MAXLEN','350')");
+    execute("CREATE TABLE CERT (ID BIGINT NOT NULL PRIMARY KEY, CERT VARCHAR(6000) NOT NULL)");
+    execute("CREATE TABLE CRL (ID INT NOT NULL PRIMARY KEY, CRL CLOB NOT NULL)");
+    execute("CREATE TABLE REQUEST (ID BIGINT NOT NULL PRIMARY KEY, DATA CLOB NOT NULL)");
+
+    certstore = new CertStore(datasource, new UniqueIdGenerator(0, 0));
+  }
+
+  @After
+  public void shutdown() throws Exception {
+    execute("DROP ALL OBJECTS");
+    datasource.close();
+
+    if (!caLockFileExists) {
+      new File("calock").delete();
+    }
+  }
+
+  @Test
+  public void testRestartShutsDownCas() throws Exception {
+    CaManagerImpl caManager = new CaManagerImpl();
+    caManager.setAuditServiceRegister(new AuditServiceRegisterImpl());
+
+    TestX509Ca ca = new TestX509Ca(caManager, newCaInfo(), certstore);
+    addX509Ca(caManager, ca);
+    Assert.assertSame(ca, caManager.getX509Ca(CA.getName()));
+
+    try {
+      // the CA system is not configured, hence only the reset succeeds
+      caManager.restartCaSystem();
+      Assert.fail("CaMgmtException expected");
+    } catch (CaMgmtException ex) {
+      // expected
+    }
+
+    // the certificates in the in-memory publish queues of the CA are written to the table
+    // PUBLISHQUEUE by X509Ca.shutdown()
+    Assert.assertTrue("CA is not shutdown", ca.shutdown);
+
+    try {
+      caManager.getX509Ca(CA.getName());
+      Assert.fail("CaMgmtException expected");
+    } catch (CaMgmtException ex) {
+      // expected
+    }
+  }
+
+  private CaInfo newCaInfo() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(1024);
+    KeyPair keypair = kpGen.generateKeyPair();
+
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + 86400000L);
+    X500Name name = new X500Name("CN=ca1");
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.ONE,
+        notBefore, notAfter, name, keypair.getPublic());
+    builder.addExtension(Extension.keyUsage, true,
+        new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+    ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        .build(keypair.getPrivate());
+    X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+        builder.build(signer));
+
+    CaEntry caEntry = new CaEntry(CA, 127, 1, "pkcs12", "dummy", null, 1, 0);
+    caEntry.setCert(cert);
+    return new CaInfo(caEntry, certstore);
+  }
+
+  // the CAs are only added while the CA system is started
+  @SuppressWarnings("unchecked")
+  private static void addX509Ca(CaManagerImpl caManager, X509Ca ca) throws Exception {
+    Field field = CaManagerImpl.class.getDeclaredField("x509cas");
+    field.setAccessible(true);
+    ((Map<String, X509Ca>) field.get(caManager)).put(ca.getCaIdent().getName(), ca);
+  }
+
+  private void execute(String sql) throws Exception {
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      stmt.execute(sql);
+    } finally {
+      datasource.releaseResources(stmt, null);
+    }
+  }
+
+}
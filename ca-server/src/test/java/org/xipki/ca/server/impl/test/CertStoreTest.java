@@ -0,0 +1,238 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ca.api.CertWithDbId;
+import org.xipki.ca.api.CertificateInfo;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.RequestType;
+import org.xipki.ca.server.impl.UniqueIdGenerator;
+import org.xipki.ca.server.impl.store.CertStore;
+import org.xipki.ca.server.impl.store.RepublishCheckpoint;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CertStoreTest {
+
+  private static final NameId CA = new NameId(1, "ca1");
+
+  private static final NameId PROFILE = new NameId(1, "profile1");
+
+  private static final NameId REQUESTOR = new NameId(1, "requestor1");
+
+  private static final int NUM_THREADS = 20;
+
+  private DataSourceWrapper datasource;
+
+  private CertStore certstore;
+
+  private KeyPair keypair;
+
+  @Before
+  public void init() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("jdbcUrl", "jdbc:h2:mem:certstore;DB_CLOSE_DELAY=-1");
+    props.setProperty("username", "sa");
+    props.setProperty("password", "");
+    datasource = new DataSourceFactory().createDataSource("ca", props, null);
+
+    execute("CREATE TABLE DBSCHEMA (NAME VARCHAR(45) NOT NULL PRIMARY KEY,"
+        + " VALUE2 VARCHAR(100) NOT NULL)");
+    execute("INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES('VERSION','4')");
+    execute("INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES('X500NAME_MAXLEN','350')");
+    execute("CREATE TABLE CERT (ID BIGINT NOT NULL PRIMARY KEY, LUPDATE BIGINT NOT NULL,"
+        + " SN VARCHAR(40) NOT NULL, SUBJECT VARCHAR(350) NOT NULL, FP_S BIGINT NOT NULL,"
+        + " FP_RS BIGINT, NBEFORE BIGINT NOT NULL, NAFTER BIGINT NOT NULL,"
+        + " REV SMALLINT NOT NULL, RR SMALLINT, RT BIGINT, RIT BIGINT, PID INT NOT NULL,"
+        + " CA_ID INT NOT NULL, RID INT, UID INT, FP_K BIGINT NOT NULL, EE SMALLINT NOT NULL,"
+        + " RTYPE SMALLINT NOT NULL, TID VARCHAR(43), SHA1 CHAR(28) NOT NULL,"
+        + " REQ_SUBJECT VARCHAR(350), CERT VARCHAR(6000) NOT NULL,"
+        + " CONSTRAINT CONST_CA_SN UNIQUE (CA_ID, SN))");
+    execute("CREATE TABLE CRL (ID INT NOT NULL PRIMARY KEY, CRL CLOB NOT NULL)");
+    execute("CREATE TABLE REQUEST (ID BIGINT NOT NULL PRIMARY KEY, DATA CLOB NOT NULL)");
+    execute("CREATE TABLE REPUBLISH_CHECKPOINT (CA_ID INT NOT NULL PRIMARY KEY,"
+        + " PARAMS CHAR(28) NOT NULL, NEXT_ID BIGINT NOT NULL, START_TIME BIGINT NOT NULL)");
+
+    certstore = new CertStore(datasource, new UniqueIdGenerator(0, 0));
+
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(1024);
+    keypair = kpGen.generateKeyPair();
+  }
+
+  @After
+  public void shutdown() throws Exception {
+    execute("DROP ALL OBJECTS");
+    datasource.close();
+  }
+
+  @Test
+  public void testGroupCommitWithDuplicatedSerial() throws Exception {
+    // the last certificate has the same serial number as the first one
+    final List<CertificateInfo> certs = new ArrayList<>(NUM_THREADS);
+    for (int i = 0; i < NUM_THREADS; i++) {
+      long serial = (i == NUM_THREADS - 1) ? 1 : i + 1;
+      certs.add(newCertInfo(BigInteger.valueOf(serial), "CN=cert-" + i));
+    }
+
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>(NUM_THREADS);
+      for (final CertificateInfo cert : certs) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            startSignal.await();
+            return certstore.addCert(cert);
+          }
+        }));
+      }
+      startSignal.countDown();
+
+      int numAdded = 0;
+      for (Future<Boolean> result : results) {
+        // no caller may wait forever
+        if (result.get(30, TimeUnit.SECONDS)) {
+          numAdded++;
+        }
+      }
+
+      // only one of both certificates with the same serial number is rejected
+      Assert.assertEquals(NUM_THREADS - 1, numAdded);
+      Assert.assertEquals(NUM_THREADS - 1, count("SELECT COUNT(*) FROM CERT"));
+      Assert.assertEquals(1, count("SELECT COUNT(*) FROM CERT WHERE SN='1'"));
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // the certificates are still added after the rejected one
+    Assert.assertTrue(certstore.addCert(
+        newCertInfo(BigInteger.valueOf(NUM_THREADS), "CN=cert-after")));
+    Assert.assertEquals(NUM_THREADS, count("SELECT COUNT(*) FROM CERT"));
+  }
+
+  @Test
+  public void testRepublishCheckpoint() throws Exception {
+    Assert.assertNull(certstore.getRepublishCheckpoint(CA));
+
+    String params = "2jmj7l5rSw0yVb/vlWAYkK/YBwk=";
+    certstore.saveRepublishCheckpoint(CA, new RepublishCheckpoint(params, 1001, 1000L));
+    certstore.saveRepublishCheckpoint(CA, new RepublishCheckpoint(params, 5001, 1000L));
+
+    RepublishCheckpoint checkpoint = certstore.getRepublishCheckpoint(CA);
+    Assert.assertNotNull(checkpoint);
+    Assert.assertEquals(params, checkpoint.getParams());
+    Assert.assertEquals(5001, checkpoint.getNextId());
+    Assert.assertEquals(1000L, checkpoint.getStartTime());
+    Assert.assertEquals(1, count("SELECT COUNT(*) FROM REPUBLISH_CHECKPOINT"));
+
+    certstore.removeRepublishCheckpoint(CA);
+    Assert.assertNull(certstore.getRepublishCheckpoint(CA));
+  }
+
+  @Test
+  public void testRepublishCheckpointWithoutTable() throws Exception {
+    // database not yet migrated to the schema with the table REPUBLISH_CHECKPOINT
+    execute("DROP TABLE REPUBLISH_CHECKPOINT");
+    CertStore oldCertstore = new CertStore(datasource, new UniqueIdGenerator(0, 0));
+    Assert.assertFalse(oldCertstore.isRepublishCheckpointSupported());
+
+    oldCertstore.saveRepublishCheckpoint(CA,
+        new RepublishCheckpoint("2jmj7l5rSw0yVb/vlWAYkK/YBwk=", 1001, 1000L));
+    Assert.assertNull(oldCertstore.getRepublishCheckpoint(CA));
+    oldCertstore.removeRepublishCheckpoint(CA);
+  }
+
+  private CertificateInfo newCertInfo(BigInteger serial, String subject) throws Exception {
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + 86400000L);
+    X500Name name = new X500Name(subject);
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, serial,
+        notBefore, notAfter, name, keypair.getPublic());
+    ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        .build(keypair.getPrivate());
+    X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+        builder.build(signer));
+
+    CertWithDbId certWithId = new CertWithDbId(cert);
+    CertificateInfo certInfo = new CertificateInfo(certWithId, null, CA, certWithId,
+        keypair.getPublic().getEncoded(), PROFILE, REQUESTOR);
+    certInfo.setReqType(RequestType.CA);
+    return certInfo;
+  }
+
+  private int count(String sql) throws Exception {
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = conn.createStatement();
+      rs = stmt.executeQuery(sql);
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      datasource.releaseResources(stmt, rs);
+    }
+  }
+
+  private void execute(String sql) throws Exception {
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      stmt.execute(sql);
+    } finally {
+      datasource.releaseResources(stmt, null);
+    }
+  }
+
+}
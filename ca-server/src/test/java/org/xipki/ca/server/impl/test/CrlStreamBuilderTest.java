@@ -0,0 +1,202 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xipki.ca.server.impl.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ca.server.impl.EncodedCrl;
+import org.xipki.ca.server.impl.util.CrlFile;
+import org.xipki.ca.server.impl.util.CrlStreamBuilder;
+import org.xipki.security.ObjectIdentifiers;
+import org.xipki.security.XiContentSigner;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CrlStreamBuilderTest {
+
+  private static final X500Name ISSUER = new X500Name("CN=crl-issuer");
+
+  private KeyPair keypair;
+
+  @Before
+  public void init() throws Exception {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(1024);
+    keypair = kpGen.generateKeyPair();
+  }
+
+  @Test
+  public void testEmptyCrl() throws Exception {
+    assertEncoding(0, false);
+  }
+
+  @Test
+  public void testEntriesInChunks() throws Exception {
+    // more entries than kept in memory, the chunks written to files are merged
+    assertEncoding(50, false);
+  }
+
+  @Test
+  public void testCrlCertSet() throws Exception {
+    assertEncoding(50, true);
+  }
+
+  private void assertEncoding(int numEntries, boolean withCrlCertSet) throws Exception {
+    Date thisUpdate = new Date(System.currentTimeMillis() / 1000 * 1000);
+    Date nextUpdate = new Date(thisUpdate.getTime() + 86400000L);
+    Date revocationTime = new Date(thisUpdate.getTime() - 3600000L);
+    BigInteger crlNumber = BigInteger.valueOf(12);
+
+    List<BigInteger> serials = new ArrayList<>(numEntries);
+    for (int i = 0; i < numEntries; i++) {
+      serials.add(BigInteger.valueOf(1000 + 37L * i));
+    }
+    // added in random order
+    Collections.shuffle(serials);
+
+    CrlStreamBuilder builder = new CrlStreamBuilder(ISSUER, thisUpdate, nextUpdate, 7);
+    ASN1EncodableVector crlCerts = new ASN1EncodableVector();
+    try {
+      for (BigInteger serial : serials) {
+        builder.addCrlEntry(serial, revocationTime, 1, null);
+      }
+
+      builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+
+      if (withCrlCertSet) {
+        builder.includeCrlCertSet();
+        for (BigInteger serial : serials) {
+          ASN1EncodableVector vec = new ASN1EncodableVector();
+          vec.add(new ASN1Integer(serial));
+          byte[] encodedCert = null;
+          if (serial.testBit(0)) {
+            encodedCert = new DERSequence(new ASN1Integer(serial.negate()))
+                .getEncoded(ASN1Encoding.DER);
+            vec.add(new DERTaggedObject(true, 0, ASN1Primitive.fromByteArray(encodedCert)));
+          }
+          builder.addCrlCert(serial, encodedCert);
+          crlCerts.add(new DERSequence(vec));
+        }
+      }
+
+      CrlFile crlFile = builder.build(newSigner());
+      Assert.assertEquals(crlNumber, crlFile.getCrlNumber());
+      Assert.assertNull(crlFile.getBaseCrlNumber());
+      Assert.assertEquals(numEntries, builder.getNumEntries());
+
+      // the same CRL built by BouncyCastle, the RSA signature is deterministic
+      X509v2CRLBuilder expectedBuilder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+      expectedBuilder.setNextUpdate(nextUpdate);
+      Collections.sort(serials);
+      for (BigInteger serial : serials) {
+        expectedBuilder.addCRLEntry(serial, revocationTime, 1);
+      }
+      expectedBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+      if (withCrlCertSet) {
+        expectedBuilder.addExtension(ObjectIdentifiers.id_xipki_ext_crlCertset, false,
+            new DERSet(crlCerts));
+      }
+      byte[] expected = expectedBuilder.build(newSigner()).getEncoded();
+
+      byte[] encoded = crlFile.getEncoded();
+      Assert.assertEquals(expected.length, crlFile.getLength());
+      Assert.assertArrayEquals(expected, encoded);
+
+      X509CRL crl = crlFile.toX509Crl();
+      crl.verify(keypair.getPublic());
+      Assert.assertEquals(thisUpdate, crl.getThisUpdate());
+      Assert.assertEquals(nextUpdate, crl.getNextUpdate());
+
+      // only the header is parsed by EncodedCrl
+      EncodedCrl encodedCrl = new EncodedCrl(encoded);
+      Assert.assertEquals(thisUpdate, encodedCrl.getThisUpdate());
+      Assert.assertEquals(nextUpdate, encodedCrl.getNextUpdate());
+      Assert.assertNotNull(encodedCrl.getSignedData());
+    } finally {
+      builder.close();
+    }
+  }
+
+  private XiContentSigner newSigner() throws Exception {
+    final ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        .build(keypair.getPrivate());
+
+    return new XiContentSigner() {
+
+      @Override
+      public AlgorithmIdentifier getAlgorithmIdentifier() {
+        return signer.getAlgorithmIdentifier();
+      }
+
+      @Override
+      public OutputStream getOutputStream() {
+        return signer.getOutputStream();
+      }
+
+      @Override
+      public byte[] getSignature() {
+        return signer.getSignature();
+      }
+
+      @Override
+      public byte[] getEncodedAlgorithmIdentifier() {
+        try {
+          return signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+        } catch (IOException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+
+    };
+  }
+
+}
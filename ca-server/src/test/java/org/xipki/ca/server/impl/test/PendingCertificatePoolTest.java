@@ -0,0 +1,156 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Set;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ca.api.CertWithDbId;
+import org.xipki.ca.api.CertificateInfo;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.server.impl.cmp.PendingCertificatePool;
+import org.xipki.security.HashAlgo;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class PendingCertificatePoolTest {
+
+  private static final byte[] TID = new byte[]{1, 2, 3, 4};
+
+  private static final BigInteger CERT_REQ_ID = BigInteger.ONE;
+
+  private KeyPair keypair;
+
+  private PendingCertificatePool pool;
+
+  @Before
+  public void init() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(1024);
+    keypair = kpGen.generateKeyPair();
+    pool = new PendingCertificatePool();
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    CertificateInfo cert1 = newCertInfo(BigInteger.valueOf(1));
+    CertificateInfo cert2 = newCertInfo(BigInteger.valueOf(2));
+    long now = System.currentTimeMillis();
+    pool.addCertificate(TID, CERT_REQ_ID, cert1, now);
+    pool.addCertificate(TID, BigInteger.valueOf(2), cert2, now + 3600L * 1000);
+
+    Set<CertificateInfo> timeouted = removeConfirmTimeoutedCertificates();
+    Assert.assertNotNull(timeouted);
+    Assert.assertEquals(1, timeouted.size());
+    Assert.assertTrue(timeouted.contains(cert1));
+
+    // not revoked twice
+    Assert.assertNull(pool.removeConfirmTimeoutedCertificates());
+  }
+
+  @Test
+  public void testTimeoutWithDuplicatedCertReqId() throws Exception {
+    CertificateInfo cert1 = newCertInfo(BigInteger.valueOf(1));
+    CertificateInfo cert2 = newCertInfo(BigInteger.valueOf(2));
+    long now = System.currentTimeMillis();
+    pool.addCertificate(TID, CERT_REQ_ID, cert1, now);
+    pool.addCertificate(TID, CERT_REQ_ID, cert2, now);
+
+    Set<CertificateInfo> timeouted = removeConfirmTimeoutedCertificates();
+    Assert.assertNotNull(timeouted);
+    Assert.assertEquals(2, timeouted.size());
+    Assert.assertTrue(timeouted.contains(cert1));
+    Assert.assertTrue(timeouted.contains(cert2));
+  }
+
+  @Test
+  public void testConfirmWithDuplicatedCertReqId() throws Exception {
+    CertificateInfo cert1 = newCertInfo(BigInteger.valueOf(1));
+    CertificateInfo cert2 = newCertInfo(BigInteger.valueOf(2));
+    long now = System.currentTimeMillis();
+    pool.addCertificate(TID, CERT_REQ_ID, cert1, now);
+    pool.addCertificate(TID, CERT_REQ_ID, cert2, now);
+
+    Assert.assertSame(cert2, pool.removeCertificate(TID, CERT_REQ_ID, certHash(cert2)));
+
+    // the certificate which has not been confirmed is revoked
+    Set<CertificateInfo> timeouted = removeConfirmTimeoutedCertificates();
+    Assert.assertNotNull(timeouted);
+    Assert.assertEquals(1, timeouted.size());
+    Assert.assertTrue(timeouted.contains(cert1));
+  }
+
+  @Test
+  public void testRemoveCertificates() throws Exception {
+    CertificateInfo cert1 = newCertInfo(BigInteger.valueOf(1));
+    CertificateInfo cert2 = newCertInfo(BigInteger.valueOf(2));
+    long now = System.currentTimeMillis();
+    pool.addCertificate(TID, CERT_REQ_ID, cert1, now);
+    pool.addCertificate(TID, CERT_REQ_ID, cert2, now);
+
+    Set<CertificateInfo> removed = pool.removeCertificates(TID);
+    Assert.assertNotNull(removed);
+    Assert.assertEquals(2, removed.size());
+
+    Assert.assertNull(removeConfirmTimeoutedCertificates());
+  }
+
+  private Set<CertificateInfo> removeConfirmTimeoutedCertificates() throws Exception {
+    // only the elapsed ticks are visited
+    Thread.sleep(2 * PendingCertificatePool.TICK_MS);
+    return pool.removeConfirmTimeoutedCertificates();
+  }
+
+  private static byte[] certHash(CertificateInfo certInfo) {
+    return HashAlgo.SHA1.hash(certInfo.getCert().getEncodedCert());
+  }
+
+  private CertificateInfo newCertInfo(BigInteger serial) throws Exception {
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + 86400000L);
+    X500Name name = new X500Name("CN=cert" + serial);
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, serial,
+        notBefore, notAfter, name, keypair.getPublic());
+    ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        .build(keypair.getPrivate());
+    X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+        builder.build(signer));
+
+    CertWithDbId certWithId = new CertWithDbId(cert);
+    return new CertificateInfo(certWithId, null, new NameId(1, "ca1"), certWithId,
+        keypair.getPublic().getEncoded(), new NameId(1, "profile1"),
+        new NameId(1, "requestor1"));
+  }
+
+}
@@ -0,0 +1,280 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.server.impl.CertRevInfoWithSerial;
+import org.xipki.ca.server.impl.RevocationSnapshot;
+import org.xipki.ca.server.impl.UniqueIdGenerator;
+import org.xipki.ca.server.impl.store.CertStore;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class RevocationSnapshotTest {
+
+  private static final NameId CA = new NameId(1, "ca1");
+
+  private final UniqueIdGenerator idGenerator = new UniqueIdGenerator(0, 0);
+
+  private DataSourceWrapper datasource;
+
+  private CertStore certstore;
+
+  private Path dir;
+
+  private RevocationSnapshot snapshot;
+
+  private long nextCertId = 1;
+
+  @Before
+  public void init() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("jdbcUrl", "jdbc:h2:mem:revocationsnapshot;DB_CLOSE_DELAY=-1");
+    props.setProperty("username", "sa");
+    props.setProperty("password", "");
+    datasource = new DataSourceFactory().createDataSource("ca", props, null);
+
+    execute("CREATE TABLE DBSCHEMA (NAME VARCHAR(45) NOT NULL PRIMARY KEY,"
+        + " VALUE2 VARCHAR(100) NOT NULL)");
+    execute("INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES('VERSION','4')");
+    execute("INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES('X500NAME_MAXLEN','350')");
+    execute("CREATE TABLE CERT (ID BIGINT NOT NULL PRIMARY KEY, CA_ID INT NOT NULL,"
+        + " SN VARCHAR(40) NOT NULL, LUPDATE BIGINT NOT NULL, NAFTER BIGINT NOT NULL,"
+        + " EE SMALLINT NOT NULL, REV SMALLINT NOT NULL, RR SMALLINT, RT BIGINT, RIT BIGINT,"
+        + " CERT VARCHAR(6000) NOT NULL)");
+    execute("CREATE TABLE CRL (ID INT NOT NULL PRIMARY KEY, CA_ID INT NOT NULL,"
+        + " CRL_NO BIGINT NOT NULL, CRL CLOB NOT NULL)");
+    execute("CREATE TABLE REQUEST (ID BIGINT NOT NULL PRIMARY KEY, DATA CLOB NOT NULL)");
+    execute("CREATE TABLE DELTACRL_CACHE (ID BIGINT NOT NULL PRIMARY KEY,"
+        + " CA_ID INT NOT NULL, SN VARCHAR(40) NOT NULL)");
+
+    certstore = new CertStore(datasource, idGenerator);
+    dir = Files.createTempDirectory("revocationsnapshot");
+    snapshot = newSnapshot();
+  }
+
+  @After
+  public void shutdown() throws Exception {
+    execute("DROP ALL OBJECTS");
+    datasource.close();
+
+    List<Path> files = new ArrayList<>();
+    for (Path file : Files.newDirectoryStream(dir)) {
+      files.add(file);
+    }
+    for (Path file : files) {
+      Files.delete(file);
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    addCert(1, true);
+    addCert(2, false);
+    addCert(3, true);
+
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1, 3);
+  }
+
+  @Test
+  public void testChangesCommittedOutOfOrder() throws Exception {
+    addCert(1, true);
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1);
+
+    // the IDs of both changes are generated before the INSERT, the one with the lower ID is
+    // committed after the snapshot has been updated.
+    long lowerId = idGenerator.nextId();
+    long higherId = lowerId + UniqueIdGenerator.getIdInterval(1000);
+
+    addCert(2, true);
+    addDeltaCrlCacheEntry(higherId, 2);
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1, 2);
+
+    addCert(3, true);
+    addDeltaCrlCacheEntry(lowerId, 3);
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1, 2, 3);
+
+    // the overlapping entries must not be removed from DELTACRL_CACHE
+    Assert.assertTrue(snapshot.getAppliedDeltaCrlCacheId() < lowerId);
+  }
+
+  @Test
+  public void testUnrevoke() throws Exception {
+    addCert(1, true);
+    addCert(2, true);
+    snapshot.update(new Date(0));
+
+    execute("UPDATE CERT SET REV=0 WHERE SN='2'");
+    addDeltaCrlCacheEntry(idGenerator.nextId(), 2);
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1);
+  }
+
+  @Test
+  public void testRemoveExpired() throws Exception {
+    long now = System.currentTimeMillis() / 1000;
+    addCert(1, true, now - 3600);
+    addCert(2, true, now + 3600);
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1, 2);
+    assertSerials(new Date(), 2);
+
+    // expired certificates are removed from the snapshot
+    snapshot.update(new Date());
+    assertSerials(new Date(0), 2);
+  }
+
+  @Test
+  public void testPersisted() throws Exception {
+    addCert(1, true);
+    addCert(2, true);
+    snapshot.update(new Date(0));
+    addCrl(1);
+    snapshot.crlGenerated(1);
+
+    // not read again from the table CERT
+    execute("DELETE FROM CERT WHERE SN='2'");
+    snapshot = newSnapshot();
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1, 2);
+
+    // changes are still applied
+    addCert(3, true);
+    addDeltaCrlCacheEntry(idGenerator.nextId(), 3);
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1, 2, 3);
+  }
+
+  @Test
+  public void testOutdatedFile() throws Exception {
+    addCert(1, true);
+    addCert(2, true);
+    snapshot.update(new Date(0));
+    addCrl(1);
+    snapshot.crlGenerated(1);
+
+    // CRL generated without the snapshot, the DELTACRL_CACHE may have been cleared
+    addCrl(2);
+    execute("DELETE FROM CERT WHERE SN='2'");
+    snapshot = newSnapshot();
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1);
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    addCert(1, true);
+    addCert(2, true);
+    snapshot.update(new Date(0));
+
+    execute("DELETE FROM CERT WHERE SN='2'");
+    snapshot.remove(BigInteger.valueOf(2));
+    // the file is not used until the removal is applied
+    RevocationSnapshot other = newSnapshot();
+    addCert(3, true);
+    other.update(new Date(0));
+    assertSerials(other, new Date(0), 1, 3);
+
+    snapshot.update(new Date(0));
+    assertSerials(new Date(0), 1, 3);
+  }
+
+  private RevocationSnapshot newSnapshot() {
+    return new RevocationSnapshot(CA, certstore, false, false, dir.resolve("ca1.snapshot"));
+  }
+
+  private void assertSerials(Date notExpiredAt, long... expectedSerials) throws IOException {
+    assertSerials(snapshot, notExpiredAt, expectedSerials);
+  }
+
+  private static void assertSerials(RevocationSnapshot snapshot, Date notExpiredAt,
+      long... expectedSerials) throws IOException {
+    List<CertRevInfoWithSerial> revInfos = new ArrayList<>();
+    RevocationSnapshot.RevokedCertIterator it = snapshot.iterator(notExpiredAt);
+    try {
+      while (it.hasNext()) {
+        revInfos.add(it.next());
+      }
+    } finally {
+      it.close();
+    }
+
+    Assert.assertEquals(expectedSerials.length, revInfos.size());
+    for (int i = 0; i < expectedSerials.length; i++) {
+      Assert.assertEquals(BigInteger.valueOf(expectedSerials[i]), revInfos.get(i).getSerial());
+    }
+  }
+
+  private void addCert(long serial, boolean revoked) throws Exception {
+    addCert(serial, revoked, System.currentTimeMillis() / 1000 + 86400);
+  }
+
+  private void addCert(long serial, boolean revoked, long notAfter) throws Exception {
+    execute("INSERT INTO CERT (ID,CA_ID,SN,LUPDATE,NAFTER,EE,REV,RR,RT,CERT) VALUES("
+        + (nextCertId++) + "," + CA.getId() + ",'" + Long.toHexString(serial) + "',1,"
+        + notAfter + ",1," + (revoked ? "1,1,1" : "0,NULL,NULL") + ",'MA==')");
+  }
+
+  private void addCrl(long crlNumber) throws Exception {
+    execute("INSERT INTO CRL (ID,CA_ID,CRL_NO,CRL) VALUES(" + crlNumber + "," + CA.getId() + ","
+        + crlNumber + ",'MA==')");
+  }
+
+  private void addDeltaCrlCacheEntry(long id, long serial) throws Exception {
+    execute("INSERT INTO DELTACRL_CACHE (ID,CA_ID,SN) VALUES(" + id + "," + CA.getId() + ",'"
+        + Long.toHexString(serial) + "')");
+  }
+
+  private void execute(String sql) throws Exception {
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      stmt.execute(sql);
+    } finally {
+      datasource.releaseResources(stmt, null);
+    }
+  }
+
+}
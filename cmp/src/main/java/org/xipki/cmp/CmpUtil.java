@@ -39,6 +39,7 @@ import org.bouncycastle.cert.cmp.ProtectedPKIMessageBuilder;
 import org.bouncycastle.cert.crmf.CRMFException;
 import org.bouncycastle.cert.crmf.PKMACBuilder;
 import org.bouncycastle.cert.crmf.jcajce.JcePKMACValuesCalculator;
+import org.bouncycastle.operator.MacCalculator;
 import org.xipki.security.ConcurrentBagEntrySigner;
 import org.xipki.security.ConcurrentContentSigner;
 import org.xipki.security.exception.NoIdleSignerException;
@@ -92,18 +93,24 @@ public class CmpUtil {
   public static PKIMessage addProtection(PKIMessage pkiMessage, char[] password,
       PBMParameter pbmParameter, GeneralName signerName, byte[] senderKid)
       throws CMPException {
-    ProtectedPKIMessageBuilder builder =
-        newProtectedPKIMessageBuilder(pkiMessage, signerName, senderKid);
-    ProtectedPKIMessage signedMessage;
+    MacCalculator macCalculator;
     try {
-      // TODO: more efficient way to get the instance of builder
       PKMACBuilder pkMacBuilder = new PKMACBuilder(new JcePKMACValuesCalculator());
       pkMacBuilder.setParameters(pbmParameter);
-      signedMessage = builder.build(pkMacBuilder.build(password));
+      macCalculator = pkMacBuilder.build(password);
     } catch (CRMFException ex) {
       throw new CMPException(ex.getMessage(), ex);
     }
-    return signedMessage.toASN1Structure();
+    return addProtection(pkiMessage, macCalculator, signerName, senderKid);
+  }
+
+  // the key of the macCalculator may have been derived from the password in advance
+  public static PKIMessage addProtection(PKIMessage pkiMessage, MacCalculator macCalculator,
+      GeneralName signerName, byte[] senderKid) throws CMPException {
+    ParamUtil.requireNonNull("macCalculator", macCalculator);
+    ProtectedPKIMessageBuilder builder =
+        newProtectedPKIMessageBuilder(pkiMessage, signerName, senderKid);
+    return builder.build(macCalculator).toASN1Structure();
   }
 
   // CHECKSTYLE:SKIP
@@ -17,19 +17,24 @@
 
 package org.xipki.datasource;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataAccessException.Reason;
+import org.xipki.util.Base64;
 import org.xipki.util.LogUtil;
 import org.xipki.util.LruCache;
 import org.xipki.util.ParamUtil;
@@ -46,6 +51,73 @@ import com.zaxxer.hikari.HikariDataSource;
 
 public abstract class DataSourceWrapper {
 
+  /**
+   * Reader of the Base64 encoding of the data read from a stream, without line separators.
+   */
+  private static class Base64Reader extends Reader {
+
+    private final InputStream in;
+
+    private final byte[] block = new byte[3 * 1024];
+
+    private char[] chars = new char[0];
+
+    private int charsOffset;
+
+    private boolean eof;
+
+    Base64Reader(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+
+      if (charsOffset == chars.length) {
+        if (eof) {
+          return -1;
+        }
+
+        // only the last block may have a length which is not a multiple of 3
+        int read = 0;
+        while (read < block.length) {
+          int n = in.read(block, read, block.length - read);
+          if (n == -1) {
+            eof = true;
+            break;
+          }
+          read += n;
+        }
+
+        if (read == 0) {
+          return -1;
+        }
+
+        byte[] bytes = block;
+        if (read < block.length) {
+          bytes = new byte[read];
+          System.arraycopy(block, 0, bytes, 0, read);
+        }
+        chars = Base64.encodeToChar(bytes);
+        charsOffset = 0;
+      }
+
+      int num = Math.min(len, chars.length - charsOffset);
+      System.arraycopy(chars, charsOffset, cbuf, off, num);
+      charsOffset += num;
+      return num;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  } // class Base64Reader
+
   // CHECKSTYLE:SKIP
   private static class MySQL extends DataSourceWrapper {
 
@@ -136,6 +208,20 @@ public abstract class DataSourceWrapper {
       return StringUtil.concat("ALTER TABLE ", table, " DROP KEY ", constraintName);
     }
 
+    @Override
+    protected String getSqlToAddBinaryColumn(String table, String column) {
+      // BLOB is limited to 64 KB
+      return StringUtil.concat("ALTER TABLE ", table, " ADD ", column, " LONGBLOB");
+    }
+
+    @Override
+    protected String getSqlToRenameBinaryColumn(String table, String oldColumn,
+        String newColumn) {
+      // RENAME COLUMN is not supported before MySQL 8.0
+      return StringUtil.concat("ALTER TABLE ", table, " CHANGE ", oldColumn, " ", newColumn,
+          " LONGBLOB");
+    }
+
   } // class MySQL
 
   // CHECKSTYLE:SKIP
@@ -177,6 +263,21 @@ public abstract class DataSourceWrapper {
       return StringUtil.concat("SELECT NEXT VALUE FOR ", sequenceName, " FROM sysibm.sysdummy1");
     }
 
+    @Override
+    protected String getSqlToAddBinaryColumn(String table, String column) {
+      // BLOB is limited to 1 MB, 100 MB as the CRL column in ca-init-binary.xml
+      return StringUtil.concat("ALTER TABLE ", table, " ADD ", column, " BLOB(104857600)");
+    }
+
+    @Override
+    public void dropColumn(Connection conn, String table, String column)
+        throws DataAccessException {
+      super.dropColumn(conn, table, column);
+      // the table is in the reorg pending state after a column has been dropped
+      super.executeUpdate(conn, StringUtil.concat("CALL SYSPROC.ADMIN_CMD('REORG TABLE ", table,
+          "')"));
+    }
+
   } // class DB2
 
   // CHECKSTYLE:SKIP
@@ -228,6 +329,11 @@ public abstract class DataSourceWrapper {
         "END $$;");
     }
 
+    @Override
+    protected String getSqlToAddBinaryColumn(String table, String column) {
+      return StringUtil.concat("ALTER TABLE ", table, " ADD ", column, " BYTEA");
+    }
+
   } // class PostgreSQL
 
   private static class Oracle extends DataSourceWrapper {
@@ -336,6 +442,13 @@ public abstract class DataSourceWrapper {
       return StringUtil.concat("SELECT NEXTVAL ('", sequenceName, "')");
     }
 
+    @Override
+    protected String getSqlToRenameBinaryColumn(String table, String oldColumn,
+        String newColumn) {
+      return StringUtil.concat("ALTER TABLE ", table, " ALTER COLUMN ", oldColumn,
+          " RENAME TO ", newColumn);
+    }
+
   } // class H2
 
   // CHECKSTYLE:SKIP
@@ -368,6 +481,13 @@ public abstract class DataSourceWrapper {
       return StringUtil.concat("SELECT NEXTVAL ('", sequenceName, "')");
     }
 
+    @Override
+    protected String getSqlToRenameBinaryColumn(String table, String oldColumn,
+        String newColumn) {
+      return StringUtil.concat("ALTER TABLE ", table, " ALTER COLUMN ", oldColumn,
+          " RENAME TO ", newColumn);
+    }
+
   } // class HSQL
 
   private static final Logger LOG = LoggerFactory.getLogger(DataSourceWrapper.class);
@@ -747,6 +867,127 @@ public abstract class DataSourceWrapper {
     }
   }
 
+  /**
+   * Whether the column stores binary data (e.g. BLOB, BYTEA or VARBINARY) instead of the
+   * Base64 encoded text.
+   * @param conn
+   *          Database connection. If {@code null}, a new connection will be used.
+   * @param table
+   *          Table name. Must not be blank.
+   * @param column
+   *          Column name. Must not be blank.
+   * @return whether the column is binary.
+   * @throws DataAccessException
+   *           If the type of the column could not be retrieved.
+   * @since 4.0.1
+   */
+  public boolean isBinaryColumn(Connection conn, String table, String column)
+      throws DataAccessException {
+    ParamUtil.requireNonBlank("table", table);
+    ParamUtil.requireNonBlank("column", column);
+
+    final String sql = StringUtil.concat("SELECT ", column, " FROM ", table, " WHERE 1=0");
+
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = (conn != null) ? conn.createStatement() : getConnection().createStatement();
+      rs = stmt.executeQuery(sql);
+      switch (rs.getMetaData().getColumnType(1)) {
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+          return true;
+        default:
+          return false;
+      }
+    } catch (SQLException ex) {
+      throw translate(sql, ex);
+    } finally {
+      if (conn == null) {
+        releaseResources(stmt, rs);
+      } else {
+        releaseStatementAndResultSet(stmt, rs);
+      }
+    }
+  } // method isBinaryColumn
+
+  /**
+   * Reads the binary data from a column which stores either the raw bytes or the Base64
+   * encoded text, see {@link #isBinaryColumn(Connection, String, String)}.
+   * @param rs
+   *          Result set. Must not be {@code null}.
+   * @param column
+   *          Column name. Must not be blank.
+   * @param binary
+   *          Whether the column is binary.
+   * @return the data, or {@code null} if the column is {@code NULL}.
+   * @throws SQLException
+   *           If the data could not be read.
+   * @since 4.0.1
+   */
+  public static byte[] getBytes(ResultSet rs, String column, boolean binary)
+      throws SQLException {
+    if (binary) {
+      return rs.getBytes(column);
+    }
+
+    String b64 = rs.getString(column);
+    return (b64 == null) ? null : Base64.decodeFast(b64);
+  }
+
+  /**
+   * Sets the binary data of a column which stores either the raw bytes or the Base64
+   * encoded text, see {@link #isBinaryColumn(Connection, String, String)}.
+   * @param ps
+   *          Prepared statement. Must not be {@code null}.
+   * @param index
+   *          Index of the parameter.
+   * @param value
+   *          Data to be set. Could be {@code null}.
+   * @param binary
+   *          Whether the column is binary.
+   * @throws SQLException
+   *           If the data could not be set.
+   * @since 4.0.1
+   */
+  public static void setBytes(PreparedStatement ps, int index, byte[] value, boolean binary)
+      throws SQLException {
+    if (binary) {
+      ps.setBytes(index, value);
+    } else {
+      ps.setString(index, (value == null) ? null : Base64.encodeToString(value));
+    }
+  }
+
+  /**
+   * Sets the binary data of a column from a stream, see
+   * {@link #setBytes(PreparedStatement, int, byte[], boolean)}. The data is not read into the
+   * memory at once, it is Base64 encoded while it is read by the JDBC driver.
+   * @param ps
+   *          Prepared statement. Must not be {@code null}.
+   * @param index
+   *          Index of the parameter.
+   * @param in
+   *          Stream of the data. Must not be {@code null}.
+   * @param length
+   *          Length of the data in bytes.
+   * @param binary
+   *          Whether the column is binary.
+   * @throws SQLException
+   *           If the data could not be set.
+   * @since 4.0.1
+   */
+  public static void setStream(PreparedStatement ps, int index, InputStream in, long length,
+      boolean binary) throws SQLException {
+    if (binary) {
+      ps.setBinaryStream(index, in, length);
+    } else {
+      ps.setCharacterStream(index, new Base64Reader(in), (length + 2) / 3 * 4);
+    }
+  }
+
   public boolean tableExists(Connection conn, String table) throws DataAccessException {
     ParamUtil.requireNonBlank("table", table);
 
@@ -1026,6 +1267,62 @@ public abstract class DataSourceWrapper {
     executeUpdate(conn, getSqlToAddUniqueConstrain(constraintName, table, columns));
   }
 
+  protected String getSqlToAddBinaryColumn(String table, String column) {
+    ParamUtil.requireNonBlank("table", table);
+    ParamUtil.requireNonBlank("column", column);
+    return StringUtil.concat("ALTER TABLE ", table, " ADD ", column, " BLOB");
+  }
+
+  /**
+   * Adds a nullable column which stores binary data of any size.
+   * @param conn
+   *          Database connection. {@code null} to use a new connection.
+   * @param table
+   *          Table name. Must not be blank.
+   * @param column
+   *          Column name. Must not be blank.
+   * @throws DataAccessException
+   *           If the column could not be added.
+   * @since 4.0.1
+   */
+  public void addBinaryColumn(Connection conn, String table, String column)
+      throws DataAccessException {
+    executeUpdate(conn, getSqlToAddBinaryColumn(table, column));
+  }
+
+  protected String getSqlToDropColumn(String table, String column) {
+    ParamUtil.requireNonBlank("table", table);
+    ParamUtil.requireNonBlank("column", column);
+    return StringUtil.concat("ALTER TABLE ", table, " DROP COLUMN ", column);
+  }
+
+  /**
+   * Drops the column.
+   * @since 4.0.1
+   */
+  public void dropColumn(Connection conn, String table, String column)
+      throws DataAccessException {
+    executeUpdate(conn, getSqlToDropColumn(table, column));
+  }
+
+  protected String getSqlToRenameBinaryColumn(String table, String oldColumn,
+      String newColumn) {
+    ParamUtil.requireNonBlank("table", table);
+    ParamUtil.requireNonBlank("oldColumn", oldColumn);
+    ParamUtil.requireNonBlank("newColumn", newColumn);
+    return StringUtil.concat("ALTER TABLE ", table, " RENAME COLUMN ", oldColumn, " TO ",
+        newColumn);
+  }
+
+  /**
+   * Renames a column added by {@link #addBinaryColumn(Connection, String, String)}.
+   * @since 4.0.1
+   */
+  public void renameBinaryColumn(Connection conn, String table, String oldColumn,
+      String newColumn) throws DataAccessException {
+    executeUpdate(conn, getSqlToRenameBinaryColumn(table, oldColumn, newColumn));
+  }
+
   public DataAccessException translate(String sql, SQLException ex) {
     ParamUtil.requireNonNull("ex", ex);
 
@@ -19,12 +19,15 @@ package org.xipki.http.server;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 import javax.net.ssl.SSLSession;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.http.servlet.HttpServlet;
+import org.xipki.http.servlet.ServletExecutor;
 import org.xipki.http.servlet.ServletURI;
 import org.xipki.http.servlet.SslReverseProxyMode;
 import org.xipki.util.LogUtil;
@@ -85,6 +88,54 @@ public final class HttpServer {
 
   private class NettyHttpServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
+    private class ServiceTask implements Runnable {
+
+      private final ChannelHandlerContext ctx;
+
+      private final FullHttpRequest request;
+
+      private final ServletURI servletUri;
+
+      private final HttpServlet servlet;
+
+      private final SSLSession sslSession;
+
+      private ServiceTask(ChannelHandlerContext ctx, FullHttpRequest request,
+          ServletURI servletUri, HttpServlet servlet, SSLSession sslSession) {
+        this.ctx = ctx;
+        this.request = request;
+        this.servletUri = servletUri;
+        this.servlet = servlet;
+        this.sslSession = sslSession;
+      }
+
+      @Override
+      public void run() {
+        try {
+          service(ctx, request, servletUri, servlet, sslSession);
+        } finally {
+          request.release();
+          // the response has been queued in the event loop, the resume task runs after it
+          ctx.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+              resume(ctx);
+            }
+          });
+        }
+      }
+
+    } // class ServiceTask
+
+    /*
+     * Pipelined requests of the connection, which are received while a request is being
+     * processed in the executor. They are processed one after another, so that the responses
+     * are sent in the order of the requests. Accessed only in the event loop.
+     */
+    private final Deque<FullHttpRequest> pendingRequests = new ArrayDeque<>();
+
+    private boolean inFlight;
+
     private NettyHttpServerHandler() {
       super(true);
     }
@@ -92,6 +143,49 @@ public final class HttpServer {
     @Override
     public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request)
             throws Exception {
+      if (inFlight) {
+        // the request will be released by the SimpleChannelInboundHandler after this method
+        request.retain();
+        pendingRequests.add(request);
+        // do not read more requests until the pending ones are processed
+        ctx.channel().config().setAutoRead(false);
+        return;
+      }
+
+      process(ctx, request);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      FullHttpRequest request;
+      while ((request = pendingRequests.poll()) != null) {
+        request.release();
+      }
+      super.channelInactive(ctx);
+    }
+
+    private void resume(ChannelHandlerContext ctx) {
+      inFlight = false;
+
+      FullHttpRequest request;
+      while (!inFlight && (request = pendingRequests.poll()) != null) {
+        try {
+          process(ctx, request);
+        } catch (Exception ex) {
+          logException("exception raised while processing request", ex);
+          sendError(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+          request.release();
+        }
+      }
+
+      if (pendingRequests.isEmpty() && ctx.channel().isActive()
+          && !ctx.channel().config().isAutoRead()) {
+        ctx.channel().config().setAutoRead(true);
+      }
+    }
+
+    private void process(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
       if (!request.decoderResult().isSuccess()) {
         sendError(ctx, HttpResponseStatus.BAD_REQUEST);
         return;
@@ -115,6 +209,27 @@ public final class HttpServer {
         }
       }
 
+      ServletExecutor executor = servlet.getExecutor();
+      if (executor == null) {
+        service(ctx, request, servletUri, servlet, sslSession);
+        return;
+      }
+
+      // the request will be released by the caller after this method
+      request.retain();
+      inFlight = true;
+      boolean accepted = executor.execute(
+          new ServiceTask(ctx, request, servletUri, servlet, sslSession));
+      if (!accepted) {
+        inFlight = false;
+        request.release();
+        LOG.warn("{} overloaded, reject the request", executor);
+        writeResponse(ctx, servlet.createOverloadResponse(request.protocolVersion()));
+      }
+    }
+
+    private void service(ChannelHandlerContext ctx, FullHttpRequest request,
+        ServletURI servletUri, HttpServlet servlet, SSLSession sslSession) {
       FullHttpResponse response;
       try {
         response = servlet.service(request, servletUri, sslSession, sslReverseProxyMode);
@@ -124,9 +239,14 @@ public final class HttpServer {
         return;
       }
 
+      writeResponse(ctx, response);
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, FullHttpResponse response) {
       boolean keepAlive = true;
       int status = response.status().code();
-      if (status < 200 | status > 299) {
+      // keep the connection for 304 (Not Modified) responses to conditional requests
+      if ((status < 200 | status > 299) && status != 304) {
         keepAlive = false;
       }
 
@@ -0,0 +1,256 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.http.server.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSession;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.http.server.HttpServer;
+import org.xipki.http.server.ServletListener;
+import org.xipki.http.servlet.AbstractHttpServlet;
+import org.xipki.http.servlet.ServletExecutor;
+import org.xipki.http.servlet.ServletURI;
+import org.xipki.http.servlet.SslReverseProxyMode;
+
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class HttpServerTest {
+
+  /**
+   * Returns the path of the request as content. The requests to /slow take 500 ms, the
+   * requests to /block wait till they are released.
+   */
+  private static class TestServlet extends AbstractHttpServlet {
+
+    private final Semaphore started = new Semaphore(0);
+
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    @Override
+    public FullHttpResponse service(FullHttpRequest request, ServletURI servletUri,
+        SSLSession sslSession, SslReverseProxyMode sslReverseProxyMode) throws Exception {
+      String path = servletUri.getPath();
+      started.release();
+      if ("/slow".equals(path)) {
+        Thread.sleep(500);
+      } else if ("/block".equals(path)) {
+        released.await(10, TimeUnit.SECONDS);
+      }
+      return createOKResponse(request.protocolVersion(), "text/plain", path.getBytes());
+    }
+
+  } // class TestServlet
+
+  private static class Response {
+
+    private final int status;
+
+    private final String content;
+
+    Response(int status, String content) {
+      this.status = status;
+      this.content = content;
+    }
+
+  } // class Response
+
+  private int port;
+
+  private HttpServer server;
+
+  private ServletListener servletListener;
+
+  private ServletExecutor executor;
+
+  private TestServlet servlet;
+
+  @Before
+  public void init() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      port = socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+
+    servlet = new TestServlet();
+    servletListener = new ServletListener();
+    servletListener.register(servlet, "/test");
+
+    server = new HttpServer(null, port, 1);
+    server.setServletListener(servletListener);
+    server.start();
+  }
+
+  @After
+  public void shutdown() throws Exception {
+    servlet.released.countDown();
+    server.shutdown();
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testPipelinedRequests() throws Exception {
+    // the second request would be completed first by a free worker thread
+    executor = new ServletExecutor("test", 4, 10);
+    servlet.setExecutor(executor);
+
+    Socket socket = connect();
+    try {
+      send(socket, "/test/slow", "/test/fast", "/test/fast2");
+      Assert.assertEquals("/slow", readResponse(socket).content);
+      Assert.assertEquals("/fast", readResponse(socket).content);
+      Assert.assertEquals("/fast2", readResponse(socket).content);
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testPipelinedRequestsWithoutExecutor() throws Exception {
+    Socket socket = connect();
+    try {
+      send(socket, "/test/slow", "/test/fast");
+      Assert.assertEquals("/slow", readResponse(socket).content);
+      Assert.assertEquals("/fast", readResponse(socket).content);
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testOverload() throws Exception {
+    executor = new ServletExecutor("test", 1, 1);
+    servlet.setExecutor(executor);
+
+    // processed by the only worker thread
+    Socket socket1 = connect();
+    // waiting in the queue
+    Socket socket2 = connect();
+    // rejected
+    Socket socket3 = connect();
+    try {
+      send(socket1, "/test/block");
+      Assert.assertTrue(servlet.started.tryAcquire(10, TimeUnit.SECONDS));
+
+      send(socket2, "/test/block");
+      long deadline = System.currentTimeMillis() + 10000;
+      while (executor.getQueueDepth() < 1 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(1, executor.getQueueDepth());
+
+      send(socket3, "/test/block");
+      Assert.assertEquals(503, readResponse(socket3).status);
+
+      servlet.released.countDown();
+      Response resp = readResponse(socket1);
+      Assert.assertEquals(200, resp.status);
+      Assert.assertEquals("/block", resp.content);
+
+      resp = readResponse(socket2);
+      Assert.assertEquals(200, resp.status);
+      Assert.assertEquals("/block", resp.content);
+    } finally {
+      socket1.close();
+      socket2.close();
+      socket3.close();
+    }
+  }
+
+  private Socket connect() throws IOException {
+    Socket socket = new Socket("localhost", port);
+    socket.setSoTimeout(10000);
+    return socket;
+  }
+
+  private static void send(Socket socket, String... uris) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (String uri : uris) {
+      sb.append("GET ").append(uri).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+    }
+
+    // all requests in one write
+    OutputStream out = socket.getOutputStream();
+    out.write(sb.toString().getBytes("US-ASCII"));
+    out.flush();
+  }
+
+  private static Response readResponse(Socket socket) throws IOException {
+    InputStream in = socket.getInputStream();
+    String statusLine = readLine(in);
+    int status = Integer.parseInt(statusLine.split(" ")[1]);
+
+    int contentLength = 0;
+    String line;
+    while (!(line = readLine(in)).isEmpty()) {
+      int idx = line.indexOf(':');
+      if ("content-length".equalsIgnoreCase(line.substring(0, idx).trim())) {
+        contentLength = Integer.parseInt(line.substring(idx + 1).trim());
+      }
+    }
+
+    byte[] content = new byte[contentLength];
+    int off = 0;
+    while (off < contentLength) {
+      int read = in.read(content, off, contentLength - off);
+      if (read == -1) {
+        throw new IOException("connection closed");
+      }
+      off += read;
+    }
+    return new Response(status, new String(content, "US-ASCII"));
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int ch;
+    while ((ch = in.read()) != '\n') {
+      if (ch == -1) {
+        throw new IOException("connection closed");
+      }
+      if (ch != '\r') {
+        line.write(ch);
+      }
+    }
+    return new String(line.toByteArray(), "US-ASCII");
+  }
+
+}
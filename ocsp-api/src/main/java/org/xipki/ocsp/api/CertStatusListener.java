@@ -0,0 +1,49 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.api;
+
+import java.math.BigInteger;
+
+/**
+ * Listener which will be notified if the status of certificates in an {@link OcspStore} has
+ * been changed.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public interface CertStatusListener {
+
+  /**
+   * The status of the certificate has been changed, or the certificate has been added.
+   * @param issuer
+   *          Issuer of the certificate. Must not be {@code null}.
+   * @param serialNumber
+   *          Serial number of the certificate. Must not be {@code null}.
+   */
+  void certStatusChanged(IssuerEntry issuer, BigInteger serialNumber);
+
+  /**
+   * The status of any certificate of the issuer may have been changed, or certificates have
+   * been removed.
+   * @param issuer
+   *          The issuer. Must not be {@code null}.
+   */
+  void issuerChanged(IssuerEntry issuer);
+
+}
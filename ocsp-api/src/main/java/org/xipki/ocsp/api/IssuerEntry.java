@@ -100,6 +100,11 @@ public class IssuerEntry {
     return Arrays.copyOf(data, data.length);
   }
 
+  // without copy, for the index in IssuerStore
+  byte[] getIssuerHash(HashAlgo hashAlgo) {
+    return issuerHashMap.get(hashAlgo);
+  }
+
   public boolean matchHash(RequestIssuer reqIssuer) {
     byte[] issuerHash = issuerHashMap.get(reqIssuer.hashAlgorithm());
     if (issuerHash == null) {
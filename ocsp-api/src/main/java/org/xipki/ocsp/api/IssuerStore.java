@@ -18,47 +18,170 @@
 package org.xipki.ocsp.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.xipki.security.HashAlgo;
+import org.xipki.util.CompareUtil;
+import org.xipki.util.ParamUtil;
+
 /**
- * TODO.
+ * Store of the issuers. The issuers are indexed by the ID and, for every hash algorithm, by the
+ * hash of the name and key. The indexes are immutable and are replaced as a whole if an issuer
+ * is added (copy-on-write), so that the lookups do not need any synchronization.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 public class IssuerStore {
 
-  private final List<IssuerEntry> entries;
+  /**
+   * Open addressing hash table from the encoded name and key hashes to the issuer. The lookup
+   * is done directly in the request, without creating any key object.
+   */
+  private static final class HashIndex {
 
-  private Set<Integer> ids;
+    private final int keyLen;
 
-  public IssuerStore(List<IssuerEntry> entries) {
-    this.entries = new ArrayList<>(entries.size());
-    Set<Integer> idSet = new HashSet<>(entries.size());
-
-    for (IssuerEntry entry : entries) {
-      for (IssuerEntry existingEntry : this.entries) {
-        if (existingEntry.getId() == entry.getId()) {
-          throw new IllegalArgumentException(
-              "issuer with the same id " + entry.getId() + " already available");
+    private final byte[][] keys;
+
+    private final IssuerEntry[] values;
+
+    private final int mask;
+
+    HashIndex(HashAlgo hashAlgo, List<IssuerEntry> entries) {
+      this.keyLen = (2 + hashAlgo.getLength()) << 1;
+
+      // load factor is at most 0.5
+      int capacity = Integer.highestOneBit(Math.max(1, entries.size()) * 4 - 1);
+      this.keys = new byte[capacity][];
+      this.values = new IssuerEntry[capacity];
+      this.mask = capacity - 1;
+
+      for (IssuerEntry entry : entries) {
+        byte[] key = entry.getIssuerHash(hashAlgo);
+        int idx = hash(key, 0) & mask;
+        boolean duplicated = false;
+        while (keys[idx] != null) {
+          if (Arrays.equals(keys[idx], key)) {
+            // the first issuer wins
+            duplicated = true;
+            break;
+          }
+          idx = (idx + 1) & mask;
+        }
+
+        if (!duplicated) {
+          keys[idx] = key;
+          values[idx] = entry;
+        }
+      }
+    }
+
+    IssuerEntry get(byte[] data, int from, int len) {
+      if (len != keyLen) {
+        return null;
+      }
+
+      int idx = hash(data, from) & mask;
+      byte[] key;
+      while ((key = keys[idx]) != null) {
+        if (CompareUtil.areEqual(key, 0, data, from, keyLen)) {
+          return values[idx];
+        }
+        idx = (idx + 1) & mask;
+      }
+
+      return null;
+    }
+
+    /**
+     * The data is {@code 04 len nameHash 04 len keyHash}. The hash values are well distributed,
+     * so a few leading bytes of both are sufficient.
+     */
+    private int hash(byte[] data, int from) {
+      int keyHashFrom = from + (keyLen >> 1) + 2;
+      int nameHashFrom = from + 2;
+      int hash = 0;
+      for (int i = 0; i < 4; i++) {
+        hash = 31 * hash + (data[nameHashFrom + i] ^ data[keyHashFrom + i]);
+      }
+      return hash ^ (hash >>> 16);
+    }
+
+  } // class HashIndex
+
+  private static final class Snapshot {
+
+    // in the order the issuers are added
+    private final List<IssuerEntry> issuers;
+
+    private final Set<Integer> ids;
+
+    // sorted by the id
+    private final int[] sortedIds;
+
+    private final IssuerEntry[] sortedEntries;
+
+    // indexed by HashAlgo.ordinal()
+    private final HashIndex[] hashIndexes;
+
+    Snapshot(List<IssuerEntry> entries) {
+      this.issuers = Collections.unmodifiableList(new ArrayList<>(entries));
+
+      final int size = entries.size();
+      this.sortedEntries = entries.toArray(new IssuerEntry[size]);
+      Arrays.sort(sortedEntries, new Comparator<IssuerEntry>() {
+        @Override
+        public int compare(IssuerEntry o1, IssuerEntry o2) {
+          return Integer.compare(o1.getId(), o2.getId());
+        }
+      });
+
+      this.sortedIds = new int[size];
+      Set<Integer> idSet = new HashSet<>(size * 2);
+      for (int i = 0; i < size; i++) {
+        int id = sortedEntries[i].getId();
+        if (i > 0 && sortedIds[i - 1] == id) {
+          throw new IllegalArgumentException("issuer with the same id " + id
+              + " already available");
         }
+        sortedIds[i] = id;
+        idSet.add(id);
+      }
+      this.ids = Collections.unmodifiableSet(idSet);
+
+      HashAlgo[] hashAlgos = HashAlgo.values();
+      this.hashIndexes = new HashIndex[hashAlgos.length];
+      for (HashAlgo hashAlgo : hashAlgos) {
+        hashIndexes[hashAlgo.ordinal()] = new HashIndex(hashAlgo, entries);
       }
-      this.entries.add(entry);
-      idSet.add(entry.getId());
     }
 
-    this.ids = Collections.unmodifiableSet(idSet);
+  } // class Snapshot
+
+  private volatile Snapshot snapshot;
+
+  public IssuerStore(List<IssuerEntry> entries) {
+    ParamUtil.requireNonNull("entries", entries);
+    this.snapshot = new Snapshot(entries);
   }
 
   public int size() {
-    return ids.size();
+    return snapshot.sortedIds.length;
   }
 
   public Set<Integer> getIds() {
-    return ids;
+    return snapshot.ids;
+  }
+
+  public List<IssuerEntry> getIssuers() {
+    return snapshot.issuers;
   }
 
   public Integer getIssuerIdForFp(RequestIssuer reqIssuer) {
@@ -67,30 +190,35 @@ public class IssuerStore {
   }
 
   public IssuerEntry getIssuerForId(int id) {
-    for (IssuerEntry entry : entries) {
-      if (entry.getId() == id) {
-        return entry;
-      }
-    }
-
-    return null;
+    Snapshot ss = snapshot;
+    int idx = Arrays.binarySearch(ss.sortedIds, id);
+    return (idx < 0) ? null : ss.sortedEntries[idx];
   }
 
   public IssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
-    for (IssuerEntry entry : entries) {
-      if (entry.matchHash(reqIssuer)) {
-        return entry;
-      }
+    HashAlgo hashAlgo = reqIssuer.hashAlgorithm();
+    if (hashAlgo == null) {
+      return null;
     }
 
-    return null;
+    int from = reqIssuer.getNameHashFrom();
+    return snapshot.hashIndexes[hashAlgo.ordinal()].get(reqIssuer.getData(), from,
+        reqIssuer.getFrom() + reqIssuer.getLength() - from);
   }
 
-  public void addIssuer(IssuerEntry issuer) {
-    this.entries.add(issuer);
-    Set<Integer> newIds = new HashSet<>(this.ids);
-    newIds.add(issuer.getId());
-    this.ids = Collections.unmodifiableSet(newIds);
+  /**
+   * Adds the issuer. The issuers being looked up concurrently see either all or none of the
+   * indexes of the new issuer.
+   *
+   * @param issuer
+   *          Issuer to be added. Must not be {@code null}.
+   */
+  public synchronized void addIssuer(IssuerEntry issuer) {
+    ParamUtil.requireNonNull("issuer", issuer);
+    List<IssuerEntry> entries = new ArrayList<>(snapshot.issuers.size() + 1);
+    entries.addAll(snapshot.issuers);
+    entries.add(issuer);
+    this.snapshot = new Snapshot(entries);
   }
 
 }
@@ -17,6 +17,11 @@
 
 package org.xipki.ocsp.api;
 
+import java.nio.ByteBuffer;
+import java.util.StringTokenizer;
+
+import org.xipki.security.HashAlgo;
+
 /**
  * TODO.
  * @author Lijun Liao
@@ -49,21 +54,120 @@ public class OcspRespWithCacheInfo {
 
   } // class ResponseCacheInfo
 
-  private byte[] response;
+  private volatile byte[] response;
+
+  private final ByteBuffer responseBuffer;
 
   private ResponseCacheInfo cacheInfo;
 
+  private volatile String etag;
+
   public OcspRespWithCacheInfo(byte[] response, ResponseCacheInfo cacheInfo) {
     this.response = response;
+    this.responseBuffer = null;
+    this.cacheInfo = cacheInfo;
+  }
+
+  /**
+   * Constructor for responses which are stored in a {@link ByteBuffer}, e.g. outside
+   * of the java heap. The content is copied only if {@link #getResponse()} is called.
+   * @param response
+   *          Encoded OCSP response between position and limit. The buffer is not copied,
+   *          its content must not be changed.
+   * @param cacheInfo
+   *          Cache information. Could be {@code null}.
+   * @param etag
+   *          The precomputed value of {@link #getEtag()}. Could be {@code null}.
+   */
+  public OcspRespWithCacheInfo(ByteBuffer response, ResponseCacheInfo cacheInfo, String etag) {
+    this.response = null;
+    this.responseBuffer = response.asReadOnlyBuffer();
     this.cacheInfo = cacheInfo;
+    this.etag = etag;
   }
 
   public byte[] getResponse() {
-    return response;
+    byte[] bytes = response;
+    if (bytes == null && responseBuffer != null) {
+      bytes = new byte[responseBuffer.remaining()];
+      // duplicate() is required, since the buffer may be read by several threads concurrently
+      responseBuffer.duplicate().get(bytes);
+      response = bytes;
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the response without copying it.
+   * @return the read-only buffer containing the encoded response, or {@code null} if
+   *         there is no response.
+   */
+  public ByteBuffer getResponseBuffer() {
+    if (responseBuffer != null) {
+      return responseBuffer.duplicate();
+    }
+
+    byte[] bytes = response;
+    return (bytes == null) ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  public int getResponseLength() {
+    if (responseBuffer != null) {
+      return responseBuffer.remaining();
+    }
+
+    byte[] bytes = response;
+    return (bytes == null) ? 0 : bytes.length;
   }
 
   public ResponseCacheInfo getCacheInfo() {
     return cacheInfo;
   }
 
+  /**
+   * Returns the HTTP entity tag of the response. As recommended by RFC 5019 6.2, it is the
+   * quoted HEX representation of the SHA1 hash of the OCSPResponse structure. The value is
+   * computed only once for this object.
+   * @return the entity tag of the response.
+   */
+  public String getEtag() {
+    String tag = etag;
+    if (tag == null) {
+      tag = "\"" + HashAlgo.SHA1.hexHash(getResponse()) + "\"";
+      etag = tag;
+    }
+    return tag;
+  }
+
+  /**
+   * Whether one of the entity tags in the HTTP header If-None-Match matches the entity tag
+   * of this response. Weak comparison as specified in RFC 7232 3.2 is used.
+   * @param ifNoneMatch
+   *          Value of the HTTP header If-None-Match. Could be {@code null}.
+   * @return whether the header matches this response.
+   */
+  public boolean matchesEtag(String ifNoneMatch) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    String tag = getEtag();
+    StringTokenizer st = new StringTokenizer(ifNoneMatch, ", \t");
+    while (st.hasMoreTokens()) {
+      String token = st.nextToken();
+      if ("*".equals(token)) {
+        return true;
+      }
+
+      if (token.startsWith("W/")) {
+        token = token.substring(2);
+      }
+
+      if (tag.equalsIgnoreCase(token)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
 }
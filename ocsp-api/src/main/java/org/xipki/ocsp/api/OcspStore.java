@@ -19,7 +19,11 @@ package org.xipki.ocsp.api;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.util.ParamUtil;
@@ -48,6 +52,8 @@ public abstract class OcspStore {
 
   protected boolean ignoreNotYetValidCert;
 
+  private final List<CertStatusListener> certStatusListeners = new CopyOnWriteArrayList<>();
+
   public OcspStore() {
   }
 
@@ -87,6 +93,114 @@ public abstract class OcspStore {
       BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
       boolean inheritCaRevocation) throws OcspStoreException;
 
+  /**
+   * Returns the status of several certificates issued by the same issuer. Stores which can
+   * look up several certificates at once should overwrite this method, the default
+   * implementation calls {@link #getCertStatus} for each serial number.
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate status in the same order as serialNumbers, or {@code null} if
+   *         this store does not know the issuer.
+   */
+  public List<CertStatusInfo> getCertStatuses(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    ParamUtil.requireNonNull("serialNumbers", serialNumbers);
+    List<CertStatusInfo> statuses = new ArrayList<>(serialNumbers.size());
+    for (BigInteger serialNumber : serialNumbers) {
+      CertStatusInfo status = getCertStatus(time, reqIssuer, serialNumber, includeCertHash,
+          includeRit, inheritCaRevocation);
+      if (status == null) {
+        return null;
+      }
+      statuses.add(status);
+    }
+    return statuses;
+  }
+
+  /**
+   * Returns the issuers known by this store.
+   * @return the issuers. Empty list if the issuers could not be listed.
+   */
+  public List<IssuerEntry> getIssuers() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Whether this store supports the method {@link #getSerialNumbers}.
+   * @return whether the serial numbers can be listed.
+   */
+  public boolean supportsSerialNumbersListing() {
+    return false;
+  }
+
+  /**
+   * Lists the serial numbers of certificates issued by the given issuer, page by page.
+   * @param issuer
+   *          The issuer. Must not be {@code null}.
+   * @param cursor
+   *          Position after which the serial numbers will be listed. 0 for the first page,
+   *          otherwise the value returned by the previous call.
+   * @param numEntries
+   *          Maximal number of serial numbers to be listed.
+   * @param serialNumbers
+   *          List to which the serial numbers will be added.
+   * @return the position for the next page, or -1 if there is no more page.
+   */
+  public long getSerialNumbers(IssuerEntry issuer, long cursor, int numEntries,
+      List<BigInteger> serialNumbers) throws OcspStoreException {
+    throw new OcspStoreException("listing serial numbers is not supported by store " + name);
+  }
+
+  /**
+   * Whether this store notifies the {@link CertStatusListener}s if the status of certificates
+   * has been changed.
+   * @return whether the changes are notified.
+   */
+  public boolean supportsCertStatusListener() {
+    return false;
+  }
+
+  /**
+   * Adds the listener. It will be only notified if {@link #supportsCertStatusListener()}
+   * returns {@code true}.
+   * @param listener
+   *          The listener. Must not be {@code null}.
+   */
+  public void addCertStatusListener(CertStatusListener listener) {
+    certStatusListeners.add(ParamUtil.requireNonNull("listener", listener));
+  }
+
+  public void removeCertStatusListener(CertStatusListener listener) {
+    certStatusListeners.remove(listener);
+  }
+
+  protected boolean hasCertStatusListener() {
+    return !certStatusListeners.isEmpty();
+  }
+
+  protected void fireCertStatusChanged(IssuerEntry issuer, BigInteger serialNumber) {
+    for (CertStatusListener listener : certStatusListeners) {
+      listener.certStatusChanged(issuer, serialNumber);
+    }
+  }
+
+  protected void fireIssuerChanged(IssuerEntry issuer) {
+    for (CertStatusListener listener : certStatusListeners) {
+      listener.issuerChanged(issuer);
+    }
+  }
+
   /**
    * TODO.
    * @param conf
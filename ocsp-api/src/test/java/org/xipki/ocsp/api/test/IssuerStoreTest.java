@@ -0,0 +1,211 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.api.test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ocsp.api.IssuerEntry;
+import org.xipki.ocsp.api.IssuerStore;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.security.HashAlgo;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class IssuerStoreTest {
+
+  @Before
+  public void addBouncyCastleProvider() {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+
+  @Test
+  public void testLookupForEveryHashAlgo() throws Exception {
+    // not sorted by the id
+    List<IssuerEntry> entries = new ArrayList<>();
+    for (int id : new int[] {5, 1, 3, 20, 7}) {
+      entries.add(new IssuerEntry(id, generateCert("CN=IssuerStoreTest CA " + id)));
+    }
+    IssuerStore store = new IssuerStore(entries);
+
+    Assert.assertEquals(entries.size(), store.size());
+    Assert.assertEquals(entries, store.getIssuers());
+
+    for (IssuerEntry entry : entries) {
+      Assert.assertSame(entry, store.getIssuerForId(entry.getId()));
+      Assert.assertTrue(store.getIds().contains(entry.getId()));
+
+      for (HashAlgo hashAlgo : HashAlgo.values()) {
+        RequestIssuer reqIssuer = new RequestIssuer(hashAlgo, entry.getEncodedHash(hashAlgo));
+        Assert.assertSame(hashAlgo.getName(), entry, store.getIssuerForFp(reqIssuer));
+        Assert.assertEquals(Integer.valueOf(entry.getId()), store.getIssuerIdForFp(reqIssuer));
+
+        // the same request within a larger buffer
+        byte[] data = new byte[reqIssuer.getLength() + 10];
+        reqIssuer.write(data, 5);
+        Assert.assertSame(hashAlgo.getName(), entry,
+            store.getIssuerForFp(new RequestIssuer(data, 5, reqIssuer.getLength())));
+      }
+    }
+
+    Assert.assertNull(store.getIssuerForId(2));
+    Assert.assertNull(store.getIssuerForId(100));
+
+    IssuerEntry unknownEntry = new IssuerEntry(2, generateCert("CN=IssuerStoreTest CA 2"));
+    for (HashAlgo hashAlgo : HashAlgo.values()) {
+      RequestIssuer reqIssuer = new RequestIssuer(hashAlgo,
+          unknownEntry.getEncodedHash(hashAlgo));
+      Assert.assertNull(hashAlgo.getName(), store.getIssuerForFp(reqIssuer));
+      Assert.assertNull(hashAlgo.getName(), store.getIssuerIdForFp(reqIssuer));
+    }
+  } // method testLookupForEveryHashAlgo
+
+  @Test
+  public void testEmptyStore() throws Exception {
+    IssuerStore store = new IssuerStore(new ArrayList<IssuerEntry>());
+    Assert.assertEquals(0, store.size());
+    Assert.assertNull(store.getIssuerForId(1));
+
+    IssuerEntry entry = new IssuerEntry(1, generateCert("CN=IssuerStoreTest CA 1"));
+    Assert.assertNull(store.getIssuerForFp(
+        new RequestIssuer(HashAlgo.SHA1, entry.getEncodedHash(HashAlgo.SHA1))));
+  }
+
+  @Test
+  public void testMismatchedHashLength() throws Exception {
+    IssuerEntry entry = new IssuerEntry(1, generateCert("CN=IssuerStoreTest CA 1"));
+    IssuerStore store = new IssuerStore(Arrays.asList(entry));
+
+    // SHA-256 hashes in a request with the hash algorithm SHA-1, and vice versa
+    byte[] sha256Hash = entry.getEncodedHash(HashAlgo.SHA256);
+    Assert.assertNull(store.getIssuerForFp(new RequestIssuer(HashAlgo.SHA1, sha256Hash)));
+    byte[] sha1Hash = entry.getEncodedHash(HashAlgo.SHA1);
+    Assert.assertNull(store.getIssuerForFp(new RequestIssuer(HashAlgo.SHA256, sha1Hash)));
+
+    // the prefix of a SHA-384 hash has the length of a SHA-256 hash
+    byte[] sha384Hash = entry.getEncodedHash(HashAlgo.SHA384);
+    Assert.assertNull(store.getIssuerForFp(new RequestIssuer(HashAlgo.SHA256,
+        Arrays.copyOf(sha384Hash, sha256Hash.length))));
+
+    // truncated and over-long hashes
+    Assert.assertNull(store.getIssuerForFp(new RequestIssuer(HashAlgo.SHA256,
+        Arrays.copyOf(sha256Hash, sha256Hash.length - 1))));
+    Assert.assertNull(store.getIssuerForFp(new RequestIssuer(HashAlgo.SHA256,
+        Arrays.copyOf(sha256Hash, sha256Hash.length + 1))));
+  }
+
+  @Test
+  public void testDuplicateId() throws Exception {
+    IssuerEntry entry1 = new IssuerEntry(1, generateCert("CN=IssuerStoreTest CA 1"));
+    IssuerEntry entry2 = new IssuerEntry(1, generateCert("CN=IssuerStoreTest CA 2"));
+
+    try {
+      new IssuerStore(Arrays.asList(entry1, entry2));
+      Assert.fail("issuers with the same id have been accepted");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    IssuerStore store = new IssuerStore(Arrays.asList(entry1));
+    try {
+      store.addIssuer(entry2);
+      Assert.fail("issuer with an existing id has been added");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    // the store is unchanged
+    Assert.assertEquals(1, store.size());
+    Assert.assertSame(entry1, store.getIssuerForId(1));
+    Assert.assertNull(store.getIssuerForFp(
+        new RequestIssuer(HashAlgo.SHA1, entry2.getEncodedHash(HashAlgo.SHA1))));
+  }
+
+  @Test
+  public void testAddIssuer() throws Exception {
+    IssuerEntry entry1 = new IssuerEntry(3, generateCert("CN=IssuerStoreTest CA 3"));
+    IssuerStore store = new IssuerStore(Arrays.asList(entry1));
+
+    List<IssuerEntry> oldIssuers = store.getIssuers();
+    Set<Integer> oldIds = store.getIds();
+
+    IssuerEntry entry2 = new IssuerEntry(1, generateCert("CN=IssuerStoreTest CA 1"));
+    store.addIssuer(entry2);
+
+    // the collections returned before are not modified
+    Assert.assertEquals(Arrays.asList(entry1), oldIssuers);
+    Assert.assertEquals(1, oldIds.size());
+
+    Assert.assertEquals(2, store.size());
+    Assert.assertEquals(Arrays.asList(entry1, entry2), store.getIssuers());
+    Assert.assertTrue(store.getIds().contains(1));
+    Assert.assertTrue(store.getIds().contains(3));
+
+    for (IssuerEntry entry : Arrays.asList(entry1, entry2)) {
+      Assert.assertSame(entry, store.getIssuerForId(entry.getId()));
+      for (HashAlgo hashAlgo : HashAlgo.values()) {
+        Assert.assertSame(hashAlgo.getName(), entry, store.getIssuerForFp(
+            new RequestIssuer(hashAlgo, entry.getEncodedHash(hashAlgo))));
+      }
+    }
+
+    try {
+      store.getIssuers().add(entry1);
+      Assert.fail("the issuers can be modified");
+    } catch (UnsupportedOperationException ex) {
+      // expected
+    }
+  } // method testAddIssuer
+
+  private static X509Certificate generateCert(String subjectText) throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    KeyPair keypair = kpGen.generateKeyPair();
+    X500Name subject = new X500Name(subjectText);
+    long now = System.currentTimeMillis();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+        BigInteger.ONE, new Date(now - 60000), new Date(now + 3600000), subject,
+        keypair.getPublic());
+    return new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withECDSA")
+            .build(keypair.getPrivate())));
+  }
+
+}
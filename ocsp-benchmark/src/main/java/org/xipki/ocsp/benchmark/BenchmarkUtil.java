@@ -0,0 +1,160 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.benchmark;
+
+import java.math.BigInteger;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
+import org.xipki.security.ConcurrentContentSigner;
+import org.xipki.security.SecurityFactoryImpl;
+import org.xipki.security.SignerConf;
+import org.xipki.security.SignerFactoryRegisterImpl;
+import org.xipki.security.pkcs12.KeystoreGenerationParameters;
+import org.xipki.security.pkcs12.P12KeyGenerationResult;
+import org.xipki.security.pkcs12.P12KeyGenerator;
+import org.xipki.security.pkcs12.PKCS12SignerFactory;
+import org.xipki.util.Base64;
+
+/**
+ * Helper methods shared by the benchmarks.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+final class BenchmarkUtil {
+
+  static final String PASSWORD = "1234";
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private BenchmarkUtil() {
+  }
+
+  static void addBcProvider() {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+
+  static SecurityFactoryImpl newSecurityFactory() {
+    SecurityFactoryImpl securityFactory = new SecurityFactoryImpl();
+
+    PKCS12SignerFactory p12SignerFactory = new PKCS12SignerFactory();
+    p12SignerFactory.setSecurityFactory(securityFactory);
+
+    SignerFactoryRegisterImpl signerFactoryRegister = new SignerFactoryRegisterImpl();
+    signerFactoryRegister.bindService(p12SignerFactory);
+    securityFactory.setSignerFactoryRegister(signerFactoryRegister);
+    return securityFactory;
+  }
+
+  /**
+   * Generates a PKCS#12 keystore with a self-signed certificate. The key type is derived
+   * from the signature algorithm: EC (secp256r1) for ECDSA, and RSA (2048 bit) otherwise.
+   * @param sigAlgo
+   *          Signature algorithm, e.g. SHA256withRSA.
+   * @return the generated keystore.
+   */
+  static P12KeyGenerationResult generateKeystore(String sigAlgo) throws Exception {
+    addBcProvider();
+
+    KeystoreGenerationParameters params =
+        new KeystoreGenerationParameters(PASSWORD.toCharArray());
+    params.setRandom(RANDOM);
+
+    String subject = "CN=OCSP Benchmark CA,O=xipki";
+    P12KeyGenerator generator = new P12KeyGenerator();
+    return sigAlgo.toUpperCase().contains("ECDSA")
+        ? generator.generateECKeypair("secp256r1", params, subject)
+        : generator.generateRSAKeypair(2048, RSAKeyGenParameterSpec.F4, params, subject);
+  }
+
+  static X509Certificate getCert(P12KeyGenerationResult keystore) throws Exception {
+    KeyStore ks = keystore.keystoreObject();
+    return (X509Certificate) ks.getCertificate(ks.aliases().nextElement());
+  }
+
+  static String getSignerConf(P12KeyGenerationResult keystore) {
+    return "password=" + PASSWORD + ",keystore=base64:"
+        + Base64.encodeToString(keystore.keystore());
+  }
+
+  static ConcurrentContentSigner newSigner(P12KeyGenerationResult keystore, String sigAlgo,
+      int parallelism) throws Exception {
+    SignerConf conf = new SignerConf("algo=" + sigAlgo + ",parallelism=" + parallelism + ","
+        + getSignerConf(keystore));
+    return newSecurityFactory().createSigner("pkcs12", conf, (X509Certificate[]) null);
+  }
+
+  static List<BigInteger> serialNumbers(long first, int num) {
+    List<BigInteger> serialNumbers = new ArrayList<>(num);
+    for (int i = 0; i < num; i++) {
+      serialNumbers.add(BigInteger.valueOf(first + i));
+    }
+    return serialNumbers;
+  }
+
+  /**
+   * Creates an encoded OCSP request.
+   * @param issuerCert
+   *          Certificate of the issuer.
+   * @param serialNumbers
+   *          Serial numbers of the target certificates.
+   * @param withNonce
+   *          Whether the nonce extension is included.
+   * @return the DER-encoded OCSPRequest.
+   */
+  static byte[] createRequest(X509Certificate issuerCert, List<BigInteger> serialNumbers,
+      boolean withNonce) throws Exception {
+    DigestCalculator digestCalculator =
+        new BcDigestCalculatorProvider().get(CertificateID.HASH_SHA1);
+    X509CertificateHolder issuer = new X509CertificateHolder(issuerCert.getEncoded());
+
+    OCSPReqBuilder builder = new OCSPReqBuilder();
+    for (BigInteger serialNumber : serialNumbers) {
+      builder.addRequest(new CertificateID(digestCalculator, issuer, serialNumber));
+    }
+
+    if (withNonce) {
+      byte[] nonce = new byte[16];
+      RANDOM.nextBytes(nonce);
+      builder.setRequestExtensions(new Extensions(new Extension(
+          OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false, new DEROctetString(nonce))));
+    }
+
+    return builder.build().getEncoded();
+  }
+
+}
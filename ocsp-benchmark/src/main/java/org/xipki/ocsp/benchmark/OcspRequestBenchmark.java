@@ -0,0 +1,78 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.benchmark;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.ocsp.server.impl.type.EncodingException;
+import org.xipki.ocsp.server.impl.type.OcspRequest;
+
+/**
+ * Benchmark of the parsing of OCSP requests.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OcspRequestBenchmark {
+
+  @Param({"1", "10"})
+  private int numCertIds;
+
+  @Param({"false", "true"})
+  private boolean withNonce;
+
+  private byte[] request;
+
+  @Setup
+  public void setup() throws Exception {
+    X509Certificate issuerCert = BenchmarkUtil.getCert(
+        BenchmarkUtil.generateKeystore("SHA256withECDSA"));
+    request = BenchmarkUtil.createRequest(issuerCert,
+        BenchmarkUtil.serialNumbers(0x1000, numCertIds), withNonce);
+  }
+
+  @Benchmark
+  public int readRequestVersion() throws EncodingException {
+    return OcspRequest.readRequestVersion(request);
+  }
+
+  @Benchmark
+  public OcspRequest parseRequest() throws EncodingException {
+    return OcspRequest.getInstance(request);
+  }
+
+}
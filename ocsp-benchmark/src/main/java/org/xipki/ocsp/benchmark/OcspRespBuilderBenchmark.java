@@ -0,0 +1,112 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.benchmark;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.ocsp.server.impl.OCSPRespBuilder;
+import org.xipki.ocsp.server.impl.type.CertID;
+import org.xipki.ocsp.server.impl.type.OcspRequest;
+import org.xipki.ocsp.server.impl.type.ResponderID;
+import org.xipki.ocsp.server.impl.type.TaggedCertSequence;
+import org.xipki.security.ConcurrentContentSigner;
+import org.xipki.security.pkcs12.P12KeyGenerationResult;
+
+/**
+ * Benchmark of {@link OCSPRespBuilder#buildOCSPResponse}, namely the encoding and signing
+ * of the BasicOCSPResponse with PKCS#12 software signers.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OcspRespBuilderBenchmark {
+
+  private static final byte[] CERTSTATUS_GOOD = new byte[]{(byte) 0x80, 0x00};
+
+  @Param({"SHA256withRSA", "SHA256withECDSA"})
+  private String sigAlgo;
+
+  @Param({"1", "10"})
+  private int numCertIds;
+
+  private ConcurrentContentSigner signer;
+
+  private List<CertID> certIds;
+
+  private ResponderID responderId;
+
+  private TaggedCertSequence certsInResp;
+
+  @Setup
+  public void setup() throws Exception {
+    P12KeyGenerationResult keystore = BenchmarkUtil.generateKeystore(sigAlgo);
+    X509Certificate cert = BenchmarkUtil.getCert(keystore);
+    signer = BenchmarkUtil.newSigner(keystore, sigAlgo,
+        Runtime.getRuntime().availableProcessors());
+
+    byte[] request = BenchmarkUtil.createRequest(cert,
+        BenchmarkUtil.serialNumbers(0x1000, numCertIds), false);
+    certIds = OcspRequest.getInstance(request).getRequestList();
+    responderId = new ResponderID(
+        X500Name.getInstance(cert.getSubjectX500Principal().getEncoded()));
+    certsInResp = new TaggedCertSequence(cert.getEncoded());
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (signer != null) {
+      signer.shutdown();
+    }
+  }
+
+  @Benchmark
+  public byte[] buildOcspResponse() throws Exception {
+    Date now = new Date();
+    Date nextUpdate = new Date(now.getTime() + 24L * 60 * 60 * 1000);
+
+    OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
+    for (CertID certId : certIds) {
+      builder.addResponse(certId, CERTSTATUS_GOOD, now, nextUpdate, null);
+    }
+    return builder.buildOCSPResponse(signer, certsInResp, now);
+  }
+
+}
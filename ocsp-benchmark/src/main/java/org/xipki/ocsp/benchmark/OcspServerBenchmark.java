@@ -0,0 +1,355 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.dbtool.LiquibaseDatabaseConf;
+import org.xipki.dbtool.LiquibaseMain;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.Responder;
+import org.xipki.ocsp.api.internal.OcspStoreFactoryRegisterImpl;
+import org.xipki.ocsp.server.impl.OcspServerImpl;
+import org.xipki.ocsp.store.OcspStoreFactoryImpl;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.pkcs12.P12KeyGenerationResult;
+import org.xipki.security.util.X509Util;
+import org.xipki.util.Base64;
+import org.xipki.util.IoUtil;
+
+/**
+ * End-to-end benchmark of {@link OcspServerImpl#answer(Responder, byte[], boolean)} with a
+ * database store in an in-memory H2 database and a PKCS#12 software signer.
+ *
+ * <p>The parameter {@code mode} selects the configuration to be compared:
+ * <ul>
+ *   <li>{@code db}: the certificate status is read from the database.</li>
+ *   <li>{@code statusIndex}, {@code offHeapStatusIndex}: the certificate status is read from
+ *     the in-memory index of the store. The index is loaded in background, during the warmup
+ *     iterations.</li>
+ *   <li>{@code responseCache}: responses are cached in a second in-memory H2 database.</li>
+ *   <li>{@code memoryCache}, {@code offHeapMemoryCache}: the response cache has an
+ *     in-memory tier.</li>
+ * </ul>
+ *
+ * <p>Requests with nonce are never cached, so {@link #answerWithNonce} measures the
+ * status lookup and the signing in all modes.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OcspServerBenchmark {
+
+  @State(Scope.Thread)
+  public static class RequestCursor {
+
+    private int next;
+
+    private int next(int size) {
+      int idx = next;
+      next = (idx + 1 == size) ? 0 : idx + 1;
+      return idx;
+    }
+
+  } // class RequestCursor
+
+  private static final int NUM_REQUESTS = 1024;
+
+  private static final int BATCH_SIZE = 1000;
+
+  private static final long DAY_SEC = 24L * 60 * 60;
+
+  @Param({"db", "statusIndex", "offHeapStatusIndex", "responseCache", "memoryCache",
+      "offHeapMemoryCache"})
+  private String mode;
+
+  @Param({"SHA256withRSA", "SHA256withECDSA"})
+  private String sigAlgo;
+
+  @Param({"10000"})
+  private int numCerts;
+
+  private OcspServerImpl server;
+
+  private Responder responder;
+
+  private byte[][] requests;
+
+  private byte[][] requestsWithNonce;
+
+  private Path confFile;
+
+  @Setup
+  public void setup() throws Exception {
+    P12KeyGenerationResult keystore = BenchmarkUtil.generateKeystore(sigAlgo);
+    // the CA certificate is also the OCSP responder certificate
+    X509Certificate caCert = BenchmarkUtil.getCert(keystore);
+
+    String ocspDbConf = dbConf("ocsp");
+    initDatabase(ocspDbConf, "sql/ocsp-init.xml");
+    populateOcspDatabase(ocspDbConf, caCert);
+
+    boolean statusIndex = false;
+    boolean responseCache = false;
+    boolean memoryCache = false;
+    boolean offHeap = false;
+    switch (mode) {
+      case "db":
+        break;
+      case "statusIndex":
+        statusIndex = true;
+        break;
+      case "offHeapStatusIndex":
+        statusIndex = true;
+        offHeap = true;
+        break;
+      case "responseCache":
+        responseCache = true;
+        break;
+      case "memoryCache":
+        responseCache = true;
+        memoryCache = true;
+        break;
+      case "offHeapMemoryCache":
+        responseCache = true;
+        memoryCache = true;
+        offHeap = true;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown mode " + mode);
+    }
+
+    String responseCacheConf = "";
+    if (responseCache) {
+      String cacheDbConf = dbConf("ocspcache");
+      initDatabase(cacheDbConf, "sql/ocsp-cache-init.xml");
+
+      StringBuilder sb = new StringBuilder();
+      sb.append("<responseCache><datasource name=\"datasource-cache\"><conf><value>")
+        .append(cacheDbConf).append("</value></conf></datasource>")
+        .append("<validity>86400</validity>");
+      if (memoryCache) {
+        sb.append("<memoryCache><maxSize>65536</maxSize><offHeap>")
+          .append(offHeap).append("</offHeap></memoryCache>");
+      }
+      sb.append("</responseCache>");
+      responseCacheConf = sb.toString();
+    }
+
+    String storeConf = "";
+    if (statusIndex) {
+      storeConf = "statusIndex.enabled=true\nstatusIndex.offHeap=" + offHeap + "\n";
+    }
+
+    String conf = readTemplate()
+        .replace("${responseCache}", responseCacheConf)
+        .replace("${password}", BenchmarkUtil.PASSWORD)
+        .replace("${keystore}", Base64.encodeToString(keystore.keystore()))
+        .replace("${sigAlgo}", sigAlgo)
+        .replace("${ocspDbConf}", ocspDbConf)
+        .replace("${storeConf}", storeConf);
+    confFile = Files.createTempFile("benchmark-ocsp-responder", ".xml");
+    Files.write(confFile, conf.getBytes(StandardCharsets.UTF_8));
+
+    OcspStoreFactoryRegisterImpl storeFactoryRegister = new OcspStoreFactoryRegisterImpl();
+    storeFactoryRegister.bindService(new OcspStoreFactoryImpl());
+
+    server = new OcspServerImpl();
+    server.setSecurityFactory(BenchmarkUtil.newSecurityFactory());
+    server.setOcspStoreFactoryRegister(storeFactoryRegister);
+    server.setConfFile(confFile.toString());
+    server.init();
+    responder = server.getResponder("responder1");
+
+    Random random = new Random(0);
+    requests = new byte[NUM_REQUESTS][];
+    requestsWithNonce = new byte[NUM_REQUESTS][];
+    for (int i = 0; i < NUM_REQUESTS; i++) {
+      BigInteger serialNumber = BigInteger.valueOf(1 + random.nextInt(numCerts));
+      requests[i] = BenchmarkUtil.createRequest(caCert,
+          Collections.singletonList(serialNumber), false);
+      requestsWithNonce[i] = BenchmarkUtil.createRequest(caCert,
+          Collections.singletonList(serialNumber), true);
+    }
+  } // method setup
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (server != null) {
+      server.shutdown();
+    }
+
+    if (confFile != null) {
+      Files.deleteIfExists(confFile);
+    }
+  }
+
+  @Benchmark
+  public OcspRespWithCacheInfo answer(RequestCursor cursor) {
+    return server.answer(responder, requests[cursor.next(NUM_REQUESTS)], false);
+  }
+
+  @Benchmark
+  public OcspRespWithCacheInfo answerWithNonce(RequestCursor cursor) {
+    return server.answer(responder, requestsWithNonce[cursor.next(NUM_REQUESTS)], false);
+  }
+
+  private static String dbConf(String dbName) {
+    return "dataSourceClassName = org.h2.jdbcx.JdbcDataSource\n"
+        + "dataSource.url = jdbc:h2:mem:" + dbName + "-" + UUID.randomUUID()
+        + ";DB_CLOSE_DELAY=-1\n"
+        + "dataSource.user = root\n"
+        + "dataSource.password = 123456\n"
+        + "autoCommit = true\n"
+        + "readOnly = false\n"
+        + "maximumPoolSize = 20\n"
+        + "minimumIdle = 2\n"
+        + "transactionIsolation = TRANSACTION_READ_COMMITTED\n";
+  }
+
+  private static Properties toProperties(String dbConf) throws IOException {
+    Properties props = new Properties();
+    props.load(new ByteArrayInputStream(dbConf.getBytes(StandardCharsets.UTF_8)));
+    return props;
+  }
+
+  private static void initDatabase(String dbConf, String changeLogFile) throws Exception {
+    LiquibaseDatabaseConf conf = LiquibaseDatabaseConf.getInstance(toProperties(dbConf), null);
+    LiquibaseMain liquibase = new LiquibaseMain(conf, changeLogFile);
+    try {
+      liquibase.init();
+      liquibase.update();
+    } finally {
+      liquibase.shutdown();
+    }
+  }
+
+  private void populateOcspDatabase(String dbConf, X509Certificate caCert) throws Exception {
+    DataSourceWrapper datasource = new DataSourceFactory().createDataSource("benchmark",
+        toProperties(dbConf), null);
+    Connection conn = datasource.getConnection();
+    try {
+      byte[] encodedCaCert = caCert.getEncoded();
+      long notBefore = caCert.getNotBefore().getTime() / 1000;
+      long notAfter = caCert.getNotAfter().getTime() / 1000;
+
+      String sql = "INSERT INTO ISSUER (ID,SUBJECT,NBEFORE,NAFTER,S1C,CERT) VALUES(?,?,?,?,?,?)";
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      try {
+        int idx = 1;
+        ps.setInt(idx++, 1);
+        ps.setString(idx++, X509Util.cutX500Name(caCert.getSubjectX500Principal(), 350));
+        ps.setLong(idx++, notBefore);
+        ps.setLong(idx++, notAfter);
+        ps.setString(idx++, HashAlgo.SHA1.base64Hash(encodedCaCert));
+        DataSourceWrapper.setBytes(ps, idx++, encodedCaCert,
+            datasource.isBinaryColumn(conn, "ISSUER", "CERT"));
+        ps.executeUpdate();
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
+
+      long now = System.currentTimeMillis() / 1000;
+      sql = "INSERT INTO CERT (ID,IID,SN,LUPDATE,NBEFORE,NAFTER,REV,RR,RT,HASH)"
+          + " VALUES(?,?,?,?,?,?,?,?,?,?)";
+      ps = datasource.prepareStatement(conn, sql);
+      try {
+        Random random = new Random(0);
+        byte[] certHash = new byte[HashAlgo.SHA256.getLength()];
+        for (int i = 1; i <= numCerts; i++) {
+          // every 10th certificate is revoked
+          boolean revoked = i % 10 == 0;
+          random.nextBytes(certHash);
+
+          int idx = 1;
+          ps.setLong(idx++, i);
+          ps.setInt(idx++, 1);
+          ps.setString(idx++, BigInteger.valueOf(i).toString(16));
+          ps.setLong(idx++, now);
+          ps.setLong(idx++, now - DAY_SEC);
+          ps.setLong(idx++, now + 365 * DAY_SEC);
+          ps.setInt(idx++, revoked ? 1 : 0);
+          if (revoked) {
+            ps.setInt(idx++, 1); // keyCompromise
+            ps.setLong(idx++, now - 60);
+          } else {
+            ps.setNull(idx++, java.sql.Types.SMALLINT);
+            ps.setNull(idx++, java.sql.Types.BIGINT);
+          }
+          ps.setString(idx++, Base64.encodeToString(certHash));
+          ps.addBatch();
+
+          if (i % BATCH_SIZE == 0 || i == numCerts) {
+            ps.executeBatch();
+          }
+        }
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
+    } finally {
+      datasource.returnConnection(conn);
+      datasource.close();
+    }
+  } // method populateOcspDatabase
+
+  private static String readTemplate() throws IOException {
+    InputStream is = OcspServerBenchmark.class.getResourceAsStream(
+        "/benchmark-ocsp-responder.xml");
+    if (is == null) {
+      throw new IOException("could not find resource /benchmark-ocsp-responder.xml");
+    }
+
+    return new String(IoUtil.read(is), StandardCharsets.UTF_8);
+  }
+
+}
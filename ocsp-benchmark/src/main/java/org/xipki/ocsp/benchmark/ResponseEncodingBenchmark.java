@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.benchmark;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xipki.ocsp.server.impl.type.CertID;
+import org.xipki.ocsp.server.impl.type.OcspRequest;
+import org.xipki.ocsp.server.impl.type.ResponderID;
+import org.xipki.ocsp.server.impl.type.ResponseData;
+import org.xipki.ocsp.server.impl.type.SingleResponse;
+
+/**
+ * Benchmark of the encoding of {@link SingleResponse} and {@link ResponseData}, without
+ * signing.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseEncodingBenchmark {
+
+  private static final byte[] CERTSTATUS_GOOD = new byte[]{(byte) 0x80, 0x00};
+
+  @Param({"1", "10"})
+  private int numCertIds;
+
+  private List<CertID> certIds;
+
+  private ResponderID responderId;
+
+  private SingleResponse singleResponse;
+
+  private Date thisUpdate;
+
+  private Date nextUpdate;
+
+  @Setup
+  public void setup() throws Exception {
+    X509Certificate issuerCert = BenchmarkUtil.getCert(
+        BenchmarkUtil.generateKeystore("SHA256withECDSA"));
+    byte[] request = BenchmarkUtil.createRequest(issuerCert,
+        BenchmarkUtil.serialNumbers(0x1000, numCertIds), false);
+    certIds = OcspRequest.getInstance(request).getRequestList();
+
+    responderId = new ResponderID(
+        X500Name.getInstance(issuerCert.getSubjectX500Principal().getEncoded()));
+    thisUpdate = new Date();
+    nextUpdate = new Date(thisUpdate.getTime() + 24L * 60 * 60 * 1000);
+    singleResponse = new SingleResponse(certIds.get(0), CERTSTATUS_GOOD, thisUpdate,
+        nextUpdate, null);
+  }
+
+  @Benchmark
+  public byte[] encodeSingleResponse() {
+    byte[] out = new byte[singleResponse.getEncodedLength()];
+    singleResponse.write(out, 0);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] encodeResponseData() {
+    List<SingleResponse> responses = new ArrayList<>(certIds.size());
+    for (CertID certId : certIds) {
+      responses.add(new SingleResponse(certId, CERTSTATUS_GOOD, thisUpdate, nextUpdate, null));
+    }
+
+    ResponseData responseData = new ResponseData(0, responderId, new Date(), responses, null);
+    byte[] out = new byte[responseData.getEncodedLength()];
+    responseData.write(out, 0);
+    return out;
+  }
+
+}
@@ -31,12 +31,13 @@ import org.xipki.ocsp.api.OcspRespWithCacheInfo;
 import org.xipki.ocsp.api.OcspServer;
 import org.xipki.ocsp.api.Responder;
 import org.xipki.ocsp.api.ResponderAndPath;
-import org.xipki.security.HashAlgo;
 import org.xipki.util.Base64;
 import org.xipki.util.LogUtil;
 import org.xipki.util.ParamUtil;
 import org.xipki.util.StringUtil;
 
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -60,6 +61,11 @@ public class HttpOcspServlet extends AbstractHttpServlet {
 
   private static final String CT_RESPONSE = "application/ocsp-response";
 
+  /**
+   * DER encoded OCSPResponse with status tryLater, without responseBytes.
+   */
+  private static final byte[] TRY_LATER_RESPONSE = new byte[]{0x30, 0x03, 0x0a, 0x01, 0x03};
+
   private OcspServer server;
 
   public HttpOcspServlet() {
@@ -69,6 +75,11 @@ public class HttpOcspServlet extends AbstractHttpServlet {
     this.server = ParamUtil.requireNonNull("server", server);
   }
 
+  @Override
+  public FullHttpResponse createOverloadResponse(HttpVersion version) {
+    return createOKResponse(version, CT_RESPONSE, TRY_LATER_RESPONSE);
+  }
+
   @Override
   public FullHttpResponse service(FullHttpRequest request, ServletURI servletUri,
       SSLSession sslSession, SslReverseProxyMode sslReverseProxyMode) throws Exception {
@@ -118,13 +129,13 @@ public class HttpOcspServlet extends AbstractHttpServlet {
 
       OcspRespWithCacheInfo ocspRespWithCacheInfo = server.answer(responder,
           readContent(request), false);
-      if (ocspRespWithCacheInfo == null || ocspRespWithCacheInfo.getResponse() == null) {
+      if (ocspRespWithCacheInfo == null || ocspRespWithCacheInfo.getResponseLength() == 0) {
         LOG.error("processRequest returned null, this should not happen");
         return createErrorResponse(version, HttpResponseStatus.INTERNAL_SERVER_ERROR);
       }
 
-      byte[] encodedOcspResp = ocspRespWithCacheInfo.getResponse();
-      return createOKResponse(version, CT_RESPONSE, encodedOcspResp);
+      return createOKResponse(version, CT_RESPONSE,
+          Unpooled.wrappedBuffer(ocspRespWithCacheInfo.getResponseBuffer()));
     } catch (Throwable th) {
       if (th instanceof EOFException) {
         LogUtil.warn(LOG, th, "Connection reset by peer");
@@ -174,17 +185,21 @@ public class HttpOcspServlet extends AbstractHttpServlet {
 
       OcspRespWithCacheInfo ocspRespWithCacheInfo = server.answer(responder,
           Base64.decode(b64OcspReq), true);
-      if (ocspRespWithCacheInfo == null || ocspRespWithCacheInfo.getResponse() == null) {
+      if (ocspRespWithCacheInfo == null || ocspRespWithCacheInfo.getResponseLength() == 0) {
         return createErrorResponse(version, HttpResponseStatus.INTERNAL_SERVER_ERROR);
       }
 
-      byte[] encodedOcspResp = ocspRespWithCacheInfo.getResponse();
+      OcspRespWithCacheInfo.ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
 
-      FullHttpResponse response = createOKResponse(version, CT_RESPONSE, encodedOcspResp);
+      FullHttpResponse response;
+      if (cacheInfo != null && isNotModified(request.headers(), ocspRespWithCacheInfo)) {
+        response = new DefaultFullHttpResponse(version, HttpResponseStatus.NOT_MODIFIED);
+      } else {
+        response = createOKResponse(version, CT_RESPONSE,
+            Unpooled.wrappedBuffer(ocspRespWithCacheInfo.getResponseBuffer()));
+      }
 
-      OcspRespWithCacheInfo.ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
       if (cacheInfo != null) {
-        encodedOcspResp = ocspRespWithCacheInfo.getResponse();
         HttpHeaders headers = response.headers();
         // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
         // the HTTP response.
@@ -201,7 +216,7 @@ public class HttpOcspServlet extends AbstractHttpServlet {
         }
         // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
         // HEX representation of the SHA1 hash of the OCSPResponse structure.
-        headers.add("ETag", StringUtil.concat("\"", HashAlgo.SHA1.hexHash(encodedOcspResp), "\""));
+        headers.add("ETag", ocspRespWithCacheInfo.getEtag());
 
         // Max age must be in seconds in the cache-control header
 
@@ -232,4 +247,24 @@ public class HttpOcspServlet extends AbstractHttpServlet {
     } // end external try
   } // method serviceGet
 
+  /**
+   * Whether the response cached by the client is still up to date, according to the
+   * conditional headers If-None-Match and If-Modified-Since (RFC 7232).
+   */
+  private static boolean isNotModified(HttpHeaders reqHeaders, OcspRespWithCacheInfo resp) {
+    String ifNoneMatch = reqHeaders.get("If-None-Match");
+    if (ifNoneMatch != null) {
+      // If-Modified-Since must be ignored if If-None-Match is present
+      return resp.matchesEtag(ifNoneMatch);
+    }
+
+    Long ifModifiedSince = reqHeaders.getTimeMillis("If-Modified-Since");
+    if (ifModifiedSince == null) {
+      return false;
+    }
+
+    // HTTP dates have the precision of seconds
+    return resp.getCacheInfo().getThisUpdate() / 1000 <= ifModifiedSince / 1000;
+  }
+
 }
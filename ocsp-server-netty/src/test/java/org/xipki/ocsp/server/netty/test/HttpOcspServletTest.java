@@ -0,0 +1,213 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.netty.test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.http.servlet.ServletURI;
+import org.xipki.http.servlet.SslReverseProxyMode;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.ocsp.api.OcspServer;
+import org.xipki.ocsp.api.Responder;
+import org.xipki.ocsp.api.ResponderAndPath;
+import org.xipki.ocsp.server.netty.HttpOcspServlet;
+import org.xipki.util.Base64;
+import org.xipki.util.HealthCheckResult;
+
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class HttpOcspServletTest {
+
+  private static class TestResponder implements Responder {
+
+    @Override
+    public int getMaxRequestSize() {
+      return 4096;
+    }
+
+    @Override
+    public boolean supportsHttpGet() {
+      return true;
+    }
+
+    @Override
+    public Long getCacheMaxAge() {
+      return null;
+    }
+
+  } // class TestResponder
+
+  private static class TestServer implements OcspServer {
+
+    private final Responder responder = new TestResponder();
+
+    private final OcspRespWithCacheInfo response;
+
+    TestServer(OcspRespWithCacheInfo response) {
+      this.response = response;
+    }
+
+    @Override
+    public ResponderAndPath getResponderForPath(String path) {
+      return new ResponderAndPath("", responder);
+    }
+
+    @Override
+    public OcspRespWithCacheInfo answer(Responder responder, byte[] request, boolean viaGet) {
+      return response;
+    }
+
+    @Override
+    public HealthCheckResult healthCheck(Responder responder) {
+      return null;
+    }
+
+  } // class TestServer
+
+  private static final String CT_REQUEST = "application/ocsp-request";
+
+  private static final byte[] REQUEST = new byte[20];
+
+  private static final byte[] RESPONSE = new byte[]{0x30, 0x03, 0x0a, 0x01, 0x00};
+
+  static {
+    // Base64 encoding without '/'
+    Arrays.fill(REQUEST, (byte) 1);
+  }
+
+  private long thisUpdate;
+
+  private OcspRespWithCacheInfo response;
+
+  private HttpOcspServlet servlet;
+
+  @Before
+  public void init() {
+    // HTTP dates have the precision of seconds
+    thisUpdate = (System.currentTimeMillis() / 1000 - 60) * 1000;
+    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
+    cacheInfo.setNextUpdate(thisUpdate + 3600L * 1000);
+    response = new OcspRespWithCacheInfo(RESPONSE, cacheInfo);
+
+    servlet = new HttpOcspServlet();
+    servlet.setServer(new TestServer(response));
+  }
+
+  @Test
+  public void testGet() throws Exception {
+    FullHttpResponse resp = service(newGetRequest());
+    assertOk(resp);
+    Assert.assertEquals(response.getEtag(), resp.headers().get("ETag"));
+    Assert.assertEquals(Long.valueOf(thisUpdate), resp.headers().getTimeMillis("Last-Modified"));
+  }
+
+  @Test
+  public void testIfNoneMatch() throws Exception {
+    FullHttpRequest request = newGetRequest();
+    request.headers().set("If-None-Match", "\"0000\", " + response.getEtag());
+    FullHttpResponse resp = service(request);
+    assertNotModified(resp);
+    // the cache headers are sent with the 304 response as well
+    Assert.assertEquals(response.getEtag(), resp.headers().get("ETag"));
+    Assert.assertNotNull(resp.headers().get("Cache-Control"));
+  }
+
+  @Test
+  public void testIfNoneMatchWeak() throws Exception {
+    FullHttpRequest request = newGetRequest();
+    request.headers().set("If-None-Match", "W/" + response.getEtag());
+    assertNotModified(service(request));
+  }
+
+  @Test
+  public void testIfNoneMatchMismatch() throws Exception {
+    FullHttpRequest request = newGetRequest();
+    request.headers().set("If-None-Match", "\"0000\"");
+    assertOk(service(request));
+
+    // If-Modified-Since is ignored if If-None-Match is present
+    request = newGetRequest();
+    request.headers().set("If-None-Match", "\"0000\"");
+    request.headers().set("If-Modified-Since", new Date(thisUpdate + 1000));
+    assertOk(service(request));
+  }
+
+  @Test
+  public void testIfModifiedSince() throws Exception {
+    FullHttpRequest request = newGetRequest();
+    request.headers().set("If-Modified-Since", new Date(thisUpdate));
+    assertNotModified(service(request));
+
+    // modified after the date
+    request = newGetRequest();
+    request.headers().set("If-Modified-Since", new Date(thisUpdate - 1000));
+    assertOk(service(request));
+  }
+
+  @Test
+  public void testPost() throws Exception {
+    FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/", Unpooled.wrappedBuffer(REQUEST));
+    request.headers().set("Content-Type", CT_REQUEST);
+    // conditional headers are not considered for POST requests
+    request.headers().set("If-None-Match", response.getEtag());
+    request.headers().set("If-Modified-Since", new Date(thisUpdate));
+
+    FullHttpResponse resp = service(request);
+    assertOk(resp);
+    Assert.assertNull(resp.headers().get("ETag"));
+  }
+
+  private FullHttpResponse service(FullHttpRequest request) throws Exception {
+    return servlet.service(request, new ServletURI(request.uri()), null,
+        SslReverseProxyMode.NONE);
+  }
+
+  private static FullHttpRequest newGetRequest() {
+    return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+        "/" + Base64.encodeToString(REQUEST));
+  }
+
+  private static void assertOk(FullHttpResponse resp) {
+    Assert.assertEquals(200, resp.status().code());
+    Assert.assertArrayEquals(RESPONSE, ByteBufUtil.getBytes(resp.content()));
+  }
+
+  private static void assertNotModified(FullHttpResponse resp) {
+    Assert.assertEquals(304, resp.status().code());
+    Assert.assertEquals(0, resp.content().readableBytes());
+  }
+
+}
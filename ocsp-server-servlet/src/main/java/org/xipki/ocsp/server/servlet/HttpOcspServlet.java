@@ -31,7 +31,6 @@ import org.xipki.ocsp.api.OcspRespWithCacheInfo;
 import org.xipki.ocsp.api.OcspServer;
 import org.xipki.ocsp.api.Responder;
 import org.xipki.ocsp.api.ResponderAndPath;
-import org.xipki.security.HashAlgo;
 import org.xipki.util.Base64;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
@@ -175,8 +174,9 @@ public class HttpOcspServlet extends HttpServlet {
       byte[] encodedOcspResp = ocspRespWithCacheInfo.getResponse();
 
       OcspRespWithCacheInfo.ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
+      boolean notModified = false;
       if (cacheInfo != null) {
-        encodedOcspResp = ocspRespWithCacheInfo.getResponse();
+        notModified = isNotModified(req, ocspRespWithCacheInfo);
         long now = System.currentTimeMillis();
 
         // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
@@ -194,8 +194,7 @@ public class HttpOcspServlet extends HttpServlet {
         }
         // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
         // HEX representation of the SHA1 hash of the OCSPResponse structure.
-        resp.addHeader("ETag",
-            StringUtil.concat("\"", HashAlgo.SHA1.hexHash(encodedOcspResp), "\""));
+        resp.addHeader("ETag", ocspRespWithCacheInfo.getEtag());
 
         // Max age must be in seconds in the cache-control header
         long maxAge;
@@ -215,9 +214,13 @@ public class HttpOcspServlet extends HttpServlet {
               ",public,no-transform,must-revalidate"));
       } // end if (ocspRespWithCacheInfo)
 
-      resp.setContentLength(encodedOcspResp.length);
-      resp.setContentType(CT_RESPONSE);
-      resp.getOutputStream().write(encodedOcspResp);
+      if (notModified) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      } else {
+        resp.setContentLength(encodedOcspResp.length);
+        resp.setContentType(CT_RESPONSE);
+        resp.getOutputStream().write(encodedOcspResp);
+      }
     } catch (Throwable th) {
       if (th instanceof EOFException) {
         LogUtil.warn(LOG, th, "Connection reset by peer");
@@ -231,6 +234,29 @@ public class HttpOcspServlet extends HttpServlet {
     }
   } // method serviceGet
 
+  /**
+   * Whether the response cached by the client is still up to date, according to the
+   * conditional headers If-None-Match and If-Modified-Since (RFC 7232).
+   */
+  private static boolean isNotModified(HttpServletRequest req, OcspRespWithCacheInfo resp) {
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      // If-Modified-Since must be ignored if If-None-Match is present
+      return resp.matchesEtag(ifNoneMatch);
+    }
+
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = req.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException ex) {
+      return false;
+    }
+
+    // HTTP dates have the precision of seconds
+    return ifModifiedSince != -1
+        && resp.getCacheInfo().getThisUpdate() / 1000 <= ifModifiedSince / 1000;
+  }
+
   private static void sendError(HttpServletResponse resp, int status) {
     resp.setStatus(status);
     resp.setContentLength(0);
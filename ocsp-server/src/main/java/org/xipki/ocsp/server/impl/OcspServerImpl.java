@@ -37,10 +37,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.bind.JAXBContext;
@@ -71,12 +74,14 @@ import org.xipki.ocsp.api.OcspServer;
 import org.xipki.ocsp.api.OcspStore;
 import org.xipki.ocsp.api.OcspStoreException;
 import org.xipki.ocsp.api.OcspStoreFactoryRegister;
+import org.xipki.ocsp.api.RequestIssuer;
 import org.xipki.ocsp.api.Responder;
 import org.xipki.ocsp.api.ResponderAndPath;
 import org.xipki.ocsp.server.impl.jaxb.DatasourceType;
 import org.xipki.ocsp.server.impl.jaxb.EmbedCertsMode;
 import org.xipki.ocsp.server.impl.jaxb.FileOrPlainValueType;
 import org.xipki.ocsp.server.impl.jaxb.FileOrValueType;
+import org.xipki.ocsp.server.impl.jaxb.MemoryCacheType;
 import org.xipki.ocsp.server.impl.jaxb.ObjectFactory;
 import org.xipki.ocsp.server.impl.jaxb.Ocspserver;
 import org.xipki.ocsp.server.impl.jaxb.RequestOptionType;
@@ -203,6 +208,8 @@ public class OcspServerImpl implements OcspServer {
 
   private AtomicBoolean initialized = new AtomicBoolean(false);
 
+  private ScheduledThreadPoolExecutor preSignExecutor;
+
   static {
     unsuccesfulOCSPRespMap = new HashMap<>(10);
     for (OcspResponseStatus status : OcspResponseStatus.values()) {
@@ -394,7 +401,15 @@ public class OcspServerImpl implements OcspServer {
       } finally {
         close(dsStream);
       }
-      responseCacher = new ResponseCacher(datasource, master, cacheType.getValidity());
+      ResponseMemoryCache memoryCache = null;
+      MemoryCacheType memoryCacheType = cacheType.getMemoryCache();
+      if (memoryCacheType != null) {
+        memoryCache = new ResponseMemoryCache(memoryCacheType.getMaxSize(),
+            getBoolean(memoryCacheType.isOffHeap(), false), cacheType.getValidity());
+      }
+
+      responseCacher = new ResponseCacher(datasource, master, cacheType.getValidity(),
+          memoryCache);
       responseCacher.init();
     }
 
@@ -501,6 +516,37 @@ public class OcspServerImpl implements OcspServer {
           requestOptions.get(option.getRequestOptionName()),
           responseOption, signer, statusStores);
       responders.put(name, responder);
+
+      if (option.isPreSign()) {
+        final ResponderImpl preSignResponder = responder;
+        ResponsePreSigner.ResponseGenerator generator = new ResponsePreSigner.ResponseGenerator() {
+
+          @Override
+          public CertStatusInfo getCertStatus(CertID certId) {
+            return OcspServerImpl.this.getCertStatus(preSignResponder, certId);
+          }
+
+          @Override
+          public OcspRespWithCacheInfo generateResponse(CertID certId) throws IOException {
+            return preSignResponse(preSignResponder, certId);
+          }
+
+        };
+
+        ResponsePreSigner preSigner = new ResponsePreSigner(generator, responder.getStores(),
+            name, option.getPreSignInterval(), option.getPreSignValidity(),
+            option.getPreSignMaxResponses());
+        responder.setPreSigner(preSigner);
+
+        if (preSignExecutor == null) {
+          preSignExecutor = new ScheduledThreadPoolExecutor(1);
+          preSignExecutor.setRemoveOnCancelPolicy(true);
+        }
+
+        // the first walk is started immediately in background
+        preSignExecutor.scheduleWithFixedDelay(preSigner, 0, preSigner.getInterval(),
+            TimeUnit.MILLISECONDS);
+      }
     } // end for
 
     // servlet paths
@@ -527,6 +573,11 @@ public class OcspServerImpl implements OcspServer {
 
   public void shutdown() {
     LOG.info("stopped OCSP Responder");
+    if (preSignExecutor != null) {
+      preSignExecutor.shutdownNow();
+      preSignExecutor = null;
+    }
+
     if (responseCacher != null) {
       responseCacher.shutdown();
     }
@@ -660,6 +711,19 @@ public class OcspServerImpl implements OcspServer {
         concurrentSigner = signer.getFirstSigner();
       }
 
+      ResponsePreSigner preSigner = responder.getPreSigner();
+      if (preSigner != null && requestsSize == 1 && nonceExtn == null
+          && concurrentSigner == signer.getFirstSigner()) {
+        CertID certId = requestList.get(0);
+        if (reqOpt.allows(certId.getIssuer().hashAlgorithm())) {
+          OcspRespWithCacheInfo preSignedResp = preSigner.getOcspResponse(certId);
+          if (preSignedResp != null) {
+            return viaGet ? preSignedResp
+                : new OcspRespWithCacheInfo(preSignedResp.getResponse(), null);
+          }
+        }
+      }
+
       AlgorithmCode cacheDbSigAlgCode = null;
       BigInteger cacheDbSerialNumber = null;
       Integer cacheDbIssuerId = null;
@@ -707,47 +771,13 @@ public class OcspServerImpl implements OcspServer {
         }
       }
 
-      ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
-      OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
-
-      for (int i = 0; i < requestsSize; i++) {
-        OcspRespWithCacheInfo failureOcspResp = processCertReq(requestList.get(i),
-            builder, responder, reqOpt, repOpt, repControl);
-
-        if (failureOcspResp != null) {
-          return failureOcspResp;
-        }
-      }
-
-      if (repControl.includeExtendedRevokeExtension) {
-        respExtensions.add(extension_pkix_ocsp_extendedRevoke);
-      }
-
-      if (!respExtensions.isEmpty()) {
-        Extensions extns = new Extensions(respExtensions);
-        builder.setResponseExtensions(extns);
+      Object respOrErrorResp = buildResponse(responder, concurrentSigner, requestList,
+          respExtensions, repControl);
+      if (respOrErrorResp instanceof OcspRespWithCacheInfo) {
+        return (OcspRespWithCacheInfo) respOrErrorResp;
       }
 
-      TaggedCertSequence certsInResp;
-      EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
-      if (certsMode == EmbedCertsMode.SIGNER) {
-        certsInResp = signer.getSequenceOfCert();
-      } else if (certsMode == EmbedCertsMode.NONE) {
-        certsInResp = null;
-      } else {
-        // certsMode == EmbedCertsMode.SIGNER_AND_CA
-        certsInResp = signer.getSequenceOfCertChain();
-      }
-
-      byte[] encodeOcspResponse;
-      try {
-        encodeOcspResponse = builder.buildOCSPResponse(concurrentSigner, certsInResp, new Date());
-      } catch (NoIdleSignerException ex) {
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
-      } catch (OCSPException ex) {
-        LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
-      }
+      byte[] encodeOcspResponse = (byte[]) respOrErrorResp;
 
       // cache response in database
       if (canCacheDb && repControl.canCacheInfo) {
@@ -773,15 +803,102 @@ public class OcspServerImpl implements OcspServer {
     }
   } // method ask
 
-  private OcspRespWithCacheInfo processCertReq(CertID certId, OCSPRespBuilder builder,
-      ResponderImpl responder, RequestOption reqOpt, ResponseOption repOpt,
-      OcspRespControl repControl) throws IOException {
-    HashAlgo reqHashAlgo = certId.getIssuer().hashAlgorithm();
-    if (!reqOpt.allows(reqHashAlgo)) {
-      LOG.warn("CertID.hashAlgorithm {} not allowed", reqHashAlgo);
-      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+  /**
+   * Builds and signs the response.
+   * @return the encoded response as byte array, or the unsuccessful response as
+   *         {@link OcspRespWithCacheInfo}.
+   */
+  private Object buildResponse(ResponderImpl responder,
+      ConcurrentContentSigner concurrentSigner, List<CertID> requestList,
+      List<Extension> respExtensions, OcspRespControl repControl) throws IOException {
+    ResponderSigner signer = responder.getSigner();
+    RequestOption reqOpt = responder.getRequestOption();
+    ResponseOption repOpt = responder.getResponseOption();
+
+    ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
+    OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
+
+    final int requestsSize = requestList.size();
+    for (int i = 0; i < requestsSize; i++) {
+      HashAlgo reqHashAlgo = requestList.get(i).getIssuer().hashAlgorithm();
+      if (!reqOpt.allows(reqHashAlgo)) {
+        LOG.warn("CertID.hashAlgorithm {} not allowed", reqHashAlgo);
+        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+      }
+    }
+
+    CertStatusInfo[] certStatusInfos = (requestsSize == 1)
+        ? new CertStatusInfo[]{getCertStatus(responder, requestList.get(0))}
+        : getCertStatuses(responder, requestList);
+
+    for (int i = 0; i < requestsSize; i++) {
+      OcspRespWithCacheInfo failureOcspResp = processCertReq(requestList.get(i),
+          certStatusInfos[i], builder, responder, repOpt, repControl);
+
+      if (failureOcspResp != null) {
+        return failureOcspResp;
+      }
+    }
+
+    if (repControl.includeExtendedRevokeExtension) {
+      respExtensions.add(extension_pkix_ocsp_extendedRevoke);
+    }
+
+    if (!respExtensions.isEmpty()) {
+      Extensions extns = new Extensions(respExtensions);
+      builder.setResponseExtensions(extns);
+    }
+
+    TaggedCertSequence certsInResp;
+    EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
+    if (certsMode == EmbedCertsMode.SIGNER) {
+      certsInResp = signer.getSequenceOfCert();
+    } else if (certsMode == EmbedCertsMode.NONE) {
+      certsInResp = null;
+    } else {
+      // certsMode == EmbedCertsMode.SIGNER_AND_CA
+      certsInResp = signer.getSequenceOfCertChain();
+    }
+
+    try {
+      return builder.buildOCSPResponse(concurrentSigner, certsInResp, new Date());
+    } catch (NoIdleSignerException ex) {
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+    } catch (OCSPException ex) {
+      LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+    }
+  } // method buildResponse
+
+  /**
+   * Signs the response for the given CertID without nonce, with the default signer.
+   * @return the response, or {@code null} if the response could not be pre-signed.
+   */
+  OcspRespWithCacheInfo preSignResponse(ResponderImpl responder, CertID certId)
+      throws IOException {
+    OcspRespControl repControl = new OcspRespControl();
+    repControl.canCacheInfo = true;
+
+    Object respOrErrorResp = buildResponse(responder, responder.getSigner().getFirstSigner(),
+        Collections.singletonList(certId), new LinkedList<Extension>(), repControl);
+    if (respOrErrorResp instanceof OcspRespWithCacheInfo || !repControl.canCacheInfo) {
+      return null;
     }
 
+    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(repControl.cacheThisUpdate);
+    if (repControl.cacheNextUpdate != Long.MAX_VALUE) {
+      cacheInfo.setNextUpdate(repControl.cacheNextUpdate);
+    }
+    return new OcspRespWithCacheInfo((byte[]) respOrErrorResp, cacheInfo);
+  }
+
+  /**
+   * Gets the certificate status from the stores of the responder.
+   * @return the status, or {@code null} if the status could not be determined because of
+   *         exceptions in the stores.
+   */
+  CertStatusInfo getCertStatus(ResponderImpl responder, CertID certId) {
+    ResponseOption repOpt = responder.getResponseOption();
     CertStatusInfo certStatusInfo = null;
     boolean exceptionOccurs = false;
 
@@ -802,13 +919,83 @@ public class OcspServerImpl implements OcspServer {
       }
     }
 
-    if (certStatusInfo == null) {
-      if (exceptionOccurs) {
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
-      } else {
-        certStatusInfo = CertStatusInfo.getIssuerUnknownCertStatusInfo(new Date(), null);
+    if (certStatusInfo == null && !exceptionOccurs) {
+      certStatusInfo = CertStatusInfo.getIssuerUnknownCertStatusInfo(new Date(), null);
+    }
+    return certStatusInfo;
+  } // method getCertStatus
+
+  /**
+   * Gets the status of several certificates from the stores of the responder. The
+   * certificates of the same issuer are looked up with one call of
+   * {@link OcspStore#getCertStatuses}.
+   * @return the status in the same order as certIds. An element is {@code null} if the
+   *         status could not be determined because of exceptions in the stores.
+   */
+  private CertStatusInfo[] getCertStatuses(ResponderImpl responder, List<CertID> certIds) {
+    ResponseOption repOpt = responder.getResponseOption();
+    boolean inheritCaRevocation = responder.getResponderOption().isInheritCaRevocation();
+
+    // group the requests by issuer
+    Map<RequestIssuer, List<Integer>> issuerIndexes = new LinkedHashMap<>();
+    final int size = certIds.size();
+    for (int i = 0; i < size; i++) {
+      RequestIssuer reqIssuer = certIds.get(i).getIssuer();
+      List<Integer> indexes = issuerIndexes.get(reqIssuer);
+      if (indexes == null) {
+        indexes = new ArrayList<>(size);
+        issuerIndexes.put(reqIssuer, indexes);
       }
-    } // end if
+      indexes.add(i);
+    }
+
+    CertStatusInfo[] certStatusInfos = new CertStatusInfo[size];
+    Date now = new Date();
+    for (Map.Entry<RequestIssuer, List<Integer>> m : issuerIndexes.entrySet()) {
+      RequestIssuer reqIssuer = m.getKey();
+      List<Integer> indexes = m.getValue();
+      List<BigInteger> serials = new ArrayList<>(indexes.size());
+      for (Integer index : indexes) {
+        serials.add(certIds.get(index).getSerialNumber());
+      }
+
+      List<CertStatusInfo> statuses = null;
+      boolean exceptionOccurs = false;
+      for (OcspStore store : responder.getStores()) {
+        try {
+          statuses = store.getCertStatuses(now, reqIssuer, serials,
+              repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+              inheritCaRevocation);
+          if (statuses != null) {
+            break;
+          }
+        } catch (OcspStoreException ex) {
+          exceptionOccurs = true;
+          LogUtil.error(LOG, ex, "getCertStatuses() of CertStatusStore " + store.getName());
+        }
+      }
+
+      for (int i = 0; i < indexes.size(); i++) {
+        CertStatusInfo certStatusInfo;
+        if (statuses != null) {
+          certStatusInfo = statuses.get(i);
+        } else {
+          certStatusInfo = exceptionOccurs ? null
+              : CertStatusInfo.getIssuerUnknownCertStatusInfo(new Date(), null);
+        }
+        certStatusInfos[indexes.get(i)] = certStatusInfo;
+      }
+    }
+
+    return certStatusInfos;
+  } // method getCertStatuses
+
+  private OcspRespWithCacheInfo processCertReq(CertID certId, CertStatusInfo certStatusInfo,
+      OCSPRespBuilder builder, ResponderImpl responder, ResponseOption repOpt,
+      OcspRespControl repControl) throws IOException {
+    if (certStatusInfo == null) {
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+    }
 
     // certStatusInfo must not be null in any case, since at least one store is configured
     Date thisUpdate = certStatusInfo.getThisUpdate();
@@ -41,6 +41,8 @@ public class ResponderImpl implements Responder {
 
   private final List<OcspStore> stores;
 
+  private ResponsePreSigner preSigner;
+
   ResponderImpl(ResponderOption responderOption, RequestOption requestOption,
       ResponseOption responseOption, ResponderSigner signer, List<OcspStore> stores) {
     this.responderOption = ParamUtil.requireNonNull("responderOption", responderOption);
@@ -70,6 +72,14 @@ public class ResponderImpl implements Responder {
     return stores;
   }
 
+  ResponsePreSigner getPreSigner() {
+    return preSigner;
+  }
+
+  void setPreSigner(ResponsePreSigner preSigner) {
+    this.preSigner = preSigner;
+  }
+
   @Override
   public int getMaxRequestSize() {
     return requestOption.getMaxRequestSize();
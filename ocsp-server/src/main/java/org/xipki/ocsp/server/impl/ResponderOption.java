@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.xipki.ocsp.api.OcspMode;
+import org.xipki.ocsp.server.impl.jaxb.PreSignType;
 import org.xipki.ocsp.server.impl.jaxb.ResponderType;
 import org.xipki.util.InvalidConfException;
 import org.xipki.util.ParamUtil;
@@ -34,6 +35,8 @@ import org.xipki.util.ParamUtil;
 
 class ResponderOption {
 
+  private static final int DFLT_PRESIGN_MAX_RESPONSES = 100000;
+
   private final OcspMode mode;
 
   private final boolean inheritCaRevocation;
@@ -48,6 +51,12 @@ class ResponderOption {
 
   private final List<String> servletPaths;
 
+  private final Integer preSignInterval;
+
+  private final Integer preSignValidity;
+
+  private final Integer preSignMaxResponses;
+
   ResponderOption(ResponderType conf) throws InvalidConfException {
     ParamUtil.requireNonNull("conf", conf);
     String str = conf.getMode();
@@ -79,6 +88,27 @@ class ResponderOption {
     }
     list = new ArrayList<>(paths);
     this.servletPaths = Collections.unmodifiableList(list);
+
+    PreSignType preSign = conf.getPreSign();
+    if (preSign == null) {
+      this.preSignInterval = null;
+      this.preSignValidity = null;
+      this.preSignMaxResponses = null;
+    } else {
+      this.preSignInterval = preSign.getInterval();
+      this.preSignValidity = preSign.getValidity();
+      if (preSignInterval < 1) {
+        throw new InvalidConfException("preSign.interval must be greater than 0");
+      }
+      if (preSignValidity < preSignInterval) {
+        throw new InvalidConfException("preSign.validity must not be less than preSign.interval");
+      }
+      this.preSignMaxResponses = (preSign.getMaxResponses() == null)
+          ? DFLT_PRESIGN_MAX_RESPONSES : preSign.getMaxResponses();
+      if (preSignMaxResponses < 1) {
+        throw new InvalidConfException("preSign.maxResponses must be greater than 0");
+      }
+    }
   } // constructor
 
   public OcspMode getMode() {
@@ -109,4 +139,20 @@ class ResponderOption {
     return servletPaths;
   }
 
+  public boolean isPreSign() {
+    return preSignInterval != null;
+  }
+
+  public Integer getPreSignInterval() {
+    return preSignInterval;
+  }
+
+  public Integer getPreSignValidity() {
+    return preSignValidity;
+  }
+
+  public Integer getPreSignMaxResponses() {
+    return preSignMaxResponses;
+  }
+
 }
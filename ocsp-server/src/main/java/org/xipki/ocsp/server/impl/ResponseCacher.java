@@ -24,10 +24,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -60,7 +64,7 @@ import org.xipki.util.concurrent.ConcurrentBagEntry;
  * @since 2.2.0
  */
 
-class ResponseCacher {
+public class ResponseCacher {
   private static final Logger LOG = LoggerFactory.getLogger(ResponseCacher.class);
 
   private static final String SQL_ADD_ISSUER = "INSERT INTO ISSUER (ID,S1C,CERT) VALUES (?,?,?)";
@@ -71,7 +75,8 @@ class ResponseCacher {
 
   private static final String SQL_SELECT_ISSUER = "SELECT ID,CERT FROM ISSUER";
 
-  private static final String SQL_DELETE_EXPIRED_RESP = "DELETE FROM OCSP WHERE THIS_UPDATE<?";
+  private static final String SQL_DELETE_EXPIRED_RESP =
+      "DELETE FROM OCSP WHERE ID>=? AND ID<=? AND THIS_UPDATE<?";
 
   private static final String SQL_ADD_RESP = "INSERT INTO OCSP (ID,IID,IDENT,"
       + "THIS_UPDATE,NEXT_UPDATE,RESP) VALUES (?,?,?,?,?,?)";
@@ -79,8 +84,72 @@ class ResponseCacher {
   private static final String SQL_UPDATE_RESP = "UPDATE OCSP SET THIS_UPDATE=?,"
       + "NEXT_UPDATE=?,RESP=? WHERE ID=?";
 
+  /**
+   * Maximal number of responses waiting to be written to the database. Further responses
+   * are not cached in the database till the queue is drained.
+   */
+  private static final int MAX_PENDING_RESPONSES = 10000;
+
+  private static final int WRITE_BATCH_SIZE = 100;
+
+  private static final long WRITE_INTERVAL_MS = 500;
+
+  /**
+   * Expected number of responses per chunk deleted by the {@link ExpiredResponsesCleaner}.
+   */
+  private static final int CLEAN_CHUNK_SIZE = 1000;
+
+  /**
+   * Minimal pause between two chunks deleted by the {@link ExpiredResponsesCleaner}.
+   */
+  private static final long MIN_CLEAN_PAUSE_MS = 10;
+
+  /**
+   * The responses must be valid for at least 600 seconds to be served from the cache.
+   */
+  private static final long MIN_NEXT_UPDATE_PERIOD_MS = 600L * 1000;
+
   private final ConcurrentBag<ConcurrentBagEntry<Digest>> idDigesters;
 
+  private static final class PendingResponse {
+
+    private final long id;
+
+    private final int issuerId;
+
+    private final String ident;
+
+    private final long thisUpdate;
+
+    private final Long nextUpdate;
+
+    private final byte[] response;
+
+    PendingResponse(long id, int issuerId, String ident, long thisUpdate, Long nextUpdate,
+        byte[] response) {
+      this.id = id;
+      this.issuerId = issuerId;
+      this.ident = ident;
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = (nextUpdate != null && nextUpdate > 0) ? nextUpdate : null;
+      this.response = response;
+    }
+
+  } // class PendingResponse
+
+  private class PendingResponsesWriter implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        writePendingResponses();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not write the cached OCSP responses");
+      }
+    }
+
+  } // class PendingResponsesWriter
+
   private class IssuerUpdater implements Runnable {
 
     @Override
@@ -94,25 +163,68 @@ class ResponseCacher {
 
   } // class StoreUpdateService
 
+  /**
+   * Removes the expired responses chunk by chunk. The IDs are derived from hash values and
+   * are distributed uniformly in [0, Long.MAX_VALUE], the table is split into ID ranges,
+   * each containing about {@link #CLEAN_CHUNK_SIZE} responses. After each chunk the cleaner
+   * pauses as long as the chunk took, so that at most half of the time is spent in the
+   * database and each DELETE locks only a small part of the table.
+   */
   private class ExpiredResponsesCleaner implements Runnable {
 
-    private boolean inProcess;
+    private final AtomicBoolean inProcess = new AtomicBoolean(false);
 
     @Override
     public void run() {
-      if (inProcess) {
+      if (!inProcess.compareAndSet(false, true)) {
         return;
       }
 
-      inProcess = true;
-      long maxThisUpdate = System.currentTimeMillis() / 1000 - validity;
+      // THIS_UPDATE is stored in milliseconds
+      long maxThisUpdate = System.currentTimeMillis() - validity * 1000L;
       try {
-        int num = removeExpiredResponses(maxThisUpdate);
-        LOG.info("removed {} response with thisUpdate < {}", num, maxThisUpdate);
+        if (memoryCache != null) {
+          int num = memoryCache.removeExpiredResponses();
+          LOG.info("removed {} expired response from the memory cache: {}", num, memoryCache);
+        }
+
+        long start = System.currentTimeMillis();
+        int numResponses = datasource.getCount(null, "OCSP");
+        int numChunks = 1;
+        while (numChunks < (1 << 20) && (long) numChunks * CLEAN_CHUNK_SIZE < numResponses) {
+          numChunks <<= 1;
+        }
+
+        long step = Long.MAX_VALUE / numChunks + 1;
+        long removed = 0;
+        int chunk = 0;
+        for (; chunk < numChunks && !stopped; chunk++) {
+          long chunkStart = System.currentTimeMillis();
+          long minId = chunk * step;
+          long maxId = (chunk == numChunks - 1) ? Long.MAX_VALUE : minId + step - 1;
+          removed += removeExpiredResponses(minId, maxId, maxThisUpdate);
+
+          long duration = System.currentTimeMillis() - chunkStart;
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("removing expired responses: chunk {}/{}, {} removed so far",
+                chunk + 1, numChunks, removed);
+          }
+
+          if (chunk < numChunks - 1) {
+            Thread.sleep(Math.max(MIN_CLEAN_PAUSE_MS, duration));
+          }
+        }
+
+        LOG.info("removed {} response with thisUpdate < {} in {}/{} chunks of about {} "
+            + "responses, took {} ms", removed, maxThisUpdate, chunk, numChunks,
+            numResponses / numChunks, System.currentTimeMillis() - start);
+      } catch (InterruptedException ex) {
+        LOG.info("removing expired responses interrupted");
+        Thread.currentThread().interrupt();
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not remove expired responses");
       } finally {
-        inProcess = false;
+        inProcess.set(false);
       }
     } // method run
 
@@ -128,9 +240,17 @@ class ResponseCacher {
 
   private final AtomicBoolean onService;
 
+  private final ResponseMemoryCache memoryCache;
+
+  private final ExpiredResponsesCleaner responsesCleaner = new ExpiredResponsesCleaner();
+
+  // whether the column OCSP.RESP stores the raw bytes instead of the Base64 encoded text.
+  private final boolean binaryResp;
+
   private DataSourceWrapper datasource;
 
-  private IssuerStore issuerStore;
+  // replaced as a whole, read without synchronization by the request threads
+  private volatile IssuerStore issuerStore;
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
@@ -138,10 +258,23 @@ class ResponseCacher {
 
   private ScheduledFuture<?> issuerUpdater;
 
-  ResponseCacher(DataSourceWrapper datasource, boolean master, int validity) {
+  private ScheduledFuture<?> responsesWriter;
+
+  private volatile boolean stopped;
+
+  /**
+   * Responses to be written to the database, coalesced by the database ID.
+   */
+  private final ConcurrentHashMap<Long, PendingResponse> pendingResponses =
+      new ConcurrentHashMap<>();
+
+  public ResponseCacher(DataSourceWrapper datasource, boolean master, int validity,
+      ResponseMemoryCache memoryCache) throws DataAccessException {
     this.datasource = ParamUtil.requireNonNull("datasource", datasource);
     this.master = master;
     this.validity = ParamUtil.requireMin("validity", validity, 1);
+    this.memoryCache = memoryCache;
+    this.binaryResp = datasource.isBinaryColumn(null, "OCSP", "RESP");
     this.sqlSelectIssuerCert = datasource.buildSelectFirstSql(1, "CERT FROM ISSUER WHERE ID=?");
     this.sqlSelectOcsp = datasource.buildSelectFirstSql(1,
         "IID,IDENT,THIS_UPDATE,NEXT_UPDATE,RESP FROM OCSP WHERE ID=?");
@@ -154,29 +287,36 @@ class ResponseCacher {
     }
   }
 
-  boolean isOnService() {
+  public boolean isOnService() {
     return onService.get() && issuerStore != null;
   }
 
-  void init() {
+  public void init() {
     updateCacheStore();
 
-    scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
+    // one thread for the writer, so that the cleaner does not delay it
+    scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(2);
     scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
 
+    this.responsesWriter = scheduledThreadPoolExecutor.scheduleWithFixedDelay(
+        new PendingResponsesWriter(), WRITE_INTERVAL_MS, WRITE_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+
     // check every 600 seconds (10 minutes)
     this.responseCleaner = scheduledThreadPoolExecutor.scheduleAtFixedRate(
-        new ExpiredResponsesCleaner(), 348, 600, TimeUnit.SECONDS);
+        responsesCleaner, 348, 600, TimeUnit.SECONDS);
 
     // check every 600 seconds (10 minutes)
     this.issuerUpdater = scheduledThreadPoolExecutor.scheduleAtFixedRate(
         new IssuerUpdater(), 448, 600, TimeUnit.SECONDS);
   }
 
-  void shutdown() {
-    if (datasource != null) {
-      datasource.close();
-      datasource = null;
+  public void shutdown() {
+    stopped = true;
+
+    if (responsesWriter != null) {
+      responsesWriter.cancel(false);
+      responsesWriter = null;
     }
 
     if (responseCleaner != null) {
@@ -200,22 +340,47 @@ class ResponseCacher {
       }
       scheduledThreadPoolExecutor = null;
     }
+
+    if (datasource != null) {
+      // write the remaining responses
+      try {
+        writePendingResponses();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not write the cached OCSP responses");
+      }
+
+      datasource.close();
+      datasource = null;
+    }
+
+    pendingResponses.clear();
+    if (memoryCache != null) {
+      memoryCache.clear();
+    }
+  }
+
+  /**
+   * Removes the expired responses now, without waiting for the next scheduled run. Does
+   * nothing if the expired responses are being removed.
+   */
+  public void removeExpiredResponses() {
+    responsesCleaner.run();
   }
 
-  Integer getIssuerId(RequestIssuer reqIssuer) {
+  public Integer getIssuerId(RequestIssuer reqIssuer) {
     IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
     return (issuer == null) ? null : issuer.getId();
   }
 
-  synchronized Integer storeIssuer(X509Certificate issuerCert)
+  public synchronized Integer storeIssuer(X509Certificate issuerCert)
       throws CertificateException, InvalidConfException, DataAccessException {
     if (!master) {
       throw new IllegalStateException("storeIssuer is not permitted in slave mode");
     }
 
-    for (Integer id : issuerStore.getIds()) {
-      if (issuerStore.getIssuerForId(id).getCert().equals(issuerCert)) {
-        return id;
+    for (IssuerEntry issuer : issuerStore.getIssuers()) {
+      if (issuer.getCert().equals(issuerCert)) {
+        return issuer.getId();
       }
     }
 
@@ -252,11 +417,37 @@ class ResponseCacher {
     }
   }
 
-  OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
+  public OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
       AlgorithmCode sigAlg) throws DataAccessException {
+    if (memoryCache != null) {
+      OcspRespWithCacheInfo resp = memoryCache.getOcspResponse(issuerId, serialNumber, sigAlg);
+      if (resp != null) {
+        return resp;
+      }
+    }
+
     final String sql = sqlSelectOcsp;
     byte[] identBytes = buildIdent(serialNumber, sigAlg);
     long id = deriveId(issuerId, identBytes);
+
+    PendingResponse pending = pendingResponses.get(id);
+    if (pending != null) {
+      // not written to the database yet
+      if (pending.issuerId != issuerId
+          || !Base64.encodeToString(identBytes).equals(pending.ident)) {
+        return null;
+      }
+
+      if (pending.nextUpdate != null
+          && pending.nextUpdate < System.currentTimeMillis() + MIN_NEXT_UPDATE_PERIOD_MS) {
+        return null;
+      }
+
+      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(pending.thisUpdate);
+      cacheInfo.setNextUpdate(pending.nextUpdate);
+      return new OcspRespWithCacheInfo(pending.response, cacheInfo);
+    }
+
     PreparedStatement ps = prepareStatement(sql);
     ResultSet rs = null;
 
@@ -278,10 +469,11 @@ class ResponseCacher {
         return null;
       }
 
+      // THIS_UPDATE and NEXT_UPDATE are stored in milliseconds
       long nextUpdate = rs.getLong("NEXT_UPDATE");
       if (nextUpdate != 0) {
         // nextUpdate must be at least in 600 seconds
-        long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
+        long minNextUpdate = System.currentTimeMillis() + MIN_NEXT_UPDATE_PERIOD_MS;
 
         if (nextUpdate < minNextUpdate) {
           return null;
@@ -289,8 +481,12 @@ class ResponseCacher {
       }
 
       long thisUpdate = rs.getLong("THIS_UPDATE");
-      String b64Resp = rs.getString("RESP");
-      byte[] encoded = Base64.decodeFast(b64Resp);
+      byte[] encoded = DataSourceWrapper.getBytes(rs, "RESP", binaryResp);
+      if (memoryCache != null) {
+        memoryCache.storeOcspResponse(issuerId, serialNumber, thisUpdate,
+            (nextUpdate == 0) ? null : nextUpdate, sigAlg, encoded);
+      }
+
       ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
       if (nextUpdate != 0) {
         cacheInfo.setNextUpdate(nextUpdate);
@@ -303,84 +499,214 @@ class ResponseCacher {
     }
   }
 
-  void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate, Long nextUpdate,
+  /**
+   * Caches the response. The response is written to the database asynchronously.
+   */
+  public void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate, Long nextUpdate,
       AlgorithmCode sigAlgCode, byte[] response) {
+    if (memoryCache != null) {
+      // write-through: the memory cache is updated first, the database afterwards.
+      memoryCache.storeOcspResponse(issuerId, serialNumber, thisUpdate, nextUpdate,
+          sigAlgCode, response);
+    }
+
     byte[] identBytes = buildIdent(serialNumber, sigAlgCode);
     String ident = Base64.encodeToString(identBytes);
-    try {
-      long id = deriveId(issuerId, identBytes);
+    long id = deriveId(issuerId, identBytes);
 
-      Connection conn = datasource.getConnection();
-      try {
-        String sql = SQL_ADD_RESP;
-        PreparedStatement ps = datasource.prepareStatement(conn, sql);
+    // responses with the same ID are coalesced, only the last one will be written.
+    if (pendingResponses.size() >= MAX_PENDING_RESPONSES && !pendingResponses.containsKey(id)) {
+      LOG.debug("too many pending responses, ignore the response iid={}, ident={}",
+          issuerId, ident);
+      return;
+    }
 
-        String b64Response = Base64.encodeToString(response);
-        Boolean dataIntegrityViolationException = null;
-        try {
-          int idx = 1;
-          ps.setLong(idx++, id);
-          ps.setInt(idx++, issuerId);
-          ps.setString(idx++, ident);
-          ps.setLong(idx++, thisUpdate);
-          if (nextUpdate != null && nextUpdate > 0) {
-            ps.setLong(idx++, nextUpdate);
-          } else {
-            ps.setNull(idx++, java.sql.Types.BIGINT);
-          }
-          ps.setString(idx++, b64Response);
-          ps.execute();
-        } catch (SQLException ex) {
-          DataAccessException dex = datasource.translate(sql, ex);
-          if (dex.getReason().isDescendantOrSelfOf(Reason.DataIntegrityViolation)) {
-            dataIntegrityViolationException = Boolean.TRUE;
-          } else {
-            throw dex;
-          }
-        } finally {
-          datasource.releaseResources(ps, null, false);
-        }
+    pendingResponses.put(id,
+        new PendingResponse(id, issuerId, ident, thisUpdate, nextUpdate, response));
+  }
 
-        if (dataIntegrityViolationException == null) {
-          LOG.debug("added cached OCSP response iid={}, ident={}", issuerId, ident);
-          return;
+  /**
+   * Writes the pending responses in batches of {@link #WRITE_BATCH_SIZE}.
+   */
+  private synchronized void writePendingResponses() throws DataAccessException {
+    while (!pendingResponses.isEmpty()) {
+      List<PendingResponse> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+      Iterator<Long> it = pendingResponses.keySet().iterator();
+      while (it.hasNext() && batch.size() < WRITE_BATCH_SIZE) {
+        PendingResponse resp = pendingResponses.remove(it.next());
+        if (resp != null) {
+          batch.add(resp);
         }
+      }
 
-        sql = SQL_UPDATE_RESP;
-        ps = datasource.prepareStatement(conn, sql);
-        try {
-          int idx = 1;
-          ps.setLong(idx++, thisUpdate);
-          if (nextUpdate != null && nextUpdate > 0) {
-            ps.setLong(idx++, nextUpdate);
-          } else {
-            ps.setNull(idx++, java.sql.Types.BIGINT);
-          }
-          ps.setString(idx++, b64Response);
-          ps.setLong(idx++, id);
-          ps.executeUpdate();
-        } catch (SQLException ex) {
-          throw datasource.translate(sql, ex);
-        } finally {
-          datasource.releaseResources(ps, null, false);
+      if (batch.isEmpty()) {
+        break;
+      }
+
+      Connection conn = datasource.getConnection();
+      try {
+        List<PendingResponse> newResponses = updateResponses(conn, batch);
+        if (!newResponses.isEmpty()) {
+          addResponses(conn, newResponses);
         }
+        LOG.debug("written {} cached OCSP responses, {} new", batch.size(),
+            newResponses.size());
       } finally {
         datasource.returnConnection(conn);
       }
+    }
+  }
+
+  /**
+   * Updates the existing responses.
+   * @return the responses which are not yet in the database.
+   */
+  private List<PendingResponse> updateResponses(Connection conn, List<PendingResponse> batch)
+      throws DataAccessException {
+    final String sql = SQL_UPDATE_RESP;
+    int[] counts;
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
+    try {
+      for (PendingResponse resp : batch) {
+        int idx = 1;
+        ps.setLong(idx++, resp.thisUpdate);
+        setNextUpdate(ps, idx++, resp.nextUpdate);
+        DataSourceWrapper.setBytes(ps, idx++, resp.response, binaryResp);
+        ps.setLong(idx++, resp.id);
+        ps.addBatch();
+      }
+      counts = ps.executeBatch();
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, null, false);
+    }
+
+    List<PendingResponse> newResponses = new ArrayList<>(batch.size());
+    if (counts == null || counts.length != batch.size()) {
+      // unknown result, the responses will be written one by one
+      for (PendingResponse resp : batch) {
+        storeResponse(conn, resp);
+      }
+      return newResponses;
+    }
+
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] == 0) {
+        newResponses.add(batch.get(i));
+      } else if (counts[i] == Statement.SUCCESS_NO_INFO) {
+        storeResponse(conn, batch.get(i));
+      }
+    }
+    return newResponses;
+  }
+
+  private void addResponses(Connection conn, List<PendingResponse> batch)
+      throws DataAccessException {
+    final String sql = SQL_ADD_RESP;
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
+    boolean batchFailed = false;
+    try {
+      for (PendingResponse resp : batch) {
+        setAddResponseParams(ps, resp);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (SQLException ex) {
+      // e.g. a response has been added meanwhile by another instance
+      batchFailed = true;
+      LOG.debug("could not add the cached OCSP responses in batch: {}", ex.getMessage());
+    } finally {
+      datasource.releaseResources(ps, null, false);
+    }
+
+    if (batchFailed) {
+      for (PendingResponse resp : batch) {
+        storeResponse(conn, resp);
+      }
+    }
+  }
+
+  /**
+   * Adds the response, or updates it if it exists already.
+   */
+  private void storeResponse(Connection conn, PendingResponse resp) {
+    try {
+      String sql = SQL_ADD_RESP;
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+
+      Boolean dataIntegrityViolationException = null;
+      try {
+        setAddResponseParams(ps, resp);
+        ps.execute();
+      } catch (SQLException ex) {
+        DataAccessException dex = datasource.translate(sql, ex);
+        if (dex.getReason().isDescendantOrSelfOf(Reason.DataIntegrityViolation)) {
+          dataIntegrityViolationException = Boolean.TRUE;
+        } else {
+          throw dex;
+        }
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
+
+      if (dataIntegrityViolationException == null) {
+        LOG.debug("added cached OCSP response iid={}, ident={}", resp.issuerId, resp.ident);
+        return;
+      }
+
+      sql = SQL_UPDATE_RESP;
+      ps = datasource.prepareStatement(conn, sql);
+      try {
+        int idx = 1;
+        ps.setLong(idx++, resp.thisUpdate);
+        setNextUpdate(ps, idx++, resp.nextUpdate);
+        DataSourceWrapper.setBytes(ps, idx++, resp.response, binaryResp);
+        ps.setLong(idx++, resp.id);
+        ps.executeUpdate();
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
     } catch (DataAccessException ex) {
-      LOG.info("could not cache OCSP response iid={}, ident={}", issuerId, ident);
+      LOG.info("could not cache OCSP response iid={}, ident={}", resp.issuerId, resp.ident);
       if (LOG.isDebugEnabled()) {
-        LOG.debug("could not cache OCSP response iid=" + issuerId + ", ident=" + ident, ex);
+        LOG.debug("could not cache OCSP response iid=" + resp.issuerId + ", ident="
+            + resp.ident, ex);
       }
     }
   }
 
-  private int removeExpiredResponses(long maxThisUpdate) throws DataAccessException {
+  private void setAddResponseParams(PreparedStatement ps, PendingResponse resp)
+      throws SQLException {
+    int idx = 1;
+    ps.setLong(idx++, resp.id);
+    ps.setInt(idx++, resp.issuerId);
+    ps.setString(idx++, resp.ident);
+    ps.setLong(idx++, resp.thisUpdate);
+    setNextUpdate(ps, idx++, resp.nextUpdate);
+    DataSourceWrapper.setBytes(ps, idx++, resp.response, binaryResp);
+  }
+
+  private static void setNextUpdate(PreparedStatement ps, int index, Long nextUpdate)
+      throws SQLException {
+    if (nextUpdate != null) {
+      ps.setLong(index, nextUpdate);
+    } else {
+      ps.setNull(index, java.sql.Types.BIGINT);
+    }
+  }
+
+  private int removeExpiredResponses(long minId, long maxId, long maxThisUpdate)
+      throws DataAccessException {
     final String sql = SQL_DELETE_EXPIRED_RESP;
     PreparedStatement ps = null;
     try {
       ps = prepareStatement(sql);
-      ps.setLong(1, maxThisUpdate);
+      ps.setLong(1, minId);
+      ps.setLong(2, maxId);
+      ps.setLong(3, maxThisUpdate);
       return ps.executeUpdate();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
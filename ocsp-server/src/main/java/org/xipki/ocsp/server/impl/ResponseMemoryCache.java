@@ -0,0 +1,246 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.security.AlgorithmCode;
+import org.xipki.util.LruCache;
+import org.xipki.util.ParamUtil;
+
+/**
+ * Size-bounded in-memory tier of the {@link ResponseCacher}. The cached responses are
+ * identified by (issuerId, serialNumber, signatureAlgorithm) and are evicted in LRU order,
+ * or once they are expired.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class ResponseMemoryCache {
+
+  private static final class CacheKey {
+
+    private final int issuerId;
+
+    private final BigInteger serialNumber;
+
+    private final byte sigAlgCode;
+
+    private final int hashCode;
+
+    CacheKey(int issuerId, BigInteger serialNumber, byte sigAlgCode) {
+      this.issuerId = issuerId;
+      this.serialNumber = serialNumber;
+      this.sigAlgCode = sigAlgCode;
+      this.hashCode = (31 * issuerId + serialNumber.hashCode()) * 31 + sigAlgCode;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return issuerId == other.issuerId && sigAlgCode == other.sigAlgCode
+          && serialNumber.equals(other.serialNumber);
+    }
+
+  } // class CacheKey
+
+  private static final class CacheEntry {
+
+    private final long expiresAt;
+
+    private final ResponseCacheInfo cacheInfo;
+
+    private final OcspRespWithCacheInfo heapResponse;
+
+    private final ByteBuffer offHeapResponse;
+
+    private final String offHeapEtag;
+
+    CacheEntry(long expiresAt, ResponseCacheInfo cacheInfo, byte[] response, boolean offHeap) {
+      this.expiresAt = expiresAt;
+      this.cacheInfo = cacheInfo;
+      if (offHeap) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(response.length);
+        buffer.put(response);
+        buffer.flip();
+        this.offHeapResponse = buffer;
+        this.heapResponse = null;
+        // computed once here, since a new response object is created for every read
+        this.offHeapEtag = new OcspRespWithCacheInfo(response, cacheInfo).getEtag();
+      } else {
+        this.heapResponse = new OcspRespWithCacheInfo(response, cacheInfo);
+        this.offHeapResponse = null;
+        this.offHeapEtag = null;
+      }
+    }
+
+    int getResponseLength() {
+      return (heapResponse != null)
+          ? heapResponse.getResponse().length : offHeapResponse.capacity();
+    }
+
+    OcspRespWithCacheInfo toResponse() {
+      if (heapResponse != null) {
+        return heapResponse;
+      }
+
+      // not copied, the buffer is written directly by the HTTP server. It remains valid
+      // even if this entry is evicted meanwhile.
+      return new OcspRespWithCacheInfo(offHeapResponse, cacheInfo, offHeapEtag);
+    }
+
+  } // class CacheEntry
+
+  /**
+   * Estimated heap size of the key, the entry and the map node.
+   */
+  private static final int ENTRY_OVERHEAD = 160;
+
+  /**
+   * Same as in the database tier: responses whose nextUpdate is within the
+   * next 600 seconds are not served from the cache.
+   */
+  private static final long MIN_NEXT_UPDATE_PERIOD = 600L * 1000;
+
+  private final LruCache<CacheKey, CacheEntry> cache;
+
+  private final boolean offHeap;
+
+  private final long validity;
+
+  /**
+   * Constructor.
+   * @param maxSize
+   *          Maximal size in KiB of all cached responses.
+   * @param offHeap
+   *          Whether the responses are stored outside the java heap.
+   * @param validity
+   *          How long in seconds the response will be cached.
+   */
+  public ResponseMemoryCache(int maxSize, boolean offHeap, int validity) {
+    ParamUtil.requireRange("maxSize", maxSize, 1, Integer.MAX_VALUE / 1024);
+    this.offHeap = offHeap;
+    this.validity = ParamUtil.requireMin("validity", validity, 1) * 1000L;
+    this.cache = new LruCache<CacheKey, CacheEntry>(maxSize * 1024) {
+      @Override
+      protected int sizeOf(CacheKey key, CacheEntry value) {
+        return ENTRY_OVERHEAD + value.getResponseLength();
+      }
+    };
+  }
+
+  public boolean isOffHeap() {
+    return offHeap;
+  }
+
+  public OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
+      AlgorithmCode sigAlg) {
+    CacheKey key = new CacheKey(issuerId, serialNumber, sigAlg.getCode());
+    CacheEntry entry = cache.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.expiresAt <= System.currentTimeMillis()) {
+      cache.remove(key);
+      return null;
+    }
+
+    return entry.toResponse();
+  }
+
+  /**
+   * Caches the response.
+   * @param issuerId
+   *          Issuer identifier.
+   * @param serialNumber
+   *          Serial number of the certificate.
+   * @param thisUpdate
+   *          thisUpdate of the response in milliseconds.
+   * @param nextUpdate
+   *          nextUpdate of the response in milliseconds. Could be {@code null}.
+   * @param sigAlg
+   *          Signature algorithm of the response.
+   * @param response
+   *          Encoded response. It will not be copied for the heap cache.
+   */
+  public void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate,
+      Long nextUpdate, AlgorithmCode sigAlg, byte[] response) {
+    long expiresAt = thisUpdate + validity;
+    boolean withNextUpdate = nextUpdate != null && nextUpdate > 0
+        && nextUpdate != Long.MAX_VALUE;
+    if (withNextUpdate) {
+      expiresAt = Math.min(expiresAt, nextUpdate - MIN_NEXT_UPDATE_PERIOD);
+    }
+
+    CacheKey key = new CacheKey(issuerId, serialNumber, sigAlg.getCode());
+    if (expiresAt <= System.currentTimeMillis()) {
+      cache.remove(key);
+      return;
+    }
+
+    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
+    if (withNextUpdate) {
+      cacheInfo.setNextUpdate(nextUpdate);
+    }
+    cache.put(key, new CacheEntry(expiresAt, cacheInfo, response, offHeap));
+  }
+
+  /**
+   * Removes the expired responses.
+   * @return number of removed responses.
+   */
+  public int removeExpiredResponses() {
+    long now = System.currentTimeMillis();
+    int num = 0;
+    for (Map.Entry<CacheKey, CacheEntry> m : cache.snapshot().entrySet()) {
+      if (m.getValue().expiresAt <= now) {
+        if (cache.remove(m.getKey()) != null) {
+          num++;
+        }
+      }
+    }
+    return num;
+  }
+
+  public void clear() {
+    cache.evictAll();
+  }
+
+  @Override
+  public String toString() {
+    return cache.toString();
+  }
+
+}
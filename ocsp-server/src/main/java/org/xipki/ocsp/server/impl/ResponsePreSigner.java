@@ -0,0 +1,504 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.api.CertStatus;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.CertStatusListener;
+import org.xipki.ocsp.api.IssuerEntry;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.impl.type.CertID;
+import org.xipki.security.CertRevocationInfo;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ParamUtil;
+
+/**
+ * Signs the responses for the certificates in the stores of a responder in background,
+ * so that the requests can be answered without signing on demand.
+ *
+ * <p>Only the responses for SHA-1 based CertID (as required by RFC 5019) without nonce,
+ * signed by the default signer of the responder, are pre-signed. Certificates with status
+ * unknown are never pre-signed. Only the stores which list the serial numbers and notify the
+ * changes of the certificate status are considered, a pre-signed response is removed as soon
+ * as the store reports a change of the certificate or its issuer.
+ *
+ * <p>At most maxResponses responses are kept. If there are more certificates, the responses
+ * not requested since the last walk are removed, and afterwards only the responses of the
+ * requested certificates are pre-signed.
+ *
+ * <p>As in the cache database, a pre-signed response is not served if its nextUpdate is
+ * within the next 600 seconds.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class ResponsePreSigner implements Runnable, CertStatusListener {
+
+  /**
+   * Determines the certificate status and signs the responses for the pre-signer.
+   */
+  public interface ResponseGenerator {
+
+    /**
+     * Returns the status of the certificate.
+     * @param certId
+     *          CertID of the certificate. Must not be {@code null}.
+     * @return the status, or {@code null} if it could not be determined.
+     */
+    CertStatusInfo getCertStatus(CertID certId);
+
+    /**
+     * Signs the response without nonce.
+     * @param certId
+     *          CertID of the certificate. Must not be {@code null}.
+     * @return the response, or {@code null} if it could not be pre-signed.
+     * @throws IOException
+     *           if the response could not be signed.
+     */
+    OcspRespWithCacheInfo generateResponse(CertID certId) throws IOException;
+
+  } // interface ResponseGenerator
+
+  private static final class PreSignedResponse {
+
+    private final OcspRespWithCacheInfo response;
+
+    private final CertStatus certStatus;
+
+    private final long revocationTime;
+
+    private final int revocationReason;
+
+    private final long invalidityTime;
+
+    private final long refreshAt;
+
+    private long generation;
+
+    // whether the response has been requested since the last walk
+    private volatile boolean accessed;
+
+    PreSignedResponse(OcspRespWithCacheInfo response, CertStatusInfo statusInfo,
+        long refreshAt, long generation) {
+      this.response = response;
+      this.certStatus = statusInfo.getCertStatus();
+      CertRevocationInfo revInfo = statusInfo.getRevocationInfo();
+      if (revInfo == null) {
+        this.revocationTime = 0;
+        this.revocationReason = 0;
+        this.invalidityTime = 0;
+      } else {
+        this.revocationTime = revInfo.getRevocationTime().getTime();
+        this.revocationReason = revInfo.getReason().getCode();
+        this.invalidityTime = (revInfo.getInvalidityTime() == null)
+            ? 0 : revInfo.getInvalidityTime().getTime();
+      }
+      this.refreshAt = refreshAt;
+      this.generation = generation;
+    }
+
+    boolean hasSameStatus(CertStatusInfo statusInfo) {
+      if (certStatus != statusInfo.getCertStatus()) {
+        return false;
+      }
+
+      CertRevocationInfo revInfo = statusInfo.getRevocationInfo();
+      if (revInfo == null) {
+        return revocationTime == 0;
+      }
+
+      long invTime = (revInfo.getInvalidityTime() == null)
+          ? 0 : revInfo.getInvalidityTime().getTime();
+      return revocationTime == revInfo.getRevocationTime().getTime()
+          && revocationReason == revInfo.getReason().getCode()
+          && invalidityTime == invTime;
+    }
+
+  } // class PreSignedResponse
+
+  private static final class IssuerResponses {
+
+    private final RequestIssuer reqIssuer;
+
+    private final ConcurrentHashMap<BigInteger, PreSignedResponse> responses =
+        new ConcurrentHashMap<>();
+
+    // serial numbers requested without pre-signed response since the last walk
+    private final Set<BigInteger> requestedSerials = ConcurrentHashMap.newKeySet();
+
+    // incremented if the status of a certificate has been changed
+    private final AtomicLong version = new AtomicLong(0);
+
+    IssuerResponses(RequestIssuer reqIssuer) {
+      this.reqIssuer = reqIssuer;
+    }
+
+  } // class IssuerResponses
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponsePreSigner.class);
+
+  private static final int PAGE_SIZE = 1000;
+
+  /**
+   * Same as in the database tier: responses whose nextUpdate is within the
+   * next 600 seconds are not served.
+   */
+  private static final long MIN_NEXT_UPDATE_PERIOD_MS = 600L * 1000;
+
+  // length of the SHA-1 AlgorithmIdentifier with NULL parameters
+  private static final int SHA1_ALGID_LENGTH = 2 + HashAlgo.SHA1.getEncodedLength() + 2;
+
+  private final ResponseGenerator generator;
+
+  private final List<OcspStore> stores;
+
+  private final String name;
+
+  private final long interval;
+
+  private final long validity;
+
+  private final int maxResponses;
+
+  private final ConcurrentHashMap<RequestIssuer, IssuerResponses> issuers =
+      new ConcurrentHashMap<>();
+
+  private final AtomicBoolean inProcess = new AtomicBoolean(false);
+
+  private long generation;
+
+  // number of pre-signed responses, maintained by the walk
+  private int numResponses;
+
+  // whether responses have been removed since there are more than maxResponses certificates
+  private boolean limited;
+
+  /**
+   * Constructor.
+   * @param generator
+   *          Generator of the responses. Must not be {@code null}.
+   * @param stores
+   *          Stores of the responder whose responses are pre-signed. Must not be {@code null}.
+   * @param name
+   *          Name of the responder. Must not be {@code null}.
+   * @param interval
+   *          Interval in seconds to walk through the stores.
+   * @param validity
+   *          How long in seconds a pre-signed response will be used.
+   * @param maxResponses
+   *          Maximal number of pre-signed responses.
+   */
+  public ResponsePreSigner(ResponseGenerator generator, List<OcspStore> stores, String name,
+      int interval, int validity, int maxResponses) {
+    this.generator = ParamUtil.requireNonNull("generator", generator);
+    this.stores = ParamUtil.requireNonNull("stores", stores);
+    this.name = ParamUtil.requireNonBlank("name", name);
+    this.interval = ParamUtil.requireMin("interval", interval, 1) * 1000L;
+    this.validity = ParamUtil.requireMin("validity", validity, interval) * 1000L;
+    this.maxResponses = ParamUtil.requireMin("maxResponses", maxResponses, 1);
+
+    for (OcspStore store : stores) {
+      if (!store.supportsSerialNumbersListing()) {
+        continue;
+      }
+
+      if (store.supportsCertStatusListener()) {
+        store.addCertStatusListener(this);
+      } else {
+        LOG.warn("responder {}: store {} does not notify the changes of the certificate "
+            + "status, its responses will not be pre-signed", name, store.getName());
+      }
+    }
+  }
+
+  long getInterval() {
+    return interval;
+  }
+
+  /**
+   * Returns the pre-signed response.
+   * @param certId
+   *          The requested CertID. Must not be {@code null}.
+   * @return the pre-signed response, or {@code null} if not available.
+   */
+  public OcspRespWithCacheInfo getOcspResponse(CertID certId) {
+    RequestIssuer reqIssuer = certId.getIssuer();
+    if (reqIssuer.hashAlgorithm() != HashAlgo.SHA1) {
+      return null;
+    }
+
+    if (reqIssuer.getNameHashFrom() - reqIssuer.getFrom() != SHA1_ALGID_LENGTH) {
+      // the parameters of the hash algorithm are absent instead of NULL
+      byte[] data = reqIssuer.getData();
+      reqIssuer = new RequestIssuer(HashAlgo.SHA1, Arrays.copyOfRange(data,
+          reqIssuer.getNameHashFrom(), reqIssuer.getFrom() + reqIssuer.getLength()));
+    }
+
+    IssuerResponses issuerResps = issuers.get(reqIssuer);
+    if (issuerResps == null) {
+      return null;
+    }
+
+    BigInteger serialNumber = certId.getSerialNumber();
+    PreSignedResponse resp = issuerResps.responses.get(serialNumber);
+    if (resp == null) {
+      if (issuerResps.requestedSerials.size() < maxResponses) {
+        issuerResps.requestedSerials.add(serialNumber);
+      }
+      return null;
+    }
+
+    Long nextUpdate = resp.response.getCacheInfo().getNextUpdate();
+    if (nextUpdate != null
+        && nextUpdate < System.currentTimeMillis() + MIN_NEXT_UPDATE_PERIOD_MS) {
+      return null;
+    }
+
+    if (!resp.accessed) {
+      resp.accessed = true;
+    }
+    return resp.response;
+  }
+
+  @Override
+  public void certStatusChanged(IssuerEntry issuer, BigInteger serialNumber) {
+    IssuerResponses issuerResps = issuers.get(toRequestIssuer(issuer));
+    if (issuerResps != null) {
+      issuerResps.version.incrementAndGet();
+      if (issuerResps.responses.remove(serialNumber) != null) {
+        LOG.debug("responder {}: removed pre-signed response for serial {}", name,
+            LogUtil.formatCsn(serialNumber));
+      }
+    }
+  }
+
+  @Override
+  public void issuerChanged(IssuerEntry issuer) {
+    IssuerResponses issuerResps = issuers.remove(toRequestIssuer(issuer));
+    if (issuerResps != null) {
+      issuerResps.version.incrementAndGet();
+      LOG.info("responder {}: removed pre-signed responses of issuer {}", name, issuer.getId());
+    }
+  }
+
+  @Override
+  public void run() {
+    if (!inProcess.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      long start = System.currentTimeMillis();
+      int[] counts = preSign(++generation);
+      LOG.info("responder {}: pre-signed {} responses, {} unchanged, {} removed, {} skipped, "
+          + "took {} ms", name, counts[0], counts[1], counts[2], counts[3],
+          System.currentTimeMillis() - start);
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not pre-sign responses for responder " + name);
+    } finally {
+      inProcess.set(false);
+    }
+  }
+
+  private int[] preSign(long gen) throws OcspStoreException {
+    // counts of signed, unchanged, removed and skipped responses
+    int[] counts = new int[4];
+    List<BigInteger> serialNumbers = new LinkedList<>();
+
+    numResponses = 0;
+    for (IssuerResponses issuerResps : issuers.values()) {
+      numResponses += issuerResps.responses.size();
+    }
+
+    for (OcspStore store : stores) {
+      if (!store.supportsSerialNumbersListing() || !store.supportsCertStatusListener()) {
+        continue;
+      }
+
+      for (IssuerEntry issuer : store.getIssuers()) {
+        IssuerResponses issuerResps = getIssuerResponses(toRequestIssuer(issuer));
+
+        long cursor = 0;
+        while (cursor != -1) {
+          serialNumbers.clear();
+          cursor = store.getSerialNumbers(issuer, cursor, PAGE_SIZE, serialNumbers);
+          for (BigInteger serialNumber : serialNumbers) {
+            preSign(issuerResps, serialNumber, gen, counts);
+          }
+        }
+      }
+    }
+
+    // remove the responses of certificates which are no more in the stores
+    for (IssuerResponses issuerResps : issuers.values()) {
+      Iterator<PreSignedResponse> it = issuerResps.responses.values().iterator();
+      while (it.hasNext()) {
+        if (it.next().generation != gen) {
+          it.remove();
+          numResponses--;
+          counts[2]++;
+        }
+      }
+    }
+
+    if (numResponses > maxResponses) {
+      // remove the responses which have not been requested since the last walk
+      limited = true;
+      for (IssuerResponses issuerResps : issuers.values()) {
+        Iterator<PreSignedResponse> it = issuerResps.responses.values().iterator();
+        while (numResponses > maxResponses && it.hasNext()) {
+          if (!it.next().accessed) {
+            it.remove();
+            numResponses--;
+            counts[2]++;
+          }
+        }
+      }
+    }
+
+    if (limited && numResponses + counts[3] <= maxResponses) {
+      // responses of all certificates can be kept again
+      limited = false;
+    }
+
+    for (IssuerResponses issuerResps : issuers.values()) {
+      for (PreSignedResponse resp : issuerResps.responses.values()) {
+        resp.accessed = false;
+      }
+      issuerResps.requestedSerials.clear();
+
+      if (issuerResps.responses.isEmpty()) {
+        issuers.remove(issuerResps.reqIssuer, issuerResps);
+      }
+    }
+
+    return counts;
+  }
+
+  private void preSign(IssuerResponses issuerResps, BigInteger serialNumber, long gen,
+      int[] counts) {
+    PreSignedResponse existing = issuerResps.responses.get(serialNumber);
+    if (existing != null && existing.generation == gen) {
+      // already processed by another store
+      return;
+    }
+
+    if (existing == null && (limited || numResponses >= maxResponses)
+        && !issuerResps.requestedSerials.contains(serialNumber)) {
+      counts[3]++;
+      return;
+    }
+
+    // responses signed with the status read before a change will be removed
+    final long version = issuerResps.version.get();
+    CertID certId = new CertID(issuerResps.reqIssuer, serialNumber);
+    CertStatusInfo statusInfo = generator.getCertStatus(certId);
+    if (statusInfo == null) {
+      // could not determine the status, keep the existing one until the next walk
+      if (existing != null) {
+        existing.generation = gen;
+      }
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    if (existing != null && now < existing.refreshAt && existing.hasSameStatus(statusInfo)) {
+      existing.generation = gen;
+      counts[1]++;
+      return;
+    }
+
+    CertStatus certStatus = statusInfo.getCertStatus();
+    if (certStatus != CertStatus.GOOD && certStatus != CertStatus.REVOKED) {
+      return;
+    }
+
+    OcspRespWithCacheInfo resp;
+    try {
+      resp = generator.generateResponse(certId);
+    } catch (Exception ex) {
+      LogUtil.warn(LOG, ex, "could not pre-sign response for responder " + name);
+      resp = null;
+    }
+
+    if (resp == null) {
+      return;
+    }
+
+    long refreshAt = now + validity;
+    Long nextUpdate = resp.getCacheInfo().getNextUpdate();
+    if (nextUpdate != null) {
+      // refresh it at least two walks before it will not be served any more
+      refreshAt = Math.min(refreshAt, nextUpdate - MIN_NEXT_UPDATE_PERIOD_MS - 2 * interval);
+    }
+
+    PreSignedResponse newResp = new PreSignedResponse(resp, statusInfo, refreshAt, gen);
+    // keep it till the next walk
+    newResp.accessed = (existing != null && existing.accessed);
+    if (issuerResps.responses.put(serialNumber, newResp) == null) {
+      numResponses++;
+    }
+
+    if (issuerResps.version.get() != version) {
+      issuerResps.responses.remove(serialNumber, newResp);
+      return;
+    }
+    counts[0]++;
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("responder {}: pre-signed response for serial {}, refresh at {}",
+          name, LogUtil.formatCsn(serialNumber), new Date(refreshAt));
+    }
+  }
+
+  private IssuerResponses getIssuerResponses(RequestIssuer reqIssuer) {
+    IssuerResponses issuerResps = issuers.get(reqIssuer);
+    if (issuerResps == null) {
+      issuerResps = new IssuerResponses(reqIssuer);
+      IssuerResponses existing = issuers.putIfAbsent(reqIssuer, issuerResps);
+      if (existing != null) {
+        issuerResps = existing;
+      }
+    }
+    return issuerResps;
+  }
+
+  private static RequestIssuer toRequestIssuer(IssuerEntry issuer) {
+    return new RequestIssuer(HashAlgo.SHA1, issuer.getEncodedHash(HashAlgo.SHA1));
+  }
+
+}
@@ -0,0 +1,267 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.test;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.server.impl.ResponseCacher;
+import org.xipki.security.AlgorithmCode;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class ResponseCacherTest {
+
+  private static final String JDBC_URL = "jdbc:h2:mem:responsecacher;DB_CLOSE_DELAY=-1";
+
+  private static final int ISSUER_ID = 1;
+
+  private static final int VALIDITY = 3600;
+
+  private static final AlgorithmCode SIG_ALG = AlgorithmCode.SHA256WITHRSA;
+
+  // ResponseCacher.MAX_PENDING_RESPONSES
+  private static final int MAX_PENDING_RESPONSES = 10000;
+
+  // used to check the table OCSP, the ResponseCacher closes its datasource on shutdown
+  private DataSourceWrapper datasource;
+
+  private ResponseCacher cacher;
+
+  @Before
+  public void init() throws Exception {
+    datasource = createDataSource();
+    execute("CREATE TABLE ISSUER (ID INT NOT NULL PRIMARY KEY, S1C CHAR(28) NOT NULL,"
+        + " CERT VARCHAR(4000) NOT NULL)");
+    execute("CREATE TABLE OCSP (ID BIGINT NOT NULL PRIMARY KEY, IID INT NOT NULL,"
+        + " IDENT VARCHAR(48) NOT NULL, THIS_UPDATE BIGINT NOT NULL, NEXT_UPDATE BIGINT,"
+        + " RESP VARCHAR(4000) NOT NULL)");
+
+    cacher = new ResponseCacher(createDataSource(), true, VALIDITY, null);
+  }
+
+  @After
+  public void shutdown() throws Exception {
+    cacher.shutdown();
+    execute("DROP ALL OBJECTS");
+    datasource.close();
+  }
+
+  @Test
+  public void testBatchedWrite() throws Exception {
+    cacher.init();
+    Assert.assertTrue(cacher.isOnService());
+
+    // more than two batches
+    final int num = 250;
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < num; i++) {
+      cacher.storeOcspResponse(ISSUER_ID, BigInteger.valueOf(i), now, null, SIG_ALG,
+          ("response " + i).getBytes());
+    }
+
+    // served before being written to the database
+    assertResponse("response 1", cacher.getOcspResponse(ISSUER_ID, BigInteger.ONE, SIG_ALG));
+
+    // written by the background writer, without shutdown
+    long deadline = System.currentTimeMillis() + 10000;
+    while (countResponses() < num && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    Assert.assertEquals(num, countResponses());
+    assertResponse("response 1", cacher.getOcspResponse(ISSUER_ID, BigInteger.ONE, SIG_ALG));
+
+    // the existing response is updated
+    cacher.storeOcspResponse(ISSUER_ID, BigInteger.ONE, now + 1000, null, SIG_ALG,
+        "response 1 updated".getBytes());
+    deadline = System.currentTimeMillis() + 10000;
+    while (countResponses("THIS_UPDATE=" + (now + 1000)) < 1
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    Assert.assertEquals(num, countResponses());
+    assertResponse("response 1 updated",
+        cacher.getOcspResponse(ISSUER_ID, BigInteger.ONE, SIG_ALG));
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+    long now = System.currentTimeMillis();
+    cacher.storeOcspResponse(ISSUER_ID, BigInteger.ONE, now, null, SIG_ALG,
+        "response 1".getBytes());
+    cacher.storeOcspResponse(ISSUER_ID, BigInteger.ONE, now + 1000, null, SIG_ALG,
+        "response 2".getBytes());
+    assertResponse("response 2", cacher.getOcspResponse(ISSUER_ID, BigInteger.ONE, SIG_ALG));
+
+    cacher.shutdown();
+    Assert.assertEquals(1, countResponses());
+    Assert.assertEquals(1, countResponses("THIS_UPDATE=" + (now + 1000)));
+  }
+
+  @Test
+  public void testFlushOnShutdown() throws Exception {
+    cacher.init();
+
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 10; i++) {
+      cacher.storeOcspResponse(ISSUER_ID, BigInteger.valueOf(i), now, now + 3600L * 1000,
+          SIG_ALG, ("response " + i).getBytes());
+    }
+
+    // the writer runs every 500 ms, the responses are pending
+    cacher.shutdown();
+    Assert.assertEquals(10, countResponses());
+    Assert.assertEquals(10, countResponses("NEXT_UPDATE=" + (now + 3600L * 1000)));
+  }
+
+  @Test
+  public void testQueueFull() throws Exception {
+    // without init() the pending responses are only written on shutdown
+    long now = System.currentTimeMillis();
+    for (int i = 0; i <= MAX_PENDING_RESPONSES; i++) {
+      cacher.storeOcspResponse(ISSUER_ID, BigInteger.valueOf(i), now, null, SIG_ALG,
+          ("response " + i).getBytes());
+    }
+
+    // the last response is dropped
+    BigInteger droppedSerial = BigInteger.valueOf(MAX_PENDING_RESPONSES);
+    Assert.assertNull(cacher.getOcspResponse(ISSUER_ID, droppedSerial, SIG_ALG));
+
+    // a pending response is still replaced
+    cacher.storeOcspResponse(ISSUER_ID, BigInteger.ONE, now, null, SIG_ALG,
+        "response 1 updated".getBytes());
+    assertResponse("response 1 updated",
+        cacher.getOcspResponse(ISSUER_ID, BigInteger.ONE, SIG_ALG));
+
+    cacher.shutdown();
+    Assert.assertEquals(MAX_PENDING_RESPONSES, countResponses());
+  }
+
+  @Test
+  public void testRemoveExpiredResponses() throws Exception {
+    // between 3000 and 4000 responses, removed in 4 chunks
+    final int num = 3000;
+    final long step = Long.MAX_VALUE / 4 + 1;
+    Set<Long> ids = new TreeSet<>();
+    for (int i = 0; i < num; i++) {
+      ids.add(i * (Long.MAX_VALUE / num));
+    }
+
+    // the first and last ID of each chunk
+    Set<Long> boundaryIds = new TreeSet<>(Arrays.asList(0L, step - 1, step, 2 * step - 1,
+        2 * step, 3 * step - 1, 3 * step, Long.MAX_VALUE));
+    ids.addAll(boundaryIds);
+
+    long now = System.currentTimeMillis();
+    long expiredThisUpdate = now - 2L * VALIDITY * 1000;
+    int numExpired = 0;
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    try {
+      ps = conn.prepareStatement("INSERT INTO OCSP (ID,IID,IDENT,THIS_UPDATE,NEXT_UPDATE,RESP)"
+          + " VALUES (?,?,?,?,?,?)");
+      int idx = 0;
+      for (Long id : ids) {
+        boolean expired = boundaryIds.contains(id) || (idx++ % 2 == 0);
+        if (expired) {
+          numExpired++;
+        }
+
+        ps.setLong(1, id);
+        ps.setInt(2, ISSUER_ID);
+        ps.setString(3, Long.toString(id));
+        ps.setLong(4, expired ? expiredThisUpdate : now);
+        ps.setNull(5, java.sql.Types.BIGINT);
+        ps.setString(6, "response");
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+
+    Assert.assertEquals(ids.size(), countResponses());
+
+    cacher.removeExpiredResponses();
+    Assert.assertEquals(ids.size() - numExpired, countResponses());
+    Assert.assertEquals(0, countResponses("THIS_UPDATE=" + expiredThisUpdate));
+    Assert.assertEquals(ids.size() - numExpired, countResponses("THIS_UPDATE=" + now));
+  }
+
+  private static void assertResponse(String expected, OcspRespWithCacheInfo resp) {
+    Assert.assertNotNull(resp);
+    Assert.assertEquals(expected, new String(resp.getResponse()));
+  }
+
+  private static DataSourceWrapper createDataSource() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("jdbcUrl", JDBC_URL);
+    props.setProperty("username", "sa");
+    props.setProperty("password", "");
+    return new DataSourceFactory().createDataSource("ocspcache", props, null);
+  }
+
+  private int countResponses() throws Exception {
+    return countResponses(null);
+  }
+
+  private int countResponses(String condition) throws Exception {
+    String sql = "SELECT COUNT(*) FROM OCSP" + (condition == null ? "" : " WHERE " + condition);
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = conn.createStatement();
+      rs = stmt.executeQuery(sql);
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      datasource.releaseResources(stmt, rs);
+    }
+  }
+
+  private void execute(String sql) throws Exception {
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      stmt.execute(sql);
+    } finally {
+      datasource.releaseResources(stmt, null);
+    }
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.test;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.server.impl.ResponseCacher;
+import org.xipki.ocsp.server.impl.ResponseMemoryCache;
+import org.xipki.security.AlgorithmCode;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class ResponseMemoryCacheTest {
+
+  private static final int ISSUER_ID = 1;
+
+  private static final AlgorithmCode SIG_ALG = AlgorithmCode.SHA256WITHRSA;
+
+  private static final BigInteger SERIAL1 = BigInteger.valueOf(1);
+
+  private static final BigInteger SERIAL2 = BigInteger.valueOf(2);
+
+  private static final BigInteger SERIAL3 = BigInteger.valueOf(3);
+
+  @Test
+  public void testGet() {
+    testGet(false);
+  }
+
+  @Test
+  public void testGetOffHeap() {
+    testGet(true);
+  }
+
+  private void testGet(boolean offHeap) {
+    ResponseMemoryCache cache = new ResponseMemoryCache(1024, offHeap, 3600);
+    Assert.assertEquals(offHeap, cache.isOffHeap());
+
+    long now = System.currentTimeMillis();
+    byte[] response = newResponse(100, 1);
+    cache.storeOcspResponse(ISSUER_ID, SERIAL1, now, null, SIG_ALG, response);
+
+    OcspRespWithCacheInfo resp = cache.getOcspResponse(ISSUER_ID, SERIAL1, SIG_ALG);
+    Assert.assertNotNull(resp);
+    Assert.assertArrayEquals(response, resp.getResponse());
+    Assert.assertEquals(now, resp.getCacheInfo().getThisUpdate());
+    Assert.assertNull(resp.getCacheInfo().getNextUpdate());
+
+    // the key consists of issuer, serial number and signature algorithm
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID + 1, SERIAL1, SIG_ALG));
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID, SERIAL2, SIG_ALG));
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID, SERIAL1, AlgorithmCode.SHA1WITHRSA));
+  }
+
+  @Test
+  public void testEviction() {
+    // 1 KiB, room for two responses of 300 bytes
+    ResponseMemoryCache cache = new ResponseMemoryCache(1, false, 3600);
+    long now = System.currentTimeMillis();
+    cache.storeOcspResponse(ISSUER_ID, SERIAL1, now, null, SIG_ALG, newResponse(300, 1));
+    cache.storeOcspResponse(ISSUER_ID, SERIAL2, now, null, SIG_ALG, newResponse(300, 2));
+
+    // SERIAL2 is now the least recently used one
+    Assert.assertNotNull(cache.getOcspResponse(ISSUER_ID, SERIAL1, SIG_ALG));
+
+    cache.storeOcspResponse(ISSUER_ID, SERIAL3, now, null, SIG_ALG, newResponse(300, 3));
+    Assert.assertNotNull(cache.getOcspResponse(ISSUER_ID, SERIAL1, SIG_ALG));
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID, SERIAL2, SIG_ALG));
+    Assert.assertNotNull(cache.getOcspResponse(ISSUER_ID, SERIAL3, SIG_ALG));
+  }
+
+  @Test
+  public void testExpiryAtNextUpdate() throws Exception {
+    ResponseMemoryCache cache = new ResponseMemoryCache(1024, false, 3600);
+    long now = System.currentTimeMillis();
+
+    // nextUpdate within the next 600 seconds, not cached
+    cache.storeOcspResponse(ISSUER_ID, SERIAL1, now, now + 599L * 1000, SIG_ALG,
+        newResponse(100, 1));
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID, SERIAL1, SIG_ALG));
+
+    // served till 600 seconds before nextUpdate
+    long nextUpdate = now + 600L * 1000 + 500;
+    cache.storeOcspResponse(ISSUER_ID, SERIAL2, now, nextUpdate, SIG_ALG, newResponse(100, 2));
+    OcspRespWithCacheInfo resp = cache.getOcspResponse(ISSUER_ID, SERIAL2, SIG_ALG);
+    Assert.assertNotNull(resp);
+    Assert.assertEquals(Long.valueOf(nextUpdate), resp.getCacheInfo().getNextUpdate());
+
+    Thread.sleep(600);
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID, SERIAL2, SIG_ALG));
+  }
+
+  @Test
+  public void testExpiryAfterValidity() throws Exception {
+    ResponseMemoryCache cache = new ResponseMemoryCache(1024, false, 1);
+    long now = System.currentTimeMillis();
+    cache.storeOcspResponse(ISSUER_ID, SERIAL1, now, null, SIG_ALG, newResponse(100, 1));
+    cache.storeOcspResponse(ISSUER_ID, SERIAL2, now - 2000, null, SIG_ALG,
+        newResponse(100, 2));
+    Assert.assertNotNull(cache.getOcspResponse(ISSUER_ID, SERIAL1, SIG_ALG));
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID, SERIAL2, SIG_ALG));
+
+    Thread.sleep(1100);
+    Assert.assertEquals(1, cache.removeExpiredResponses());
+    Assert.assertNull(cache.getOcspResponse(ISSUER_ID, SERIAL1, SIG_ALG));
+  }
+
+  @Test
+  public void testHitWithoutDatabase() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("jdbcUrl", "jdbc:h2:mem:memorycache;DB_CLOSE_DELAY=-1");
+    props.setProperty("username", "sa");
+    props.setProperty("password", "");
+    DataSourceWrapper datasource = new DataSourceFactory().createDataSource("ocspcache",
+        props, null);
+    execute(datasource, "CREATE TABLE OCSP (ID BIGINT NOT NULL PRIMARY KEY, IID INT NOT NULL,"
+        + " IDENT VARCHAR(48) NOT NULL, THIS_UPDATE BIGINT NOT NULL, NEXT_UPDATE BIGINT,"
+        + " RESP VARCHAR(4000) NOT NULL)");
+
+    ResponseMemoryCache cache = new ResponseMemoryCache(1024, false, 3600);
+    ResponseCacher cacher = new ResponseCacher(datasource, true, 3600, cache);
+    try {
+      long now = System.currentTimeMillis();
+      byte[] response = newResponse(100, 1);
+      cache.storeOcspResponse(ISSUER_ID, SERIAL1, now, null, SIG_ALG, response);
+
+      // a lookup in the database would fail
+      execute(datasource, "DROP TABLE OCSP");
+
+      OcspRespWithCacheInfo resp = cacher.getOcspResponse(ISSUER_ID, SERIAL1, SIG_ALG);
+      Assert.assertNotNull(resp);
+      Assert.assertArrayEquals(response, resp.getResponse());
+    } finally {
+      cacher.shutdown();
+    }
+  }
+
+  private static byte[] newResponse(int size, int value) {
+    byte[] response = new byte[size];
+    Arrays.fill(response, (byte) value);
+    return response;
+  }
+
+  private static void execute(DataSourceWrapper datasource, String sql) throws Exception {
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      stmt.execute(sql);
+    } finally {
+      datasource.releaseResources(stmt, null);
+    }
+  }
+
+}
@@ -0,0 +1,293 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.IssuerEntry;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.impl.ResponsePreSigner;
+import org.xipki.ocsp.server.impl.type.CertID;
+import org.xipki.security.CertRevocationInfo;
+import org.xipki.security.CrlReason;
+import org.xipki.security.HashAlgo;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class ResponsePreSignerTest {
+
+  private static class TestStore extends OcspStore {
+
+    private final IssuerEntry issuer;
+
+    private final List<BigInteger> serialNumbers;
+
+    TestStore(IssuerEntry issuer, List<BigInteger> serialNumbers) {
+      this.issuer = issuer;
+      this.serialNumbers = serialNumbers;
+      setName("store1");
+    }
+
+    @Override
+    public List<IssuerEntry> getIssuers() {
+      return Collections.singletonList(issuer);
+    }
+
+    @Override
+    public boolean supportsSerialNumbersListing() {
+      return true;
+    }
+
+    @Override
+    public long getSerialNumbers(IssuerEntry issuer, long cursor, int numEntries,
+        List<BigInteger> serialNumbers) {
+      serialNumbers.addAll(this.serialNumbers);
+      return -1;
+    }
+
+    @Override
+    public boolean supportsCertStatusListener() {
+      return true;
+    }
+
+    void changeCertStatus(BigInteger serialNumber) {
+      fireCertStatusChanged(issuer, serialNumber);
+    }
+
+    void changeIssuer() {
+      fireIssuerChanged(issuer);
+    }
+
+    @Override
+    public boolean knowsIssuer(RequestIssuer reqIssuer) {
+      return false;
+    }
+
+    @Override
+    public X509Certificate getIssuerCert(RequestIssuer reqIssuer) {
+      return null;
+    }
+
+    @Override
+    public CertStatusInfo getCertStatus(Date time, RequestIssuer reqIssuer,
+        BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
+        boolean inheritCaRevocation) throws OcspStoreException {
+      return null;
+    }
+
+    @Override
+    public void init(String conf, DataSourceWrapper datasource) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean isHealthy() {
+      return true;
+    }
+
+  } // class TestStore
+
+  private static class TestGenerator implements ResponsePreSigner.ResponseGenerator {
+
+    private final ConcurrentHashMap<BigInteger, CertStatusInfo> revokedCerts =
+        new ConcurrentHashMap<>();
+
+    private final AtomicInteger numSigned = new AtomicInteger(0);
+
+    // nextUpdate of the responses relative to the time of signing
+    private volatile long nextUpdatePeriod = 3600L * 1000;
+
+    @Override
+    public CertStatusInfo getCertStatus(CertID certId) {
+      CertStatusInfo statusInfo = revokedCerts.get(certId.getSerialNumber());
+      return (statusInfo != null) ? statusInfo
+          : CertStatusInfo.getGoodCertStatusInfo(new Date(), null);
+    }
+
+    @Override
+    public OcspRespWithCacheInfo generateResponse(CertID certId) throws IOException {
+      long now = System.currentTimeMillis();
+      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(now);
+      cacheInfo.setNextUpdate(now + nextUpdatePeriod);
+      byte[] response = ("response " + numSigned.incrementAndGet()).getBytes();
+      return new OcspRespWithCacheInfo(response, cacheInfo);
+    }
+
+  } // class TestGenerator
+
+  private static final BigInteger SERIAL1 = BigInteger.valueOf(1);
+
+  private static final BigInteger SERIAL2 = BigInteger.valueOf(2);
+
+  private IssuerEntry issuer;
+
+  private TestStore store;
+
+  private TestGenerator generator;
+
+  private ResponsePreSigner preSigner;
+
+  @Before
+  public void init() throws Exception {
+    issuer = new IssuerEntry(1, newIssuerCert());
+    store = new TestStore(issuer, Arrays.asList(SERIAL1, SERIAL2));
+    generator = new TestGenerator();
+    preSigner = new ResponsePreSigner(generator, Collections.<OcspStore>singletonList(store),
+        "responder1", 1, 3600, 100);
+  }
+
+  @Test
+  public void testPreSign() throws Exception {
+    Assert.assertNull(preSigner.getOcspResponse(certId(SERIAL1)));
+
+    preSigner.run();
+    Assert.assertEquals(2, generator.numSigned.get());
+    Assert.assertNotNull(preSigner.getOcspResponse(certId(SERIAL1)));
+    Assert.assertNotNull(preSigner.getOcspResponse(certId(SERIAL2)));
+    Assert.assertNull(preSigner.getOcspResponse(certId(BigInteger.valueOf(3))));
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    preSigner.run();
+    OcspRespWithCacheInfo resp = preSigner.getOcspResponse(certId(SERIAL1));
+
+    // unchanged responses are not signed again
+    preSigner.run();
+    Assert.assertEquals(2, generator.numSigned.get());
+    Assert.assertSame(resp, preSigner.getOcspResponse(certId(SERIAL1)));
+
+    // the response is signed again if the status read by the walk has been changed
+    generator.revokedCerts.put(SERIAL1, CertStatusInfo.getRevokedCertStatusInfo(
+        new CertRevocationInfo(CrlReason.KEY_COMPROMISE, new Date()), new Date(), null));
+    preSigner.run();
+    Assert.assertEquals(3, generator.numSigned.get());
+    OcspRespWithCacheInfo newResp = preSigner.getOcspResponse(certId(SERIAL1));
+    Assert.assertNotNull(newResp);
+    Assert.assertNotSame(resp, newResp);
+  }
+
+  @Test
+  public void testRefreshBeforeNextUpdate() throws Exception {
+    // served for one more second, hence refreshed by every walk
+    generator.nextUpdatePeriod = 601L * 1000;
+    preSigner.run();
+    Assert.assertEquals(2, generator.numSigned.get());
+    Assert.assertNotNull(preSigner.getOcspResponse(certId(SERIAL1)));
+
+    preSigner.run();
+    Assert.assertEquals(4, generator.numSigned.get());
+  }
+
+  @Test
+  public void testInvalidation() throws Exception {
+    preSigner.run();
+
+    store.changeCertStatus(SERIAL1);
+    Assert.assertNull(preSigner.getOcspResponse(certId(SERIAL1)));
+    Assert.assertNotNull(preSigner.getOcspResponse(certId(SERIAL2)));
+
+    store.changeIssuer();
+    Assert.assertNull(preSigner.getOcspResponse(certId(SERIAL2)));
+
+    // signed again by the next walk
+    preSigner.run();
+    Assert.assertEquals(4, generator.numSigned.get());
+    Assert.assertNotNull(preSigner.getOcspResponse(certId(SERIAL1)));
+    Assert.assertNotNull(preSigner.getOcspResponse(certId(SERIAL2)));
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    // nextUpdate within the next 600 seconds
+    generator.nextUpdatePeriod = 300L * 1000;
+    preSigner.run();
+    Assert.assertEquals(2, generator.numSigned.get());
+    Assert.assertNull(preSigner.getOcspResponse(certId(SERIAL1)));
+  }
+
+  @Test
+  public void testHashAlgorithmWithoutParameters() throws Exception {
+    preSigner.run();
+
+    // AlgorithmIdentifier of SHA-1 without the NULL parameters
+    byte[] hashData = issuer.getEncodedHash(HashAlgo.SHA1);
+    int algIdLen = 2 + HashAlgo.SHA1.getEncodedLength();
+    byte[] data = new byte[algIdLen + hashData.length];
+    data[0] = 0x30;
+    data[1] = (byte) HashAlgo.SHA1.getEncodedLength();
+    HashAlgo.SHA1.write(data, 2);
+    System.arraycopy(hashData, 0, data, algIdLen, hashData.length);
+
+    CertID certId = new CertID(new RequestIssuer(data), SERIAL1);
+    Assert.assertSame(preSigner.getOcspResponse(certId(SERIAL1)),
+        preSigner.getOcspResponse(certId));
+  }
+
+  private CertID certId(BigInteger serialNumber) {
+    return new CertID(new RequestIssuer(HashAlgo.SHA1, issuer.getEncodedHash(HashAlgo.SHA1)),
+        serialNumber);
+  }
+
+  private static X509Certificate newIssuerCert() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(1024);
+    KeyPair keypair = kpGen.generateKeyPair();
+
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + 86400000L);
+    X500Name name = new X500Name("CN=issuer1");
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.ONE,
+        notBefore, notAfter, name, keypair.getPublic());
+    ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        .build(keypair.getPrivate());
+    return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+  }
+
+}
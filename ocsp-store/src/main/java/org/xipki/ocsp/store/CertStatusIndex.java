@@ -0,0 +1,503 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.store;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import org.xipki.util.ParamUtil;
+
+/**
+ * Compact in-memory index of the certificate status of one issuer.
+ *
+ * <p>The entries are stored in fixed-size records of an open-addressing hash table, which
+ * is backed by fixed-size {@link ByteBuffer} segments (in the java heap or outside of it).
+ * The segment of a slot is addressed by the high bits of the slot index, hence the size of
+ * the index is not limited by the maximal size of one buffer. There is one object per
+ * segment, not per certificate. Times are stored as unsigned 32-bit seconds,
+ * larger values are truncated to 2106-02-07.
+ *
+ * <p>Lookups are lock-free (optimistic read), updates are done under the write lock: by the
+ * refresh thread, and by the request threads for the entries missing in the index.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CertStatusIndex {
+
+  public static final class Entry {
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    private final boolean revoked;
+
+    private final int reason;
+
+    private final long revTime;
+
+    private final long invalidityTime;
+
+    private final byte[] certHash;
+
+    public Entry(long notBefore, long notAfter, boolean revoked, int reason, long revTime,
+        long invalidityTime, byte[] certHash) {
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+      this.revoked = revoked;
+      this.reason = reason;
+      this.revTime = revTime;
+      this.invalidityTime = invalidityTime;
+      this.certHash = certHash;
+    }
+
+    public long getNotBefore() {
+      return notBefore;
+    }
+
+    public long getNotAfter() {
+      return notAfter;
+    }
+
+    public boolean isRevoked() {
+      return revoked;
+    }
+
+    public int getReason() {
+      return reason;
+    }
+
+    public long getRevTime() {
+      return revTime;
+    }
+
+    public long getInvalidityTime() {
+      return invalidityTime;
+    }
+
+    public byte[] getCertHash() {
+      return certHash;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (notAfter ^ revTime) + (revoked ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Entry)) {
+        return false;
+      }
+
+      Entry other = (Entry) obj;
+      return notBefore == other.notBefore && notAfter == other.notAfter
+          && revoked == other.revoked && reason == other.reason && revTime == other.revTime
+          && invalidityTime == other.invalidityTime && Arrays.equals(certHash, other.certHash);
+    }
+
+  } // class Entry
+
+  /**
+   * The segments and the capacity, which are replaced together while resizing.
+   */
+  private static final class Table {
+
+    private final ByteBuffer[] segments;
+
+    private final long capacity;
+
+    private final int recordSize;
+
+    private Table(ByteBuffer[] segments, long capacity, int recordSize) {
+      this.segments = segments;
+      this.capacity = capacity;
+      this.recordSize = recordSize;
+    }
+
+    private ByteBuffer segment(long slot) {
+      return segments[(int) (slot >>> SEGMENT_BITS)];
+    }
+
+    private int position(long slot) {
+      return (int) (slot & SEGMENT_MASK) * recordSize;
+    }
+
+  } // class Table
+
+  /**
+   * Serial numbers are at most 20 octets long (RFC 5280, section 4.1.2.2).
+   */
+  static final int MAX_SERIAL_LEN = 20;
+
+  private static final float LOAD_FACTOR = 0.7f;
+
+  private static final int MIN_CAPACITY = 1024;
+
+  // 65536 slots per segment
+  private static final int SEGMENT_BITS = 16;
+
+  private static final int SEGMENT_SLOTS = 1 << SEGMENT_BITS;
+
+  private static final long SEGMENT_MASK = SEGMENT_SLOTS - 1;
+
+  // record layout: used(1) | snLen(1) | sn(20) | nbefore(4) | nafter(4) | rev(1) | rr(1)
+  //   | rt(4) | rit(4) | hash(hashLen)
+  private static final int OFF_SNLEN = 1;
+
+  private static final int OFF_SN = 2;
+
+  private static final int OFF_NBEFORE = OFF_SN + MAX_SERIAL_LEN;
+
+  private static final int OFF_NAFTER = OFF_NBEFORE + 4;
+
+  private static final int OFF_REV = OFF_NAFTER + 4;
+
+  private static final int OFF_RR = OFF_REV + 1;
+
+  private static final int OFF_RT = OFF_RR + 1;
+
+  private static final int OFF_RIT = OFF_RT + 4;
+
+  private static final int OFF_HASH = OFF_RIT + 4;
+
+  private static final long MAX_UINT = 0xFFFFFFFFL;
+
+  private final StampedLock lock = new StampedLock();
+
+  private final int hashLen;
+
+  private final int recordSize;
+
+  private final boolean offHeap;
+
+  private Table table;
+
+  private int size;
+
+  private long lastUpdate;
+
+  private long deletionGeneration;
+
+  /**
+   * Constructor.
+   * @param expectedSize
+   *          Expected number of entries.
+   * @param hashLen
+   *          Length of the certificate hash, 0 if the hash is not indexed.
+   * @param offHeap
+   *          Whether the index is stored outside of the java heap.
+   */
+  public CertStatusIndex(int expectedSize, int hashLen, boolean offHeap) {
+    this.hashLen = ParamUtil.requireRange("hashLen", hashLen, 0, 64);
+    this.recordSize = OFF_HASH + hashLen;
+    this.offHeap = offHeap;
+    this.table = allocate(capacityFor(ParamUtil.requireMin("expectedSize", expectedSize, 0)));
+  }
+
+  public static boolean isIndexable(BigInteger serialNumber) {
+    return serialNumber.signum() == 1 && serialNumber.bitLength() <= 8 * MAX_SERIAL_LEN;
+  }
+
+  public boolean containsCertHash() {
+    return hashLen > 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the maximal LUPDATE (in seconds) of the indexed entries.
+   * @return the maximal LUPDATE.
+   */
+  public long getLastUpdate() {
+    return lastUpdate;
+  }
+
+  /**
+   * Returns ISSUER.DEL_GEN read before the index was loaded. The index must be loaded again
+   * if it has been changed, since the removal of entries cannot be applied incrementally.
+   * @return the deletion generation.
+   */
+  long getDeletionGeneration() {
+    return deletionGeneration;
+  }
+
+  void setDeletionGeneration(long deletionGeneration) {
+    this.deletionGeneration = deletionGeneration;
+  }
+
+  /**
+   * Returns the entry for the given serial number.
+   * @param serialNumber
+   *          Serial number of the certificate. Must be {@link #isIndexable(BigInteger)}.
+   * @return the entry, or {@code null} if the index does not contain the serial number.
+   */
+  public Entry get(BigInteger serialNumber) {
+    byte[] sn = toSerialBytes(serialNumber);
+    long hash = hash(sn);
+
+    long stamp = lock.tryOptimisticRead();
+    Entry entry = find(sn, hash);
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        entry = find(sn, hash);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Adds or replaces the entry.
+   * @param serialNumber
+   *          Serial number of the certificate. Must be {@link #isIndexable(BigInteger)}.
+   * @param entry
+   *          The entry. Must not be {@code null}.
+   * @param lastUpdate
+   *          LUPDATE of the entry in seconds.
+   */
+  public void put(BigInteger serialNumber, Entry entry, long lastUpdate) {
+    put(serialNumber, entry, lastUpdate, true);
+  }
+
+  /**
+   * Adds the entry if the index does not contain the serial number. The maximal LUPDATE is
+   * not changed, since the entry has been read outside of the incremental updates.
+   * @param serialNumber
+   *          Serial number of the certificate. Must be {@link #isIndexable(BigInteger)}.
+   * @param entry
+   *          The entry. Must not be {@code null}.
+   * @return whether the entry has been added.
+   */
+  public boolean putIfAbsent(BigInteger serialNumber, Entry entry) {
+    return put(serialNumber, entry, 0, false);
+  }
+
+  private boolean put(BigInteger serialNumber, Entry entry, long lastUpdate, boolean replace) {
+    byte[] sn = toSerialBytes(serialNumber);
+    long hash = hash(sn);
+
+    long stamp = lock.writeLock();
+    try {
+      if (size + 1 > (long) (table.capacity * (double) LOAD_FACTOR)) {
+        resize(capacityFor(2L * size));
+      }
+
+      long slot = findSlot(table, sn, hash);
+      ByteBuffer segment = table.segment(slot);
+      int pos = table.position(slot);
+      if (segment.get(pos) == 0) {
+        size++;
+      } else if (!replace) {
+        return false;
+      }
+      writeRecord(segment, pos, sn, entry);
+      if (lastUpdate > this.lastUpdate) {
+        this.lastUpdate = lastUpdate;
+      }
+      return true;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  private Entry find(byte[] sn, long hash) {
+    // the segments and the capacity must be consistent, even if they are read concurrently
+    Table tbl = table;
+    long cap = tbl.capacity;
+    long slot = firstSlot(hash, cap);
+    for (long i = 0; i < cap; i++) {
+      ByteBuffer segment = tbl.segment(slot);
+      int pos = tbl.position(slot);
+      if (segment.get(pos) == 0) {
+        return null;
+      }
+
+      if (serialEquals(segment, pos, sn)) {
+        return readRecord(segment, pos);
+      }
+
+      if (++slot == cap) {
+        slot = 0;
+      }
+    }
+    return null;
+  }
+
+  private static long findSlot(Table tbl, byte[] sn, long hash) {
+    long slot = firstSlot(hash, tbl.capacity);
+    while (true) {
+      ByteBuffer segment = tbl.segment(slot);
+      int pos = tbl.position(slot);
+      if (segment.get(pos) == 0 || serialEquals(segment, pos, sn)) {
+        return slot;
+      }
+
+      if (++slot == tbl.capacity) {
+        slot = 0;
+      }
+    }
+  }
+
+  private static long firstSlot(long hash, long cap) {
+    return (hash & Long.MAX_VALUE) % cap;
+  }
+
+  private void resize(long newCapacity) {
+    Table newTable = allocate(newCapacity);
+    byte[] sn = new byte[MAX_SERIAL_LEN];
+    for (long slot = 0; slot < table.capacity; slot++) {
+      ByteBuffer segment = table.segment(slot);
+      int pos = table.position(slot);
+      if (segment.get(pos) == 0) {
+        continue;
+      }
+
+      int snLen = segment.get(pos + OFF_SNLEN);
+      byte[] snBytes = (snLen == sn.length) ? sn : new byte[snLen];
+      for (int i = 0; i < snLen; i++) {
+        snBytes[i] = segment.get(pos + OFF_SN + i);
+      }
+
+      long newSlot = findSlot(newTable, snBytes, hash(snBytes));
+      ByteBuffer newSegment = newTable.segment(newSlot);
+      int newPos = newTable.position(newSlot);
+      for (int i = 0; i < recordSize; i++) {
+        newSegment.put(newPos + i, segment.get(pos + i));
+      }
+    }
+
+    this.table = newTable;
+  }
+
+  private static boolean serialEquals(ByteBuffer tbl, int pos, byte[] sn) {
+    if (tbl.get(pos + OFF_SNLEN) != sn.length) {
+      return false;
+    }
+
+    for (int i = 0; i < sn.length; i++) {
+      if (tbl.get(pos + OFF_SN + i) != sn[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Entry readRecord(ByteBuffer tbl, int pos) {
+    byte[] certHash = null;
+    if (hashLen > 0) {
+      certHash = new byte[hashLen];
+      for (int i = 0; i < hashLen; i++) {
+        certHash[i] = tbl.get(pos + OFF_HASH + i);
+      }
+    }
+
+    return new Entry(getUint(tbl, pos + OFF_NBEFORE), getUint(tbl, pos + OFF_NAFTER),
+        tbl.get(pos + OFF_REV) != 0, tbl.get(pos + OFF_RR) & 0xFF,
+        getUint(tbl, pos + OFF_RT), getUint(tbl, pos + OFF_RIT), certHash);
+  }
+
+  private void writeRecord(ByteBuffer tbl, int pos, byte[] sn, Entry entry) {
+    tbl.put(pos, (byte) 1);
+    tbl.put(pos + OFF_SNLEN, (byte) sn.length);
+    for (int i = 0; i < sn.length; i++) {
+      tbl.put(pos + OFF_SN + i, sn[i]);
+    }
+    putUint(tbl, pos + OFF_NBEFORE, entry.notBefore);
+    putUint(tbl, pos + OFF_NAFTER, entry.notAfter);
+    tbl.put(pos + OFF_REV, (byte) (entry.revoked ? 1 : 0));
+    tbl.put(pos + OFF_RR, (byte) entry.reason);
+    putUint(tbl, pos + OFF_RT, entry.revTime);
+    putUint(tbl, pos + OFF_RIT, entry.invalidityTime);
+
+    if (hashLen > 0) {
+      byte[] certHash = entry.certHash;
+      for (int i = 0; i < hashLen; i++) {
+        tbl.put(pos + OFF_HASH + i,
+            (certHash != null && i < certHash.length) ? certHash[i] : 0);
+      }
+    }
+  }
+
+  private Table allocate(long cap) {
+    int numSegments = (int) ((cap + SEGMENT_SLOTS - 1) >>> SEGMENT_BITS);
+    ByteBuffer[] segments = new ByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      // the last segment contains only the remaining slots
+      long slots = Math.min(SEGMENT_SLOTS, cap - ((long) i << SEGMENT_BITS));
+      int bytes = (int) slots * recordSize;
+      segments[i] = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+    }
+    return new Table(segments, cap, recordSize);
+  }
+
+  /**
+   * Returns the number of slots so that the load factor is not exceeded after one more entry
+   * has been added.
+   */
+  private static long capacityFor(long expectedSize) {
+    long cap = (long) Math.ceil((expectedSize + 1) / (double) LOAD_FACTOR) + 1;
+    return Math.max(MIN_CAPACITY, cap);
+  }
+
+  private static byte[] toSerialBytes(BigInteger serialNumber) {
+    byte[] bytes = serialNumber.toByteArray();
+    if (bytes[0] == 0 && bytes.length > 1) {
+      // remove the sign octet
+      byte[] tmp = new byte[bytes.length - 1];
+      System.arraycopy(bytes, 1, tmp, 0, tmp.length);
+      bytes = tmp;
+    }
+
+    if (bytes.length > MAX_SERIAL_LEN) {
+      throw new IllegalArgumentException("serialNumber too long");
+    }
+    return bytes;
+  }
+
+  private static long hash(byte[] sn) {
+    long hash = 1;
+    for (byte b : sn) {
+      hash = 31 * hash + b;
+    }
+    // mix the bits (finalizer of MurmurHash3), consecutive serial numbers are common
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static long getUint(ByteBuffer tbl, int pos) {
+    return tbl.getInt(pos) & MAX_UINT;
+  }
+
+  private static void putUint(ByteBuffer tbl, int pos, long value) {
+    tbl.putInt(pos, (int) Math.max(0, Math.min(MAX_UINT, value)));
+  }
+
+}
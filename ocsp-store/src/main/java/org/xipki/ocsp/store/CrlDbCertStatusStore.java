@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Date;
@@ -36,6 +35,7 @@ import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.api.OcspStoreException;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.CrlReason;
+import org.xipki.security.CrlStreamParser;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.DateUtil;
 import org.xipki.util.IoUtil;
@@ -143,6 +143,7 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
     crlUpdateInProcess.set(true);
 
     Boolean updateCrlSuccessful = null;
+    File tmpDerCrlFile = null;
     File updateMeFile = new File(crlFilename + ".UPDATEME");
     if (!updateMeFile.exists()) {
       LOG.info("The CRL will not be updated. Create new file {} to force the update",
@@ -164,7 +165,15 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
       LOG.info("UPDATE_CERTSTORE: a newer CRL is available");
       updateCrlSuccessful = false;
 
-      X509CRL crl = X509Util.parseCrl(new File(crlFilename));
+      // the CRL is streamed from a DER-encoded file
+      File derCrlFile = fullCrlFile;
+      if (!CrlStreamParser.isDerEncoded(fullCrlFile)) {
+        derCrlFile = File.createTempFile("crl-", ".der");
+        CrlStreamParser.convertPemToDer(fullCrlFile, derCrlFile);
+        tmpDerCrlFile = derCrlFile;
+      }
+
+      CrlStreamParser crl = new CrlStreamParser(derCrlFile);
 
       File revFile = new File(crlFilename + ".revocation");
       CertRevocationInfo caRevInfo = null;
@@ -207,6 +216,9 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
       crlUpdated = true;
     } finally {
       updateMeFile.delete();
+      if (tmpDerCrlFile != null) {
+        tmpDerCrlFile.delete();
+      }
       crlUpdateInProcess.set(false);
       if (updateCrlSuccessful != null) {
         if (updateCrlSuccessful.booleanValue()) {
@@ -26,15 +26,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -101,6 +104,9 @@ public class DbCertStatusStore extends OcspStore {
     @Override
     public void run() {
       initIssuerStore();
+      if (statusIndexEnabled) {
+        updateStatusIndexes();
+      }
     }
 
   } // class StoreUpdateService
@@ -109,8 +115,35 @@ public class DbCertStatusStore extends OcspStore {
 
   private static final Logger LOG = LoggerFactory.getLogger(DbCertStatusStore.class);
 
+  private static final int STATUS_INDEX_PAGE_SIZE = 10000;
+
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
+  /**
+   * The entries changed since the maximal LUPDATE of the status index minus this overlap are
+   * read again, since an entry may be committed later than another one with larger LUPDATE
+   * (batches of the publisher, imported CRLs, several writers, clock skew).
+   */
+  private static final long STATUS_INDEX_OVERLAP_SECONDS = 300;
+
   private final AtomicBoolean storeUpdateInProcess = new AtomicBoolean(false);
 
+  private final AtomicBoolean statusIndexUpdateInProcess = new AtomicBoolean(false);
+
+  private final Map<Integer, CertStatusIndex> statusIndexes = new ConcurrentHashMap<>();
+
+  private boolean statusIndexEnabled;
+
+  private boolean statusIndexOffHeap;
+
+  private boolean statusIndexCertHash;
+
+  // whether the column ISSUER.DEL_GEN is available
+  private boolean deletionTracked;
+
+  // whether the column ISSUER.CERT stores the raw bytes instead of the Base64 encoded text
+  private boolean binaryIssuerCert;
+
   private String sqlCsNoRit;
 
   private String sqlCs;
@@ -121,7 +154,8 @@ public class DbCertStatusStore extends OcspStore {
 
   private IssuerFilter issuerFilter;
 
-  private IssuerStore issuerStore;
+  // replaced as a whole, read without synchronization by the request threads
+  private volatile IssuerStore issuerStore;
 
   private HashAlgo certHashAlgo;
 
@@ -141,6 +175,14 @@ public class DbCertStatusStore extends OcspStore {
     }
 
     storeUpdateInProcess.set(true);
+    try {
+      initIssuerStore0();
+    } finally {
+      storeUpdateInProcess.set(false);
+    }
+  } // method initIssuerStore
+
+  private void initIssuerStore0() {
     try {
       if (initialized) {
         final String sql = "SELECT ID,REV_INFO,S1C FROM ISSUER";
@@ -180,7 +222,7 @@ public class DbCertStatusStore extends OcspStore {
             for (Integer id : newIds) {
               IssuerEntry entry = issuerStore.getIssuerForId(id);
               SimpleIssuerEntry newEntry = newIssuers.get(id);
-              if (newEntry.match(entry)) {
+              if (!newEntry.match(entry)) {
                 issuersUnchanged = false;
                 break;
               }
@@ -208,7 +250,8 @@ public class DbCertStatusStore extends OcspStore {
             continue;
           }
 
-          X509Certificate cert = X509Util.parseCert(rs.getString("CERT").getBytes());
+          X509Certificate cert = X509Util.parseCert(
+              DataSourceWrapper.getBytes(rs, "CERT", binaryIssuerCert));
 
           IssuerEntry caInfoEntry = new IssuerEntry(rs.getInt("ID"), cert);
           String crlInfoStr = rs.getString("CRL_INFO");
@@ -237,18 +280,20 @@ public class DbCertStatusStore extends OcspStore {
         initialized = false;
         this.issuerStore = new IssuerStore(caInfos);
         LOG.info("Updated issuers: {}", name);
+        for (IssuerEntry issuer : caInfos) {
+          fireIssuerChanged(issuer);
+        }
         initializationFailed = false;
         initialized = true;
       } finally {
         releaseDbResources(ps, rs);
       }
     } catch (Throwable th) {
-      storeUpdateInProcess.set(false);
       LogUtil.error(LOG, th, "could not executing initIssuerStore()");
       initializationFailed = true;
       initialized = true;
     }
-  } // method initIssuerStore
+  } // method initIssuerStore0
 
   @Override
   public CertStatusInfo getCertStatus(Date time, RequestIssuer reqIssuer, BigInteger serialNumber,
@@ -258,184 +303,592 @@ public class DbCertStatusStore extends OcspStore {
       return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
     }
 
-    if (!initialized) {
-      throw new OcspStoreException("initialization of CertStore is still in process");
+    assertInitialized();
+
+    IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      return null;
     }
 
-    if (initializationFailed) {
-      throw new OcspStoreException("initialization of CertStore failed");
+    CertStatusIndex.Entry entry = null;
+    CertStatusIndex statusIndex = getStatusIndex(issuer, includeCertHash);
+    boolean indexed = statusIndex != null && CertStatusIndex.isIndexable(serialNumber);
+    if (indexed) {
+      entry = statusIndex.get(serialNumber);
+    }
+
+    if (entry == null) {
+      // certificates added since the last update of the status index are read from the
+      // database, and added to the index.
+      String sql;
+      if (indexed) {
+        sql = statusIndexCertHash ? sqlCsWithCertHash : sqlCs;
+      } else if (includeCertHash) {
+        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+      } else {
+        sql = includeRit ? sqlCs : sqlCsNoRit;
+      }
+
+      try {
+        ResultSet rs = null;
+        PreparedStatement ps = preparedStatement(sql);
+
+        try {
+          ps.setInt(1, issuer.getId());
+          ps.setString(2, serialNumber.toString(16));
+          rs = ps.executeQuery();
+          if (!rs.next()) {
+            entry = null;
+          } else if (indexed) {
+            entry = readCertStatus(rs, statusIndexCertHash, true);
+            statusIndex.putIfAbsent(serialNumber, entry);
+          } else {
+            entry = readCertStatus(rs, includeCertHash, includeRit);
+          }
+        } catch (SQLException ex) {
+          throw datasource.translate(sql, ex);
+        } finally {
+          releaseDbResources(ps, rs);
+        }
+      } catch (DataAccessException ex) {
+        throw new OcspStoreException(ex.getMessage(), ex);
+      }
+    }
+
+    return buildCertStatusInfo(time, issuer, entry, includeCertHash, includeRit,
+        inheritCaRevocation);
+  } // method getCertStatus
+
+  @Override
+  public List<CertStatusInfo> getCertStatuses(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    ParamUtil.requireNonNull("serialNumbers", serialNumbers);
+    assertInitialized();
+
+    IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      return null;
     }
 
-    String sql;
+    Map<BigInteger, CertStatusIndex.Entry> entries = new HashMap<>();
+    Set<BigInteger> serialsToQuery = new LinkedHashSet<>();
+    // indexable serial numbers missing in the index
+    Set<BigInteger> missedSerials = new LinkedHashSet<>();
+    CertStatusIndex statusIndex = getStatusIndex(issuer, includeCertHash);
+    for (BigInteger serialNumber : serialNumbers) {
+      if (serialNumber.signum() != 1) {
+        continue;
+      }
+
+      if (statusIndex != null && CertStatusIndex.isIndexable(serialNumber)) {
+        CertStatusIndex.Entry entry = statusIndex.get(serialNumber);
+        if (entry != null) {
+          entries.put(serialNumber, entry);
+        } else {
+          missedSerials.add(serialNumber);
+        }
+      } else {
+        serialsToQuery.add(serialNumber);
+      }
+    }
 
     try {
-      IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
-      if (issuer == null) {
-        return null;
+      if (!serialsToQuery.isEmpty()) {
+        queryCertStatuses(issuer, new ArrayList<>(serialsToQuery), includeCertHash, includeRit,
+            entries);
       }
 
-      if (includeCertHash) {
-        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+      if (!missedSerials.isEmpty()) {
+        // certificates added since the last update of the status index
+        Map<BigInteger, CertStatusIndex.Entry> missedEntries = new HashMap<>();
+        queryCertStatuses(issuer, new ArrayList<>(missedSerials), statusIndexCertHash, true,
+            missedEntries);
+        for (Map.Entry<BigInteger, CertStatusIndex.Entry> m : missedEntries.entrySet()) {
+          statusIndex.putIfAbsent(m.getKey(), m.getValue());
+        }
+        entries.putAll(missedEntries);
+      }
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+
+    List<CertStatusInfo> statuses = new ArrayList<>(serialNumbers.size());
+    for (BigInteger serialNumber : serialNumbers) {
+      if (serialNumber.signum() != 1) { // non-positive serial number
+        statuses.add(CertStatusInfo.getUnknownCertStatusInfo(new Date(), null));
       } else {
-        sql = includeRit ? sqlCs : sqlCsNoRit;
+        statuses.add(buildCertStatusInfo(time, issuer, entries.get(serialNumber),
+            includeCertHash, includeRit, inheritCaRevocation));
       }
+    }
+    return statuses;
+  } // method getCertStatuses
+
+  /**
+   * Retrieves the status of the given certificates with queries
+   * {@code SN IN (...)} of at most {@link #MAX_SERIALS_PER_QUERY} serial numbers.
+   */
+  private void queryCertStatuses(IssuerEntry issuer, List<BigInteger> serialNumbers,
+      boolean includeCertHash, boolean includeRit,
+      Map<BigInteger, CertStatusIndex.Entry> entries) throws DataAccessException {
+    String columns = "SN,NBEFORE,NAFTER,REV,RR,RT";
+    if (includeRit) {
+      columns += ",RIT";
+    }
+    if (includeCertHash) {
+      columns += ",HASH";
+    }
 
-      CrlInfo crlInfo = issuer.getCrlInfo();
+    final int size = serialNumbers.size();
+    for (int offset = 0; offset < size; offset += MAX_SERIALS_PER_QUERY) {
+      int num = Math.min(MAX_SERIALS_PER_QUERY, size - offset);
 
-      Date thisUpdate;
-      Date nextUpdate = null;
+      StringBuilder sb = new StringBuilder(100 + 2 * num);
+      sb.append("SELECT ").append(columns).append(" FROM CERT WHERE IID=? AND SN IN (?");
+      for (int i = 1; i < num; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      final String sql = sb.toString();
 
-      if (crlInfo != null && crlInfo.isUseCrlUpdates()) {
-        thisUpdate = crlInfo.getThisUpdate();
+      PreparedStatement ps = preparedStatement(sql);
+      ResultSet rs = null;
+      try {
+        int idx = 1;
+        ps.setInt(idx++, issuer.getId());
+        for (int i = 0; i < num; i++) {
+          ps.setString(idx++, serialNumbers.get(offset + i).toString(16));
+        }
 
-        // this.nextUpdate is still in the future (10 seconds buffer)
-        if (crlInfo.getNextUpdate().getTime() - System.currentTimeMillis() > 10 * 1000) {
-          nextUpdate = crlInfo.getNextUpdate();
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+          entries.put(serialNumber, readCertStatus(rs, includeCertHash, includeRit));
         }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseDbResources(ps, rs);
+      }
+    }
+  } // method queryCertStatuses
+
+  private CertStatusIndex getStatusIndex(IssuerEntry issuer, boolean includeCertHash) {
+    CertStatusIndex statusIndex = statusIndexes.get(issuer.getId());
+    return (statusIndex == null || (includeCertHash && !statusIndex.containsCertHash()))
+        ? null : statusIndex;
+  }
+
+  private static CertStatusIndex.Entry readCertStatus(ResultSet rs, boolean includeCertHash,
+      boolean includeRit) throws SQLException {
+    byte[] certHash = null;
+    if (includeCertHash) {
+      String b64CertHash = rs.getString("HASH");
+      certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
+    }
+
+    return new CertStatusIndex.Entry(rs.getLong("NBEFORE"), rs.getLong("NAFTER"),
+        rs.getBoolean("REV"), rs.getInt("RR"), rs.getLong("RT"),
+        includeRit ? rs.getLong("RIT") : 0, certHash);
+  }
+
+  private CertStatusInfo buildCertStatusInfo(Date time, IssuerEntry issuer,
+      CertStatusIndex.Entry entry, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) {
+    CrlInfo crlInfo = issuer.getCrlInfo();
+
+    Date thisUpdate;
+    Date nextUpdate = null;
+
+    if (crlInfo != null && crlInfo.isUseCrlUpdates()) {
+      thisUpdate = crlInfo.getThisUpdate();
+
+      // this.nextUpdate is still in the future (10 seconds buffer)
+      if (crlInfo.getNextUpdate().getTime() - System.currentTimeMillis() > 10 * 1000) {
+        nextUpdate = crlInfo.getNextUpdate();
+      }
+    } else {
+      thisUpdate = new Date();
+    }
+
+    CertStatusInfo certStatusInfo = null;
+
+    boolean ignore = false;
+    String certprofile = null;
+
+    if (entry != null) {
+      long timeInSec = time.getTime() / 1000;
+      if (ignoreNotYetValidCert) {
+        long notBeforeInSec = entry.getNotBefore();
+        if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+          ignore = true;
+        }
+      }
+
+      if (!ignore && ignoreExpiredCert) {
+        long notAfterInSec = entry.getNotAfter();
+        if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+          ignore = true;
+        }
+      }
+    }
+
+    if (entry == null) {
+      if (unknownSerialAsGood) {
+        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo, null,
+            thisUpdate, nextUpdate, null);
       } else {
-        thisUpdate = new Date();
+        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
       }
+    } else {
+      if (ignore) {
+        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+      } else {
+        byte[] certHash = includeCertHash ? entry.getCertHash() : null;
+        if (entry.isRevoked()) {
+          long revTime = entry.getRevTime();
+          long invalTime = includeRit ? entry.getInvalidityTime() : 0;
+          Date invTime = (invalTime == 0 || invalTime == revTime)
+              ? null : new Date(invalTime * 1000);
+          CertRevocationInfo revInfo = new CertRevocationInfo(entry.getReason(),
+              new Date(revTime * 1000), invTime);
+          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+              certHashAlgo, certHash, thisUpdate, nextUpdate, certprofile);
+        } else {
+          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+              certHash, thisUpdate, nextUpdate, certprofile);
+        }
+      }
+    }
 
-      ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
+    if (includeCrlId && crlInfo != null) {
+      certStatusInfo.setCrlId(crlInfo.getCrlId());
+    }
 
-      boolean unknown = true;
-      boolean ignore = false;
-      String certprofile = null;
-      String b64CertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-      long invalTime = 0;
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuer.getNotBefore();
+        } else {
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
+        }
 
-      PreparedStatement ps = datasource.prepareStatement(datasource.getConnection(), sql);
+        certStatusInfo.setArchiveCutOff(date);
+      }
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
+      return certStatusInfo;
+    }
+
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD || certStatus == CertStatus.UNKNOWN) {
+      replaced = true;
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
 
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method buildCertStatusInfo
+
+  private void assertInitialized() throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    if (initializationFailed) {
+      throw new OcspStoreException("initialization of CertStore failed");
+    }
+  }
+
+  @Override
+  public List<IssuerEntry> getIssuers() {
+    return (issuerStore == null) ? Collections.<IssuerEntry>emptyList() : issuerStore.getIssuers();
+  }
+
+  @Override
+  public boolean supportsSerialNumbersListing() {
+    return true;
+  }
+
+  @Override
+  public long getSerialNumbers(IssuerEntry issuer, long cursor, int numEntries,
+      List<BigInteger> serialNumbers) throws OcspStoreException {
+    ParamUtil.requireNonNull("issuer", issuer);
+    ParamUtil.requireMin("numEntries", numEntries, 1);
+    ParamUtil.requireNonNull("serialNumbers", serialNumbers);
+
+    final String sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
+        "ID,SN,NAFTER FROM CERT WHERE IID=? AND ID>?");
+    long nowInSec = System.currentTimeMillis() / 1000;
+
+    try {
+      PreparedStatement ps = preparedStatement(sql);
+      ResultSet rs = null;
       try {
         ps.setInt(1, issuer.getId());
-        ps.setString(2, serialNumber.toString(16));
+        ps.setLong(2, cursor);
         rs = ps.executeQuery();
 
-        if (rs.next()) {
-          unknown = false;
-
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore && ignoreExpiredCert) {
+        int num = 0;
+        long nextCursor = cursor;
+        while (rs.next()) {
+          num++;
+          nextCursor = rs.getLong("ID");
+          if (ignoreExpiredCert) {
             long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
+            if (notAfterInSec != 0 && nowInSec > notAfterInSec) {
+              continue;
             }
           }
+          serialNumbers.add(new BigInteger(rs.getString("SN"), 16));
+        }
 
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("HASH");
-            }
-
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
-            }
-          }
-        } // end if (rs.next())
+        return (num < numEntries) ? -1 : nextCursor;
       } catch (SQLException ex) {
         throw datasource.translate(sql, ex);
       } finally {
         releaseDbResources(ps, rs);
       }
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  }
 
-      if (unknown) {
-        if (unknownSerialAsGood) {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo, null,
-              thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-        }
-      } else {
-        if (ignore) {
-          certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-        } else {
-          byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
-          if (revoked) {
-            Date invTime = (invalTime == 0 || invalTime == revTime)
-                ? null : new Date(invalTime * 1000);
-            CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-                new Date(revTime * 1000), invTime);
-            certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-                certHashAlgo, certHash, thisUpdate, nextUpdate, certprofile);
-          } else {
-            certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-                certHash, thisUpdate, nextUpdate, certprofile);
-          }
+  /**
+   * Updates the status indexes of all issuers.
+   * @return whether the indexes have been updated, {@code false} if another update is in
+   *         process.
+   */
+  public boolean updateStatusIndexes() {
+    if (!statusIndexUpdateInProcess.compareAndSet(false, true)) {
+      return false;
+    }
+
+    try {
+      // read before the indexes are loaded, removals during the load are detected next time
+      Map<Integer, Long> deletionGenerations = null;
+      if (deletionTracked) {
+        try {
+          deletionGenerations = getDeletionGenerations();
+        } catch (DataAccessException ex) {
+          LogUtil.error(LOG, ex, "could not update the status indexes");
+          return true;
         }
       }
 
-      if (includeCrlId && crlInfo != null) {
-        certStatusInfo.setCrlId(crlInfo.getCrlId());
-      }
+      Set<Integer> issuerIds = new HashSet<>();
+      for (IssuerEntry issuer : getIssuers()) {
+        int issuerId = issuer.getId();
+        issuerIds.add(issuerId);
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
+        Long deletionGeneration = (deletionGenerations == null)
+            ? null : deletionGenerations.get(issuerId);
+        try {
+          CertStatusIndex index = statusIndexes.get(issuerId);
+          if (index != null) {
+            int num = updateStatusIndex(issuer, index,
+                index.getLastUpdate() - STATUS_INDEX_OVERLAP_SECONDS, true);
+            boolean certsRemoved;
+            if (deletionGenerations == null) {
+              // database schema without ISSUER.DEL_GEN, only removals without additions
+              // can be detected.
+              certsRemoved = index.size() > countCerts(issuerId);
+            } else {
+              certsRemoved = deletionGeneration != null
+                  && deletionGeneration != index.getDeletionGeneration();
+            }
+
+            if (!certsRemoved) {
+              LOG.debug("store {}: updated {} entries in the status index of issuer {}",
+                  name, num, issuerId);
+              continue;
+            }
+
+            // certificates have been removed, this cannot be applied incrementally.
+            LOG.info("store {}: certificates of issuer {} have been removed, reload the "
+                + "status index", name, issuerId);
+          }
+
+          long start = System.currentTimeMillis();
+          index = loadStatusIndex(issuer);
+          if (deletionGeneration != null) {
+            index.setDeletionGeneration(deletionGeneration);
           }
+          statusIndexes.put(issuerId, index);
+          LOG.info("store {}: loaded status index of issuer {} with {} entries, took {} ms",
+              name, issuerId, index.size(), System.currentTimeMillis() - start);
+          fireIssuerChanged(issuer);
+        } catch (Throwable th) {
+          // answer the requests from the database till the next successful load
+          statusIndexes.remove(issuerId);
+          LogUtil.error(LOG, th, "could not update the status index of issuer " + issuerId);
+          // the changes are not tracked till the next successful load
+          fireIssuerChanged(issuer);
+        }
+      }
 
-          certStatusInfo.setArchiveCutOff(date);
+      statusIndexes.keySet().retainAll(issuerIds);
+      return true;
+    } finally {
+      statusIndexUpdateInProcess.set(false);
+    }
+  } // method updateStatusIndexes
+
+  private CertStatusIndex loadStatusIndex(IssuerEntry issuer) throws DataAccessException {
+    int issuerId = issuer.getId();
+    long startInSec = System.currentTimeMillis() / 1000;
+    int hashLen = statusIndexCertHash ? certHashAlgo.getLength() : 0;
+    CertStatusIndex index = new CertStatusIndex(countCerts(issuerId), hashLen,
+        statusIndexOffHeap);
+
+    final String sql = datasource.buildSelectFirstSql(STATUS_INDEX_PAGE_SIZE, "ID ASC",
+        "ID," + statusIndexColumns() + " FROM CERT WHERE IID=? AND ID>?");
+    long cursor = 0;
+    while (true) {
+      PreparedStatement ps = preparedStatement(sql);
+      ResultSet rs = null;
+      int num = 0;
+      try {
+        ps.setInt(1, issuerId);
+        ps.setLong(2, cursor);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          num++;
+          cursor = rs.getLong("ID");
+          addToStatusIndex(issuer, index, rs, false);
         }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseDbResources(ps, rs);
       }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+      if (num < STATUS_INDEX_PAGE_SIZE) {
+        break;
       }
+    }
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD || certStatus == CertStatus.UNKNOWN) {
-        replaced = true;
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
-        }
+    // catch the entries updated during the load
+    updateStatusIndex(issuer, index, startInSec - STATUS_INDEX_OVERLAP_SECONDS, false);
+    return index;
+  } // method loadStatusIndex
+
+  /**
+   * Updates the index with the entries changed since the given time.
+   * @return number of the read entries.
+   */
+  private int updateStatusIndex(IssuerEntry issuer, CertStatusIndex index, long sinceInSec,
+      boolean notifyChanges) throws DataAccessException {
+    // LUPDATE has the precision of seconds, hence >= instead of >
+    final String sql = "SELECT " + statusIndexColumns() + " FROM CERT WHERE IID=? AND LUPDATE>=?";
+    PreparedStatement ps = preparedStatement(sql);
+    ResultSet rs = null;
+    int num = 0;
+    try {
+      ps.setInt(1, issuer.getId());
+      ps.setLong(2, sinceInSec);
+      rs = ps.executeQuery();
+      while (rs.next()) {
+        num++;
+        addToStatusIndex(issuer, index, rs, notifyChanges);
       }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+    return num;
+  }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
-        } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
-        }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+  private void addToStatusIndex(IssuerEntry issuer, CertStatusIndex index, ResultSet rs,
+      boolean notifyChanges) throws SQLException {
+    BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+    if (!CertStatusIndex.isIndexable(serialNumber)) {
+      // will be answered from the database
+      return;
+    }
+
+    byte[] certHash = null;
+    if (statusIndexCertHash) {
+      String b64CertHash = rs.getString("HASH");
+      certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
+    }
+
+    CertStatusIndex.Entry entry = new CertStatusIndex.Entry(rs.getLong("NBEFORE"),
+        rs.getLong("NAFTER"), rs.getBoolean("REV"), rs.getInt("RR"), rs.getLong("RT"),
+        rs.getLong("RIT"), certHash);
+
+    // entries changed in the same second are read again in the next update
+    boolean changed = notifyChanges && hasCertStatusListener()
+        && !entry.equals(index.get(serialNumber));
+    index.put(serialNumber, entry, rs.getLong("LUPDATE"));
+    if (changed) {
+      fireCertStatusChanged(issuer, serialNumber);
+    }
+  }
+
+  private String statusIndexColumns() {
+    return statusIndexCertHash ? "SN,LUPDATE,NBEFORE,NAFTER,REV,RR,RT,RIT,HASH"
+        : "SN,LUPDATE,NBEFORE,NAFTER,REV,RR,RT,RIT";
+  }
+
+  private Map<Integer, Long> getDeletionGenerations() throws DataAccessException {
+    final String sql = "SELECT ID,DEL_GEN FROM ISSUER";
+    PreparedStatement ps = preparedStatement(sql);
+    ResultSet rs = null;
+    try {
+      rs = ps.executeQuery();
+      Map<Integer, Long> generations = new HashMap<>();
+      while (rs.next()) {
+        generations.put(rs.getInt("ID"), rs.getLong("DEL_GEN"));
       }
-      return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
+      return generations;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
     }
+  }
 
-  } // method getCertStatus
+  private int countCerts(int issuerId) throws DataAccessException {
+    final String sql = "SELECT COUNT(*) FROM CERT WHERE IID=?";
+    PreparedStatement ps = preparedStatement(sql);
+    ResultSet rs = null;
+    try {
+      ps.setInt(1, issuerId);
+      rs = ps.executeQuery();
+      return rs.next() ? rs.getInt(1) : 0;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  }
 
   /**
    * Borrow Prepared Statement.
@@ -499,7 +952,31 @@ public class DbCertStatusStore extends OcspStore {
           "Could not retrieve the certhash's algorithm from the database", ex);
     }
 
+    try {
+      this.binaryIssuerCert = datasource.isBinaryColumn(null, "ISSUER", "CERT");
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+
     DbStoreConf storeConf = new DbStoreConf(conf);
+    this.statusIndexEnabled = storeConf.isStatusIndexEnabled();
+    this.statusIndexOffHeap = storeConf.isStatusIndexOffHeap();
+    this.statusIndexCertHash = storeConf.isStatusIndexCertHash();
+    this.statusIndexes.clear();
+
+    if (statusIndexEnabled) {
+      try {
+        this.deletionTracked = datasource.tableHasColumn(null, "ISSUER", "DEL_GEN");
+      } catch (DataAccessException ex) {
+        throw new OcspStoreException(ex.getMessage(), ex);
+      }
+
+      if (!deletionTracked) {
+        LOG.warn("store {}: column ISSUER.DEL_GEN is not available, certificates removed "
+            + "together with the addition of new ones will not be detected by the status "
+            + "index", name);
+      }
+    }
 
     try {
       Set<X509Certificate> includeIssuers = null;
@@ -540,6 +1017,11 @@ public class DbCertStatusStore extends OcspStore {
             60 + random.nextInt(60), 60, TimeUnit.SECONDS);
       }
     }
+
+    if (statusIndexEnabled) {
+      // load the status index in background, till then the database is used
+      this.scheduledThreadPoolExecutor.execute(storeUpdateService);
+    }
   }
 
   @Override
@@ -549,11 +1031,22 @@ public class DbCertStatusStore extends OcspStore {
       scheduledThreadPoolExecutor = null;
     }
 
+    statusIndexes.clear();
+
     if (datasource != null) {
       datasource.close();
     }
   }
 
+  /**
+   * The changes are notified only if the status index is enabled. They are detected by the
+   * periodic update of the status index.
+   */
+  @Override
+  public boolean supportsCertStatusListener() {
+    return statusIndexEnabled;
+  }
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return null != issuerStore.getIssuerForFp(reqIssuer);
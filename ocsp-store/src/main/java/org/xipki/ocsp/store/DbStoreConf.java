@@ -38,10 +38,22 @@ class DbStoreConf {
 
   private static final String KEY_cacerts_excludes = "cacerts.excludes";
 
+  private static final String KEY_statusIndex_enabled = "statusIndex.enabled";
+
+  private static final String KEY_statusIndex_offHeap = "statusIndex.offHeap";
+
+  private static final String KEY_statusIndex_certHash = "statusIndex.certHash";
+
   private final Set<String> caCertsIncludes = new HashSet<>();
 
   private final Set<String> caCertsExcludes = new HashSet<>();
 
+  private final boolean statusIndexEnabled;
+
+  private final boolean statusIndexOffHeap;
+
+  private final boolean statusIndexCertHash;
+
   DbStoreConf(String propsConf) throws OcspStoreException {
     Properties props = new Properties();
     try {
@@ -65,6 +77,10 @@ class DbStoreConf {
         caCertsExcludes.add(st.nextToken());
       }
     }
+
+    statusIndexEnabled = Boolean.parseBoolean(props.getProperty(KEY_statusIndex_enabled));
+    statusIndexOffHeap = Boolean.parseBoolean(props.getProperty(KEY_statusIndex_offHeap));
+    statusIndexCertHash = Boolean.parseBoolean(props.getProperty(KEY_statusIndex_certHash));
   }
 
   Set<String> getCaCertsIncludes() {
@@ -75,4 +91,16 @@ class DbStoreConf {
     return caCertsExcludes;
   }
 
+  boolean isStatusIndexEnabled() {
+    return statusIndexEnabled;
+  }
+
+  boolean isStatusIndexOffHeap() {
+    return statusIndexOffHeap;
+  }
+
+  boolean isStatusIndexCertHash() {
+    return statusIndexCertHash;
+  }
+
 }
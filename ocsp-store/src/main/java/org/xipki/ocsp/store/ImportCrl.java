@@ -15,20 +15,14 @@
  * limitations under the License.
  */
 
+
 package org.xipki.ocsp.store;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SignatureException;
-import java.security.cert.CRLException;
 import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -36,25 +30,24 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
-import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Date;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
-
-import javax.security.auth.x500.X500Principal;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ASN1Set;
 import org.bouncycastle.asn1.ASN1TaggedObject;
 import org.bouncycastle.asn1.DERGeneralizedTime;
 import org.bouncycastle.asn1.DERIA5String;
-import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.asn1.DERSet;
 import org.bouncycastle.asn1.DERTaggedObject;
@@ -63,40 +56,117 @@ import org.bouncycastle.asn1.ocsp.CrlID;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Certificate;
 import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
 import org.bouncycastle.asn1.x509.TBSCertificate;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.datasource.DatabaseType;
 import org.xipki.ocsp.api.CrlInfo;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.CrlReason;
+import org.xipki.security.CrlStreamParser;
+import org.xipki.security.CrlStreamParser.RevokedCert;
+import org.xipki.security.CrlStreamParser.RevokedCertsIterator;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.ObjectIdentifiers;
 import org.xipki.security.util.X509Util;
-import org.xipki.util.Base64;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.ParamUtil;
 import org.xipki.util.StringUtil;
 
 /**
- * TODO.
+ * Imports a CRL into the OCSP database.
+ *
+ * <p>The revoked certificates are streamed from the CRL file and processed in chunks. For each
+ * chunk the existing entries are read with one query per {@link #MAX_SERIALS_PER_QUERY} serial
+ * numbers, only new and changed entries are written, in JDBC batches and one transaction per
+ * chunk. After a full CRL, the existing entries of the CA which are not contained in the CRL
+ * are removed. The memory usage does not depend on the number of revoked certificates.
+ *
  * @author Lijun Liao
  * @since 2.2.0
  */
 
 public class ImportCrl {
 
+  /**
+   * Entry of the table CERT.
+   */
+  private static class CertRow {
+
+    private final long id;
+
+    private final boolean revoked;
+
+    private final int reason;
+
+    private final long revTime;
+
+    private final long invalidityTime;
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    private final String hash;
+
+    CertRow(ResultSet rs) throws SQLException {
+      this.id = rs.getLong("ID");
+      this.revoked = rs.getBoolean("REV");
+      this.reason = rs.getInt("RR");
+      this.revTime = rs.getLong("RT");
+      this.invalidityTime = rs.getLong("RIT");
+      this.notBefore = rs.getLong("NBEFORE");
+      this.notAfter = rs.getLong("NAFTER");
+      this.hash = rs.getString("HASH");
+    }
+
+  } // class CertRow
+
+  /**
+   * Certificate to be imported.
+   */
+  private static class CertToImport {
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    private final String hash;
+
+    private final String logId;
+
+    CertToImport(long notBefore, long notAfter, String hash, String logId) {
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+      this.hash = hash;
+      this.logId = logId;
+    }
+
+  } // class CertToImport
+
   private static final Logger LOG = LoggerFactory.getLogger(ImportCrl.class);
 
+  private static final int NUM_ENTRIES_PER_CHUNK = 1000;
+
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
+  // maximal number of bits of the BitSet of the processed entries (16 MB)
+  private static final long MAX_PROCESSED_IDS = 1L << 27;
+
   private static final String SQL_UPDATE_CERT_REV
       = "UPDATE CERT SET REV=?,RR=?,RT=?,RIT=?,LUPDATE=? WHERE ID=?";
 
   private static final String SQL_INSERT_CERT_REV
       = "INSERT INTO CERT (ID,IID,SN,REV,RR,RT,RIT,LUPDATE) VALUES(?,?,?,?,?,?,?,?)";
 
-  private static final String SQL_DELETE_CERT = "DELETE FROM CERT WHERE IID=? AND SN=?";
+  private static final String SQL_DELETE_CERT = "DELETE FROM CERT WHERE ID=?";
 
   private static final String SQL_UPDATE_CERT
       = "UPDATE CERT SET LUPDATE=?,NBEFORE=?,NAFTER=?,HASH=? WHERE ID=?";
@@ -105,11 +175,21 @@ public class ImportCrl {
       = "INSERT INTO CERT (ID,IID,SN,REV,RR,RT,RIT,LUPDATE,NBEFORE,NAFTER,HASH) "
         + "VALUES(?,?,?,?,?,?,?,?,?,?,?)";
 
-  private static final String CORE_SQL_SELECT_ID_CERT = "ID FROM CERT WHERE IID=? AND SN=?";
+  private static final String SQL_SELECT_CERT
+      = "SELECT ID,SN,REV,RR,RT,RIT,NBEFORE,NAFTER,HASH FROM CERT WHERE IID=? AND SN=?";
+
+  private static final String SQL_TOUCH_CERT = "UPDATE CERT SET LUPDATE=? WHERE ID=?";
+
+  private static final String SQL_SELECT_ID_CERT_RANGE
+      = "SELECT ID FROM CERT WHERE ID>=? AND ID<? AND IID=?";
+
+  private static final String SQL_DELETE_CERT_NOT_UPDATED
+      = "DELETE FROM CERT WHERE IID=? AND LUPDATE<?";
 
-  private final String sqlSelectIdCert;
+  private static final String SQL_INCREMENT_DEL_GEN
+      = "UPDATE ISSUER SET DEL_GEN=DEL_GEN+1 WHERE ID=?";
 
-  private final X509CRL crl;
+  private final CrlStreamParser crl;
 
   private final X509Certificate caCert;
 
@@ -128,8 +208,6 @@ public class ImportCrl {
 
   private final X500Name caSubject;
 
-  private final X500Principal x500PrincipalCaSubject;
-
   private final byte[] caSpki;
 
   private final String certsDirName;
@@ -138,23 +216,48 @@ public class ImportCrl {
 
   private final HashAlgo certhashAlgo;
 
+  // H2 does not use the index (IID, SN) for the condition SN IN (...)
+  private final boolean inArraySelectSupported;
+
+  // whether the column ISSUER.CERT stores the raw bytes instead of the Base64 encoded text
+  private final boolean binaryIssuerCert;
+
+  private Connection conn;
+
   private PreparedStatement psDeleteCert;
   private PreparedStatement psInsertCert;
   private PreparedStatement psInsertCertRev;
-  private PreparedStatement psSelectIdCert;
+  private PreparedStatement psSelectCert;
+  private PreparedStatement psTouchCert;
   private PreparedStatement psUpdateCert;
   private PreparedStatement psUpdateCertRev;
 
-  public ImportCrl(DataSourceWrapper datasource, boolean useCrlUpdates, X509CRL crl, String crlUrl,
-      X509Certificate caCert, X509Certificate issuerCert, CertRevocationInfo caRevInfo,
-      String certsDirName) throws ImportCrlException, DataAccessException {
+  private long maxId;
+
+  // the entries with ID in [minExistingId, maxExistingId] existed before the import.
+  private long minExistingId;
+
+  private long maxExistingId;
+
+  // IDs (minus minExistingId) of the existing entries contained in the CRL, null if the range
+  // of the IDs is too large. In the latter case LUPDATE of the unchanged entries is updated.
+  private BitSet processedIds;
+
+  // number of the removed entries, the status indexes of the OCSP responders must be reloaded
+  private int numDeletedCerts;
+
+  public ImportCrl(DataSourceWrapper datasource, boolean useCrlUpdates, CrlStreamParser crl,
+      String crlUrl, X509Certificate caCert, X509Certificate issuerCert,
+      CertRevocationInfo caRevInfo, String certsDirName)
+      throws ImportCrlException, DataAccessException {
     this.datasource = ParamUtil.requireNonNull("datasource", datasource);
     this.certhashAlgo = DbCertStatusStore.getCertHashAlgo(datasource);
+    this.inArraySelectSupported = datasource.getDatabaseType() != DatabaseType.H2;
+    this.binaryIssuerCert = datasource.isBinaryColumn(null, "ISSUER", "CERT");
     this.useCrlUpdates = useCrlUpdates;
     this.crl = ParamUtil.requireNonNull("crl", crl);
     this.caCert = ParamUtil.requireNonNull("caCert", caCert);
-    this.x500PrincipalCaSubject = caCert.getSubjectX500Principal();
-    this.caSubject = X500Name.getInstance(x500PrincipalCaSubject.getEncoded());
+    this.caSubject = X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded());
     try {
       this.caSpki = X509Util.extractSki(caCert);
     } catch (CertificateEncodingException ex) {
@@ -164,46 +267,48 @@ public class ImportCrl {
     this.certsDirName = certsDirName;
     this.caRevInfo = caRevInfo;
 
-    X500Principal issuer = crl.getIssuerX500Principal();
+    X500Name issuer = crl.getIssuer();
 
     boolean caAsCrlIssuer = true;
-    if (!x500PrincipalCaSubject.equals(issuer)) {
+    if (!caSubject.equals(issuer)) {
       caAsCrlIssuer = false;
       if (issuerCert == null) {
         throw new IllegalArgumentException("issuerCert must not be null");
       }
 
-      if (!issuerCert.getSubjectX500Principal().equals(issuer)) {
+      X500Name issuerCertSubject =
+          X500Name.getInstance(issuerCert.getSubjectX500Principal().getEncoded());
+      if (!issuerCertSubject.equals(issuer)) {
         throw new IllegalArgumentException("issuerCert and CRL do not match");
       }
     }
 
     // Verify the signature
     X509Certificate crlSignerCert = caAsCrlIssuer ? caCert : issuerCert;
+    boolean signatureValid;
     try {
-      crl.verify(crlSignerCert.getPublicKey());
-    } catch (SignatureException | NoSuchProviderException | InvalidKeyException | CRLException
-        | NoSuchAlgorithmException ex) {
+      ContentVerifierProvider verifierProvider =
+          new JcaContentVerifierProviderBuilder().build(crlSignerCert.getPublicKey());
+      signatureValid = crl.verifySignature(verifierProvider);
+    } catch (OperatorCreationException | IOException ex) {
       throw new ImportCrlException("could not verify signature of CRL", ex);
     }
 
-    byte[] octetString = crl.getExtensionValue(Extension.cRLNumber.getId());
-    if (octetString == null) {
+    if (!signatureValid) {
+      throw new ImportCrlException("invalid signature of CRL");
+    }
+
+    this.crlNumber = crl.getCrlNumber();
+    if (crlNumber == null) {
       throw new IllegalArgumentException("CRL without CRLNumber is not supported");
     }
-    ASN1Integer asn1CrlNumber
-        = ASN1Integer.getInstance(DEROctetString.getInstance(octetString).getOctets());
-    this.crlNumber = asn1CrlNumber.getPositiveValue();
 
-    octetString = crl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-    this.isDeltaCrl = (octetString != null);
+    this.baseCrlNumber = crl.getBaseCrlNumber();
+    this.isDeltaCrl = (baseCrlNumber != null);
     if (this.isDeltaCrl) {
       LOG.info("The CRL a DeltaCRL");
-      byte[] extnValue = DEROctetString.getInstance(octetString).getOctets();
-      this.baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
     } else {
       LOG.info("The CRL a full CRL");
-      this.baseCrlNumber = null;
     }
 
     // Construct CrlID
@@ -212,17 +317,17 @@ public class ImportCrl {
       vec.add(new DERTaggedObject(true, 0, new DERIA5String(crlUrl, true)));
     }
 
-    vec.add(new DERTaggedObject(true, 1, asn1CrlNumber));
+    vec.add(new DERTaggedObject(true, 1, new ASN1Integer(crlNumber)));
     vec.add(new DERTaggedObject(true, 2, new DERGeneralizedTime(crl.getThisUpdate())));
     this.crlId = CrlID.getInstance(new DERSequence(vec));
-
-    this.sqlSelectIdCert = datasource.buildSelectFirstSql(1, CORE_SQL_SELECT_ID_CERT);
   }
 
   public boolean importCrlToOcspDb() {
-    Connection conn = null;
+    Boolean autoCommit = null;
     try {
       conn = datasource.getConnection();
+      // checked before the transaction is started, a failed statement may abort it
+      boolean deletionTracked = datasource.tableHasColumn(conn, "ISSUER", "DEL_GEN");
 
       // CHECKSTYLE:SKIP
       Date startTime = new Date();
@@ -232,30 +337,57 @@ public class ImportCrl {
       psDeleteCert = datasource.prepareStatement(conn, SQL_DELETE_CERT);
       psInsertCert = datasource.prepareStatement(conn, SQL_INSERT_CERT);
       psInsertCertRev = datasource.prepareStatement(conn, SQL_INSERT_CERT_REV);
-      psSelectIdCert = datasource.prepareStatement(conn, sqlSelectIdCert);
+      psSelectCert = datasource.prepareStatement(conn, SQL_SELECT_CERT);
+      psTouchCert = datasource.prepareStatement(conn, SQL_TOUCH_CERT);
       psUpdateCert = datasource.prepareStatement(conn, SQL_UPDATE_CERT);
       psUpdateCertRev = datasource.prepareStatement(conn, SQL_UPDATE_CERT_REV);
 
-      importEntries(conn, caId);
-      deleteEntriesNotUpdatedSince(conn, startTime);
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      importEntries(caId);
+      if (!isDeltaCrl) {
+        deleteEntriesNotInCrl(caId, startTime);
+      }
+
+      if (numDeletedCerts > 0 && deletionTracked) {
+        markCertsDeleted(caId);
+      }
 
       return true;
     } catch (Throwable th) {
       LogUtil.error(LOG, th, "could not import CRL to OCSP database");
+      if (autoCommit != null) {
+        try {
+          conn.rollback();
+        } catch (SQLException ex) {
+          LogUtil.error(LOG, datasource.translate(null, ex), "could not rollback");
+        }
+      }
+    } finally {
       releaseResources(psDeleteCert, null);
       releaseResources(psInsertCert, null);
       releaseResources(psInsertCertRev, null);
-      releaseResources(psSelectIdCert, null);
+      releaseResources(psSelectCert, null);
+      releaseResources(psTouchCert, null);
       releaseResources(psUpdateCert, null);
       releaseResources(psUpdateCertRev, null);
 
       if (conn != null) {
+        if (autoCommit != null) {
+          try {
+            conn.setAutoCommit(autoCommit);
+          } catch (SQLException ex) {
+            LogUtil.error(LOG, datasource.translate(null, ex), "could not end the transaction");
+          }
+        }
         datasource.returnConnection(conn);
+        conn = null;
       }
     }
 
     return false;
-  }
+  } // method importCrlToOcspDb
 
   private int importCa(Connection conn)
       throws DataAccessException, ImportCrlException {
@@ -347,7 +479,7 @@ public class ImportCrl {
         ps.setLong(offset++, caCert.getNotBefore().getTime() / 1000);
         ps.setLong(offset++, caCert.getNotAfter().getTime() / 1000);
         ps.setString(offset++, fpCaCert);
-        ps.setString(offset++, Base64.encodeToString(encodedCaCert));
+        DataSourceWrapper.setBytes(ps, offset++, encodedCaCert, binaryIssuerCert);
       } else {
         sql = "UPDATE ISSUER SET REV_INFO=?,CRL_INFO=? WHERE ID=?";
         ps = datasource.prepareStatement(conn, sql);
@@ -375,102 +507,74 @@ public class ImportCrl {
     }
   }
 
-  private void importEntries(Connection conn, int caId)
-      throws DataAccessException, ImportCrlException {
-
-    AtomicLong maxId = new AtomicLong(datasource.getMax(conn, "CERT", "ID"));
+  private void importEntries(int caId) throws DataAccessException, ImportCrlException {
+    maxId = datasource.getMax(conn, "CERT", "ID");
+
+    String condition = "IID=" + caId;
+    minExistingId = datasource.getMin(conn, "CERT", "ID", condition);
+    maxExistingId = datasource.getMax(conn, "CERT", "ID", condition);
+    long numIds = maxExistingId - minExistingId + 1;
+    if (maxExistingId == 0) {
+      processedIds = new BitSet(0);
+    } else if (numIds <= MAX_PROCESSED_IDS) {
+      processedIds = new BitSet((int) numIds);
+    } else {
+      LOG.info("too many IDs in the table CERT, update LUPDATE of the unchanged entries");
+      processedIds = null;
+    }
 
     // import the revoked information
-    Set<? extends X509CRLEntry> revokedCertList = crl.getRevokedCertificates();
-    if (revokedCertList != null) {
-      for (X509CRLEntry c : revokedCertList) {
-        X500Principal issuer = c.getCertificateIssuer();
-        BigInteger serial = c.getSerialNumber();
-
-        if (issuer != null) {
-          if (!x500PrincipalCaSubject.equals(issuer)) {
-            throw new ImportCrlException("invalid CRLEntry for certificate number " + serial);
-          }
-        }
-
-        Date rt = c.getRevocationDate();
-        Date rit = null;
-        byte[] extnValue = c.getExtensionValue(Extension.invalidityDate.getId());
-        if (extnValue != null) {
-          extnValue = extractCoreValue(extnValue);
-          ASN1GeneralizedTime genTime = DERGeneralizedTime.getInstance(extnValue);
-          try {
-            rit = genTime.getDate();
-          } catch (ParseException ex) {
-            throw new ImportCrlException(ex.getMessage(), ex);
-          }
+    RevokedCertsIterator revokedCerts;
+    try {
+      revokedCerts = crl.revokedCertificates();
+    } catch (IOException ex) {
+      throw new ImportCrlException("could not read the revoked certificates", ex);
+    }
 
-          if (rt.equals(rit)) {
-            rit = null;
-          }
+    int numRevokedCerts = 0;
+    try {
+      Map<BigInteger, RevokedCert> chunk = new LinkedHashMap<>();
+      while (revokedCerts.hasNext()) {
+        RevokedCert revokedCert = revokedCerts.next();
+        BigInteger serial = revokedCert.getSerialNumber();
+        X500Name issuer = revokedCert.getCertificateIssuer();
+        if (issuer != null && !caSubject.equals(issuer)) {
+          throw new ImportCrlException("invalid CRLEntry for certificate number " + serial);
         }
 
-        CrlReason reason = CrlReason.fromReason(c.getRevocationReason());
-
-        String sql = null;
-        try {
-          if (reason == CrlReason.REMOVE_FROM_CRL) {
-            if (!isDeltaCrl) {
-              LOG.warn("ignore CRL entry with reason removeFromCRL in non-Delta CRL");
-            }
-
-            // delete the entry
-            sql = SQL_DELETE_CERT;
-            psDeleteCert.setInt(1, caId);
-            psDeleteCert.setString(2, serial.toString(16));
-            psDeleteCert.executeUpdate();
-            continue;
-          }
-
-          Long id = getId(caId, serial);
-          PreparedStatement ps;
-          int offset = 1;
-
-          if (id == null) {
-            sql = SQL_INSERT_CERT_REV;
-            id = maxId.incrementAndGet();
-            ps = psInsertCertRev;
-            ps.setLong(offset++, id);
-            ps.setInt(offset++, caId);
-            ps.setString(offset++, serial.toString(16));
-          } else {
-            sql = SQL_UPDATE_CERT_REV;
-            ps = psUpdateCertRev;
-          }
-
-          ps.setInt(offset++, 1);
-          ps.setInt(offset++, reason.getCode());
-          ps.setLong(offset++, rt.getTime() / 1000);
-          if (rit != null) {
-            ps.setLong(offset++, rit.getTime() / 1000);
-          } else {
-            ps.setNull(offset++, Types.BIGINT);
-          }
-          ps.setLong(offset++, System.currentTimeMillis() / 1000);
-
-          if (ps == psUpdateCertRev) {
-            ps.setLong(offset++, id);
-          }
-
-          ps.executeUpdate();
-        } catch (SQLException ex) {
-          throw datasource.translate(sql, ex);
+        chunk.put(serial, revokedCert);
+        numRevokedCerts++;
+        if (chunk.size() >= NUM_ENTRIES_PER_CHUNK) {
+          importRevokedCerts(caId, chunk);
+          chunk.clear();
         }
       }
+
+      if (!chunk.isEmpty()) {
+        importRevokedCerts(caId, chunk);
+      }
+    } catch (IllegalStateException ex) {
+      // the next entry could not be read
+      throw new ImportCrlException(ex.getMessage(), ex);
+    } finally {
+      try {
+        revokedCerts.close();
+      } catch (IOException ex) {
+        LogUtil.warn(LOG, ex, "could not close the CRL file");
+      }
     }
 
+    LOG.info("imported {} revoked certificates", numRevokedCerts);
+
     // import the certificates
+    Map<BigInteger, CertToImport> chunk = new LinkedHashMap<>();
 
     // extract the certificate
-    byte[] extnValue = crl.getExtensionValue(ObjectIdentifiers.id_xipki_ext_crlCertset.getId());
-    if (extnValue != null) {
-      extnValue = extractCoreValue(extnValue);
-      ASN1Set asn1Set = DERSet.getInstance(extnValue);
+    Extensions crlExtensions = crl.getCrlExtensions();
+    Extension extn = (crlExtensions == null) ? null
+        : crlExtensions.getExtension(ObjectIdentifiers.id_xipki_ext_crlCertset);
+    if (extn != null) {
+      ASN1Set asn1Set = DERSet.getInstance(extn.getParsedValue());
       final int n = asn1Set.size();
 
       for (int i = 0; i < n; i++) {
@@ -515,7 +619,7 @@ public class ImportCrl {
 
         String certLogId = "(issuer='" + cert.getIssuer()
             + "', serialNumber=" + cert.getSerialNumber() + ")";
-        addCertificate(maxId, caId, cert, profileName, certLogId);
+        addCertificate(caId, cert, profileName, certLogId, chunk);
       }
     } else {
       // cert dirs
@@ -559,36 +663,93 @@ public class ImportCrl {
         }
 
         String certLogId = "(file " + certFile.getName() + ")";
-        addCertificate(maxId, caId, cert, null, certLogId);
+        addCertificate(caId, cert, null, certLogId, chunk);
       }
     }
 
-  }
-
-  private static byte[] extractCoreValue(byte[] encodedExtensionValue) {
-    return ASN1OctetString.getInstance(encodedExtensionValue).getOctets();
-  }
+    if (!chunk.isEmpty()) {
+      importCerts(caId, chunk);
+    }
+  } // method importEntries
 
-  private Long getId(int caId, BigInteger serialNumber)
+  private void importRevokedCerts(int caId, Map<BigInteger, RevokedCert> revokedCerts)
       throws DataAccessException {
-    ResultSet rs = null;
+    Map<BigInteger, CertRow> rows = getCertRows(caId, revokedCerts.keySet());
+    final long now = System.currentTimeMillis() / 1000;
+
+    String sql = null;
     try {
-      psSelectIdCert.setInt(1, caId);
-      psSelectIdCert.setString(2, serialNumber.toString(16));
-      rs = psSelectIdCert.executeQuery();
-      if (!rs.next()) {
-        return null;
+      for (RevokedCert revokedCert : revokedCerts.values()) {
+        BigInteger serial = revokedCert.getSerialNumber();
+        CertRow row = rows.get(serial);
+        CrlReason reason = revokedCert.getReason();
+
+        if (reason == CrlReason.REMOVE_FROM_CRL) {
+          if (!isDeltaCrl) {
+            // the entry will be removed if it is not contained in the certificate set
+            LOG.warn("ignore CRL entry with reason removeFromCRL in non-Delta CRL");
+          } else if (row != null) {
+            // delete the entry
+            sql = SQL_DELETE_CERT;
+            psDeleteCert.setLong(1, row.id);
+            psDeleteCert.addBatch();
+            numDeletedCerts++;
+          }
+          continue;
+        }
+
+        long rt = revokedCert.getRevocationDate().getTime() / 1000;
+        Date invalidityDate = revokedCert.getInvalidityDate();
+        long rit = (invalidityDate == null) ? 0 : invalidityDate.getTime() / 1000;
+        if (rit == rt) {
+          rit = 0;
+        }
+
+        PreparedStatement ps;
+        int offset = 1;
+
+        if (row == null) {
+          sql = SQL_INSERT_CERT_REV;
+          ps = psInsertCertRev;
+          ps.setLong(offset++, ++maxId);
+          ps.setInt(offset++, caId);
+          ps.setString(offset++, serial.toString(16));
+        } else if (row.revoked && row.reason == reason.getCode() && row.revTime == rt
+            && row.invalidityTime == rit) {
+          markProcessed(row.id, true, now);
+          continue;
+        } else {
+          sql = SQL_UPDATE_CERT_REV;
+          ps = psUpdateCertRev;
+          markProcessed(row.id, false, now);
+        }
+
+        ps.setInt(offset++, 1);
+        ps.setInt(offset++, reason.getCode());
+        ps.setLong(offset++, rt);
+        if (rit != 0) {
+          ps.setLong(offset++, rit);
+        } else {
+          ps.setNull(offset++, Types.BIGINT);
+        }
+        ps.setLong(offset++, now);
+
+        if (ps == psUpdateCertRev) {
+          ps.setLong(offset++, row.id);
+        }
+
+        ps.addBatch();
       }
-      return rs.getLong("ID");
     } catch (SQLException ex) {
-      throw datasource.translate(sqlSelectIdCert, ex);
-    } finally {
-      releaseResources(null, rs);
+      throw datasource.translate(sql, ex);
     }
-  }
 
-  private void addCertificate(AtomicLong maxId, int caId, Certificate cert, String profileName,
-      String certLogId) throws DataAccessException, ImportCrlException {
+    executeBatches();
+  } // method importRevokedCerts
+
+  private void addCertificate(int caId, Certificate cert, String profileName,
+      String certLogId, Map<BigInteger, CertToImport> chunk)
+      throws DataAccessException, ImportCrlException {
     // not issued by the given issuer
     if (!caSubject.equals(cert.getIssuer())) {
       LOG.warn("certificate {} is not issued by the given CA, ignore it", certLogId);
@@ -620,72 +781,270 @@ public class ImportCrl {
       }
     } // end if
 
-    LOG.info("Importing certificate {}", certLogId);
-    Long id = getId(caId, cert.getSerialNumber().getPositiveValue());
-    boolean tblCertIdExists = (id != null);
-
-    PreparedStatement ps;
-    String sql;
-    // first update the table CERT
-    if (tblCertIdExists) {
-      sql = SQL_UPDATE_CERT;
-      ps = psUpdateCert;
-    } else {
-      sql = SQL_INSERT_CERT;
-      ps = psInsertCert;
-      id = maxId.incrementAndGet();
+    TBSCertificate tbsCert = cert.getTBSCertificate();
+    chunk.put(cert.getSerialNumber().getPositiveValue(),
+        new CertToImport(tbsCert.getStartDate().getDate().getTime() / 1000,
+            tbsCert.getEndDate().getDate().getTime() / 1000, b64CertHash, certLogId));
+    if (chunk.size() >= NUM_ENTRIES_PER_CHUNK) {
+      importCerts(caId, chunk);
+      chunk.clear();
     }
+  } // method addCertificate
+
+  private void importCerts(int caId, Map<BigInteger, CertToImport> certs)
+      throws DataAccessException {
+    Map<BigInteger, CertRow> rows = getCertRows(caId, certs.keySet());
+    final long now = System.currentTimeMillis() / 1000;
 
+    String sql = null;
     try {
-      int offset = 1;
-      if (sql == SQL_INSERT_CERT) {
-        ps.setLong(offset++, id);
-        // ISSUER ID IID
-        ps.setInt(offset++, caId);
-        // serial number SN
-        ps.setString(offset++, cert.getSerialNumber().getPositiveValue().toString(16));
-        // whether revoked REV
-        ps.setInt(offset++, 0);
-        // revocation reason RR
-        ps.setNull(offset++, Types.SMALLINT);
-        // revocation time RT
-        ps.setNull(offset++, Types.BIGINT);
-        ps.setNull(offset++, Types.BIGINT);
+      for (Map.Entry<BigInteger, CertToImport> entry : certs.entrySet()) {
+        BigInteger serial = entry.getKey();
+        CertToImport cert = entry.getValue();
+        CertRow row = rows.get(serial);
+
+        PreparedStatement ps;
+        int offset = 1;
+        // first update the table CERT
+        if (row == null) {
+          sql = SQL_INSERT_CERT;
+          ps = psInsertCert;
+          ps.setLong(offset++, ++maxId);
+          // ISSUER ID IID
+          ps.setInt(offset++, caId);
+          // serial number SN
+          ps.setString(offset++, serial.toString(16));
+          // whether revoked REV
+          ps.setInt(offset++, 0);
+          // revocation reason RR
+          ps.setNull(offset++, Types.SMALLINT);
+          // revocation time RT
+          ps.setNull(offset++, Types.BIGINT);
+          ps.setNull(offset++, Types.BIGINT);
+        } else if (row.notBefore == cert.notBefore && row.notAfter == cert.notAfter
+            && cert.hash.equals(row.hash)) {
+          markProcessed(row.id, true, now);
+          LOG.debug("certificate {} is unchanged", cert.logId);
+          continue;
+        } else {
+          sql = SQL_UPDATE_CERT;
+          ps = psUpdateCert;
+          markProcessed(row.id, false, now);
+        }
+
+        // last update LUPDATE
+        ps.setLong(offset++, now);
+        // not before NBEFORE
+        ps.setLong(offset++, cert.notBefore);
+        // not after NAFTER
+        ps.setLong(offset++, cert.notAfter);
+        ps.setString(offset++, cert.hash);
+
+        if (ps == psUpdateCert) {
+          ps.setLong(offset++, row.id);
+        }
+
+        ps.addBatch();
+        LOG.info("Importing certificate {}", cert.logId);
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    }
+
+    executeBatches();
+  } // method importCerts
+
+  /**
+   * Reads the existing entries of the given certificates with queries
+   * {@code SN IN (...)} of at most {@link #MAX_SERIALS_PER_QUERY} serial numbers.
+   */
+  private Map<BigInteger, CertRow> getCertRows(int caId, Collection<BigInteger> serials)
+      throws DataAccessException {
+    Map<BigInteger, CertRow> rows = new HashMap<>();
+    if (!inArraySelectSupported) {
+      for (BigInteger serial : serials) {
+        ResultSet rs = null;
+        try {
+          psSelectCert.setInt(1, caId);
+          psSelectCert.setString(2, serial.toString(16));
+          rs = psSelectCert.executeQuery();
+          if (rs.next()) {
+            rows.put(serial, new CertRow(rs));
+          }
+        } catch (SQLException ex) {
+          throw datasource.translate(SQL_SELECT_CERT, ex);
+        } finally {
+          releaseResources(null, rs);
+        }
       }
+      return rows;
+    }
 
-      // last update LUPDATE
-      ps.setLong(offset++, System.currentTimeMillis() / 1000);
+    List<BigInteger> list = new ArrayList<>(serials);
 
-      TBSCertificate tbsCert = cert.getTBSCertificate();
-      // not before NBEFORE
-      ps.setLong(offset++, tbsCert.getStartDate().getDate().getTime() / 1000);
-      // not after NAFTER
-      ps.setLong(offset++, tbsCert.getEndDate().getDate().getTime() / 1000);
-      ps.setString(offset++, b64CertHash);
+    final int size = list.size();
+    for (int offset = 0; offset < size; offset += MAX_SERIALS_PER_QUERY) {
+      int num = Math.min(MAX_SERIALS_PER_QUERY, size - offset);
 
-      if (sql == SQL_UPDATE_CERT) {
-        ps.setLong(offset++, id);
+      StringBuilder sb = new StringBuilder(100 + 2 * num);
+      sb.append("SELECT ID,SN,REV,RR,RT,RIT,NBEFORE,NAFTER,HASH FROM CERT")
+        .append(" WHERE IID=? AND SN IN (?");
+      for (int i = 1; i < num; i++) {
+        sb.append(",?");
       }
+      sb.append(")");
+      final String sql = sb.toString();
 
-      ps.executeUpdate();
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      ResultSet rs = null;
+      try {
+        int idx = 1;
+        ps.setInt(idx++, caId);
+        for (int i = 0; i < num; i++) {
+          ps.setString(idx++, list.get(offset + i).toString(16));
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          rows.put(new BigInteger(rs.getString("SN"), 16), new CertRow(rs));
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseResources(ps, rs);
+      }
+    }
+
+    return rows;
+  } // method getCertRows
+
+  /**
+   * Marks the entry as contained in the CRL, so that it will not be removed.
+   */
+  private void markProcessed(long id, boolean unchanged, long now) throws SQLException {
+    if (id < minExistingId || id > maxExistingId) {
+      // added by this import
+      return;
+    }
+
+    if (processedIds != null) {
+      processedIds.set((int) (id - minExistingId));
+    } else if (unchanged) {
+      psTouchCert.setLong(1, now);
+      psTouchCert.setLong(2, id);
+      psTouchCert.addBatch();
+    }
+  }
+
+  /**
+   * Executes the batches of all statements and commits the transaction.
+   */
+  private void executeBatches() throws DataAccessException {
+    String sql = null;
+    try {
+      sql = SQL_DELETE_CERT;
+      psDeleteCert.executeBatch();
+      sql = SQL_INSERT_CERT_REV;
+      psInsertCertRev.executeBatch();
+      sql = SQL_UPDATE_CERT_REV;
+      psUpdateCertRev.executeBatch();
+      sql = SQL_INSERT_CERT;
+      psInsertCert.executeBatch();
+      sql = SQL_UPDATE_CERT;
+      psUpdateCert.executeBatch();
+      sql = SQL_TOUCH_CERT;
+      psTouchCert.executeBatch();
+      sql = null;
+      conn.commit();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
     }
-
-    LOG.info("Imported  certificate {}", certLogId);
   }
 
-  private void deleteEntriesNotUpdatedSince(Connection conn, Date time)
-      throws DataAccessException {
-    // remove the unmodified entries
-    String sql = "DELETE FROM CERT WHERE LUPDATE<" + time.getTime() / 1000;
-    Statement stmt = datasource.createStatement(conn);
+  /**
+   * Removes the entries of the CA which existed before the import and are not contained in
+   * the CRL.
+   */
+  private void deleteEntriesNotInCrl(int caId, Date startTime) throws DataAccessException {
+    if (processedIds == null) {
+      // the entries contained in the CRL have been updated since startTime
+      final String sql = SQL_DELETE_CERT_NOT_UPDATED;
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      try {
+        ps.setInt(1, caId);
+        ps.setLong(2, startTime.getTime() / 1000);
+        int num = ps.executeUpdate();
+        conn.commit();
+        numDeletedCerts += num;
+        LOG.info("removed {} entries not contained in the CRL", num);
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseResources(ps, null);
+      }
+      return;
+    }
+
+    if (maxExistingId == 0) {
+      // no existing entries
+      return;
+    }
+
+    // only the ranges of IDs containing unprocessed entries are queried
+    final String sql = SQL_SELECT_ID_CERT_RANGE;
+    final long numIds = maxExistingId - minExistingId + 1;
+    int numDeleted = 0;
+
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
     try {
-      stmt.executeUpdate(sql);
+      long offset = processedIds.nextClearBit(0);
+      while (offset < numIds) {
+        long endOffset = Math.min(numIds, offset + NUM_ENTRIES_PER_CHUNK);
+        ps.setLong(1, minExistingId + offset);
+        ps.setLong(2, minExistingId + endOffset);
+        ps.setInt(3, caId);
+
+        ResultSet rs = ps.executeQuery();
+        try {
+          while (rs.next()) {
+            long id = rs.getLong("ID");
+            if (!processedIds.get((int) (id - minExistingId))) {
+              psDeleteCert.setLong(1, id);
+              psDeleteCert.addBatch();
+              numDeleted++;
+            }
+          }
+        } finally {
+          releaseResources(null, rs);
+        }
+
+        executeBatches();
+        offset = processedIds.nextClearBit((int) endOffset);
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseResources(ps, null);
+    }
+
+    numDeletedCerts += numDeleted;
+    LOG.info("removed {} entries not contained in the CRL", numDeleted);
+  } // method deleteEntriesNotInCrl
+
+  /**
+   * Increments ISSUER.DEL_GEN, so that the OCSP responders reload the status index.
+   */
+  private void markCertsDeleted(int caId) throws DataAccessException {
+    final String sql = SQL_INCREMENT_DEL_GEN;
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
+    try {
+      ps.setInt(1, caId);
+      ps.executeUpdate();
+      conn.commit();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
     } finally {
-      releaseResources(stmt, null);
+      releaseResources(ps, null);
     }
   }
 
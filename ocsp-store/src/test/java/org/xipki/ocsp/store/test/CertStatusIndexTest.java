@@ -0,0 +1,407 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.store.test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatus;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.IssuerEntry;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.store.CertStatusIndex;
+import org.xipki.ocsp.store.DbCertStatusStore;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Base64;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CertStatusIndexTest {
+
+  private static final int ISSUER_ID = 1;
+
+  @Before
+  public void addBouncyCastleProvider() {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+
+  @Test
+  public void testPutAndGet() {
+    CertStatusIndex index = new CertStatusIndex(10, 0, false);
+    CertStatusIndex.Entry entry = new CertStatusIndex.Entry(1000, 2000, false, 0, 0, 0, null);
+    index.put(BigInteger.valueOf(1), entry, 100);
+
+    Assert.assertEquals(1, index.size());
+    Assert.assertEquals(100, index.getLastUpdate());
+    Assert.assertEquals(entry, index.get(BigInteger.valueOf(1)));
+    Assert.assertNull(index.get(BigInteger.valueOf(2)));
+  }
+
+  @Test
+  public void testUpdate() {
+    CertStatusIndex index = new CertStatusIndex(10, 0, false);
+    BigInteger serial = BigInteger.valueOf(12345);
+    index.put(serial, new CertStatusIndex.Entry(1000, 2000, false, 0, 0, 0, null), 100);
+
+    CertStatusIndex.Entry revoked = new CertStatusIndex.Entry(1000, 2000, true, 1, 1500, 1400,
+        null);
+    index.put(serial, revoked, 90);
+
+    Assert.assertEquals(1, index.size());
+    // the maximal LUPDATE is kept
+    Assert.assertEquals(100, index.getLastUpdate());
+
+    CertStatusIndex.Entry read = index.get(serial);
+    Assert.assertEquals(revoked, read);
+    Assert.assertTrue(read.isRevoked());
+    Assert.assertEquals(1, read.getReason());
+    Assert.assertEquals(1500, read.getRevTime());
+    Assert.assertEquals(1400, read.getInvalidityTime());
+  }
+
+  @Test
+  public void testCollision() {
+    // 700 entries in 1024 slots without resize
+    CertStatusIndex index = new CertStatusIndex(700, 0, false);
+    for (int i = 0; i < 700; i++) {
+      index.put(BigInteger.valueOf(i * 1024L + 1), newEntry(i), i);
+    }
+
+    Assert.assertEquals(700, index.size());
+    for (int i = 0; i < 700; i++) {
+      Assert.assertEquals(newEntry(i), index.get(BigInteger.valueOf(i * 1024L + 1)));
+    }
+    for (int i = 700; i < 2000; i++) {
+      Assert.assertNull(index.get(BigInteger.valueOf(i * 1024L + 1)));
+    }
+  }
+
+  @Test
+  public void testGrow() {
+    testGrow(false);
+  }
+
+  @Test
+  public void testGrowOffHeap() {
+    testGrow(true);
+  }
+
+  private void testGrow(boolean offHeap) {
+    CertStatusIndex index = new CertStatusIndex(0, 0, offHeap);
+    final int num = 10000;
+    for (int i = 1; i <= num; i++) {
+      index.put(BigInteger.valueOf(i), newEntry(i), i);
+    }
+
+    Assert.assertEquals(num, index.size());
+    Assert.assertEquals(num, index.getLastUpdate());
+    for (int i = 1; i <= num; i++) {
+      Assert.assertEquals(newEntry(i), index.get(BigInteger.valueOf(i)));
+    }
+    Assert.assertNull(index.get(BigInteger.valueOf(num + 1)));
+  }
+
+  @Test
+  public void testGrowOverSegments() {
+    // more than one segment of 65536 slots
+    CertStatusIndex index = new CertStatusIndex(0, 0, false);
+    final int num = 200000;
+    for (int i = 1; i <= num; i++) {
+      index.put(BigInteger.valueOf(i * 7919L), newEntry(i), i);
+    }
+
+    Assert.assertEquals(num, index.size());
+    for (int i = 1; i <= num; i++) {
+      Assert.assertEquals(newEntry(i), index.get(BigInteger.valueOf(i * 7919L)));
+    }
+    Assert.assertNull(index.get(BigInteger.valueOf(7918)));
+  }
+
+  @Test
+  public void testSerialNumbers() {
+    Assert.assertFalse(CertStatusIndex.isIndexable(BigInteger.ZERO));
+    Assert.assertFalse(CertStatusIndex.isIndexable(BigInteger.valueOf(-1)));
+    Assert.assertFalse(CertStatusIndex.isIndexable(BigInteger.ONE.shiftLeft(160)));
+
+    BigInteger maxSerial = BigInteger.ONE.shiftLeft(160).subtract(BigInteger.ONE);
+    Assert.assertTrue(CertStatusIndex.isIndexable(maxSerial));
+
+    CertStatusIndex index = new CertStatusIndex(10, 0, false);
+    // 0x80 requires a sign octet in the two's-complement encoding
+    index.put(BigInteger.valueOf(0x80), newEntry(1), 1);
+    index.put(maxSerial, newEntry(2), 1);
+    Assert.assertEquals(newEntry(1), index.get(BigInteger.valueOf(0x80)));
+    Assert.assertEquals(newEntry(2), index.get(maxSerial));
+  }
+
+  @Test
+  public void testCertHash() {
+    CertStatusIndex index = new CertStatusIndex(10, 32, false);
+    Assert.assertTrue(index.containsCertHash());
+
+    byte[] certHash = HashAlgo.SHA256.hash(new byte[]{1, 2, 3});
+    index.put(BigInteger.ONE, new CertStatusIndex.Entry(1, 2, false, 0, 0, 0, certHash), 1);
+    index.put(BigInteger.TEN, new CertStatusIndex.Entry(1, 2, false, 0, 0, 0, null), 1);
+
+    Assert.assertArrayEquals(certHash, index.get(BigInteger.ONE).getCertHash());
+    // missing hash is stored as zeros
+    Assert.assertArrayEquals(new byte[32], index.get(BigInteger.TEN).getCertHash());
+  }
+
+  @Test
+  public void testPutIfAbsent() {
+    CertStatusIndex index = new CertStatusIndex(10, 0, false);
+    index.put(BigInteger.ONE, newEntry(1), 100);
+
+    Assert.assertFalse(index.putIfAbsent(BigInteger.ONE, newEntry(2)));
+    Assert.assertEquals(newEntry(1), index.get(BigInteger.ONE));
+
+    Assert.assertTrue(index.putIfAbsent(BigInteger.TEN, newEntry(3)));
+    Assert.assertEquals(newEntry(3), index.get(BigInteger.TEN));
+    Assert.assertEquals(2, index.size());
+    // the maximal LUPDATE is not changed
+    Assert.assertEquals(100, index.getLastUpdate());
+  }
+
+  @Test
+  public void testLateCommitAfterRefresh() throws Exception {
+    DataSourceWrapper datasource = createDataSource("certstatusindex-late");
+    X509Certificate caCert = generateCaCert();
+    createTables(datasource, caCert);
+
+    long now = System.currentTimeMillis() / 1000;
+    execute(datasource, "INSERT INTO CERT (ID,IID,SN,LUPDATE,REV) VALUES(1," + ISSUER_ID
+        + ",'1'," + now + ",0)");
+    execute(datasource, "INSERT INTO CERT (ID,IID,SN,LUPDATE,REV) VALUES(2," + ISSUER_ID
+        + ",'2'," + (now - 100) + ",0)");
+
+    DbCertStatusStore store = new DbCertStatusStore();
+    store.setName("ocsp");
+    store.init("statusIndex.enabled=true", datasource);
+    try {
+      updateStatusIndexes(store);
+      RequestIssuer reqIssuer = new RequestIssuer(HashAlgo.SHA1,
+          new IssuerEntry(ISSUER_ID, caCert).getEncodedHash(HashAlgo.SHA1));
+      Assert.assertEquals(CertStatus.GOOD, getCertStatus(store, reqIssuer, 2));
+
+      // the revocation is committed after the refresh, with LUPDATE older than the
+      // maximal LUPDATE of the index.
+      execute(datasource, "UPDATE CERT SET REV=1,RR=1,RT=" + (now - 60) + ",LUPDATE="
+          + (now - 60) + " WHERE ID=2");
+
+      updateStatusIndexes(store);
+      Assert.assertEquals(CertStatus.REVOKED, getCertStatus(store, reqIssuer, 2));
+      Assert.assertEquals(CertStatus.GOOD, getCertStatus(store, reqIssuer, 1));
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  public void testIndexMiss() throws Exception {
+    DataSourceWrapper datasource = createDataSource("certstatusindex-miss");
+    X509Certificate caCert = generateCaCert();
+    createTables(datasource, caCert);
+    execute(datasource, "INSERT INTO CERT (ID,IID,SN,LUPDATE,REV) VALUES(1," + ISSUER_ID
+        + ",'1',1,0)");
+
+    DbCertStatusStore store = new DbCertStatusStore();
+    store.setName("ocsp");
+    store.init("statusIndex.enabled=true", datasource);
+    try {
+      updateStatusIndexes(store);
+      RequestIssuer reqIssuer = new RequestIssuer(HashAlgo.SHA1,
+          new IssuerEntry(ISSUER_ID, caCert).getEncodedHash(HashAlgo.SHA1));
+      Assert.assertEquals(CertStatus.UNKNOWN, getCertStatus(store, reqIssuer, 2));
+
+      // issued after the refresh of the index
+      long now = System.currentTimeMillis() / 1000;
+      execute(datasource, "INSERT INTO CERT (ID,IID,SN,LUPDATE,REV) VALUES(2," + ISSUER_ID
+          + ",'2'," + now + ",0)");
+      execute(datasource, "INSERT INTO CERT (ID,IID,SN,LUPDATE,REV,RR,RT) VALUES(3," + ISSUER_ID
+          + ",'3'," + now + ",1,1," + now + ")");
+
+      Assert.assertEquals(CertStatus.GOOD, getCertStatus(store, reqIssuer, 2));
+      List<CertStatusInfo> infos = store.getCertStatuses(new Date(), reqIssuer,
+          Arrays.asList(BigInteger.ONE, BigInteger.valueOf(3), BigInteger.valueOf(4)),
+          false, false, false);
+      Assert.assertEquals(CertStatus.GOOD, infos.get(0).getCertStatus());
+      Assert.assertEquals(CertStatus.REVOKED, infos.get(1).getCertStatus());
+      Assert.assertEquals(CertStatus.UNKNOWN, infos.get(2).getCertStatus());
+
+      // the entries read from the database have been added to the index
+      execute(datasource, "DELETE FROM CERT WHERE ID>1");
+      Assert.assertEquals(CertStatus.GOOD, getCertStatus(store, reqIssuer, 2));
+      Assert.assertEquals(CertStatus.REVOKED, getCertStatus(store, reqIssuer, 3));
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  public void testReloadAfterDeletion() throws Exception {
+    DataSourceWrapper datasource = createDataSource("certstatusindex");
+
+    X509Certificate caCert = generateCaCert();
+    createTables(datasource, caCert);
+    // a full CRL import or the publisher replaces certificate 2 by 4
+    for (int i = 1; i <= 3; i++) {
+      execute(datasource, "INSERT INTO CERT (ID,IID,SN,LUPDATE,REV) VALUES(" + i + ","
+          + ISSUER_ID + ",'" + Integer.toHexString(i) + "',1,0)");
+    }
+
+    DbCertStatusStore store = new DbCertStatusStore();
+    store.setName("ocsp");
+    store.init("statusIndex.enabled=true", datasource);
+    try {
+      updateStatusIndexes(store);
+      RequestIssuer reqIssuer = new RequestIssuer(HashAlgo.SHA1,
+          new IssuerEntry(ISSUER_ID, caCert).getEncodedHash(HashAlgo.SHA1));
+      Assert.assertEquals(CertStatus.GOOD, getCertStatus(store, reqIssuer, 2));
+      Assert.assertEquals(CertStatus.UNKNOWN, getCertStatus(store, reqIssuer, 4));
+
+      long now = System.currentTimeMillis() / 1000;
+      execute(datasource, "DELETE FROM CERT WHERE ID=2");
+      execute(datasource, "INSERT INTO CERT (ID,IID,SN,LUPDATE,REV) VALUES(4," + ISSUER_ID
+          + ",'4'," + now + ",0)");
+      execute(datasource, "UPDATE ISSUER SET DEL_GEN=DEL_GEN+1 WHERE ID=" + ISSUER_ID);
+
+      updateStatusIndexes(store);
+      Assert.assertEquals(CertStatus.GOOD, getCertStatus(store, reqIssuer, 1));
+      Assert.assertEquals(CertStatus.UNKNOWN, getCertStatus(store, reqIssuer, 2));
+      Assert.assertEquals(CertStatus.GOOD, getCertStatus(store, reqIssuer, 4));
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  private static CertStatusIndex.Entry newEntry(int index) {
+    return new CertStatusIndex.Entry(1000 + index, 2000 + index, (index & 1) == 1, index % 10,
+        (index & 1) == 1 ? 1500 + index : 0, 0, null);
+  }
+
+  private static CertStatus getCertStatus(DbCertStatusStore store, RequestIssuer reqIssuer,
+      long serial) throws Exception {
+    CertStatusInfo info = store.getCertStatus(new Date(), reqIssuer, BigInteger.valueOf(serial),
+        false, false, false);
+    return info.getCertStatus();
+  }
+
+  private static void updateStatusIndexes(DbCertStatusStore store) throws Exception {
+    // the first update may be executed in background
+    for (int i = 0; i < 500; i++) {
+      if (store.updateStatusIndexes()) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    Assert.fail("could not update the status indexes");
+  }
+
+  private static DataSourceWrapper createDataSource(String dbName) throws Exception {
+    Properties props = new Properties();
+    props.setProperty("jdbcUrl", "jdbc:h2:mem:" + dbName + ";DB_CLOSE_DELAY=-1");
+    props.setProperty("username", "sa");
+    props.setProperty("password", "");
+    return new DataSourceFactory().createDataSource("ocsp", props, null);
+  }
+
+  private static X509Certificate generateCaCert() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    KeyPair keypair = kpGen.generateKeyPair();
+    X500Name subject = new X500Name("CN=CertStatusIndexTest CA");
+    long now = System.currentTimeMillis();
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+        BigInteger.ONE, new Date(now - 60000), new Date(now + 3600000), subject,
+        keypair.getPublic());
+    return new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withECDSA")
+            .build(keypair.getPrivate())));
+  }
+
+  private static void createTables(DataSourceWrapper datasource, X509Certificate caCert)
+      throws Exception {
+    execute(datasource, "CREATE TABLE DBSCHEMA (NAME VARCHAR(45) NOT NULL PRIMARY KEY,"
+        + " VALUE2 VARCHAR(100) NOT NULL)");
+    execute(datasource, "INSERT INTO DBSCHEMA (NAME,VALUE2) VALUES('CERTHASH_ALGO','SHA256')");
+    execute(datasource, "CREATE TABLE ISSUER (ID INT NOT NULL PRIMARY KEY,"
+        + " SUBJECT VARCHAR(350) NOT NULL, NBEFORE BIGINT NOT NULL, NAFTER BIGINT NOT NULL,"
+        + " S1C CHAR(28) NOT NULL, REV_INFO VARCHAR(200), CERT VARCHAR(4000) NOT NULL,"
+        + " CRL_INFO VARCHAR(1000), DEL_GEN BIGINT DEFAULT 0 NOT NULL)");
+    execute(datasource, "CREATE TABLE CERT (ID BIGINT NOT NULL PRIMARY KEY, IID INT NOT NULL,"
+        + " SN VARCHAR(40) NOT NULL, LUPDATE BIGINT NOT NULL, NBEFORE BIGINT, NAFTER BIGINT,"
+        + " REV SMALLINT NOT NULL, RR SMALLINT, RT BIGINT, RIT BIGINT, HASH CHAR(86),"
+        + " SUBJECT VARCHAR(350))");
+
+    byte[] encodedCert = caCert.getEncoded();
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    try {
+      ps = conn.prepareStatement("INSERT INTO ISSUER (ID,SUBJECT,NBEFORE,NAFTER,S1C,CERT)"
+          + " VALUES(?,?,?,?,?,?)");
+      ps.setInt(1, ISSUER_ID);
+      ps.setString(2, caCert.getSubjectX500Principal().getName());
+      ps.setLong(3, caCert.getNotBefore().getTime() / 1000);
+      ps.setLong(4, caCert.getNotAfter().getTime() / 1000);
+      ps.setString(5, HashAlgo.SHA1.base64Hash(encodedCert));
+      ps.setString(6, Base64.encodeToString(encodedCert));
+      ps.executeUpdate();
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  }
+
+  private static void execute(DataSourceWrapper datasource, String sql) throws Exception {
+    Connection conn = datasource.getConnection();
+    Statement stmt = null;
+    try {
+      stmt = conn.createStatement();
+      stmt.execute(sql);
+    } finally {
+      datasource.releaseResources(stmt, null);
+    }
+  }
+
+}
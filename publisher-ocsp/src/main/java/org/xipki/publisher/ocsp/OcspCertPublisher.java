@@ -20,6 +20,7 @@ package org.xipki.publisher.ocsp;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509CRL;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -120,6 +121,27 @@ public class OcspCertPublisher extends CertPublisher {
     }
   }
 
+  @Override
+  public boolean certificatesAdded(List<CertificateInfo> certInfos) {
+    try {
+      queryExecutor.addCerts(certInfos);
+      return true;
+    } catch (Exception ex) {
+      LOG.warn("could not save {} certificates in batch, save them one by one: {}",
+          certInfos.size(), ex.getMessage());
+      LOG.debug("error", ex);
+    }
+
+    // the failed certificates are logged and audited
+    boolean allSuccessful = true;
+    for (CertificateInfo certInfo : certInfos) {
+      if (!certificateAdded(certInfo)) {
+        allSuccessful = false;
+      }
+    }
+    return allSuccessful;
+  }
+
   @Override
   public boolean certificateRevoked(X509Cert caCert, CertWithDbId cert,
       String certprofile, CertRevocationInfo revInfo) {
@@ -143,6 +165,21 @@ public class OcspCertPublisher extends CertPublisher {
     }
   }
 
+  @Override
+  public boolean certificatesUnrevoked(X509Cert caCert, List<CertWithDbId> certs) {
+    try {
+      queryExecutor.unrevokeCerts(caCert, certs);
+      return true;
+    } catch (Exception ex) {
+      LOG.warn("could not publish the unrevocation of {} certificates in batch, publish them"
+          + " one by one: {}", certs.size(), ex.getMessage());
+      LOG.debug("error", ex);
+    }
+
+    // the failed certificates are logged and audited
+    return super.certificatesUnrevoked(caCert, certs);
+  }
+
   private void logAndAudit(String issuer, X509Cert cert, Exception ex, String messagePrefix) {
     String subjectText = cert.getSubject();
     String serialText = LogUtil.formatCsn(cert.getCert().getSerialNumber());
@@ -174,6 +211,11 @@ public class OcspCertPublisher extends CertPublisher {
     return true;
   }
 
+  @Override
+  public boolean publishesCrl() {
+    return false;
+  }
+
   @Override
   public boolean isHealthy() {
     return queryExecutor.isHealthy();
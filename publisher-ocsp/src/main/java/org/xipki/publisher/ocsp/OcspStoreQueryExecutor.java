@@ -26,7 +26,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +37,7 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.CertWithDbId;
+import org.xipki.ca.api.CertificateInfo;
 import org.xipki.ca.api.OperationException;
 import org.xipki.ca.api.OperationException.ErrorCode;
 import org.xipki.datasource.DataAccessException;
@@ -62,6 +66,12 @@ class OcspStoreQueryExecutor {
       "INSERT INTO CERT (ID,LUPDATE,SN,NBEFORE,NAFTER,REV,IID,HASH,SUBJECT) "
       + "VALUES (?,?,?,?,?,?,?,?,?)";
 
+  private static final String SQL_UPDATE_CERT =
+      "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
+
+  // maximal number of serial numbers in one query
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
   private static final Logger LOG = LoggerFactory.getLogger(OcspStoreQueryExecutor.class);
 
   private final DataSourceWrapper datasource;
@@ -79,9 +89,16 @@ class OcspStoreQueryExecutor {
 
   private final HashAlgo certhashAlgo;
 
+  // whether the column ISSUER.DEL_GEN is available (since 4.0.1)
+  private final boolean deletionTracked;
+
+  // whether the column ISSUER.CERT stores the raw bytes instead of the Base64 encoded text
+  private final boolean binaryIssuerCert;
+
   OcspStoreQueryExecutor(DataSourceWrapper datasource, boolean publishGoodCerts)
       throws DataAccessException, NoSuchAlgorithmException {
     this.datasource = ParamUtil.requireNonNull("datasource", datasource);
+    this.binaryIssuerCert = datasource.isBinaryColumn(null, "ISSUER", "CERT");
     this.issuerStore = initIssuerStore();
     this.publishGoodCerts = publishGoodCerts;
 
@@ -121,6 +138,7 @@ class OcspStoreQueryExecutor {
 
     str = variables.get("CERTHASH_ALGO");
     this.certhashAlgo = HashAlgo.getNonNullInstance(str);
+    this.deletionTracked = datasource.tableHasColumn(null, "ISSUER", "DEL_GEN");
   } // constructor
 
   private IssuerStore initIssuerStore() throws DataAccessException {
@@ -135,7 +153,8 @@ class OcspStoreQueryExecutor {
         int id = rs.getInt("ID");
         String subject = rs.getString("SUBJECT");
         String sha1Fp = rs.getString("S1C");
-        String b64Cert = rs.getString("CERT");
+        String b64Cert = binaryIssuerCert ? Base64.encodeToString(rs.getBytes("CERT"))
+            : rs.getString("CERT");
 
         IssuerEntry caInfoEntry = new IssuerEntry(id, subject, sha1Fp, b64Cert);
         caInfos.add(caInfoEntry);
@@ -181,40 +200,10 @@ class OcspStoreQueryExecutor {
     final String sql = revoked ? SQL_ADD_REVOKED_CERT : SQL_ADD_CERT;
 
     long certId = certificate.getCertId();
-    byte[] encodedCert = certificate.getEncodedCert();
-    String certHash = certhashAlgo.base64Hash(encodedCert);
-
-    X509Certificate cert = certificate.getCert();
-    long notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
-    long notAfterSeconds = cert.getNotAfter().getTime() / 1000;
-    String cuttedSubject = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
-
     PreparedStatement ps = borrowPreparedStatement(sql);
 
     try {
-      // CERT
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, serialNumber.toString(16));
-      ps.setLong(idx++, notBeforeSeconds);
-      ps.setLong(idx++, notAfterSeconds);
-      setBoolean(ps, idx++, revoked);
-      ps.setInt(idx++, issuerId);
-      ps.setString(idx++, certHash);
-      ps.setString(idx++, cuttedSubject);
-
-      if (revoked) {
-        long revTime = revInfo.getRevocationTime().getTime() / 1000;
-        ps.setLong(idx++, revTime);
-        if (revInfo.getInvalidityTime() != null) {
-          ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
-        } else {
-          ps.setNull(idx++, Types.BIGINT);
-        }
-        int reasonCode = (revInfo.getReason() == null) ? 0 : revInfo.getReason().getCode();
-        ps.setInt(idx++, reasonCode);
-      }
+      setAddCertParams(ps, issuerId, certificate, revInfo);
 
       try {
         ps.executeUpdate();
@@ -238,33 +227,130 @@ class OcspStoreQueryExecutor {
     }
   } // method addOrUpdateCert
 
+  /**
+   * Adds or updates the certificates. The registered certificates are found with one query per
+   * issuer and {@link #MAX_SERIALS_PER_QUERY} certificates, the INSERT and UPDATE statements are
+   * executed as JDBC batches in one transaction.
+   * @param certInfos
+   *          Certificates to be added or updated. Must not be {@code null}.
+   */
+  void addCerts(List<CertificateInfo> certInfos) throws DataAccessException {
+    ParamUtil.requireNonNull("certInfos", certInfos);
+
+    // group by issuer, the last entry of a certificate wins
+    Map<Integer, Map<BigInteger, CertificateInfo>> certsByIssuer = new HashMap<>();
+    for (CertificateInfo certInfo : certInfos) {
+      int issuerId = getIssuerId(certInfo.getIssuerCert());
+      Map<BigInteger, CertificateInfo> certs = certsByIssuer.get(issuerId);
+      if (certs == null) {
+        certs = new LinkedHashMap<>();
+        certsByIssuer.put(issuerId, certs);
+      }
+      certs.put(certInfo.getCert().getCert().getSerialNumber(), certInfo);
+    }
+
+    Connection conn = datasource.getConnection();
+    PreparedStatement psAdd = null;
+    PreparedStatement psAddRevoked = null;
+    PreparedStatement psUpdate = null;
+    Boolean autoCommit = null;
+    boolean committed = false;
+    String sql = null;
+
+    try {
+      for (Integer issuerId : certsByIssuer.keySet()) {
+        Map<BigInteger, CertificateInfo> certs = certsByIssuer.get(issuerId);
+        Map<BigInteger, Long> registeredIds = getCertIds(conn, issuerId, certs.keySet());
+
+        for (BigInteger serial : certs.keySet()) {
+          CertificateInfo certInfo = certs.get(serial);
+          CertRevocationInfo revInfo = certInfo.getRevocationInfo();
+          boolean revoked = (revInfo != null);
+          Long registeredId = registeredIds.get(serial);
+
+          if (registeredId != null) {
+            if (!publishGoodCerts && !revoked) {
+              continue;
+            }
+
+            sql = SQL_UPDATE_CERT;
+            if (psUpdate == null) {
+              psUpdate = datasource.prepareStatement(conn, sql);
+            }
+            setUpdateCertParams(psUpdate, registeredId, revInfo);
+            psUpdate.addBatch();
+          } else if (revoked) {
+            sql = SQL_ADD_REVOKED_CERT;
+            if (psAddRevoked == null) {
+              psAddRevoked = datasource.prepareStatement(conn, sql);
+            }
+            setAddCertParams(psAddRevoked, issuerId, certInfo.getCert(), revInfo);
+            psAddRevoked.addBatch();
+          } else {
+            sql = SQL_ADD_CERT;
+            if (psAdd == null) {
+              psAdd = datasource.prepareStatement(conn, sql);
+            }
+            setAddCertParams(psAdd, issuerId, certInfo.getCert(), null);
+            psAdd.addBatch();
+          }
+        }
+      }
+
+      if (psAdd == null && psAddRevoked == null && psUpdate == null) {
+        committed = true;
+        return;
+      }
+
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      if (psAdd != null) {
+        sql = SQL_ADD_CERT;
+        psAdd.executeBatch();
+      }
+
+      if (psAddRevoked != null) {
+        sql = SQL_ADD_REVOKED_CERT;
+        psAddRevoked.executeBatch();
+      }
+
+      if (psUpdate != null) {
+        sql = SQL_UPDATE_CERT;
+        psUpdate.executeBatch();
+      }
+
+      conn.commit();
+      committed = true;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      try {
+        if (!committed) {
+          conn.rollback();
+        }
+        if (autoCommit != null) {
+          conn.setAutoCommit(autoCommit);
+        }
+      } catch (SQLException ex) {
+        LogUtil.error(LOG, datasource.translate(null, ex), "could not end the transaction");
+      }
+
+      datasource.releaseResources(psAdd, null, false);
+      datasource.releaseResources(psAddRevoked, null, false);
+      datasource.releaseResources(psUpdate, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method addCerts
+
   private void updateRegisteredCert(long registeredCertId, CertRevocationInfo revInfo)
       throws DataAccessException {
-    boolean revoked = (revInfo != null);
-
-    final String sql = "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
+    final String sql = SQL_UPDATE_CERT;
 
     PreparedStatement ps = borrowPreparedStatement(sql);
 
     try {
-      int idx = 1;
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      setBoolean(ps, idx++, revoked);
-      if (revoked) {
-        long revTime = revInfo.getRevocationTime().getTime() / 1000;
-        ps.setLong(idx++, revTime);
-        if (revInfo.getInvalidityTime() != null) {
-          ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
-        } else {
-          ps.setNull(idx++, Types.INTEGER);
-        }
-        ps.setInt(idx++, revInfo.getReason().getCode());
-      } else {
-        ps.setNull(idx++, Types.INTEGER); // rev_time
-        ps.setNull(idx++, Types.INTEGER); // rev_invalidity_time
-        ps.setNull(idx++, Types.INTEGER); // rev_reason
-      }
-      ps.setLong(idx++, registeredCertId);
+      setUpdateCertParams(ps, registeredCertId, revInfo);
       ps.executeUpdate();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
@@ -316,19 +402,105 @@ class OcspStoreQueryExecutor {
       final String sql = "DELETE FROM CERT WHERE IID=? AND SN=?";
       PreparedStatement ps = borrowPreparedStatement(sql);
 
+      int num;
       try {
         ps.setInt(1, issuerId);
         ps.setString(2, serialNumber.toString(16));
-        ps.executeUpdate();
+        num = ps.executeUpdate();
       } catch (SQLException ex) {
         throw datasource.translate(sql, ex);
       } finally {
         datasource.releaseResources(ps, null);
       }
+
+      if (num > 0) {
+        markCertsDeleted(issuerId);
+      }
     }
 
   } // method unrevokeCert
 
+  /**
+   * Unrevokes the certificates in one transaction, the statements are executed as one JDBC
+   * batch.
+   * @param issuer
+   *          Issuer of the certificates. Must not be {@code null}.
+   * @param certs
+   *          Certificates to be unrevoked. Must not be {@code null}.
+   */
+  void unrevokeCerts(X509Cert issuer, List<CertWithDbId> certs) throws DataAccessException {
+    ParamUtil.requireNonNull("issuer", issuer);
+    ParamUtil.requireNonNull("certs", certs);
+
+    Integer issuerId = issuerStore.getIdForCert(issuer.getEncodedCert());
+    if (issuerId == null || certs.isEmpty()) {
+      return;
+    }
+
+    final String sql = publishGoodCerts
+        ? "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE IID=? AND SN=?"
+        : "DELETE FROM CERT WHERE IID=? AND SN=?";
+    long now = System.currentTimeMillis() / 1000;
+
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    Boolean autoCommit = null;
+    boolean committed = false;
+    int numDeleted = 0;
+
+    try {
+      ps = datasource.prepareStatement(conn, sql);
+      for (CertWithDbId cert : certs) {
+        int idx = 1;
+        if (publishGoodCerts) {
+          ps.setLong(idx++, now);
+          setBoolean(ps, idx++, false);
+          ps.setNull(idx++, Types.INTEGER);
+          ps.setNull(idx++, Types.INTEGER);
+          ps.setNull(idx++, Types.INTEGER);
+        }
+        ps.setInt(idx++, issuerId);
+        ps.setString(idx++, cert.getCert().getSerialNumber().toString(16));
+        ps.addBatch();
+      }
+
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+      int[] counts = ps.executeBatch();
+      conn.commit();
+      committed = true;
+
+      if (!publishGoodCerts) {
+        for (int count : counts) {
+          // SUCCESS_NO_INFO (-2) if the number of deleted rows is unknown
+          if (count != 0) {
+            numDeleted++;
+          }
+        }
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      try {
+        if (!committed) {
+          conn.rollback();
+        }
+        if (autoCommit != null) {
+          conn.setAutoCommit(autoCommit);
+        }
+      } catch (SQLException ex) {
+        LogUtil.error(LOG, datasource.translate(null, ex), "could not end the transaction");
+      }
+
+      datasource.releaseResources(ps, null, false);
+      datasource.returnConnection(conn);
+    }
+
+    if (numDeleted > 0) {
+      markCertsDeleted(issuerId);
+    }
+  } // method unrevokeCerts
+
   void removeCert(X509Cert issuer, CertWithDbId cert) throws DataAccessException {
     ParamUtil.requireNonNull("issuer", issuer);
     ParamUtil.requireNonNull("cert", cert);
@@ -341,17 +513,43 @@ class OcspStoreQueryExecutor {
     final String sql = "DELETE FROM CERT WHERE IID=? AND SN=?";
     PreparedStatement ps = borrowPreparedStatement(sql);
 
+    int num;
     try {
       ps.setInt(1, issuerId);
       ps.setString(2, cert.getCert().getSerialNumber().toString(16));
-      ps.executeUpdate();
+      num = ps.executeUpdate();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
     } finally {
       datasource.releaseResources(ps, null);
     }
+
+    if (num > 0) {
+      markCertsDeleted(issuerId);
+    }
   } // method removeCert
 
+  /**
+   * Increments ISSUER.DEL_GEN, so that the OCSP responders reload the status index of the
+   * issuer. The removal of certificates cannot be detected incrementally.
+   */
+  private void markCertsDeleted(int issuerId) throws DataAccessException {
+    if (!deletionTracked) {
+      return;
+    }
+
+    final String sql = "UPDATE ISSUER SET DEL_GEN=DEL_GEN+1 WHERE ID=?";
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      ps.setInt(1, issuerId);
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  }
+
   void revokeCa(X509Cert caCert, CertRevocationInfo revInfo) throws DataAccessException {
     ParamUtil.requireNonNull("caCert", caCert);
     ParamUtil.requireNonNull("revInfo", revInfo);
@@ -424,7 +622,7 @@ class OcspStoreQueryExecutor {
       ps.setLong(idx++, notBeforeSeconds);
       ps.setLong(idx++, notAfterSeconds);
       ps.setString(idx++, sha1FpCert);
-      ps.setString(idx++, b64Cert);
+      DataSourceWrapper.setBytes(ps, idx++, encodedCert, binaryIssuerCert);
 
       ps.execute();
 
@@ -477,6 +675,49 @@ class OcspStoreQueryExecutor {
     }
   } // method getCertId
 
+  /**
+   * Returns the database IDs of the registered certificates.
+   * @return map of the serial numbers to the database IDs of registered certificates.
+   */
+  private Map<BigInteger, Long> getCertIds(Connection conn, int issuerId,
+      Collection<BigInteger> serialNumbers) throws DataAccessException {
+    Map<BigInteger, Long> ret = new HashMap<>();
+    List<BigInteger> serials = new ArrayList<>(serialNumbers);
+    final int size = serials.size();
+
+    for (int from = 0; from < size; from += MAX_SERIALS_PER_QUERY) {
+      int to = Math.min(size, from + MAX_SERIALS_PER_QUERY);
+      StringBuilder sb = new StringBuilder(60 + 2 * (to - from));
+      sb.append("SELECT ID,SN FROM CERT WHERE IID=? AND SN IN (?");
+      for (int i = from + 1; i < to; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      final String sql = sb.toString();
+
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      ResultSet rs = null;
+      try {
+        int idx = 1;
+        ps.setInt(idx++, issuerId);
+        for (int i = from; i < to; i++) {
+          ps.setString(idx++, serials.get(i).toString(16));
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          ret.put(new BigInteger(rs.getString("SN"), 16), rs.getLong("ID"));
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, rs, false);
+      }
+    }
+
+    return ret;
+  } // method getCertIds
+
   boolean isHealthy() {
     final String sql = "SELECT ID FROM ISSUER";
 
@@ -496,6 +737,61 @@ class OcspStoreQueryExecutor {
     }
   } // method isHealthy
 
+  private void setAddCertParams(PreparedStatement ps, int issuerId, CertWithDbId certificate,
+      CertRevocationInfo revInfo) throws SQLException {
+    X509Certificate cert = certificate.getCert();
+    String certHash = certhashAlgo.base64Hash(certificate.getEncodedCert());
+    String cuttedSubject = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
+    boolean revoked = (revInfo != null);
+
+    // CERT
+    int idx = 1;
+    ps.setLong(idx++, certificate.getCertId());
+    ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+    ps.setString(idx++, cert.getSerialNumber().toString(16));
+    ps.setLong(idx++, cert.getNotBefore().getTime() / 1000);
+    ps.setLong(idx++, cert.getNotAfter().getTime() / 1000);
+    setBoolean(ps, idx++, revoked);
+    ps.setInt(idx++, issuerId);
+    ps.setString(idx++, certHash);
+    ps.setString(idx++, cuttedSubject);
+
+    if (revoked) {
+      long revTime = revInfo.getRevocationTime().getTime() / 1000;
+      ps.setLong(idx++, revTime);
+      if (revInfo.getInvalidityTime() != null) {
+        ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
+      } else {
+        ps.setNull(idx++, Types.BIGINT);
+      }
+      int reasonCode = (revInfo.getReason() == null) ? 0 : revInfo.getReason().getCode();
+      ps.setInt(idx++, reasonCode);
+    }
+  } // method setAddCertParams
+
+  private static void setUpdateCertParams(PreparedStatement ps, long registeredCertId,
+      CertRevocationInfo revInfo) throws SQLException {
+    boolean revoked = (revInfo != null);
+    int idx = 1;
+    ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+    setBoolean(ps, idx++, revoked);
+    if (revoked) {
+      long revTime = revInfo.getRevocationTime().getTime() / 1000;
+      ps.setLong(idx++, revTime);
+      if (revInfo.getInvalidityTime() != null) {
+        ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
+      } else {
+        ps.setNull(idx++, Types.INTEGER);
+      }
+      ps.setInt(idx++, revInfo.getReason().getCode());
+    } else {
+      ps.setNull(idx++, Types.INTEGER); // rev_time
+      ps.setNull(idx++, Types.INTEGER); // rev_invalidity_time
+      ps.setNull(idx++, Types.INTEGER); // rev_reason
+    }
+    ps.setLong(idx++, registeredCertId);
+  } // method setUpdateCertParams
+
   private static void setBoolean(PreparedStatement ps, int index, boolean value)
       throws SQLException {
     ps.setInt(index, value ? 1 : 0);
@@ -56,4 +56,11 @@ public abstract class AbstractSecurityFactory implements SecurityFactory {
     return getContentVerifierProvider(publicKey);
   }
 
+  @Override
+  public ContentVerifierProvider getCachedContentVerifierProvider(X509Certificate cert)
+      throws InvalidKeyException {
+    ParamUtil.requireNonNull("cert", cert);
+    return getCachedContentVerifierProvider(cert.getPublicKey());
+  }
+
 }
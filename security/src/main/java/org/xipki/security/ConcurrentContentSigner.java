@@ -133,6 +133,12 @@ public interface ConcurrentContentSigner {
 
   void requiteSigner(ConcurrentBagEntrySigner signer);
 
+  /**
+   * Returns the number of signers which can be borrowed at the same time.
+   * @return the number of signers.
+   */
+  int getParallelism();
+
   boolean isHealthy();
 
   void shutdown();
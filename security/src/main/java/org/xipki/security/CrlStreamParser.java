@@ -0,0 +1,770 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.xipki.security;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.TBSCertList.CRLEntry;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.util.encoders.Base64;
+import org.xipki.util.ParamUtil;
+
+/**
+ * Parser of DER-encoded X.509 CRLs whose memory usage does not depend on the number of revoked
+ * certificates.
+ *
+ * <p>The constructor reads all fields of the CRL except the revoked certificates, which are
+ * only skipped. They are read one by one from the file by {@link #revokedCertificates()}, and
+ * the signature is verified by streaming the TBSCertList from the file to the verifier.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CrlStreamParser {
+
+  /**
+   * Revoked certificate read from the CRL.
+   */
+  public static class RevokedCert {
+
+    private final BigInteger serialNumber;
+
+    private final Date revocationDate;
+
+    private final CrlReason reason;
+
+    private final Date invalidityDate;
+
+    private final X500Name certificateIssuer;
+
+    RevokedCert(BigInteger serialNumber, Date revocationDate, CrlReason reason,
+        Date invalidityDate, X500Name certificateIssuer) {
+      this.serialNumber = serialNumber;
+      this.revocationDate = revocationDate;
+      this.reason = reason;
+      this.invalidityDate = invalidityDate;
+      this.certificateIssuer = certificateIssuer;
+    }
+
+    public BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    public Date getRevocationDate() {
+      return revocationDate;
+    }
+
+    /**
+     * Returns the revocation reason, {@link CrlReason#UNSPECIFIED} if the entry does not contain
+     * the extension reasonCode.
+     * @return the revocation reason.
+     */
+    public CrlReason getReason() {
+      return reason;
+    }
+
+    public Date getInvalidityDate() {
+      return invalidityDate;
+    }
+
+    /**
+     * Returns the issuer of the certificate as specified by the extension certificateIssuer of
+     * this or a preceding entry, {@code null} if no such extension is present.
+     * @return the issuer of the certificate, may be {@code null}.
+     */
+    public X500Name getCertificateIssuer() {
+      return certificateIssuer;
+    }
+
+  } // class RevokedCert
+
+  /**
+   * Iterator of the revoked certificates which reads the entries one by one from the file.
+   * It must be closed after use.
+   */
+  public class RevokedCertsIterator implements Iterator<RevokedCert>, Closeable {
+
+    private final DerInputStream in;
+
+    private X500Name certificateIssuer;
+
+    private RevokedCert next;
+
+    private RevokedCertsIterator() throws IOException {
+      if (revokedCertsOffset == -1) {
+        this.in = null;
+        return;
+      }
+
+      FileInputStream fileIn = new FileInputStream(crlFile);
+      try {
+        fileIn.getChannel().position(revokedCertsOffset);
+        this.in = new DerInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE),
+            revokedCertsOffset);
+        this.next = readNext();
+      } catch (IOException | RuntimeException ex) {
+        fileIn.close();
+        throw ex;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    /**
+     * Returns the next revoked certificate.
+     * @return the next revoked certificate.
+     * @throws IllegalStateException
+     *           if the next entry could not be read from the file.
+     */
+    @Override
+    public RevokedCert next() {
+      if (next == null) {
+        throw new NoSuchElementException("no more revoked certificates");
+      }
+
+      RevokedCert ret = next;
+      try {
+        next = readNext();
+      } catch (IOException ex) {
+        throw new IllegalStateException("could not read the revoked certificate: "
+            + ex.getMessage(), ex);
+      }
+      return ret;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in != null) {
+        in.close();
+      }
+    }
+
+    private RevokedCert readNext() throws IOException {
+      if (in.getOffset() >= revokedCertsEnd) {
+        return null;
+      }
+
+      in.readHeader(TAG_SEQUENCE);
+      CRLEntry entry;
+      try {
+        entry = CRLEntry.getInstance(in.readTlv());
+      } catch (IllegalArgumentException ex) {
+        throw new IOException("invalid CRL entry: " + ex.getMessage(), ex);
+      }
+
+      if (in.getOffset() > revokedCertsEnd) {
+        throw new IOException("CRL entry exceeds the revokedCertificates");
+      }
+
+      CrlReason reason = CrlReason.UNSPECIFIED;
+      Date invalidityDate = null;
+
+      Extensions extns = entry.getExtensions();
+      if (extns != null) {
+        try {
+          Extension extn = extns.getExtension(Extension.reasonCode);
+          if (extn != null) {
+            int code = ASN1Enumerated.getInstance(extn.getParsedValue()).getValue().intValue();
+            reason = CrlReason.forReasonCode(code);
+          }
+
+          extn = extns.getExtension(Extension.invalidityDate);
+          if (extn != null) {
+            invalidityDate = ASN1GeneralizedTime.getInstance(extn.getParsedValue()).getDate();
+          }
+
+          extn = extns.getExtension(Extension.certificateIssuer);
+          if (extn != null) {
+            certificateIssuer = null;
+            for (GeneralName name : GeneralNames.getInstance(extn.getParsedValue()).getNames()) {
+              if (name.getTagNo() == GeneralName.directoryName) {
+                certificateIssuer = X500Name.getInstance(name.getName());
+                break;
+              }
+            }
+          }
+        } catch (IllegalArgumentException | ParseException ex) {
+          throw new IOException("invalid extension in CRL entry: " + ex.getMessage(), ex);
+        }
+      }
+
+      return new RevokedCert(entry.getUserCertificate().getPositiveValue(),
+          entry.getRevocationDate().getDate(), reason, invalidityDate, certificateIssuer);
+    }
+
+  } // class RevokedCertsIterator
+
+  /**
+   * Input stream which tracks the offset and reads DER-encoded elements.
+   */
+  private static class DerInputStream extends FilterInputStream {
+
+    private long offset;
+
+    private final byte[] header = new byte[10];
+
+    private int headerLen;
+
+    private int tag;
+
+    private long length;
+
+    DerInputStream(InputStream in, long offset) {
+      super(in);
+      this.offset = offset;
+    }
+
+    long getOffset() {
+      return offset;
+    }
+
+    int getTag() {
+      return tag;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        offset++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+      int num = super.read(buf, off, len);
+      if (num > 0) {
+        offset += num;
+      }
+      return num;
+    }
+
+    @Override
+    public long skip(long num) throws IOException {
+      long skipped = super.skip(num);
+      offset += skipped;
+      return skipped;
+    }
+
+    /**
+     * Reads the tag and length of the next element, the tag must be the expected one.
+     */
+    void readHeader(int expectedTag) throws IOException {
+      readHeader();
+      if (tag != expectedTag) {
+        throw new IOException("expected tag 0x" + Integer.toHexString(expectedTag)
+            + ", but found 0x" + Integer.toHexString(tag) + " at offset " + offset);
+      }
+    }
+
+    /**
+     * Reads the tag and length of the next element. Only low tag numbers and the definite length
+     * form are supported, as required by DER for the elements of a CRL.
+     */
+    void readHeader() throws IOException {
+      headerLen = 0;
+      tag = readHeaderByte();
+      if ((tag & 0x1F) == 0x1F) {
+        throw new IOException("high tag number is not supported");
+      }
+
+      int lenByte = readHeaderByte();
+      if (lenByte < 0x80) {
+        length = lenByte;
+        return;
+      }
+
+      int numLenBytes = lenByte & 0x7F;
+      if (numLenBytes == 0) {
+        throw new IOException("indefinite length is not allowed in DER");
+      } else if (numLenBytes > 7) {
+        throw new IOException("length too large");
+      }
+
+      length = 0;
+      for (int i = 0; i < numLenBytes; i++) {
+        length = (length << 8) | readHeaderByte();
+      }
+    }
+
+    /**
+     * Reads the value of the element whose header has been read.
+     */
+    byte[] readValue() throws IOException {
+      byte[] value = new byte[checkedLength(0)];
+      readFully(value, 0, value.length);
+      return value;
+    }
+
+    /**
+     * Reads the value of the element whose header has been read, and returns the complete
+     * encoded element.
+     */
+    byte[] readTlv() throws IOException {
+      byte[] encoded = new byte[checkedLength(headerLen)];
+      System.arraycopy(header, 0, encoded, 0, headerLen);
+      readFully(encoded, headerLen, encoded.length - headerLen);
+      return encoded;
+    }
+
+    /**
+     * Skips the value of the element whose header has been read.
+     */
+    void skipValue() throws IOException {
+      long remaining = length;
+      while (remaining > 0) {
+        long num = skip(remaining);
+        if (num <= 0) {
+          if (read() == -1) {
+            throw new EOFException("unexpected end of stream");
+          }
+          num = 1;
+        }
+        remaining -= num;
+      }
+    }
+
+    /**
+     * Copies the given number of bytes to the output stream.
+     */
+    void copyTo(OutputStream out, long num) throws IOException {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long remaining = num;
+      while (remaining > 0) {
+        int len = read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (len == -1) {
+          throw new EOFException("unexpected end of stream");
+        }
+        out.write(buffer, 0, len);
+        remaining -= len;
+      }
+    }
+
+    private int checkedLength(int headerLen) throws IOException {
+      if (length > Integer.MAX_VALUE - 16) {
+        throw new IOException("element too large: " + length + " bytes");
+      }
+      return headerLen + (int) length;
+    }
+
+    private int readHeaderByte() throws IOException {
+      int b = read();
+      if (b == -1) {
+        throw new EOFException("unexpected end of stream");
+      }
+      header[headerLen++] = (byte) b;
+      return b;
+    }
+
+    private void readFully(byte[] buf, int off, int len) throws IOException {
+      int pos = off;
+      int end = off + len;
+      while (pos < end) {
+        int num = read(buf, pos, end - pos);
+        if (num == -1) {
+          throw new EOFException("unexpected end of stream");
+        }
+        pos += num;
+      }
+    }
+
+  } // class DerInputStream
+
+  private static final int TAG_INTEGER = 0x02;
+
+  private static final int TAG_BIT_STRING = 0x03;
+
+  private static final int TAG_UTC_TIME = 0x17;
+
+  private static final int TAG_GENERALIZED_TIME = 0x18;
+
+  private static final int TAG_SEQUENCE = 0x30;
+
+  private static final int TAG_CONTEXT_0 = 0xA0;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File crlFile;
+
+  private final int version;
+
+  private final AlgorithmIdentifier signature;
+
+  private final X500Name issuer;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final Extensions crlExtensions;
+
+  private final AlgorithmIdentifier signatureAlgorithm;
+
+  private final byte[] signatureValue;
+
+  private final long tbsCertListOffset;
+
+  private final long tbsCertListEnd;
+
+  // offset of the first entry of revokedCertificates, -1 if it is absent.
+  private final long revokedCertsOffset;
+
+  private final long revokedCertsEnd;
+
+  /**
+   * Parses the CRL in the given file.
+   * @param crlFile
+   *          File containing the DER-encoded CRL. Must not be {@code null}.
+   * @throws IOException
+   *           if the file could not be read or does not contain a valid CRL.
+   */
+  public CrlStreamParser(File crlFile) throws IOException {
+    this.crlFile = ParamUtil.requireNonNull("crlFile", crlFile);
+
+    DerInputStream in = new DerInputStream(
+        new BufferedInputStream(new FileInputStream(crlFile), BUFFER_SIZE), 0);
+    try {
+      // CertificateList
+      in.readHeader(TAG_SEQUENCE);
+
+      // TBSCertList
+      this.tbsCertListOffset = in.getOffset();
+      in.readHeader(TAG_SEQUENCE);
+      this.tbsCertListEnd = in.getOffset() + in.getLength();
+
+      in.readHeader();
+      if (in.getTag() == TAG_INTEGER) {
+        this.version = ASN1Integer.getInstance(in.readTlv()).getValue().intValue();
+        in.readHeader();
+      } else {
+        this.version = 0;
+      }
+
+      this.signature = AlgorithmIdentifier.getInstance(readTlv(in, TAG_SEQUENCE));
+
+      in.readHeader();
+      this.issuer = X500Name.getInstance(readTlv(in, TAG_SEQUENCE));
+
+      in.readHeader();
+      this.thisUpdate = readTime(in);
+
+      Date tmpNextUpdate = null;
+      long tmpRevokedCertsOffset = -1;
+      long tmpRevokedCertsEnd = -1;
+      Extensions tmpCrlExtensions = null;
+
+      if (in.getOffset() < tbsCertListEnd) {
+        in.readHeader();
+        int tag = in.getTag();
+        if (tag == TAG_UTC_TIME || tag == TAG_GENERALIZED_TIME) {
+          tmpNextUpdate = readTime(in);
+          tag = readNextHeader(in);
+        }
+
+        if (tag == TAG_SEQUENCE) {
+          tmpRevokedCertsOffset = in.getOffset();
+          tmpRevokedCertsEnd = tmpRevokedCertsOffset + in.getLength();
+          in.skipValue();
+          tag = readNextHeader(in);
+        }
+
+        if (tag == TAG_CONTEXT_0) {
+          tmpCrlExtensions = Extensions.getInstance(in.readValue());
+          tag = readNextHeader(in);
+        }
+
+        if (tag != -1) {
+          throw new IOException("unexpected element with tag 0x" + Integer.toHexString(tag)
+              + " in TBSCertList");
+        }
+      }
+
+      if (in.getOffset() != tbsCertListEnd) {
+        throw new IOException("invalid length of TBSCertList");
+      }
+
+      this.nextUpdate = tmpNextUpdate;
+      this.revokedCertsOffset = tmpRevokedCertsOffset;
+      this.revokedCertsEnd = tmpRevokedCertsEnd;
+      this.crlExtensions = tmpCrlExtensions;
+
+      in.readHeader();
+      this.signatureAlgorithm = AlgorithmIdentifier.getInstance(readTlv(in, TAG_SEQUENCE));
+
+      in.readHeader();
+      this.signatureValue = DERBitString.getInstance(
+          ASN1Primitive.fromByteArray(readTlv(in, TAG_BIT_STRING))).getBytes();
+    } catch (IllegalArgumentException ex) {
+      throw new IOException("invalid CRL: " + ex.getMessage(), ex);
+    } finally {
+      in.close();
+    }
+  } // constructor
+
+  public int getVersion() {
+    return version;
+  }
+
+  public AlgorithmIdentifier getSignature() {
+    return signature;
+  }
+
+  public X500Name getIssuer() {
+    return issuer;
+  }
+
+  public Date getThisUpdate() {
+    return thisUpdate;
+  }
+
+  public Date getNextUpdate() {
+    return nextUpdate;
+  }
+
+  public Extensions getCrlExtensions() {
+    return crlExtensions;
+  }
+
+  public AlgorithmIdentifier getSignatureAlgorithm() {
+    return signatureAlgorithm;
+  }
+
+  /**
+   * Returns the CRL number.
+   * @return the CRL number, {@code null} if the CRL does not contain the extension cRLNumber.
+   */
+  public BigInteger getCrlNumber() {
+    return getIntegerExtension(Extension.cRLNumber);
+  }
+
+  /**
+   * Returns the CRL number of the base CRL of a delta CRL.
+   * @return the CRL number of the base CRL, {@code null} if this CRL is not a delta CRL.
+   */
+  public BigInteger getBaseCrlNumber() {
+    return getIntegerExtension(Extension.deltaCRLIndicator);
+  }
+
+  public boolean isDeltaCrl() {
+    return getBaseCrlNumber() != null;
+  }
+
+  /**
+   * Verifies the signature of the CRL. The TBSCertList is streamed from the file to the
+   * verifier.
+   * @param verifierProvider
+   *          Provider of the verifier of the CRL issuer's signature. Must not be {@code null}.
+   * @return whether the signature is valid.
+   * @throws IOException
+   *           if the file could not be read or the verifier could not be created.
+   */
+  public boolean verifySignature(ContentVerifierProvider verifierProvider) throws IOException {
+    ParamUtil.requireNonNull("verifierProvider", verifierProvider);
+
+    if (!signature.equals(signatureAlgorithm)) {
+      return false;
+    }
+
+    ContentVerifier verifier;
+    try {
+      verifier = verifierProvider.get(signatureAlgorithm);
+    } catch (OperatorCreationException ex) {
+      throw new IOException("could not create the verifier: " + ex.getMessage(), ex);
+    }
+
+    DerInputStream in = new DerInputStream(
+        new BufferedInputStream(new FileInputStream(crlFile), BUFFER_SIZE), 0);
+    try {
+      in.readHeader(TAG_SEQUENCE);
+      OutputStream out = verifier.getOutputStream();
+      in.copyTo(out, tbsCertListEnd - tbsCertListOffset);
+      out.close();
+    } finally {
+      in.close();
+    }
+
+    return verifier.verify(signatureValue);
+  } // method verifySignature
+
+  /**
+   * Returns the iterator of the revoked certificates. The entries are read from the file while
+   * iterating, the returned iterator must be closed.
+   * @return the iterator of the revoked certificates.
+   * @throws IOException
+   *           if the file could not be opened.
+   */
+  public RevokedCertsIterator revokedCertificates() throws IOException {
+    return new RevokedCertsIterator();
+  }
+
+  /**
+   * Converts a PEM-encoded CRL to DER.
+   * @param pemFile
+   *          File containing the PEM-encoded CRL. Must not be {@code null}.
+   * @param derFile
+   *          File to which the DER-encoded CRL is written. Must not be {@code null}.
+   * @throws IOException
+   *           if the file could not be read or written.
+   */
+  public static void convertPemToDer(File pemFile, File derFile) throws IOException {
+    ParamUtil.requireNonNull("pemFile", pemFile);
+    ParamUtil.requireNonNull("derFile", derFile);
+
+    BufferedReader reader = Files.newBufferedReader(pemFile.toPath(), StandardCharsets.US_ASCII);
+    OutputStream out = Files.newOutputStream(derFile.toPath());
+    try {
+      boolean inBlock = false;
+      // the base64 characters not decoded yet
+      StringBuilder sb = new StringBuilder(BUFFER_SIZE);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.startsWith("-----BEGIN")) {
+          inBlock = true;
+          continue;
+        } else if (line.startsWith("-----END")) {
+          break;
+        } else if (!inBlock) {
+          continue;
+        }
+
+        sb.append(line);
+        if (sb.length() >= BUFFER_SIZE) {
+          int len = sb.length() & ~3;
+          out.write(Base64.decode(sb.substring(0, len)));
+          sb.delete(0, len);
+        }
+      }
+
+      if (!inBlock) {
+        throw new IOException("no PEM block found in file " + pemFile.getPath());
+      }
+
+      if (sb.length() > 0) {
+        out.write(Base64.decode(sb.toString()));
+      }
+    } finally {
+      try {
+        reader.close();
+      } finally {
+        out.close();
+      }
+    }
+  } // method convertPemToDer
+
+  /**
+   * Returns whether the file contains a DER-encoded element, namely whether the first byte is
+   * the tag SEQUENCE.
+   * @param file
+   *          File to be checked. Must not be {@code null}.
+   * @return whether the file is DER-encoded.
+   * @throws IOException
+   *           if the file could not be read.
+   */
+  public static boolean isDerEncoded(File file) throws IOException {
+    ParamUtil.requireNonNull("file", file);
+    InputStream in = new FileInputStream(file);
+    try {
+      return in.read() == TAG_SEQUENCE;
+    } finally {
+      in.close();
+    }
+  }
+
+  private BigInteger getIntegerExtension(ASN1ObjectIdentifier type) {
+    if (crlExtensions == null) {
+      return null;
+    }
+
+    Extension extn = crlExtensions.getExtension(type);
+    if (extn == null) {
+      return null;
+    }
+    return ASN1Integer.getInstance(extn.getParsedValue()).getPositiveValue();
+  }
+
+  private static byte[] readTlv(DerInputStream in, int expectedTag) throws IOException {
+    if (in.getTag() != expectedTag) {
+      throw new IOException("expected tag 0x" + Integer.toHexString(expectedTag)
+          + ", but found 0x" + Integer.toHexString(in.getTag()));
+    }
+    return in.readTlv();
+  }
+
+  private static Date readTime(DerInputStream in) throws IOException {
+    int tag = in.getTag();
+    if (tag != TAG_UTC_TIME && tag != TAG_GENERALIZED_TIME) {
+      throw new IOException("expected Time, but found tag 0x" + Integer.toHexString(tag));
+    }
+    return Time.getInstance(ASN1Primitive.fromByteArray(in.readTlv())).getDate();
+  }
+
+  /**
+   * Reads the header of the next element of TBSCertList.
+   * @return the tag of the next element, -1 if the end of TBSCertList is reached.
+   */
+  private int readNextHeader(DerInputStream in) throws IOException {
+    if (in.getOffset() >= tbsCertListEnd) {
+      return -1;
+    }
+    in.readHeader();
+    return in.getTag();
+  }
+
+}
@@ -174,6 +174,11 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     signers.requite(signer);
   }
 
+  @Override
+  public int getParallelism() {
+    return signers.size();
+  }
+
   @Override
   public void initialize(String conf, PasswordResolver passwordResolver)
       throws XiSecurityException {
@@ -134,6 +134,35 @@ public interface SecurityFactory {
   ContentVerifierProvider getContentVerifierProvider(X509CertificateHolder cert)
       throws InvalidKeyException;
 
+  /**
+   * Gets the ContentVerifierProvider from the public key. The ContentVerifierProvider is cached,
+   * and can be used concurrently. This method is intended for keys used repeatedly, e.g.
+   * the keys of the requestors.
+   *
+   * @param publicKey
+   *          Signature verification key. Must not be {@code null}.
+   * @return the ContentVerifierProvider
+   * @throws InvalidKeyException
+   *         If the publicKey is invalid or unsupported.
+   * @since 4.0.1
+   */
+  ContentVerifierProvider getCachedContentVerifierProvider(PublicKey publicKey)
+      throws InvalidKeyException;
+
+  /**
+   * Gets the ContentVerifierProvider from the certificate. The ContentVerifierProvider is cached,
+   * and can be used concurrently.
+   *
+   * @param cert
+   *          Certificate that contains the signature verification key. Must not be {@code null}.
+   * @return the ContentVerifierProvider
+   * @throws InvalidKeyException
+   *         If the publicKey contained in the certificate is invalid or unsupported.
+   * @since 4.0.1
+   */
+  ContentVerifierProvider getCachedContentVerifierProvider(X509Certificate cert)
+      throws InvalidKeyException;
+
   /**
    * Verifies the signature of CSR.
    * @param csr
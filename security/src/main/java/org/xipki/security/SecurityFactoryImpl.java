@@ -33,9 +33,9 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bouncycastle.asn1.pkcs.CertificationRequest;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
@@ -60,6 +60,7 @@ import org.xipki.security.util.AlgorithmUtil;
 import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.ObjectCreationException;
 import org.xipki.util.ParamUtil;
 
@@ -77,7 +78,12 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
       new DefaultDigestAlgorithmIdentifierFinder();
 
   private static final Map<String, BcContentVerifierProviderBuilder> VERIFIER_PROVIDER_BUILDER =
-      new HashMap<>();
+      new ConcurrentHashMap<>();
+
+  // the ContentVerifierProvider creates a new ContentVerifier for each verification, hence it
+  // can be shared by concurrent threads.
+  private final LruCache<PublicKey, ContentVerifierProvider> verifierProviders =
+      new LruCache<>(1000);
 
   private int defaultSignerParallelism = 32;
 
@@ -155,6 +161,19 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
     }
   }
 
+  @Override
+  public ContentVerifierProvider getCachedContentVerifierProvider(PublicKey publicKey)
+      throws InvalidKeyException {
+    ParamUtil.requireNonNull("publicKey", publicKey);
+
+    ContentVerifierProvider provider = verifierProviders.get(publicKey);
+    if (provider == null) {
+      provider = getContentVerifierProvider(publicKey);
+      verifierProviders.put(publicKey, provider);
+    }
+    return provider;
+  }
+
   @Override
   public PublicKey generatePublicKey(SubjectPublicKeyInfo subjectPublicKeyInfo)
       throws InvalidKeyException {
@@ -0,0 +1,462 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.cert.X509CRLEntryHolder;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xipki.security.CrlReason;
+import org.xipki.security.CrlStreamParser;
+import org.xipki.security.CrlStreamParser.RevokedCert;
+import org.xipki.security.CrlStreamParser.RevokedCertsIterator;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class CrlStreamParserTest {
+
+  private static final X500Name ISSUER = new X500Name("CN=CrlStreamParserTest CA");
+
+  private static final X500Name OTHER_ISSUER = new X500Name("CN=CrlStreamParserTest Other CA");
+
+  // unknown entry extension whose value ends with the encoding of an empty [0] Extensions
+  private static final ASN1ObjectIdentifier ID_DUMMY_EXTN = new ASN1ObjectIdentifier("1.2.3.4");
+
+  private static final byte[] EMPTY_CRL_EXTENSIONS = new byte[] {(byte) 0xA0, 2, 0x30, 0};
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private KeyPair keypair;
+
+  @Before
+  public void addBouncyCastleProvider() throws Exception {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+    keypair = generateKeypair();
+  }
+
+  @Test
+  public void testCompareWithX509CrlHolder() throws Exception {
+    long now = System.currentTimeMillis();
+    X509v2CRLBuilder builder = newCrlBuilder(now);
+    // more than 64 KB, the buffer size of the parser
+    for (int i = 1; i <= 5000; i++) {
+      Date revocationDate = new Date(now - i * 1000L);
+      if (i % 3 == 0) {
+        builder.addCRLEntry(BigInteger.valueOf(i), revocationDate, CRLReason.keyCompromise,
+            new Date(now - i * 2000L));
+      } else if (i % 3 == 1) {
+        builder.addCRLEntry(BigInteger.valueOf(i), revocationDate, CRLReason.superseded);
+      } else {
+        builder.addCRLEntry(BigInteger.valueOf(i).shiftLeft(100), revocationDate,
+            (Extensions) null);
+      }
+    }
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(10));
+    X509CRLHolder holder = builder.build(newSigner());
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", holder.getEncoded()));
+
+    Assert.assertEquals(holder.toASN1Structure().getVersionNumber() - 1, parser.getVersion());
+    Assert.assertEquals(holder.toASN1Structure().getTBSCertList().getSignature(),
+        parser.getSignature());
+    Assert.assertEquals(holder.getIssuer(), parser.getIssuer());
+    Assert.assertEquals(holder.toASN1Structure().getThisUpdate().getDate(), parser.getThisUpdate());
+    Assert.assertEquals(holder.toASN1Structure().getNextUpdate().getDate(), parser.getNextUpdate());
+    Assert.assertEquals(holder.getExtensions(), parser.getCrlExtensions());
+    Assert.assertEquals(holder.toASN1Structure().getSignatureAlgorithm(),
+        parser.getSignatureAlgorithm());
+    Assert.assertEquals(BigInteger.valueOf(10), parser.getCrlNumber());
+    Assert.assertNull(parser.getBaseCrlNumber());
+    Assert.assertFalse(parser.isDeltaCrl());
+
+    List<RevokedCert> revokedCerts = readRevokedCerts(parser);
+    Assert.assertEquals(holder.getRevokedCertificates().size(), revokedCerts.size());
+
+    int idx = 0;
+    for (Object obj : holder.getRevokedCertificates()) {
+      X509CRLEntryHolder expected = (X509CRLEntryHolder) obj;
+      RevokedCert revokedCert = revokedCerts.get(idx++);
+      Assert.assertEquals(expected.getSerialNumber(), revokedCert.getSerialNumber());
+      Assert.assertEquals(expected.getRevocationDate(), revokedCert.getRevocationDate());
+
+      Extension extn = expected.getExtension(Extension.reasonCode);
+      CrlReason expectedReason = (extn == null) ? CrlReason.UNSPECIFIED : CrlReason.forReasonCode(
+          ASN1Enumerated.getInstance(extn.getParsedValue()).getValue().intValue());
+      Assert.assertEquals(expectedReason, revokedCert.getReason());
+
+      extn = expected.getExtension(Extension.invalidityDate);
+      Date expectedInvalidityDate = (extn == null) ? null
+          : ASN1GeneralizedTime.getInstance(extn.getParsedValue()).getDate();
+      Assert.assertEquals(expectedInvalidityDate, revokedCert.getInvalidityDate());
+      Assert.assertNull(revokedCert.getCertificateIssuer());
+    }
+  } // method testCompareWithX509CrlHolder
+
+  @Test
+  public void testDeltaCrl() throws Exception {
+    X509v2CRLBuilder builder = newCrlBuilder(System.currentTimeMillis());
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(11));
+    builder.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(10));
+    X509CRLHolder holder = builder.build(newSigner());
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", holder.getEncoded()));
+    Assert.assertEquals(BigInteger.valueOf(11), parser.getCrlNumber());
+    Assert.assertEquals(BigInteger.valueOf(10), parser.getBaseCrlNumber());
+    Assert.assertTrue(parser.isDeltaCrl());
+  }
+
+  @Test
+  public void testWithoutRevokedCertificates() throws Exception {
+    X509v2CRLBuilder builder = newCrlBuilder(System.currentTimeMillis());
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(1));
+    X509CRLHolder holder = builder.build(newSigner());
+    Assert.assertEquals(0,
+        holder.toASN1Structure().getTBSCertList().getRevokedCertificates().length);
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", holder.getEncoded()));
+    Assert.assertEquals(holder.getExtensions(), parser.getCrlExtensions());
+    Assert.assertTrue(readRevokedCerts(parser).isEmpty());
+    Assert.assertTrue(parser.verifySignature(newVerifierProvider()));
+  }
+
+  @Test
+  public void testEmptyRevokedCertificates() throws Exception {
+    Date thisUpdate = new Date(System.currentTimeMillis() / 1000 * 1000);
+    byte[] tbsCertList = tlv(0x30, concat(tbsCertListHeader(thisUpdate), tlv(0x30)));
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", signCrl(tbsCertList)));
+    Assert.assertEquals(ISSUER, parser.getIssuer());
+    Assert.assertEquals(thisUpdate, parser.getThisUpdate());
+    Assert.assertNull(parser.getNextUpdate());
+    Assert.assertNull(parser.getCrlExtensions());
+    Assert.assertTrue(readRevokedCerts(parser).isEmpty());
+    Assert.assertTrue(parser.verifySignature(newVerifierProvider()));
+  }
+
+  @Test
+  public void testIndirectCrl() throws Exception {
+    long now = System.currentTimeMillis();
+    X509v2CRLBuilder builder = newCrlBuilder(now);
+    builder.addExtension(Extension.issuingDistributionPoint, true,
+        new IssuingDistributionPoint(null, false, false, null, true, false));
+
+    Date revocationDate = new Date(now - 1000);
+    builder.addCRLEntry(BigInteger.valueOf(1), revocationDate, (Extensions) null);
+
+    ExtensionsGenerator extnGen = new ExtensionsGenerator();
+    extnGen.addExtension(Extension.certificateIssuer, true,
+        new GeneralNames(new GeneralName(OTHER_ISSUER)));
+    builder.addCRLEntry(BigInteger.valueOf(2), revocationDate, extnGen.generate());
+    // carries over the certificateIssuer of the previous entry
+    builder.addCRLEntry(BigInteger.valueOf(3), revocationDate, (Extensions) null);
+
+    extnGen = new ExtensionsGenerator();
+    extnGen.addExtension(Extension.certificateIssuer, true,
+        new GeneralNames(new GeneralName(ISSUER)));
+    builder.addCRLEntry(BigInteger.valueOf(4), revocationDate, extnGen.generate());
+    X509CRLHolder holder = builder.build(newSigner());
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", holder.getEncoded()));
+    List<RevokedCert> revokedCerts = readRevokedCerts(parser);
+    Assert.assertEquals(4, revokedCerts.size());
+    Assert.assertNull(revokedCerts.get(0).getCertificateIssuer());
+    Assert.assertEquals(OTHER_ISSUER, revokedCerts.get(1).getCertificateIssuer());
+    Assert.assertEquals(OTHER_ISSUER, revokedCerts.get(2).getCertificateIssuer());
+    Assert.assertEquals(ISSUER, revokedCerts.get(3).getCertificateIssuer());
+
+    // X509CRLHolder uses the CRL issuer for the entries before the first certificateIssuer
+    int idx = 0;
+    for (Object obj : holder.getRevokedCertificates()) {
+      X509CRLEntryHolder expected = (X509CRLEntryHolder) obj;
+      X500Name issuer = revokedCerts.get(idx++).getCertificateIssuer();
+      Assert.assertEquals(expected.getCertificateIssuer(),
+          new GeneralNames(new GeneralName(issuer == null ? ISSUER : issuer)));
+    }
+  } // method testIndirectCrl
+
+  @Test
+  public void testTruncatedCrl() throws Exception {
+    X509v2CRLBuilder builder = newCrlBuilder(System.currentTimeMillis());
+    builder.addCRLEntry(BigInteger.ONE, new Date(), CRLReason.keyCompromise);
+    byte[] encoded = builder.build(newSigner()).getEncoded();
+
+    for (int len : new int[] {0, 1, 10, encoded.length / 2, encoded.length - 1}) {
+      File file = writeFile("crl-" + len + ".der", Arrays.copyOf(encoded, len));
+      try {
+        new CrlStreamParser(file);
+        Assert.fail("truncated CRL with " + len + " bytes has been accepted");
+      } catch (IOException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testEntryWithTrailingElement() throws Exception {
+    Date date = new Date(System.currentTimeMillis() / 1000 * 1000);
+    // userCertificate, revocationDate, crlEntryExtensions and an unexpected INTEGER
+    byte[] entry = tlv(0x30, concat(tlv(0x02, 1), new Time(date).getEncoded(),
+        tlv(0x30), tlv(0x02, 1)));
+    byte[] tbsCertList = tlv(0x30, concat(tbsCertListHeader(date), tlv(0x30, entry)));
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", signCrl(tbsCertList)));
+    assertInvalidRevokedCertificates(parser);
+  }
+
+  @Test
+  public void testEntryExceedsRevokedCertificates() throws Exception {
+    Date date = new Date(System.currentTimeMillis() / 1000 * 1000);
+    ExtensionsGenerator extnGen = new ExtensionsGenerator();
+    extnGen.addExtension(ID_DUMMY_EXTN, false, EMPTY_CRL_EXTENSIONS);
+    byte[] entry = tlv(0x30, concat(tlv(0x02, 1), new Time(date).getEncoded(),
+        extnGen.generate().getEncoded()));
+
+    // the last bytes of the entry are parsed as the crlExtensions of the TBSCertList
+    byte[] revokedCerts = tlv(0x30, Arrays.copyOf(entry, entry.length - 4));
+    revokedCerts = Arrays.copyOf(revokedCerts, revokedCerts.length + 4);
+    System.arraycopy(EMPTY_CRL_EXTENSIONS, 0, revokedCerts, revokedCerts.length - 4, 4);
+    byte[] tbsCertList = tlv(0x30, concat(tbsCertListHeader(date), revokedCerts));
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", signCrl(tbsCertList)));
+    Assert.assertEquals(0, parser.getCrlExtensions().getExtensionOIDs().length);
+    assertInvalidRevokedCertificates(parser);
+  }
+
+  @Test
+  public void testConvertPemToDer() throws Exception {
+    long now = System.currentTimeMillis();
+    X509v2CRLBuilder builder = newCrlBuilder(now);
+    // the base64 text exceeds the buffer size of the parser
+    for (int i = 1; i <= 5000; i++) {
+      builder.addCRLEntry(BigInteger.valueOf(i), new Date(now - i * 1000L),
+          CRLReason.keyCompromise);
+    }
+    byte[] encoded = builder.build(newSigner()).getEncoded();
+
+    String b64 = Base64.toBase64String(encoded);
+    StringBuilder sb = new StringBuilder();
+    sb.append("Some text before the PEM block\n-----BEGIN X509 CRL-----\n");
+    for (int i = 0; i < b64.length(); i += 64) {
+      sb.append(b64, i, Math.min(b64.length(), i + 64)).append("\r\n");
+    }
+    sb.append("-----END X509 CRL-----\n");
+
+    File pemFile = writeFile("crl.pem", sb.toString().getBytes(StandardCharsets.US_ASCII));
+    Assert.assertFalse(CrlStreamParser.isDerEncoded(pemFile));
+
+    File derFile = new File(tmpFolder.getRoot(), "crl.der");
+    CrlStreamParser.convertPemToDer(pemFile, derFile);
+    Assert.assertTrue(CrlStreamParser.isDerEncoded(derFile));
+    Assert.assertArrayEquals(encoded, Files.readAllBytes(derFile.toPath()));
+    Assert.assertEquals(5000, readRevokedCerts(new CrlStreamParser(derFile)).size());
+  }
+
+  @Test(expected = IOException.class)
+  public void testConvertPemToDerWithoutPemBlock() throws Exception {
+    File pemFile = writeFile("crl.pem", "no PEM block".getBytes(StandardCharsets.US_ASCII));
+    CrlStreamParser.convertPemToDer(pemFile, new File(tmpFolder.getRoot(), "crl.der"));
+  }
+
+  @Test
+  public void testVerifySignature() throws Exception {
+    long now = System.currentTimeMillis();
+    X509v2CRLBuilder builder = newCrlBuilder(now);
+    for (int i = 1; i <= 100; i++) {
+      builder.addCRLEntry(BigInteger.valueOf(i), new Date(now - i * 1000L),
+          CRLReason.keyCompromise);
+    }
+    byte[] encoded = builder.build(newSigner()).getEncoded();
+
+    CrlStreamParser parser = new CrlStreamParser(writeFile("crl.der", encoded));
+    Assert.assertTrue(parser.verifySignature(newVerifierProvider()));
+
+    ContentVerifierProvider otherVerifierProvider = new JcaContentVerifierProviderBuilder()
+        .setProvider("BC").build(generateKeypair().getPublic());
+    Assert.assertFalse(parser.verifySignature(otherVerifierProvider));
+
+    // modify the serial number of the last entry
+    int idx = indexOf(encoded, tlv(0x02, 100));
+    Assert.assertTrue(idx > 0);
+    encoded[idx + 2] = 101;
+
+    parser = new CrlStreamParser(writeFile("crl-modified.der", encoded));
+    Assert.assertFalse(parser.verifySignature(newVerifierProvider()));
+  }
+
+  private X509v2CRLBuilder newCrlBuilder(long now) {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, new Date(now));
+    builder.setNextUpdate(new Date(now + 3600000L));
+    return builder;
+  }
+
+  private ContentSigner newSigner() throws Exception {
+    return new JcaContentSignerBuilder("SHA256withECDSA").setProvider("BC")
+        .build(keypair.getPrivate());
+  }
+
+  private ContentVerifierProvider newVerifierProvider() throws Exception {
+    return new JcaContentVerifierProviderBuilder().setProvider("BC")
+        .build(keypair.getPublic());
+  }
+
+  /**
+   * Returns the encoded version, signature, issuer and thisUpdate of a TBSCertList.
+   */
+  private byte[] tbsCertListHeader(Date thisUpdate) throws Exception {
+    return concat(tlv(0x02, 1), newSigner().getAlgorithmIdentifier().getEncoded(),
+        ISSUER.getEncoded(), new Time(thisUpdate).getEncoded());
+  }
+
+  private byte[] signCrl(byte[] tbsCertList) throws Exception {
+    ContentSigner signer = newSigner();
+    OutputStream out = signer.getOutputStream();
+    out.write(tbsCertList);
+    out.close();
+
+    // the TBSCertList may be invalid, hence it is not parsed by BouncyCastle
+    return tlv(0x30, tbsCertList, signer.getAlgorithmIdentifier().getEncoded(),
+        new DERBitString(signer.getSignature()).getEncoded());
+  }
+
+  private File writeFile(String name, byte[] content) throws IOException {
+    File file = new File(tmpFolder.getRoot(), name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static List<RevokedCert> readRevokedCerts(CrlStreamParser parser) throws IOException {
+    List<RevokedCert> ret = new ArrayList<>();
+    RevokedCertsIterator it = parser.revokedCertificates();
+    try {
+      while (it.hasNext()) {
+        ret.add(it.next());
+      }
+    } finally {
+      it.close();
+    }
+    return ret;
+  }
+
+  private static void assertInvalidRevokedCertificates(CrlStreamParser parser) {
+    try {
+      readRevokedCerts(parser);
+      Assert.fail("invalid revokedCertificates has been accepted");
+    } catch (IOException | IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  private static KeyPair generateKeypair() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC", "BC");
+    kpGen.initialize(256);
+    return kpGen.generateKeyPair();
+  }
+
+  private static byte[] tlv(int tag, int intValue) {
+    return tlv(tag, BigInteger.valueOf(intValue).toByteArray());
+  }
+
+  private static byte[] tlv(int tag, byte[]... contents) {
+    byte[] content = concat(contents);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+    out.write(tag);
+    int len = content.length;
+    if (len < 0x80) {
+      out.write(len);
+    } else {
+      int numLenBytes = (32 - Integer.numberOfLeadingZeros(len) + 7) / 8;
+      out.write(0x80 | numLenBytes);
+      for (int i = numLenBytes - 1; i >= 0; i--) {
+        out.write(len >>> (8 * i));
+      }
+    }
+    out.write(content, 0, content.length);
+    return out.toByteArray();
+  }
+
+  private static byte[] concat(byte[]... arrays) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] array : arrays) {
+      out.write(array, 0, array.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static int indexOf(byte[] data, byte[] pattern) {
+    for (int i = 0; i <= data.length - pattern.length; i++) {
+      boolean match = true;
+      for (int j = 0; j < pattern.length; j++) {
+        if (data[i + j] != pattern[j]) {
+          match = false;
+          break;
+        }
+      }
+      if (match) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -39,11 +39,27 @@ import io.netty.handler.codec.http.HttpVersion;
 
 public abstract class AbstractHttpServlet implements HttpServlet {
 
+  private ServletExecutor executor;
+
   @Override
   public boolean needsTlsSessionInfo() {
     return false;
   }
 
+  @Override
+  public ServletExecutor getExecutor() {
+    return executor;
+  }
+
+  public void setExecutor(ServletExecutor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public FullHttpResponse createOverloadResponse(HttpVersion version) {
+    return createErrorResponse(version, HttpResponseStatus.SERVICE_UNAVAILABLE);
+  }
+
   protected static byte[] readContent(FullHttpRequest request) {
     ByteBuf buf = request.content();
     if (buf == null) {
@@ -60,15 +76,39 @@ public abstract class AbstractHttpServlet implements HttpServlet {
     return createResponse(version, HttpResponseStatus.OK, contentType, content);
   }
 
+  // CHECKSTYLE:SKIP
+  protected static FullHttpResponse createOKResponse(HttpVersion version, String contentType,
+      ByteBuf content) {
+    return createResponse(version, HttpResponseStatus.OK, contentType, content);
+  }
+
   protected static FullHttpResponse createResponse(HttpVersion version,
       HttpResponseStatus status, String contentType, byte[] content) {
+    ByteBuf buf = (content == null || content.length == 0) ? null
+        : Unpooled.wrappedBuffer(content);
+    return createResponse(version, status, contentType, buf);
+  }
+
+  /**
+   * Creates the response.
+   * @param version
+   *          HTTP version.
+   * @param status
+   *          HTTP status.
+   * @param contentType
+   *          Content type. Could be {@code null}.
+   * @param content
+   *          Content of the response. Could be {@code null}. It will be released after it is
+   *          written, wrap the shared buffers with {@link Unpooled#wrappedBuffer}.
+   * @return the response.
+   */
+  protected static FullHttpResponse createResponse(HttpVersion version,
+      HttpResponseStatus status, String contentType, ByteBuf content) {
     FullHttpResponse resp;
-    ByteBuf buf = null;
-    int contentLen = (content == null) ? 0 : content.length;
+    int contentLen = (content == null) ? 0 : content.readableBytes();
 
     if (contentLen != 0) {
-      buf = Unpooled.wrappedBuffer(content);
-      resp = new DefaultFullHttpResponse(version, status, buf);
+      resp = new DefaultFullHttpResponse(version, status, content);
     } else {
       resp = new DefaultFullHttpResponse(version, status);
     }
@@ -21,6 +21,7 @@ import javax.net.ssl.SSLSession;
 
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
 
 /**
  * TODO.
@@ -49,4 +50,19 @@ public interface HttpServlet {
   FullHttpResponse service(FullHttpRequest request, ServletURI servletUri,
       SSLSession sslSession, SslReverseProxyMode sslReverseProxyMode) throws Exception;
 
+  /**
+   * Returns the executor in which the method {@link #service} will be called.
+   * @return the executor. {@code null} if {@link #service} is called in the I/O thread.
+   */
+  ServletExecutor getExecutor();
+
+  /**
+   * Creates the response which will be sent if the request could not be accepted by the
+   * executor because of overload.
+   * @param version
+   *          The HTTP version of the request. Must not be {@code null}.
+   * @return the HTTP response
+   */
+  FullHttpResponse createOverloadResponse(HttpVersion version);
+
 }
@@ -0,0 +1,139 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.http.servlet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of worker threads in which the {@link HttpServlet#service} is called,
+ * so that blocking operations do not block the I/O threads of the HTTP server.
+ *
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+public class ServletExecutor {
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+
+    private final AtomicInteger index = new AtomicInteger(0);
+
+    WorkerThreadFactory(String name) {
+      this.namePrefix = name + "-worker-";
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, namePrefix + index.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  } // class WorkerThreadFactory
+
+  private final String name;
+
+  private final int threads;
+
+  private final int queueSize;
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Constructor.
+   * @param name
+   *          Name of this executor, used as prefix of the thread names.
+   * @param threads
+   *          Number of worker threads. Must be greater than 0.
+   * @param queueSize
+   *          Maximal number of tasks waiting for a free worker thread. Must be greater than 0.
+   */
+  public ServletExecutor(String name, int threads, int queueSize) {
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("name must not be blank");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must not be less than 1: " + threads);
+    }
+    if (queueSize < 1) {
+      throw new IllegalArgumentException("queueSize must not be less than 1: " + queueSize);
+    }
+
+    this.name = name;
+    this.threads = threads;
+    this.queueSize = queueSize;
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new WorkerThreadFactory(name),
+        new ThreadPoolExecutor.AbortPolicy());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * Returns the number of tasks waiting for a free worker thread.
+   * @return the number of waiting tasks.
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Executes the task in one of the worker threads.
+   * @param task
+   *          The task to be executed. Must not be {@code null}.
+   * @return whether the task is accepted. {@code false} if the queue is full or this executor
+   *         has been shut down.
+   */
+  public boolean execute(Runnable task) {
+    try {
+      executor.execute(task);
+      return true;
+    } catch (RejectedExecutionException ex) {
+      return false;
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "ServletExecutor[name=" + name + ",threads=" + threads + ",queueSize=" + queueSize
+        + "]";
+  }
+
+}
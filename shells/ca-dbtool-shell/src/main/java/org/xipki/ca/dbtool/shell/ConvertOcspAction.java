@@ -0,0 +1,63 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.dbtool.shell;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Completion;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.completers.FileCompleter;
+import org.xipki.ca.dbtool.port.BinaryConvertWorker;
+import org.xipki.ca.dbtool.port.DbPortWorker;
+
+/**
+ * TODO.
+ * @author Lijun Liao
+ * @since 4.0.1
+ */
+
+@Command(scope = "ca", name = "convert-ocsp",
+    description = "convert the Base64 encoded columns of the OCSP database to binary")
+@Service
+public class ConvertOcspAction extends DbPortAction {
+
+  private static final String DFLT_DBCONF_FILE = "xipki/ca-config/ocsp-db.properties";
+
+  @Option(name = "--db-conf", description = "database configuration file")
+  @Completion(FileCompleter.class)
+  private String dbconfFile = DFLT_DBCONF_FILE;
+
+  @Option(name = "-k", description = "number of rows per commit")
+  private Integer numRowsPerCommit = 100;
+
+  @Option(name = "--switch",
+      description = "replace the Base64 encoded columns by the binary ones,\n"
+          + "the OCSP server and the CA must be stopped before and restarted after")
+  private Boolean switchColumns = Boolean.FALSE;
+
+  @Option(name = "--benchmark",
+      description = "compare the time to read the Base64 encoded and the binary columns")
+  private Boolean benchmark = Boolean.FALSE;
+
+  @Override
+  protected DbPortWorker getDbPortWorker() throws Exception {
+    return new BinaryConvertWorker(datasourceFactory, passwordResolver, dbconfFile,
+        BinaryConvertWorker.OCSP_COLUMNS, numRowsPerCommit.intValue(), switchColumns, benchmark);
+  }
+
+}
@@ -52,13 +52,17 @@ public class ExportCaAction extends DbPortAction {
   @Option(name = "-k", description = "number of certificates per SELECT")
   private Integer numCertsPerCommit = 100;
 
+  @Option(name = "--threads", description = "number of threads to export the entries,\n"
+      + "each thread uses its own database connection")
+  private Integer numThreads = 1;
+
   @Option(name = "--resume", description = "resume from the last successful point")
   private Boolean resume = Boolean.FALSE;
 
   @Override
   protected DbPortWorker getDbPortWorker() throws Exception {
     return new CaDbExportWorker(datasourceFactory, passwordResolver, dbconfFile, outdir, resume,
-        numCertsInBundle, numCertsPerCommit);
+        numCertsInBundle, numCertsPerCommit, numThreads);
   }
 
 }
@@ -49,13 +49,17 @@ public class ImportCaAction extends DbPortAction {
   @Option(name = "-k", description = "number of certificates per commit")
   private Integer numCertsPerCommit = 100;
 
+  @Option(name = "--threads", description = "number of threads to import the entries,\n"
+      + "each thread uses its own database connection")
+  private Integer numThreads = 1;
+
   @Option(name = "--resume", description = "resume from the last successful point")
   private Boolean resume = Boolean.FALSE;
 
   @Override
   protected DbPortWorker getDbPortWorker() throws Exception {
     return new CaDbImportWorker(datasourceFactory, passwordResolver, dbconfFile, resume, indir,
-        numCertsPerCommit.intValue());
+        numCertsPerCommit.intValue(), numThreads.intValue());
   }
 
 }
@@ -23,6 +23,7 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * TODO.
@@ -38,6 +39,10 @@ public class DateUtil {
 
   private static final DateTimeFormatter SDF2 = DateTimeFormatter.ofPattern("yyyyMMdd");
 
+  // IMF-fixdate, RFC_1123_DATE_TIME does not pad the day to two digits
+  private static final DateTimeFormatter SDF_HTTP =
+      DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
   private DateUtil() {
   }
 
@@ -93,4 +98,35 @@ public class DateUtil {
     return SDF2.format(utcTime.toInstant().atZone(ZONE_UTC));
   }
 
+  /**
+   * Formats the date as specified for the HTTP headers (RFC 7231 7.1.1.1).
+   * @param date
+   *          Date to be formatted. Must not be {@code null}.
+   * @return the formatted date, e.g. "Sun, 06 Nov 1994 08:49:37 GMT".
+   * @since 4.0.1
+   */
+  public static String toHttpDate(Date date) {
+    return SDF_HTTP.format(date.toInstant().atZone(ZONE_UTC));
+  }
+
+  /**
+   * Parses the date in the HTTP header.
+   * @param httpDate
+   *          Date in the format of RFC 7231 7.1.1.1. Could be {@code null}.
+   * @return the parsed date, or {@code null} if the text is {@code null} or invalid.
+   * @since 4.0.1
+   */
+  public static Date parseHttpDate(String httpDate) {
+    if (StringUtil.isBlank(httpDate)) {
+      return null;
+    }
+
+    try {
+      return Date.from(Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(httpDate)));
+    } catch (DateTimeParseException ex) {
+      // an invalid date must be ignored (RFC 7232 3.3)
+      return null;
+    }
+  }
+
 }
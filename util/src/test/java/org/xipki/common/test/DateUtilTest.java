@@ -39,4 +39,31 @@ public class DateUtilTest {
 
     Assert.assertEquals("DateTime parsing", expTimeMs, utcDate.getTime() / 1000);
   }
+
+  @Test
+  public void testHttpDate() {
+    Date date = new Date(1424699099000L);
+    String httpDate = DateUtil.toHttpDate(date);
+    Assert.assertEquals("HTTP date formatting", "Mon, 23 Feb 2015 13:44:59 GMT", httpDate);
+    Assert.assertEquals("HTTP date parsing", date, DateUtil.parseHttpDate(httpDate));
+
+    // day of month with one digit
+    Assert.assertEquals("HTTP date parsing", new Date(1425474000000L),
+        DateUtil.parseHttpDate("Wed, 4 Mar 2015 13:00:00 GMT"));
+
+    // the milliseconds are not contained
+    Date dateWithMs = new Date(1424699099123L);
+    Assert.assertEquals("HTTP date round-trip", date,
+        DateUtil.parseHttpDate(DateUtil.toHttpDate(dateWithMs)));
+  }
+
+  @Test
+  public void testInvalidHttpDate() {
+    Assert.assertNull("null", DateUtil.parseHttpDate(null));
+    Assert.assertNull("blank", DateUtil.parseHttpDate(" "));
+    Assert.assertNull("invalid", DateUtil.parseHttpDate("invalid"));
+    // the obsolete formats are not supported
+    Assert.assertNull("RFC 850", DateUtil.parseHttpDate("Monday, 23-Feb-15 13:44:59 GMT"));
+    Assert.assertNull("asctime", DateUtil.parseHttpDate("Mon Feb 23 13:44:59 2015"));
+  }
 }